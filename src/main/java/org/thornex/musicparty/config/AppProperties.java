@@ -23,6 +23,7 @@ public class AppProperties {
     private AuthConfig auth = new AuthConfig();
     private StreamConfig stream = new StreamConfig();
     private PrivateDjConfig privateDj = new PrivateDjConfig();
+    private SearchCacheConfig searchCache = new SearchCacheConfig();
 
     /** 私人电台/私人DJ 模块配置（仅运行时生效） */
     @Data
@@ -61,6 +62,40 @@ public class AppProperties {
     @Data
     public static class CacheConfig {
         private org.springframework.util.unit.DataSize maxSize = org.springframework.util.unit.DataSize.ofGigabytes(1);
+        /** 缓存清单文件（JSON Lines），启动时回放重建索引；放在 data 目录，避免经 /media 暴露 */
+        private String manifestFile = "data/cache-manifest.jsonl";
+        /** 清单压缩（整体重写、落盘访问时间）的检查间隔（毫秒） */
+        private long manifestCompactIntervalMs = 60000;
+        /** 热点内存层（mmap 预读）字节上限，装不下的歌曲继续走磁盘 */
+        private org.springframework.util.unit.DataSize hotTierMaxSize = org.springframework.util.unit.DataSize.ofMegabytes(64);
+        /** 热点内存层容纳的歌曲数：当前歌曲 + 接下来 N-1 首 */
+        private int hotTierTracks = 3;
+        /** 启动后是否自动预热缓存（恢复的队列 → 播放历史 → 收藏歌单） */
+        private boolean warmingEnabled = true;
+        /** 预热平均下载速率上限（每秒），与点播下载错峰，不抢带宽 */
+        private org.springframework.util.unit.DataSize warmingMaxRate = org.springframework.util.unit.DataSize.ofMegabytes(1);
+        /** 预热占用的磁盘预算：缓存总量达到 max-size 的该比例后停止，预热本身不触发淘汰 */
+        private double warmingDiskRatio = 0.8;
+        /** 额外预热的收藏歌单，格式 platform:playlistId（管理员接口可覆盖） */
+        private java.util.List<String> warmingPlaylists = new java.util.ArrayList<>();
+        /** 每个收藏歌单最多预热的歌曲数 */
+        private int warmingPlaylistLimit = 50;
+        /** 下载进度事件的最小发布间隔（毫秒，每首歌独立节流） */
+        private long progressIntervalMs = 500;
+        /** /media 低码率副本的可选码率（kbps，AAC）：按需生成，与原文件共用容量与淘汰策略；为空则关闭 */
+        private java.util.List<Integer> renditionBitrates = new java.util.ArrayList<>(java.util.List.of(64, 96));
+    }
+
+    /** 歌曲搜索结果缓存 */
+    @Data
+    public static class SearchCacheConfig {
+        private boolean enabled = true;
+        /** 结果有效期（毫秒），期内直接命中不请求上游 */
+        private long ttlMs = 300000;
+        /** 上游出错时仍可返回的旧结果最大年龄（毫秒），超过后条目被丢弃 */
+        private long maxStaleMs = 3600000;
+        /** 最多缓存的 (平台, 关键词, 页码) 条目数，超出淘汰最久未访问的 */
+        private int maxEntries = 1000;
     }
 
     @Data
@@ -83,14 +118,111 @@ public class AppProperties {
     public static class StreamConfig {
         /** 最大同时连接的收听者数量（按连接数，非唯一 IP） */
         private int maxClients = 100;
-        /** 每个收听者的缓冲队列容量（块数），chunkSizeBytes * bufferChunks ≈ 缓冲时长 */
+        /** 每个收听者的缓冲队列容量（块数），chunkDurationMs * bufferChunks ≈ 缓冲时长 */
         private int bufferChunks = 32;
-        /** ffmpeg 输出的分块大小（字节），默认 16KB */
+        /** 每块编码输出的字节上限（环形缓冲槽位大小），默认 16KB */
         private int chunkSizeBytes = 16384;
+        /** 每块编码输出的目标时长（毫秒）：编码输出按 MP3/ADTS 帧边界组块，累计到该时长即发布 */
+        private long chunkDurationMs = 1000;
+        /** 新收听者首连时预填的最近音频时长（毫秒），按块的精确时长累计 */
+        private long burstOnConnectMs = 8000;
         /** seek 判定阈值（毫秒）：与实时进度的漂移超过该值才重启转码 */
         private long seekThresholdMs = 3000;
-        /** ResponseBodyEmitter 超时（毫秒），默认 24h。Tomcat 默认 async 超时仅 30s，必须显式设大 */
+        /** 收听连接的异步超时（毫秒），默认 24h。Tomcat 默认 async 超时仅 30s，必须显式设大 */
         private long emitterTimeoutMs = 24 * 60 * 60 * 1000L;
+        /** 非阻塞写出的写线程数，0 表示按 CPU 核数；线程数与连接数无关 */
+        private int writerThreads = 0;
+        /** 连接持续不可写超过该时长（毫秒）视为写阻塞，主动断开 */
+        private long writeStallTimeoutMs = 30000;
+        /** 同一次解码并行编码的输出档位，收听者以 /radio/stream?quality=档位名 选择 */
+        private java.util.List<RenditionConfig> renditions = new java.util.ArrayList<>(java.util.List.of(
+                new RenditionConfig("128", "mp3", 128),
+                new RenditionConfig("64", "mp3", 64),
+                new RenditionConfig("192", "mp3", 192)));
+        /** 未指定或指定了未知档位时使用的档位名 */
+        private String defaultRendition = "128";
+        /** 可选的 HLS 输出：分段可被反向代理/CDN 缓存，收听人数不再受长连接数限制 */
+        private HlsConfig hls = new HlsConfig();
+        /** 可选的时移（DVR）：各档位最近若干分钟的输出存于内存映射文件，收听者可从过去某一时刻开始收听 */
+        private DvrConfig dvr = new DvrConfig();
+        /** 可选的低延迟 WebSocket 端点 /radio/ws：按帧切分、带时间戳的二进制消息，供 MediaSource 客户端使用 */
+        private StreamWebSocketConfig websocket = new StreamWebSocketConfig();
+        /** 预滚动：顺序播放时在当前歌曲结束前提前启动下一首（需已缓存到本地）的解码器，切歌无静音空窗 */
+        private boolean prerollEnabled = true;
+        /** 预滚动提前量（毫秒） */
+        private long prerollLeadMs = 5000;
+        /** 切歌交叉淡化时长（毫秒），0 为不淡化（预滚动时采样级直接衔接） */
+        private int crossfadeMs = 0;
+        /** 已解码 PCM 缓存的字节预算（MB，约 10MB/分钟）：seek / 重播落在已缓存区间内时无需重新启动 ffmpeg。0 为关闭 */
+        private int pcmCacheMb = 128;
+        /** 无任何收听者持续该时长（毫秒）后休眠：停止编码器与解码器，下一个收听者到来时热启动。0 为不休眠（常驻） */
+        private long idleHibernateMs = 300000;
+        /** 热启动提前量（毫秒）：唤醒时从实时位置之前这么多开始解码并立即编码输出，首个收听者无需等待实时积累 */
+        private long warmStartMs = 3000;
+        /** 中继：本实例从另一实例的 /radio/stream 拉流转发（不运行 ffmpeg），或作为源节点接受中继连接 */
+        private RelayConfig relay = new RelayConfig();
+    }
+
+    @Data
+    public static class RelayConfig {
+        /** 上游实例地址（如 http://origin:8080）。非空即以中继模式运行：不解码/编码，各档位转发上游同名档位 */
+        private String upstreamUrl = "";
+        /**
+         * 中继密钥。源节点：持有该密钥的连接视为中继（不受令牌过期与连接数上限限制），为空时不接受中继；
+         * 中继节点：以该密钥连接上游，并向上游核验收听者的令牌
+         */
+        private String key = "";
+        /** 上游断开后的重连间隔（毫秒） */
+        private long reconnectDelayMs = 2000;
+        /** 上游持续该时长（毫秒）无数据即视为断开并重连 */
+        private long readTimeoutMs = 10000;
+
+        public boolean isEnabled() {
+            return upstreamUrl != null && !upstreamUrl.isBlank();
+        }
+    }
+
+    @Data
+    public static class HlsConfig {
+        private boolean enabled = false;
+        /** 每个分段的时长（秒） */
+        private int segmentSeconds = 4;
+        /** 播放列表中列出的分段数（内存中另多保留同样数量供稍旧的播放列表取用） */
+        private int playlistSegments = 6;
+        /** HLS 收听者在该时长（毫秒）内未再拉取播放列表即视为离开 */
+        private long listenerTtlMs = 30000;
+    }
+
+    @Data
+    public static class StreamWebSocketConfig {
+        private boolean enabled = false;
+        /**
+         * 首连预填时长（毫秒）。远小于 HTTP 的 burstOnConnectMs：客户端从接近实时处开始，
+         * 端到端延迟约为预填 + 一块的时长，低延迟部署应同时调小 chunkDurationMs（如 200）
+         */
+        private long burstOnConnectMs = 1000;
+    }
+
+    @Data
+    public static class DvrConfig {
+        private boolean enabled = false;
+        /** 每个档位保留的时长（分钟）；文件大小 = 码率 × 时长，与收听人数无关 */
+        private int minutes = 30;
+        /** 映射文件所在目录，每个档位一个 {档位名}.dvr 文件 */
+        private String directory = "data/dvr";
+    }
+
+    /**
+     * 直播流输出档位。codec 支持 mp3（audio/mpeg）与 aac（ADTS，audio/aac）：
+     * 两者都是自同步的帧流，中途接入的收听者无需额外的容器头即可解码。
+     */
+    @Data
+    @lombok.NoArgsConstructor
+    @lombok.AllArgsConstructor
+    public static class RenditionConfig {
+        private String name;
+        private String codec = "mp3";
+        private int bitrateKbps = 128;
     }
 
     @EqualsAndHashCode(callSuper = true)
@@ -114,5 +246,10 @@ public class AppProperties {
         private String cookie;
         private String quality = "exhigh"; // 默认音质：极高 (exhigh)
         private boolean enabled = true;
+        /**
+         * 本地音频缓存（默认关闭）：开启后网易云歌曲播放时后台下载到 cached_media，
+         * 与 B站共用同一容量上限、淘汰策略与清单；重复播放与直播转码直接读本地文件。
+         */
+        private boolean localCacheEnabled = false;
     }
 }
\ No newline at end of file
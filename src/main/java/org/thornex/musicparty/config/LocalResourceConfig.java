@@ -1,28 +1,11 @@
 package org.thornex.musicparty.config;
 
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
-import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
-
-import java.io.File;
 
 @Configuration
-public class LocalResourceConfig implements WebMvcConfigurer {
+public class LocalResourceConfig {
 
     // 存储目录
+    // /media/** 由 MediaController 提供（sendfile + Range + ETag），不再注册通用静态资源处理器
     public static final String CACHE_DIR = "cached_media";
-
-    @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // 创建目录（如果不存在）
-        File dir = new File(CACHE_DIR);
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
-
-        // 将 /media/** 映射到本地文件系统
-        // file:cached_media/
-        registry.addResourceHandler("/media/**")
-                .addResourceLocations(dir.toURI().toString());
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package org.thornex.musicparty.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.thornex.musicparty.controller.StreamWebSocketHandler;
+
+/**
+ * 电台的原生 WebSocket 端点（与 STOMP 的 /ws 相互独立），仅在 stream.websocket.enabled 开启时注册。
+ */
+@Configuration
+@EnableWebSocket
+public class StreamWebSocketConfig implements WebSocketConfigurer {
+
+    private final StreamWebSocketHandler streamWebSocketHandler;
+    private final AppProperties appProperties;
+
+    public StreamWebSocketConfig(StreamWebSocketHandler streamWebSocketHandler, AppProperties appProperties) {
+        this.streamWebSocketHandler = streamWebSocketHandler;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        if (appProperties.getStream().getWebsocket().isEnabled()) {
+            registry.addHandler(streamWebSocketHandler, "/radio/ws")
+                    .setAllowedOriginPatterns("*");
+        }
+    }
+}
@@ -6,12 +6,16 @@ import org.springframework.web.bind.annotation.*;
 import org.thornex.musicparty.config.AppProperties;
 import org.thornex.musicparty.dto.AdminPrivateDjUpdateRequest;
 import org.thornex.musicparty.dto.*;
+import org.thornex.musicparty.service.CacheWarmingService;
 import org.thornex.musicparty.service.ChatService;
+import org.thornex.musicparty.service.LocalCacheService;
 import org.thornex.musicparty.service.MusicPlayerService;
 import org.thornex.musicparty.service.PrivateDjService;
 import org.thornex.musicparty.service.api.BilibiliMusicApiService;
 import org.thornex.musicparty.service.api.NeteaseMusicApiService;
+import org.thornex.musicparty.service.api.SearchResultCache;
 import org.thornex.musicparty.service.stream.LiveStreamService;
+import org.thornex.musicparty.service.stream.StreamRelayService;
 
 import java.util.Map;
 import java.util.Set;
@@ -29,8 +33,12 @@ public class AdminController {
     private final BilibiliMusicApiService bilibiliMusicApiService;
     private final LiveStreamService liveStreamService;
     private final PrivateDjService privateDjService;
+    private final LocalCacheService localCacheService;
+    private final CacheWarmingService cacheWarmingService;
+    private final StreamRelayService streamRelayService;
+    private final SearchResultCache searchResultCache;
 
-    public AdminController(MusicPlayerService musicPlayerService, ChatService chatService, AppProperties appProperties, AuthController authController, NeteaseMusicApiService neteaseMusicApiService, BilibiliMusicApiService bilibiliMusicApiService, LiveStreamService liveStreamService, PrivateDjService privateDjService) {
+    public AdminController(MusicPlayerService musicPlayerService, ChatService chatService, AppProperties appProperties, AuthController authController, NeteaseMusicApiService neteaseMusicApiService, BilibiliMusicApiService bilibiliMusicApiService, LiveStreamService liveStreamService, PrivateDjService privateDjService, LocalCacheService localCacheService, CacheWarmingService cacheWarmingService, StreamRelayService streamRelayService, SearchResultCache searchResultCache) {
         this.musicPlayerService = musicPlayerService;
         this.chatService = chatService;
         this.adminPassword = appProperties.getAdminPassword();
@@ -40,6 +48,10 @@ public class AdminController {
         this.bilibiliMusicApiService = bilibiliMusicApiService;
         this.liveStreamService = liveStreamService;
         this.privateDjService = privateDjService;
+        this.localCacheService = localCacheService;
+        this.cacheWarmingService = cacheWarmingService;
+        this.streamRelayService = streamRelayService;
+        this.searchResultCache = searchResultCache;
     }
 
     private boolean isValid(String password) {
@@ -168,6 +180,20 @@ public class AdminController {
         return ResponseEntity.ok(Map.of("message", request.enabled() ? "直播流同步服务已启动" : "直播流同步服务已停止"));
     }
 
+    @GetMapping("/stream/metrics")
+    public ResponseEntity<?> getStreamMetrics(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(liveStreamService.getMetrics());
+    }
+
+    @GetMapping("/stream/relay")
+    public ResponseEntity<?> getStreamRelay(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(streamRelayService.getStats());
+    }
+
     @PostMapping("/config/update")
     public ResponseEntity<?> updateConfig(@RequestHeader("X-Admin-Password") String password, @RequestBody AdminConfigUpdateRequest request) {
         if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
@@ -203,6 +229,55 @@ public class AdminController {
         return ResponseEntity.ok(Map.of("message", "私人电台/私人DJ 配置已更新"));
     }
 
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> getCacheStats(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(localCacheService.getStats());
+    }
+
+    @GetMapping("/cache/served")
+    public ResponseEntity<?> getCacheBytesServed(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(localCacheService.getBytesServedByFile());
+    }
+
+    @GetMapping("/search-cache")
+    public ResponseEntity<?> getSearchCacheStats(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(searchResultCache.getStats());
+    }
+
+    @GetMapping("/cache/warming")
+    public ResponseEntity<?> getCacheWarming(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        return ResponseEntity.ok(cacheWarmingService.getProgress());
+    }
+
+    @PostMapping("/cache/warming")
+    public ResponseEntity<?> startCacheWarming(@RequestHeader("X-Admin-Password") String password, @RequestBody(required = false) AdminCacheWarmRequest request) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        if (request != null && request.playlists() != null) {
+            appProperties.getCache().setWarmingPlaylists(request.playlists());
+        }
+        if (!cacheWarmingService.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", "缓存预热正在进行中"));
+        }
+        return ResponseEntity.ok(Map.of("message", "缓存预热已开始"));
+    }
+
+    @DeleteMapping("/cache/warming")
+    public ResponseEntity<?> stopCacheWarming(@RequestHeader("X-Admin-Password") String password) {
+        if (!isValid(password)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+        cacheWarmingService.stop();
+        return ResponseEntity.ok(Map.of("message", "缓存预热已停止"));
+    }
+
     // Keep compatibility for now or remove if sure
     @Deprecated
     @PostMapping("/command")
@@ -7,6 +7,7 @@ import org.thornex.musicparty.dto.Playlist;
 import org.thornex.musicparty.dto.UserSearchResult;
 import org.thornex.musicparty.exception.ApiRequestException;
 import org.thornex.musicparty.service.api.IMusicApiService;
+import org.thornex.musicparty.service.api.SearchResultCache;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
@@ -19,11 +20,13 @@ public class ApiController {
 
     private final Map<String, IMusicApiService> apiServiceMap;
     private final AppProperties appProperties;
+    private final SearchResultCache searchResultCache;
 
-    public ApiController(List<IMusicApiService> apiServices, AppProperties appProperties) {
+    public ApiController(List<IMusicApiService> apiServices, AppProperties appProperties, SearchResultCache searchResultCache) {
         this.apiServiceMap = apiServices.stream()
                 .collect(Collectors.toMap(IMusicApiService::getPlatformName, Function.identity()));
         this.appProperties = appProperties;
+        this.searchResultCache = searchResultCache;
     }
 
     @GetMapping("/config")
@@ -51,7 +54,9 @@ public class ApiController {
 
     @GetMapping("/search/{platform}/{keyword}")
     public Mono<List<Music>> searchMusic(@PathVariable String platform, @PathVariable String keyword) {
-        return getService(platform).searchMusic(keyword);
+        IMusicApiService service = getService(platform);
+        // 各平台搜索目前只取第一页
+        return searchResultCache.search(platform, keyword, 1, () -> service.searchMusic(keyword));
     }
 
     @GetMapping("/user/playlists/{platform}/{userId}")
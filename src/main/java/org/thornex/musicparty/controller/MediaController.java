@@ -0,0 +1,267 @@
+package org.thornex.musicparty.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.thornex.musicparty.service.LocalCacheService;
+import org.thornex.musicparty.service.cache.HotMediaTier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 本地缓存媒体（{@code cached_media}）的专用下载端点，替代通用的 ResourceHttpRequestHandler。
+ * <p>
+ * 60 个客户端同时开始播放同一首缓存歌曲时，通用处理器会让每个请求都经过堆缓冲逐块拷贝。这里：
+ * <ul>
+ *   <li>Tomcat 支持 sendfile 时把文件与区间交给容器，由内核零拷贝发送；否则用 {@link FileChannel#transferTo}；</li>
+ *   <li>支持单区间 Range / If-Range，{@code <audio>} 的探测与 seek 请求只发送所需字节；</li>
+ *   <li>强 ETag（内容校验和 + 大小）+ If-None-Match / If-Modified-Since，重复加载直接 304；</li>
+ *   <li>带内容版本（{@code ?v=}，见 {@link LocalCacheService#mediaUrl}）的请求设置长期缓存头，让浏览器和反向代理分担流量；
+ *       同名文件的内容会随重新下载变化，不带版本或版本已过时的请求只允许缓存后按 ETag 再验证；</li>
+ *   <li>无 sendfile 时，热点内存层（当前 + 接下来几首）中的文件直接从映射区写出；</li>
+ *   <li>移动端省流量：{@code ?rendition=64|96|low} 或 {@code Save-Data: on} 时协商低码率副本。</li>
+ * </ul>
+ * 码率协商用 302 跳转到具体文件（副本 {@code <id>@r64.m4a} 或 {@code ?rendition=original} 的原文件），
+ * 而不是在同一 URL 下直接返回不同内容：副本在播放途中生成完毕时，{@code <audio>} 后续的 Range 请求
+ * 仍落在跳转后的同一文件上，不会拼接出两个文件的字节。跳转本身 {@code no-store}，副本就绪后下次加载即切换。
+ * 只服务索引中已完成的条目：下载中的临时文件、未知文件一律 404。
+ */
+@RestController
+@RequiredArgsConstructor
+@Slf4j
+public class MediaController {
+
+    /** Tomcat sendfile 协作属性（NIO/NIO2 连接器默认开启 sendfile） */
+    static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private static final String VERSIONED_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE_CACHE_CONTROL = "public, no-cache";
+    static final String RENDITION_PARAM = "rendition";
+    static final String SAVE_DATA_HEADER = "Save-Data";
+
+    private final LocalCacheService localCacheService;
+
+    @RequestMapping(value = "/media/{fileName:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void serveMedia(@PathVariable String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        LocalCacheService.CacheEntry entry = localCacheService.findCompletedByFileName(fileName);
+        Path path = entry != null ? localCacheService.resolveCachedFile(entry) : null;
+        if (path == null || !Files.isRegularFile(path)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        if (!LocalCacheService.isRendition(entry.getId())) {
+            response.setHeader(HttpHeaders.VARY, SAVE_DATA_HEADER);
+            String requested = request.getParameter(RENDITION_PARAM);
+            if (!LocalCacheService.ORIGINAL_RENDITION.equalsIgnoreCase(requested)) {
+                int kbps = localCacheService.selectRendition(requested,
+                        "on".equalsIgnoreCase(request.getHeader(SAVE_DATA_HEADER)));
+                if (kbps > 0) {
+                    redirectToRendition(entry, kbps, response);
+                    return;
+                }
+            }
+        }
+
+        long length = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        String etag = buildETag(entry, length, lastModified);
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        boolean versioned = LocalCacheService.mediaVersion(entry).equals(request.getParameter(LocalCacheService.VERSION_PARAM));
+        response.setHeader(HttpHeaders.CACHE_CONTROL, versioned ? VERSIONED_CACHE_CONTROL : REVALIDATE_CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(MediaTypeFactory.getMediaType(fileName)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        long start = 0;
+        long end = length - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+            long[] range = parseRange(rangeHeader, length);
+            if (range == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            if (range.length == 2) {
+                start = range[0];
+                end = range[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // 交给 Tomcat：请求处理完成后由连接器用 sendfile 发送，数据不进入 JVM 堆
+            // （热点层中的文件页已驻留，sendfile 直接命中页缓存）
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+        } else {
+            HotMediaTier.HotFile hot = localCacheService.getHotFile(entry.getId());
+            if (hot != null && hot.size() == length) {
+                writeFromMemory(hot.buffer(), start, count, response);
+            } else {
+                transfer(path, start, count, response);
+            }
+        }
+        localCacheService.recordBytesServed(entry.getId(), count);
+    }
+
+    /** 副本已就绪时跳转到副本文件；尚未生成（已在后台排队）时跳转到原文件。 */
+    private void redirectToRendition(LocalCacheService.CacheEntry entry, int kbps, HttpServletResponse response) {
+        LocalCacheService.CacheEntry rendition = localCacheService.findRendition(entry, kbps);
+        String location = rendition != null
+                ? LocalCacheService.mediaUrl(rendition)
+                : LocalCacheService.mediaUrl(entry) + "&" + RENDITION_PARAM + "=" + LocalCacheService.ORIGINAL_RENDITION;
+        response.setStatus(HttpServletResponse.SC_FOUND);
+        response.setHeader(HttpHeaders.LOCATION, location);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+    }
+
+    /** 从热点内存层的映射区直接写出，无需再次打开文件。 */
+    private static void writeFromMemory(ByteBuffer buffer, long start, long count, HttpServletResponse response) throws IOException {
+        buffer.position((int) start).limit((int) (start + count));
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void transfer(Path path, long start, long count, HttpServletResponse response) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /** 强 ETag：优先用下载时记录的内容校验和，旧版本遗留文件退化为 大小+修改时间。 */
+    static String buildETag(LocalCacheService.CacheEntry entry, long length, long lastModified) {
+        if (entry.getChecksum() != null) {
+            return "\"" + entry.getChecksum() + "-" + Long.toHexString(length) + "\"";
+        }
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = parseDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /** If-Range 不匹配时忽略 Range，返回完整内容（RFC 9110 §13.1.5）。 */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        long date = parseDateHeader(request, HttpHeaders.IF_RANGE);
+        return date != -1 && lastModified / 1000 == date / 1000;
+    }
+
+    private static boolean matchesETag(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析单区间 Range 头。
+     *
+     * @return {@code [start, end]}（含两端）；多区间或非 bytes 单位返回空数组（按完整内容响应）；
+     * 区间不可满足返回 null（416）
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 后缀区间：最后 N 字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package org.thornex.musicparty.controller;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.service.stream.HlsSegmenter;
 import org.thornex.musicparty.service.stream.LiveStreamService;
-import org.thornex.musicparty.service.stream.ResponseBodyEmitterStreamSink;
+import org.thornex.musicparty.service.stream.ServletStreamSink;
 import org.thornex.musicparty.service.stream.StreamClient;
+import org.thornex.musicparty.service.stream.StreamRendition;
 import org.thornex.musicparty.service.stream.StreamTokenService;
 
+import java.io.IOException;
+
 @RestController
 @RequestMapping("/radio")
 @RequiredArgsConstructor
@@ -26,16 +38,22 @@ public class StreamController {
     private final AppProperties appProperties;
 
     @GetMapping(value = "/stream", produces = "audio/mpeg")
-    public ResponseBodyEmitter streamAudio(HttpServletRequest request, HttpServletResponse response,
-                                           @RequestParam(name = "key", required = false) String key) {
+    public void streamAudio(HttpServletRequest request, HttpServletResponse response,
+                            @RequestHeader(name = StreamTokenService.RELAY_KEY_HEADER, required = false) String relayKey,
+                            @RequestParam(name = "key", required = false) String key,
+                            @RequestParam(name = "quality", required = false) String quality,
+                            @RequestParam(name = "offset", required = false) Long offsetSeconds,
+                            @RequestParam(name = "at", required = false) Long atEpochMs) throws IOException {
         if (!liveStreamService.isEnabled()) {
             response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-            return null;
+            return;
         }
 
-        if (!streamTokenService.validateToken(key)) {
+        // 中继节点以请求头携带中继密钥（兼容旧版中继放在 key 里的做法）
+        boolean relay = streamTokenService.isRelayKey(relayKey) || streamTokenService.isRelayKey(key);
+        if (!relay && !streamTokenService.validateToken(key)) {
             response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-            return null;
+            return;
         }
 
         // 伪直播，不应该被缓存
@@ -43,10 +61,12 @@ public class StreamController {
         response.setHeader("Pragma", "no-cache");
         response.setHeader("Expires", "0");
 
-        // 显式设置 Content-Type：produces 注解在 ResponseBodyEmitter 异步路径下不会可靠写出该头。
+        // 显式设置 Content-Type：produces 注解在直接写响应的异步路径下不会可靠写出该头。
         // 浏览器/VLC 会嗅探内容自动识别音频，但 VRC 等严格播放器依赖 audio/mpeg 头识别音频流，
         // 缺失会导致其直接拒绝播放（"无法加载音频"）。
-        response.setContentType("audio/mpeg");
+        // quality 选择输出档位（如 64 / 128 / 192），未指定或未知时使用默认档位
+        StreamRendition rendition = liveStreamService.resolveRendition(quality);
+        response.setContentType(rendition.getContentType());
 
         // 根因（2026-08-02 实测）：反向代理（nginx/openresty）默认 proxy_buffering on，
         // 会把 app 稳定送出的 ~16KB/s 音频缓冲成 64KB/4s 大块才转给客户端 → VRC 看到 4s 数据空洞
@@ -56,24 +76,123 @@ public class StreamController {
 
         String remoteAddr = getClientIp(request);
 
+        // 进入 Servlet 异步 + 非阻塞输出：连接不占用请求线程，由固定的写线程组在可写时推进。
         // 显式长超时（默认 24h）：Tomcat 默认 async 超时仅 30s，且为固定墙钟计时、不因活跃重置，
         // 否则即使正常收听的连接也会被容器掐断。
-        ResponseBodyEmitter emitter = new ResponseBodyEmitter(appProperties.getStream().getEmitterTimeoutMs());
-        StreamClient client = new StreamClient(new ResponseBodyEmitterStreamSink(emitter), remoteAddr, appProperties.getStream());
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(appProperties.getStream().getEmitterTimeoutMs());
+        ServletStreamSink sink = new ServletStreamSink(asyncContext);
+        StreamClient client = new StreamClient(sink, remoteAddr, appProperties.getStream());
 
-        // 先注册终态回调再 addListener：若泵线程因 emitter 初始化竞态提前终止，
-        // onCompletion 也能确保 removeListener 执行清理（见 StreamClient#sendWithRetry）
-        emitter.onCompletion(() -> liveStreamService.removeListener(client));
-        emitter.onTimeout(() -> liveStreamService.removeListener(client));
-        emitter.onError(e -> liveStreamService.removeListener(client));
+        // 先注册终态回调再 addListener：连接在任何阶段结束都汇聚到幂等的 removeListener
+        sink.setErrorListener(e -> liveStreamService.removeListener(client));
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                liveStreamService.removeListener(client);
+            }
 
-        if (!liveStreamService.addListener(client)) {
-            client.close();
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                liveStreamService.removeListener(client);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                liveStreamService.removeListener(client);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // no-op
+            }
+        });
+
+        // 时移（需开启 DVR）：offset=落后直播的秒数，或 at=开始收听的时刻（epoch 毫秒）；超出保留范围时从最早保留处开始
+        long delayMs = 0;
+        if (atEpochMs != null) {
+            delayMs = System.currentTimeMillis() - atEpochMs;
+        } else if (offsetSeconds != null) {
+            delayMs = offsetSeconds * 1000;
+        }
+        if (!liveStreamService.addListener(client, rendition, relay, delayMs)) {
             response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-            return null;
+            client.close();
+        }
+    }
+
+    /**
+     * 中继节点核验收听者令牌：令牌由本实例签发，中继节点首次见到时来此确认（以中继密钥认证）。
+     * 有效返回 204，否则 404；中继密钥本身不可经此核验。
+     */
+    @GetMapping("/relay/validate")
+    public ResponseEntity<Void> validateRelayToken(@RequestHeader(name = StreamTokenService.RELAY_KEY_HEADER, required = false) String relayKey,
+                                                   @RequestParam(name = "key", required = false) String key) {
+        if (!streamTokenService.isRelayKey(relayKey)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
+        if (streamTokenService.isRelayKey(key) || !streamTokenService.validateToken(key)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * HLS 滚动播放列表。与长连接流一样需要 key；分段 URI 为相对路径、不带 key，只带按保留窗口轮换的分段令牌，
+     * 同一窗口内同一分段对所有收听者是同一个 URL，可被反向代理/CDN 共享缓存。
+     */
+    @GetMapping("/hls/{quality}/index.m3u8")
+    public ResponseEntity<String> hlsPlaylist(HttpServletRequest request,
+                                              @PathVariable("quality") String quality,
+                                              @RequestParam(name = "key", required = false) String key) {
+        if (!liveStreamService.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        StreamRendition rendition = liveStreamService.getRendition(quality);
+        if (rendition == null || rendition.getHls() == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!streamTokenService.validateToken(key)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        liveStreamService.touchHlsListener(getClientIp(request));
+        // 播放列表每个分段时长才变化一次：允许代理做 1s 的微缓存，合并同一时刻的大量刷新
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "max-age=1")
+                .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
+                .body(rendition.getHls().playlist("?t=" + streamTokenService.segmentToken(rendition.getName(), segmentTokenWindowMs(rendition.getHls()))));
+    }
+
+    /** HLS 分段。需带播放列表给出的分段令牌；内容生成后不再变化，按保留窗口长度允许公共缓存。 */
+    @GetMapping("/hls/{quality}/{sequence}.{ext}")
+    public ResponseEntity<byte[]> hlsSegment(@PathVariable("quality") String quality,
+                                             @PathVariable("sequence") long sequence,
+                                             @PathVariable("ext") String ext,
+                                             @RequestParam(name = "t", required = false) String token) {
+        if (!liveStreamService.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        StreamRendition rendition = liveStreamService.getRendition(quality);
+        HlsSegmenter hls = rendition != null ? rendition.getHls() : null;
+        if (hls == null || !hls.getExtension().equals(ext)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!streamTokenService.validateSegmentToken(rendition.getName(), token, segmentTokenWindowMs(hls))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        HlsSegmenter.Segment segment = hls.segment(sequence);
+        if (segment == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "public, max-age=" + hls.getRetentionSeconds() + ", immutable")
+                .contentType(MediaType.parseMediaType(rendition.getContentType()))
+                .body(segment.data());
+    }
 
-        return emitter;
+    /** 分段令牌的轮换周期：与分段保留时长一致，令牌有效期覆盖其播放列表能引用的所有分段 */
+    private static long segmentTokenWindowMs(HlsSegmenter hls) {
+        return hls.getRetentionSeconds() * 1000L;
     }
 
     private String getClientIp(HttpServletRequest request) {
@@ -0,0 +1,127 @@
+package org.thornex.musicparty.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.service.stream.LiveStreamService;
+import org.thornex.musicparty.service.stream.StreamClient;
+import org.thornex.musicparty.service.stream.StreamRendition;
+import org.thornex.musicparty.service.stream.StreamTokenService;
+import org.thornex.musicparty.service.stream.WebSocketStreamSink;
+
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 低延迟电台：/radio/ws?key=...&amp;quality=... 以 WebSocket 二进制消息推送按帧切分、带时间戳的编码块
+ * （消息格式见 {@link WebSocketStreamSink}），供 MediaSource 客户端使用。
+ * <p>
+ * 与 HTTP 长连接共用同一个广播器与连接数上限，区别只在传输：消息边界即块边界、无播放器侧的大缓冲，
+ * 首连只预填很短的一段（stream.websocket.burst-on-connect-ms）。连接建立后先发一条文本消息
+ * 描述编码格式，之后全部为二进制音频消息；客户端发来的消息被忽略。
+ */
+@Component
+public class StreamWebSocketHandler extends BinaryWebSocketHandler {
+
+    private static final String CLIENT_ATTRIBUTE = "streamClient";
+
+    private final LiveStreamService liveStreamService;
+    private final StreamTokenService streamTokenService;
+    private final AppProperties appProperties;
+    private final ObjectMapper objectMapper;
+
+    public StreamWebSocketHandler(LiveStreamService liveStreamService, StreamTokenService streamTokenService,
+                                  AppProperties appProperties, ObjectMapper objectMapper) {
+        this.liveStreamService = liveStreamService;
+        this.streamTokenService = streamTokenService;
+        this.appProperties = appProperties;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        if (!liveStreamService.isEnabled()) {
+            session.close(CloseStatus.SERVICE_OVERLOAD.withReason("stream disabled"));
+            return;
+        }
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getUri()).build(true).getQueryParams();
+        String key = decode(params.getFirst("key"));
+        if (!streamTokenService.validateToken(key)) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("invalid key"));
+            return;
+        }
+        jakarta.websocket.Session nativeSession = session instanceof NativeWebSocketSession n
+                ? n.getNativeSession(jakarta.websocket.Session.class) : null;
+        if (nativeSession == null) {
+            session.close(CloseStatus.SERVER_ERROR.withReason("unsupported websocket container"));
+            return;
+        }
+        StreamRendition rendition = liveStreamService.resolveRendition(decode(params.getFirst("quality")));
+
+        // 先发格式描述（同步发送，此时写线程尚未接手该连接）
+        Map<String, Object> format = new LinkedHashMap<>();
+        format.put("type", "format");
+        format.put("quality", rendition.getName());
+        format.put("codec", rendition.getCodec());
+        format.put("contentType", rendition.getContentType());
+        format.put("bitrateKbps", rendition.getBitrateKbps());
+        format.put("headerBytes", WebSocketStreamSink.HEADER_BYTES);
+        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(format)));
+
+        AppProperties.StreamConfig config = appProperties.getStream();
+        WebSocketStreamSink sink = new WebSocketStreamSink(nativeSession);
+        StreamClient client = new StreamClient(sink, getClientIp(session), config, config.getWebsocket().getBurstOnConnectMs());
+        sink.setErrorListener(e -> liveStreamService.removeListener(client));
+        session.getAttributes().put(CLIENT_ATTRIBUTE, client);
+        if (!liveStreamService.addListener(client, rendition)) {
+            session.getAttributes().remove(CLIENT_ATTRIBUTE);
+            session.close(CloseStatus.SERVICE_OVERLOAD.withReason("max clients reached"));
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        release(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        release(session);
+    }
+
+    private void release(WebSocketSession session) {
+        if (session.getAttributes().get(CLIENT_ATTRIBUTE) instanceof StreamClient client) {
+            liveStreamService.removeListener(client);
+        }
+    }
+
+    private static String decode(String value) {
+        return value == null ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String getClientIp(WebSocketSession session) {
+        String ip = session.getHandshakeHeaders().getFirst("X-Forwarded-For");
+        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
+            ip = session.getHandshakeHeaders().getFirst("X-Real-IP");
+        }
+        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
+            InetSocketAddress remote = session.getRemoteAddress();
+            ip = remote != null ? remote.getAddress().getHostAddress() : null;
+        }
+        // 处理多级代理情况，取第一个非 unknown 的 IP
+        if (ip != null && ip.contains(",")) {
+            ip = ip.split(",")[0].trim();
+        }
+        return ip;
+    }
+}
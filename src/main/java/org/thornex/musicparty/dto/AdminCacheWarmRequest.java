@@ -0,0 +1,6 @@
+package org.thornex.musicparty.dto;
+
+import java.util.List;
+
+/** 缓存预热请求：playlists 为 platform:playlistId 列表，为 null 时沿用当前配置 */
+public record AdminCacheWarmRequest(List<String> playlists) {}
@@ -0,0 +1,7 @@
+package org.thornex.musicparty.dto;
+
+/**
+ * 下载进度增量（/topic/player/download）：只含单首歌的进度，前端据此就地更新队列项，无需全量重同步。
+ * total / eta 未知时为 -1。
+ */
+public record DownloadProgress(String id, long bytes, long total, long rate, long eta) {}
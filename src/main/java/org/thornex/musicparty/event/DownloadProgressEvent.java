@@ -0,0 +1,28 @@
+package org.thornex.musicparty.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 下载字节级进度（由下载写入器按节流间隔发布，状态变化仍走 {@link DownloadStatusEvent}）
+ */
+@Getter
+public class DownloadProgressEvent extends ApplicationEvent {
+    private final String musicId;
+    private final long bytes;
+    /** 总字节数，服务器未返回 Content-Length 时为 -1 */
+    private final long totalBytes;
+    /** 自下载开始的平均速率（字节/秒） */
+    private final long bytesPerSecond;
+    /** 预计剩余时间（毫秒），总大小未知时为 -1 */
+    private final long etaMs;
+
+    public DownloadProgressEvent(Object source, String musicId, long bytes, long totalBytes, long bytesPerSecond, long etaMs) {
+        super(source);
+        this.musicId = musicId;
+        this.bytes = bytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.etaMs = etaMs;
+    }
+}
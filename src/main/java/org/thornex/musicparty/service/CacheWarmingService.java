@@ -0,0 +1,233 @@
+package org.thornex.musicparty.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.dto.Music;
+import org.thornex.musicparty.dto.MusicQueueItem;
+import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.service.api.IMusicApiService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 缓存预热：重启或清空缓存后，按 恢复的队列 → 播放历史 → 收藏歌单 的顺序，
+ * 在后台把可缓存平台的歌曲逐首下载到本地，避免轮到播放时才现下。
+ * <p>
+ * 低优先级：下载队列中有点播任务时让位；按平均速率上限限速；缓存总量达到磁盘预算后停止，
+ * 预热本身不会触发淘汰。进度通过管理员接口查看。
+ */
+@Service
+@Slf4j
+public class CacheWarmingService {
+
+    /** 等待单首歌曲下载完成的上限 */
+    private static final Duration TRACK_TIMEOUT = Duration.ofMinutes(5);
+    /** 轮询下载队列 / 下载状态的间隔 */
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    public enum State {IDLE, RUNNING, COMPLETED, STOPPED}
+
+    /**
+     * 预热进度快照。
+     *
+     * @param skipped 已在缓存中、无需下载的歌曲数
+     * @param current 正在预热的歌曲（平台:id），空闲时为 null
+     * @param reason  停止原因（磁盘预算耗尽 / 管理员停止），正常结束为 null
+     */
+    public record WarmingProgress(State state, int total, int completed, int skipped, int failed,
+                                  long bytesWarmed, String current, String reason) {}
+
+    private record WarmTarget(String platform, String id) {}
+
+    private final MusicQueueManager queueManager;
+    private final LocalCacheService localCacheService;
+    private final AppProperties appProperties;
+    private final Map<String, IMusicApiService> apiServiceMap;
+
+    private volatile WarmingProgress progress = new WarmingProgress(State.IDLE, 0, 0, 0, 0, 0, null, null);
+    private volatile Thread worker;
+
+    public CacheWarmingService(MusicQueueManager queueManager, LocalCacheService localCacheService,
+                               AppProperties appProperties, List<IMusicApiService> apiServices) {
+        this.queueManager = queueManager;
+        this.localCacheService = localCacheService;
+        this.appProperties = appProperties;
+        this.apiServiceMap = apiServices.stream()
+                .collect(Collectors.toMap(IMusicApiService::getPlatformName, Function.identity()));
+    }
+
+    /** 启动完成（队列已由 QueuePersistenceService 恢复）后自动预热一次。 */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (appProperties.getCache().isWarmingEnabled()) {
+            start();
+        }
+    }
+
+    /**
+     * 启动一轮预热。已在运行时返回 false。
+     */
+    public synchronized boolean start() {
+        Thread running = worker;
+        if (running != null && running.isAlive()) {
+            return false;
+        }
+        worker = Thread.ofVirtual().name("cache-warming").start(this::runWarming);
+        return true;
+    }
+
+    /** 停止当前预热（已提交的那一首会继续下载完成）。 */
+    public synchronized void stop() {
+        Thread running = worker;
+        if (running != null) {
+            running.interrupt();
+        }
+    }
+
+    public WarmingProgress getProgress() {
+        return progress;
+    }
+
+    void runWarming() {
+        List<WarmTarget> targets = collectTargets();
+        int completed = 0;
+        int skipped = 0;
+        int failed = 0;
+        long bytesWarmed = 0;
+        progress = new WarmingProgress(State.RUNNING, targets.size(), 0, 0, 0, 0, null, null);
+        log.info("Cache warming started: {} candidate track(s)", targets.size());
+
+        AppProperties.CacheConfig config = appProperties.getCache();
+        long diskBudget = (long) (config.getMaxSize().toBytes() * config.getWarmingDiskRatio());
+        try {
+            for (WarmTarget target : targets) {
+                if (localCacheService.getStatus(target.id()) == CacheStatus.COMPLETED) {
+                    skipped++;
+                    progress = new WarmingProgress(State.RUNNING, targets.size(), completed, skipped, failed, bytesWarmed, null, null);
+                    continue;
+                }
+                if (localCacheService.getStats().totalBytes() >= diskBudget) {
+                    finish(State.STOPPED, targets.size(), completed, skipped, failed, bytesWarmed, "磁盘预算已用尽");
+                    return;
+                }
+
+                // 点播下载优先：队列中有排队或进行中的任务时等待
+                while (localCacheService.hasActiveDownloads()) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+
+                String label = target.platform() + ":" + target.id();
+                progress = new WarmingProgress(State.RUNNING, targets.size(), completed, skipped, failed, bytesWarmed, label, null);
+                long started = System.currentTimeMillis();
+                CacheStatus status = warmOne(target);
+                if (status == CacheStatus.COMPLETED) {
+                    completed++;
+                    LocalCacheService.CacheEntry entry = localCacheService.getCacheEntry(target.id());
+                    long size = entry != null ? entry.getSize() : 0;
+                    bytesWarmed += size;
+                    pace(size, System.currentTimeMillis() - started);
+                } else {
+                    failed++;
+                    log.debug("Cache warming: {} not cached ({})", label, status);
+                }
+                progress = new WarmingProgress(State.RUNNING, targets.size(), completed, skipped, failed, bytesWarmed, null, null);
+            }
+            finish(State.COMPLETED, targets.size(), completed, skipped, failed, bytesWarmed, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(State.STOPPED, targets.size(), completed, skipped, failed, bytesWarmed, "已手动停止");
+        }
+    }
+
+    private void finish(State state, int total, int completed, int skipped, int failed, long bytes, String reason) {
+        progress = new WarmingProgress(state, total, completed, skipped, failed, bytes, null, reason);
+        log.info("Cache warming {}: {} warmed ({} bytes), {} already cached, {} failed{}",
+                state, completed, bytes, skipped, failed, reason != null ? " - " + reason : "");
+    }
+
+    /** 提交一首歌曲并等待其下载结束，返回最终缓存状态（超时返回当前状态）。 */
+    private CacheStatus warmOne(WarmTarget target) throws InterruptedException {
+        try {
+            apiServiceMap.get(target.platform()).prefetchMusic(target.id());
+        } catch (Exception e) {
+            log.debug("Cache warming: prefetch rejected for {}: {}", target.id(), e.getMessage());
+            return CacheStatus.FAILED;
+        }
+        long deadline = System.currentTimeMillis() + TRACK_TIMEOUT.toMillis();
+        CacheStatus status = localCacheService.getStatus(target.id());
+        while (status != CacheStatus.COMPLETED && status != CacheStatus.FAILED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_INTERVAL_MS);
+            status = localCacheService.getStatus(target.id());
+        }
+        return status;
+    }
+
+    /** 按平均速率上限补足等待时间：下载 size 字节至少占用 size / rate 秒。 */
+    private void pace(long size, long elapsedMs) throws InterruptedException {
+        long rate = appProperties.getCache().getWarmingMaxRate().toBytes();
+        if (rate <= 0 || size <= 0) {
+            return;
+        }
+        long wait = size * 1000 / rate - elapsedMs;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /** 候选歌曲：队列 → 历史 → 收藏歌单，按 id 去重，只保留支持本地缓存的平台。 */
+    private List<WarmTarget> collectTargets() {
+        Map<String, WarmTarget> targets = new LinkedHashMap<>();
+        for (MusicQueueItem item : queueManager.getQueueSnapshot()) {
+            addTarget(targets, item.music());
+        }
+        for (Music music : queueManager.getHistorySnapshot()) {
+            addTarget(targets, music);
+        }
+        for (String spec : appProperties.getCache().getWarmingPlaylists()) {
+            for (Music music : fetchPlaylist(spec)) {
+                addTarget(targets, music);
+            }
+        }
+        return new ArrayList<>(targets.values());
+    }
+
+    private void addTarget(Map<String, WarmTarget> targets, Music music) {
+        if (music == null || MusicQueueManager.FM_MARKER_ID.equals(music.id())) {
+            return;
+        }
+        IMusicApiService service = apiServiceMap.get(music.platform());
+        if (service != null && service.supportsLocalCache()) {
+            targets.putIfAbsent(music.id(), new WarmTarget(music.platform(), music.id()));
+        }
+    }
+
+    private List<Music> fetchPlaylist(String spec) {
+        int sep = spec.indexOf(':');
+        if (sep <= 0) {
+            log.warn("Cache warming: invalid playlist spec '{}', expected platform:playlistId", spec);
+            return List.of();
+        }
+        IMusicApiService service = apiServiceMap.get(spec.substring(0, sep));
+        if (service == null || !service.supportsLocalCache()) {
+            return List.of();
+        }
+        try {
+            List<Music> musics = service.getPlaylistMusics(spec.substring(sep + 1), 0,
+                    appProperties.getCache().getWarmingPlaylistLimit()).block(Duration.ofSeconds(30));
+            return musics != null ? musics : List.of();
+        } catch (Exception e) {
+            log.warn("Cache warming: failed to load playlist {}: {}", spec, e.getMessage());
+            return List.of();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.thornex.musicparty.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.Data;
@@ -7,12 +8,18 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.thornex.musicparty.config.LocalResourceConfig;
 import org.thornex.musicparty.config.AppProperties;
 import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.event.DownloadProgressEvent;
 import org.thornex.musicparty.event.DownloadStatusEvent;
+import org.thornex.musicparty.service.cache.AudioRemuxer;
+import org.thornex.musicparty.service.cache.CacheEvictionPolicy;
+import org.thornex.musicparty.service.cache.CacheManifest;
+import org.thornex.musicparty.service.cache.HotMediaTier;
 import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
@@ -20,15 +27,28 @@ import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
 
 @Service
 @Slf4j
@@ -36,6 +56,18 @@ public class LocalCacheService {
 
     private final WebClient webClient;
     private static final long DOWNLOAD_COOLDOWN_SECONDS = 3;
+    /** 下载中的临时文件后缀：写完并校验后才原子改名为正式文件，崩溃残留的临时文件在启动对账时删除 */
+    static final String TEMP_SUFFIX = ".part";
+    /** 抽取音频后的文件扩展名（MP4 容器内的 AAC 音频轨，流复制不重编码） */
+    private static final String AUDIO_ONLY_EXTENSION = ".m4a";
+    /** 低码率副本的 id 标记：{@code <id>@r<kbps>}，文件名 {@code <id>@r<kbps>.m4a}，按首个点号取 id 的规则不变 */
+    private static final String RENDITION_MARKER = "@r";
+    /** 客户端显式要求原文件（不做码率协商）时的参数值 */
+    public static final String ORIGINAL_RENDITION = "original";
+    /** /media URL 的内容版本参数，见 {@link #mediaUrl} */
+    public static final String VERSION_PARAM = "v";
+    /** 清单追加行数超过该值时，即使没有访问时间变化也触发压缩 */
+    private static final int MANIFEST_COMPACT_THRESHOLD = 200;
 
     // 内存中维护缓存文件的元数据
     private final Map<String, CacheEntry> cacheIndex = new ConcurrentHashMap<>();
@@ -45,6 +77,40 @@ public class LocalCacheService {
     private final Sinks.Many<DownloadTask> downloadQueue = Sinks.many().unicast().onBackpressureBuffer();
     private Disposable queueSubscription;
 
+    // 持久化清单：启动时回放重建索引，保留 LRU 访问历史
+    private final CacheManifest manifest;
+    // 自上次压缩后是否有访问时间变化（touch 不逐条追加清单，由定时压缩统一落盘）
+    private volatile boolean manifestDirty;
+
+    // 淘汰策略（SLRU）与固定来源：队列中 / 正在播放 / 正在转码的条目不可淘汰
+    private final CacheEvictionPolicy evictionPolicy;
+    private final List<Supplier<Collection<String>>> pinSources = new CopyOnWriteArrayList<>();
+
+    // 热点内存层：当前歌曲 + 接下来几首，由播放器的前瞻集合驱动
+    private final HotMediaTier hotTier;
+    private volatile List<String> hotIds = List.of();
+
+    // 命中与淘汰统计
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong pinnedOverflows = new AtomicLong();
+    // 抽取音频：html5 MP4 兜底下载完成后去掉视频轨
+    private final AudioRemuxer audioRemuxer;
+    private final AtomicLong remuxSavedBytes = new AtomicLong();
+    // 低码率副本：按需单线程生成（同一时刻只跑一个 ffmpeg），同一副本只生成一次
+    private final ExecutorService renditionExecutor =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("cache-rendition").factory());
+    private final Set<String> renditionsInFlight = ConcurrentHashMap.newKeySet();
+    // 生成失败或不比原文件小的副本，本次运行内不再尝试
+    private final Set<String> renditionsRejected = ConcurrentHashMap.newKeySet();
+    // 下载吞吐统计（只计成功完成的下载）
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong downloadNanos = new AtomicLong();
+    // /media 端点按文件统计的已发送字节数（条目被删除时一并移除）
+    private final Map<String, LongAdder> bytesServed = new ConcurrentHashMap<>();
+
     private record DownloadTask(
             String musicId,
             Mono<DownloadSource> source,
@@ -55,13 +121,47 @@ public class LocalCacheService {
      * 下载源：URL + 文件扩展名。
      * 扩展名随源变化（如 DASH 音频 .m4a、html5 兜底 MP4 .mp4），
      * 因此无法在提交任务时预先固定。
+     *
+     * @param extractAudio 下载的是带视频轨的容器（html5 MP4）：完成前先流复制抽出音频轨，以 .m4a 入库
+     * @param quality      音质档位，随条目入库；配置的档位变化后调用方据此判断缓存已过时（不区分档位时为 null）
      */
-    public record DownloadSource(String url, String extension) {}
+    public record DownloadSource(String url, String extension, boolean extractAudio, String quality) {
+
+        public DownloadSource(String url, String extension) {
+            this(url, extension, false, null);
+        }
+
+        public DownloadSource(String url, String extension, boolean extractAudio) {
+            this(url, extension, extractAudio, null);
+        }
+    }
 
-    public LocalCacheService(WebClient webClient, ApplicationEventPublisher eventPublisher, AppProperties appProperties) {
+    /**
+     * 缓存统计快照（管理员接口展示）。
+     *
+     * @param pinnedOverflows 超出容量但剩余条目全部被固定、无法淘汰的次数
+     * @param bytesServed     /media 端点累计发送的字节数
+     * @param hotEntries      热点内存层中的文件数
+     * @param hotBytes        热点内存层占用的字节数
+     * @param hotHits         /media 从热点内存层映射区直接写出的次数。仅在连接器不支持 sendfile 时发生
+     *                        （sendfile 与转码器都按文件路径读取，只间接受益于驻留页，不计入）
+     * @param downloadedBytes 成功下载的累计字节数
+     * @param downloadRate    成功下载的平均吞吐（字节/秒）
+     * @param remuxSavedBytes html5 MP4 兜底抽取音频累计节省的磁盘字节数
+     */
+    public record CacheStats(int entries, long totalBytes, long maxBytes, long hits, long misses,
+                             long evictions, long evictedBytes, long pinnedOverflows, long bytesServed,
+                             int hotEntries, long hotBytes, long hotHits, long downloadedBytes, long downloadRate,
+                             long remuxSavedBytes) {}
+
+    public LocalCacheService(WebClient webClient, ApplicationEventPublisher eventPublisher, AppProperties appProperties, ObjectMapper objectMapper) {
         this.webClient = webClient;
         this.eventPublisher = eventPublisher;
         this.appProperties = appProperties;
+        this.manifest = new CacheManifest(Paths.get(appProperties.getCache().getManifestFile()), objectMapper);
+        this.evictionPolicy = new CacheEvictionPolicy(appProperties.getCache().getMaxSize().toBytes());
+        this.hotTier = new HotMediaTier(appProperties.getCache().getHotTierMaxSize().toBytes());
+        this.audioRemuxer = new AudioRemuxer(appProperties::getFfmpegPath);
     }
 
     @Data
@@ -71,31 +171,32 @@ public class LocalCacheService {
         private CacheStatus status;
         private long size;
         private long lastAccessTime;
+        private String checksum;    // 文件内容 CRC32（十六进制），旧版本遗留文件为 null
+        private long modifiedTime;  // 入库时文件的修改时间，对账时据此决定是否复核 CRC32
+        private String quality;     // 下载时的音质档位（网易云），不区分档位的平台为 null
         private String originalUrl; // 用于重试或记录
     }
 
     @PostConstruct
     public void init() {
-        // 初始化时扫描目录，重建索引和计算大小
         File dir = new File(LocalResourceConfig.CACHE_DIR);
         if (!dir.exists()) dir.mkdirs();
 
-        File[] files = dir.listFiles();
-        if (files != null) {
-            for (File f : files) {
-                String id = f.getName().split("\\.")[0]; // 假设文件名是 id.mp3
-                CacheEntry entry = new CacheEntry();
-                entry.setId(id);
-                entry.setFileName(f.getName());
-                entry.setStatus(CacheStatus.COMPLETED);
-                entry.setSize(f.length());
-                entry.setLastAccessTime(System.currentTimeMillis());
-
-                cacheIndex.put(id, entry);
-                currentTotalSize.addAndGet(f.length());
-            }
-        }
-        log.info("LocalCacheService initialized. Current cache size: {} bytes", currentTotalSize.get());
+        // 回放清单重建索引：只信任已完成的条目，保留原有访问时间（LRU 历史）。
+        // 按访问时间从旧到新送入淘汰策略，恢复重启前的淘汰顺序。
+        Map<String, CacheManifest.Record> records = manifest.load();
+        records.values().stream()
+                .filter(r -> r.status() == CacheStatus.COMPLETED && r.fileName() != null)
+                .sorted(Comparator.comparingLong(CacheManifest.Record::lastAccessTime))
+                .forEach(record -> {
+                    cacheIndex.put(record.id(), fromRecord(record));
+                    currentTotalSize.addAndGet(record.size());
+                    evictionPolicy.onInsert(record.id(), record.size());
+                });
+        log.info("LocalCacheService initialized from manifest: {} entries, {} bytes", cacheIndex.size(), currentTotalSize.get());
+
+        // 与目录的对账放到后台：删除崩溃残留的临时文件、剔除丢失/截断的条目、收编旧版本遗留文件
+        Thread.ofVirtual().name("cache-reconcile").start(this::reconcileWithDirectory);
 
         this.queueSubscription = downloadQueue.asFlux()
                 .concatMap(task ->
@@ -115,6 +216,112 @@ public class LocalCacheService {
         if (queueSubscription != null && !queueSubscription.isDisposed()) {
             queueSubscription.dispose();
         }
+        renditionExecutor.shutdownNow();
+        compactManifest();
+    }
+
+    /**
+     * 启动后的惰性对账。清单是索引的真相，目录只用于发现不一致：
+     * <ul>
+     *   <li>{@value #TEMP_SUFFIX} 临时文件：上次下载未完成（崩溃/强杀），直接删除；</li>
+     *   <li>清单中已完成但文件丢失或大小不符（被截断）的条目：剔除；</li>
+     *   <li>大小相符但修改时间变化的条目：按 CRC32 复核，内容不符则剔除，相符则记下新的修改时间；</li>
+     *   <li>目录中有、清单中没有的文件（升级前的旧缓存）：按文件修改时间收编，校验和留空。</li>
+     * </ul>
+     */
+    void reconcileWithDirectory() {
+        File[] files = new File(LocalResourceConfig.CACHE_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        int removedTemp = 0;
+        int dropped = 0;
+        int adopted = 0;
+
+        for (CacheEntry entry : List.copyOf(cacheIndex.values())) {
+            if (entry.getStatus() != CacheStatus.COMPLETED) {
+                continue;
+            }
+            File f = new File(LocalResourceConfig.CACHE_DIR, entry.getFileName());
+            if (!f.isFile() || f.length() != entry.getSize()) {
+                log.warn("Cache entry {} is missing or truncated on disk, dropping it", entry.getFileName());
+                removeEntry(entry);
+                dropped++;
+                continue;
+            }
+            if (entry.getChecksum() == null || f.lastModified() == entry.getModifiedTime()) {
+                continue;
+            }
+            boolean intact;
+            try {
+                intact = CacheManifest.matches(toRecord(entry), f.toPath());
+            } catch (IOException e) {
+                intact = false;
+            }
+            if (intact) {
+                entry.setModifiedTime(f.lastModified());
+                manifest.put(toRecord(entry));
+            } else {
+                log.warn("Cache entry {} failed checksum verification, dropping it", entry.getFileName());
+                removeEntry(entry);
+                dropped++;
+            }
+        }
+
+        Set<String> known = new HashSet<>();
+        cacheIndex.values().forEach(e -> {
+            if (e.getFileName() != null) known.add(e.getFileName());
+        });
+        for (File f : files) {
+            if (!f.isFile()) {
+                continue;
+            }
+            String name = f.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                if (f.delete()) removedTemp++;
+                continue;
+            }
+            if (known.contains(name)) {
+                continue;
+            }
+            String id = name.split("\\.")[0];
+            if (cacheIndex.containsKey(id)) {
+                continue; // 同 id 正在下载或已有另一扩展名的文件，交给下载流程处理
+            }
+            CacheEntry entry = new CacheEntry();
+            entry.setId(id);
+            entry.setFileName(name);
+            entry.setStatus(CacheStatus.COMPLETED);
+            entry.setSize(f.length());
+            entry.setLastAccessTime(f.lastModified());
+            entry.setModifiedTime(f.lastModified());
+            if (cacheIndex.putIfAbsent(id, entry) == null) {
+                currentTotalSize.addAndGet(entry.getSize());
+                evictionPolicy.onInsert(id, entry.getSize());
+                manifest.put(toRecord(entry));
+                adopted++;
+            }
+        }
+
+        log.info("Cache reconcile finished: {} temp file(s) removed, {} entr(ies) dropped, {} legacy file(s) adopted. Size: {} bytes",
+                removedTemp, dropped, adopted, currentTotalSize.get());
+        ensureCapacity();
+    }
+
+    /**
+     * 定时压缩清单：有访问时间变化或追加日志过长时，用当前索引整体重写。
+     */
+    @Scheduled(fixedDelayString = "${app.music-api.cache.manifest-compact-interval-ms:60000}")
+    public void compactManifest() {
+        if (!manifestDirty && manifest.getAppendedSinceCompact() < MANIFEST_COMPACT_THRESHOLD) {
+            return;
+        }
+        manifestDirty = false;
+        // 快照在清单锁内取得：与 completeDownload / 副本入库的追加互斥，避免重写覆盖掉刚追加的记录
+        manifest.compact(() -> cacheIndex.values().stream()
+                .filter(e -> e.getStatus() == CacheStatus.COMPLETED)
+                .map(LocalCacheService::toRecord)
+                .toList());
     }
 
     /**
@@ -174,34 +381,35 @@ public class LocalCacheService {
         return task.source()
                 .flatMap(src -> {
                     entry.setOriginalUrl(src.url());
+                    entry.setQuality(src.quality());
                     String fileName = musicId + src.extension();
                     entry.setFileName(fileName);
-                    Path destPath = Paths.get(LocalResourceConfig.CACHE_DIR, fileName);
+                    Path tempPath = Paths.get(LocalResourceConfig.CACHE_DIR, fileName + TEMP_SUFFIX);
 
                     return webClient.get()
                             .uri(src.url())
                             .headers(httpHeaders -> task.headers().forEach(httpHeaders::add))
                             .retrieve()
-                            .bodyToFlux(DataBuffer.class)
-                            .collectList()
-                            .publishOn(Schedulers.boundedElastic())
-                            .doOnSuccess(dataBuffers -> {
+                            .toEntityFlux(DataBuffer.class)
+                            .flatMap(response -> {
+                                // 边收边写临时文件（不再整首攒在内存里），并按节流间隔发布字节级进度
+                                DownloadWriter writer;
                                 try {
-                                    try (var os = Files.newOutputStream(destPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                                        for (DataBuffer buffer : dataBuffers) {
-                                            byte[] bytes = new byte[buffer.readableByteCount()];
-                                            buffer.read(bytes);
-                                            os.write(bytes);
-                                            DataBufferUtils.release(buffer);
-                                        }
-                                    }
-                                    long size = Files.size(destPath);
-                                    entry.setSize(size);
-                                    entry.setStatus(CacheStatus.COMPLETED);
-                                    currentTotalSize.addAndGet(size);
-                                    log.info("Download completed: {}", fileName);
-                                    eventPublisher.publishEvent(new DownloadStatusEvent(this, musicId));
-                                    ensureCapacity();
+                                    writer = new DownloadWriter(musicId, tempPath, response.getHeaders().getContentLength());
+                                } catch (IOException e) {
+                                    return Mono.error(new RuntimeException("File write error", e));
+                                }
+                                return response.getBody()
+                                        .publishOn(Schedulers.boundedElastic())
+                                        .doOnNext(writer::write)
+                                        .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                                        .then(Mono.fromCallable(writer::finish))
+                                        .doOnError(e -> writer.abort())
+                                        .doOnCancel(writer::abort);
+                            })
+                            .doOnSuccess(writer -> {
+                                try {
+                                    completeDownload(entry, src, writer, tempPath);
                                 } catch (IOException e) {
                                     throw new RuntimeException("File write error", e);
                                 }
@@ -219,45 +427,385 @@ public class LocalCacheService {
     }
 
     /**
-     * LRU 清理策略
+     * 下载完成后的收尾：需要时先抽取音频（html5 MP4 兜底），再把临时文件原子改名为正式文件并登记索引与清单。
+     * 正式文件名下永远不会出现半截文件或带视频轨的中间产物。
+     */
+    private void completeDownload(CacheEntry entry, DownloadSource src, DownloadWriter writer, Path tempPath) throws IOException {
+        String musicId = entry.getId();
+        String fileName = entry.getFileName();
+        Path finalTemp = tempPath;
+        String checksum = Long.toHexString(writer.checksum());
+
+        if (src.extractAudio()) {
+            String audioName = musicId + AUDIO_ONLY_EXTENSION;
+            Path audioTemp = Paths.get(LocalResourceConfig.CACHE_DIR, audioName + TEMP_SUFFIX);
+            long originalSize = Files.size(tempPath);
+            if (audioRemuxer.extractAudio(tempPath, audioTemp)) {
+                Files.deleteIfExists(tempPath);
+                finalTemp = audioTemp;
+                fileName = audioName;
+                checksum = Long.toHexString(AudioRemuxer.crc32(audioTemp));
+                long saved = originalSize - Files.size(audioTemp);
+                remuxSavedBytes.addAndGet(Math.max(0, saved));
+                log.info("Extracted audio from {}: {} -> {} bytes", musicId, originalSize, originalSize - saved);
+            } else {
+                Files.deleteIfExists(audioTemp);
+                log.warn("Audio extraction failed for {}, keeping the original MP4", musicId);
+            }
+        }
+
+        Path destPath = Paths.get(LocalResourceConfig.CACHE_DIR, fileName);
+        Files.move(finalTemp, destPath, StandardCopyOption.REPLACE_EXISTING);
+        long size = Files.size(destPath);
+        entry.setFileName(fileName);
+        entry.setSize(size);
+        entry.setChecksum(checksum);
+        entry.setModifiedTime(Files.getLastModifiedTime(destPath).toMillis());
+        entry.setLastAccessTime(System.currentTimeMillis());
+        entry.setStatus(CacheStatus.COMPLETED);
+        currentTotalSize.addAndGet(size);
+        evictionPolicy.onInsert(musicId, size);
+        manifest.put(toRecord(entry));
+        downloadedBytes.addAndGet(writer.bytes());
+        downloadNanos.addAndGet(writer.elapsedNanos());
+        log.info("Download completed: {} ({} bytes, {} KB/s)", fileName, size, writer.bytesPerSecond() / 1024);
+        eventPublisher.publishEvent(new DownloadStatusEvent(this, musicId));
+        ensureCapacity();
+        if (hotIds.contains(musicId)) {
+            refreshHotTier(); // 前瞻中的歌曲刚下载完，立即装入热点层
+        }
+    }
+
+    /**
+     * 注册一个固定来源：其返回的音乐 ID 在淘汰时被跳过（队列、正在播放、正在转码等）。
+     * 每次淘汰时调用一次，需线程安全且廉价。
+     */
+    public void addPinSource(Supplier<Collection<String>> source) {
+        pinSources.add(source);
+    }
+
+    /**
+     * 容量清理：由 {@link CacheEvictionPolicy} 逐个给出淘汰对象，跳过被固定的条目。
+     * 剩余条目全部被固定时宁可暂时超出上限，也不删除即将播放/正在转码的文件。
      */
     private synchronized void ensureCapacity() {
-        if (currentTotalSize.get() <= appProperties.getCache().getMaxSize().toBytes()) return;
+        long maxBytes = appProperties.getCache().getMaxSize().toBytes();
+        if (currentTotalSize.get() <= maxBytes) return;
+        evictionPolicy.setMaxBytes(maxBytes);
 
         log.info("Cache limit exceeded. Cleaning up...");
 
-        // 按最后访问时间排序
-        cacheIndex.values().stream()
-                .filter(e -> e.getStatus() == CacheStatus.COMPLETED) // 只删已完成的
-                .sorted(Comparator.comparingLong(CacheEntry::getLastAccessTime))
-                .forEach(entry -> {
-                    if (currentTotalSize.get() <= appProperties.getCache().getMaxSize().toBytes()) return; // 容量够了就停
-
-                    try {
-                        Path path = Paths.get(LocalResourceConfig.CACHE_DIR, entry.getFileName());
-                        Files.deleteIfExists(path);
-                        currentTotalSize.addAndGet(-entry.getSize());
-                        cacheIndex.remove(entry.getId());
-                        log.info("Evicted: {}", entry.getFileName());
-                    } catch (IOException e) {
-                        log.error("Failed to delete {}", entry.getFileName(), e);
-                    }
+        Set<String> skip = collectPinnedIds();
+        while (currentTotalSize.get() > maxBytes) {
+            String victimId = evictionPolicy.selectVictim(skip::contains);
+            if (victimId == null) {
+                pinnedOverflows.incrementAndGet();
+                log.warn("Cache over limit ({} > {} bytes) but all remaining entries are pinned", currentTotalSize.get(), maxBytes);
+                return;
+            }
+            CacheEntry entry = cacheIndex.get(victimId);
+            if (entry == null || entry.getStatus() != CacheStatus.COMPLETED) {
+                evictionPolicy.onRemove(victimId); // 索引中已不存在的陈旧条目
+                continue;
+            }
+            if (removeEntry(entry)) {
+                evictions.incrementAndGet();
+                evictedBytes.addAndGet(entry.getSize());
+                log.info("Evicted: {}", entry.getFileName());
+            } else {
+                skip.add(victimId); // 删除失败（文件被占用等），本轮跳过，避免死循环
+            }
+        }
+    }
+
+    private Set<String> collectPinnedIds() {
+        Set<String> pinned = new HashSet<>();
+        for (Supplier<Collection<String>> source : pinSources) {
+            try {
+                Collection<String> ids = source.get();
+                if (ids != null) pinned.addAll(ids);
+            } catch (Exception e) {
+                log.warn("Cache pin source failed, ignoring it for this round", e);
+            }
+        }
+        return pinned;
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(evictionPolicy.size(), currentTotalSize.get(), appProperties.getCache().getMaxSize().toBytes(),
+                hits.get(), misses.get(), evictions.get(), evictedBytes.get(), pinnedOverflows.get(),
+                bytesServed.values().stream().mapToLong(LongAdder::sum).sum(),
+                hotTier.size(), hotTier.usedBytes(), hotTier.hits(),
+                downloadedBytes.get(), downloadNanos.get() > 0 ? downloadedBytes.get() * 1_000_000_000L / downloadNanos.get() : 0,
+                remuxSavedBytes.get());
+    }
+
+    /**
+     * 更新热点集合（按优先级：当前歌曲在前，其后是接下来几首）。集合未变化时立即返回；
+     * 变化时在后台虚拟线程中映射并预读，不阻塞调用方。超出 {@code hot-tier-tracks} 的部分忽略。
+     */
+    public void updateHotSet(List<String> ids) {
+        int limit = appProperties.getCache().getHotTierTracks();
+        List<String> next = ids.size() > limit ? List.copyOf(ids.subList(0, limit)) : List.copyOf(ids);
+        if (next.equals(hotIds)) {
+            return;
+        }
+        hotIds = next;
+        Thread.ofVirtual().name("cache-hot-tier").start(this::refreshHotTier);
+    }
+
+    private void refreshHotTier() {
+        hotTier.setMaxBytes(appProperties.getCache().getHotTierMaxSize().toBytes());
+        List<HotMediaTier.Candidate> candidates = hotIds.stream()
+                .map(cacheIndex::get)
+                .filter(e -> e != null && e.getStatus() == CacheStatus.COMPLETED)
+                .map(e -> new HotMediaTier.Candidate(e.getId(), resolveCachedFile(e), e.getSize()))
+                .toList();
+        int loaded = hotTier.retain(candidates);
+        if (loaded > 0) {
+            log.debug("Hot tier: loaded {} file(s), {} entries / {} bytes resident", loaded, hotTier.size(), hotTier.usedBytes());
+        }
+    }
+
+    /** 热点内存层中的文件，未装入时返回 null。 */
+    public HotMediaTier.HotFile getHotFile(String musicId) {
+        return hotTier.get(musicId);
+    }
+
+    /** 按文件名统计的 /media 已发送字节数，从多到少排列。 */
+    public Map<String, Long> getBytesServedByFile() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        bytesServed.entrySet().stream()
+                .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                .forEach(e -> {
+                    CacheEntry entry = cacheIndex.get(e.getKey());
+                    result.put(entry != null ? entry.getFileName() : e.getKey(), e.getValue().sum());
                 });
+        return result;
+    }
+
+    public void recordBytesServed(String musicId, long bytes) {
+        bytesServed.computeIfAbsent(musicId, k -> new LongAdder()).add(bytes);
+    }
+
+    /**
+     * 按 /media 请求中的文件名查找已完成的缓存条目。
+     * 文件名必须与索引记录完全一致，下载中的临时文件、路径穿越等请求都查不到。
+     */
+    public CacheEntry findCompletedByFileName(String fileName) {
+        if (fileName == null || fileName.contains("/") || fileName.contains("\\")) {
+            return null;
+        }
+        int dot = fileName.indexOf('.');
+        String id = dot > 0 ? fileName.substring(0, dot) : fileName;
+        CacheEntry entry = cacheIndex.get(id);
+        if (entry == null || entry.getStatus() != CacheStatus.COMPLETED || !fileName.equals(entry.getFileName())) {
+            return null;
+        }
+        return entry;
+    }
+
+    public Path resolveCachedFile(CacheEntry entry) {
+        return Paths.get(LocalResourceConfig.CACHE_DIR, entry.getFileName());
+    }
+
+    /**
+     * 按请求选择低码率副本的码率（kbps），不需要副本时返回 0。
+     * 显式参数优先：{@code original} 表示原文件，{@code low} 或已配置的码率值；
+     * 未指定时，带 {@code Save-Data: on} 的请求取最低码率。
+     */
+    public int selectRendition(String requested, boolean saveData) {
+        return selectBitrate(appProperties.getCache().getRenditionBitrates(), requested, saveData);
+    }
+
+    static int selectBitrate(List<Integer> bitrates, String requested, boolean saveData) {
+        if (bitrates == null || bitrates.isEmpty()) {
+            return 0;
+        }
+        int lowest = bitrates.stream().min(Integer::compare).orElseThrow();
+        if (requested != null && !requested.isBlank()) {
+            String value = requested.trim().toLowerCase();
+            if ("low".equals(value)) {
+                return lowest;
+            }
+            try {
+                int kbps = Integer.parseInt(value.endsWith("k") ? value.substring(0, value.length() - 1) : value);
+                return bitrates.contains(kbps) ? kbps : 0;
+            } catch (NumberFormatException e) {
+                return 0; // original 或无法识别的值：提供原文件
+            }
+        }
+        return saveData ? lowest : 0;
+    }
+
+    public static boolean isRendition(String id) {
+        return id != null && id.contains(RENDITION_MARKER);
+    }
+
+    static String renditionId(String musicId, int kbps) {
+        return musicId + RENDITION_MARKER + kbps;
+    }
+
+    /**
+     * 查找原文件的低码率副本。已生成时更新访问时间并返回；
+     * 未生成时在后台排队生成（同一副本只排一次）并返回 null，调用方本次先提供原文件。
+     */
+    public CacheEntry findRendition(CacheEntry original, int kbps) {
+        String key = renditionId(original.getId(), kbps);
+        CacheEntry rendition = cacheIndex.get(key);
+        if (rendition != null && rendition.getStatus() == CacheStatus.COMPLETED) {
+            touch(key);
+            return rendition;
+        }
+        if (rendition == null && !renditionsRejected.contains(key) && renditionsInFlight.add(key)) {
+            renditionExecutor.execute(() -> {
+                try {
+                    generateRendition(original, kbps, key);
+                } finally {
+                    renditionsInFlight.remove(key);
+                }
+            });
+        }
+        return null;
+    }
+
+    /**
+     * 生成低码率副本并以普通条目登记：与原文件共用容量上限、SLRU 淘汰与清单，
+     * 不在固定集合中（随时可淘汰，再次请求时重新生成）。
+     */
+    private void generateRendition(CacheEntry original, int kbps, String key) {
+        String fileName = key + AUDIO_ONLY_EXTENSION;
+        Path tempPath = Paths.get(LocalResourceConfig.CACHE_DIR, fileName + TEMP_SUFFIX);
+        try {
+            Path source = resolveCachedFile(original);
+            if (!Files.isRegularFile(source)) {
+                return; // 原文件已被淘汰
+            }
+            if (!audioRemuxer.transcode(source, tempPath, kbps)) {
+                renditionsRejected.add(key);
+                return;
+            }
+            long size = Files.size(tempPath);
+            if (size >= original.getSize()) {
+                // 原文件码率本就不高，副本没有省流量的意义
+                log.info("Rendition {} ({} bytes) is not smaller than the original, discarding it", fileName, size);
+                renditionsRejected.add(key);
+                return;
+            }
+            String checksum = Long.toHexString(AudioRemuxer.crc32(tempPath));
+            Path destPath = Paths.get(LocalResourceConfig.CACHE_DIR, fileName);
+            Files.move(tempPath, destPath, StandardCopyOption.REPLACE_EXISTING);
+
+            CacheEntry entry = new CacheEntry();
+            entry.setId(key);
+            entry.setFileName(fileName);
+            entry.setStatus(CacheStatus.COMPLETED);
+            entry.setSize(size);
+            entry.setChecksum(checksum);
+            entry.setModifiedTime(Files.getLastModifiedTime(destPath).toMillis());
+            entry.setLastAccessTime(System.currentTimeMillis());
+            if (cacheIndex.putIfAbsent(key, entry) == null) {
+                currentTotalSize.addAndGet(size);
+                evictionPolicy.onInsert(key, size);
+                manifest.put(toRecord(entry));
+                log.info("Rendition ready: {} ({} -> {} bytes)", fileName, original.getSize(), size);
+                ensureCapacity();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to generate rendition {}: {}", fileName, e.getMessage());
+            renditionsRejected.add(key);
+        } finally {
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // 残留的临时文件由下次启动对账删除
+            }
+        }
+    }
+
+    /** 删除条目对应的文件、索引与清单记录，并扣减总大小。 */
+    private boolean removeEntry(CacheEntry entry) {
+        try {
+            Path path = Paths.get(LocalResourceConfig.CACHE_DIR, entry.getFileName());
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("Failed to delete {}", entry.getFileName(), e);
+            return false;
+        }
+        if (cacheIndex.remove(entry.getId(), entry)) {
+            currentTotalSize.addAndGet(-entry.getSize());
+            evictionPolicy.onRemove(entry.getId());
+            bytesServed.remove(entry.getId());
+            hotTier.remove(entry.getId());
+            manifest.delete(entry.getId());
+        }
+        return true;
     }
 
     /**
      * 获取文件访问 URL
-     * 返回: /media/id.ext
+     * 返回: /media/id.ext?v=版本
+     * 纯查询：入队解析时也会调用，那时歌曲未必会播放，因此不计命中 / 未命中、不更新访问时间。
+     * 真正开播时由 {@link #recordPlay} 计数。
      */
     public String getLocalUrl(String musicId) {
         CacheEntry entry = cacheIndex.get(musicId);
         if (entry != null && entry.getStatus() == CacheStatus.COMPLETED) {
-            touch(musicId);
-            return "/media/" + entry.getFileName();
+            return mediaUrl(entry);
         }
         return null;
     }
 
+    /**
+     * 带内容版本的 /media 地址。文件名按歌曲 id 固定，淘汰后重新下载、网易云音质变更、副本重新生成都会换掉
+     * 同名文件的内容；版本随之变化，浏览器与反向代理按新 URL 重新请求，不会继续用长期缓存的旧字节。
+     */
+    public static String mediaUrl(CacheEntry entry) {
+        return "/media/" + entry.getFileName() + "?" + VERSION_PARAM + "=" + mediaVersion(entry);
+    }
+
+    /** 内容版本：CRC32 + 大小；旧版本遗留、没有校验和的条目用大小 + 修改时间。 */
+    public static String mediaVersion(CacheEntry entry) {
+        if (entry.getChecksum() != null) {
+            return entry.getChecksum() + "-" + Long.toHexString(entry.getSize());
+        }
+        return Long.toHexString(entry.getSize()) + "-" + Long.toHexString(entry.getModifiedTime());
+    }
+
+    /** 歌曲开始播放：已缓存计一次命中并更新访问时间，否则计一次未命中。 */
+    public void recordPlay(String musicId) {
+        if (getStatus(musicId) == CacheStatus.COMPLETED) {
+            hits.incrementAndGet();
+            touch(musicId);
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * 作废一首歌的缓存（连同它的低码率副本），下次播放重新下载。
+     * 用于缓存内容已过时的情况，如网易云音质档位变更。
+     */
+    public void invalidate(String musicId) {
+        CacheEntry entry = cacheIndex.get(musicId);
+        if (entry != null && entry.getStatus() == CacheStatus.COMPLETED && removeEntry(entry)) {
+            log.info("Invalidated cached file {}", entry.getFileName());
+        }
+        String renditionPrefix = musicId + RENDITION_MARKER;
+        for (CacheEntry rendition : List.copyOf(cacheIndex.values())) {
+            if (rendition.getId().startsWith(renditionPrefix)) {
+                removeEntry(rendition);
+            }
+        }
+        renditionsRejected.removeIf(key -> key.startsWith(renditionPrefix));
+    }
+
+    /** 下载队列中是否有排队或进行中的任务（缓存预热据此让位给点播下载）。 */
+    public boolean hasActiveDownloads() {
+        return cacheIndex.values().stream()
+                .anyMatch(e -> e.getStatus() == CacheStatus.PENDING || e.getStatus() == CacheStatus.DOWNLOADING);
+    }
+
     public CacheStatus getStatus(String musicId) {
         if (!cacheIndex.containsKey(musicId)) return null;
         return cacheIndex.get(musicId).getStatus();
@@ -271,6 +819,103 @@ public class LocalCacheService {
         CacheEntry entry = cacheIndex.get(musicId);
         if (entry != null) {
             entry.setLastAccessTime(System.currentTimeMillis());
+            evictionPolicy.onAccess(musicId);
+            manifestDirty = true;
+        }
+    }
+
+    /**
+     * 单个下载任务的写入器：逐块写入临时文件、累计 CRC32，
+     * 并按 {@code progress-interval-ms} 节流发布 {@link DownloadProgressEvent}（每首歌独立节流）。
+     * 只在下载流的单个线程上调用，无需同步。
+     */
+    private class DownloadWriter {
+        private final String musicId;
+        private final Path tempPath;
+        private final long totalBytes;
+        private final CRC32 crc = new CRC32();
+        private final long startNanos = System.nanoTime();
+        private final OutputStream out;
+        private long bytes;
+        private long lastReportNanos;
+
+        DownloadWriter(String musicId, Path tempPath, long totalBytes) throws IOException {
+            this.musicId = musicId;
+            this.tempPath = tempPath;
+            this.totalBytes = totalBytes;
+            this.out = Files.newOutputStream(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
         }
+
+        void write(DataBuffer buffer) {
+            try {
+                byte[] chunk = new byte[buffer.readableByteCount()];
+                buffer.read(chunk);
+                out.write(chunk);
+                crc.update(chunk);
+                bytes += chunk.length;
+            } catch (IOException e) {
+                throw new RuntimeException("File write error", e);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            long now = System.nanoTime();
+            long intervalNanos = appProperties.getCache().getProgressIntervalMs() * 1_000_000L;
+            if (now - lastReportNanos >= intervalNanos) {
+                lastReportNanos = now;
+                long rate = bytesPerSecond();
+                long eta = totalBytes > 0 && rate > 0 ? (totalBytes - bytes) * 1000 / rate : -1;
+                eventPublisher.publishEvent(new DownloadProgressEvent(LocalCacheService.this, musicId, bytes, totalBytes, rate, eta));
+            }
+        }
+
+        DownloadWriter finish() throws IOException {
+            out.close();
+            return this;
+        }
+
+        void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(tempPath);
+            } catch (IOException e) {
+                log.warn("Failed to clean up partial download {}", tempPath, e);
+            }
+        }
+
+        long checksum() {
+            return crc.getValue();
+        }
+
+        long bytes() {
+            return bytes;
+        }
+
+        long elapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        long bytesPerSecond() {
+            long elapsed = elapsedNanos();
+            return elapsed > 0 ? bytes * 1_000_000_000L / elapsed : 0;
+        }
+    }
+
+    private static CacheEntry fromRecord(CacheManifest.Record record) {
+        CacheEntry entry = new CacheEntry();
+        entry.setId(record.id());
+        entry.setFileName(record.fileName());
+        entry.setStatus(record.status());
+        entry.setSize(record.size());
+        entry.setChecksum(record.checksum());
+        entry.setModifiedTime(record.modifiedTime());
+        entry.setQuality(record.quality());
+        entry.setLastAccessTime(record.lastAccessTime());
+        return entry;
+    }
+
+    private static CacheManifest.Record toRecord(CacheEntry entry) {
+        return new CacheManifest.Record(CacheManifest.Op.PUT, entry.getId(), entry.getFileName(), entry.getSize(),
+                entry.getChecksum(), entry.getStatus(), entry.getLastAccessTime(), entry.getModifiedTime(),
+                entry.getQuality());
     }
 }
\ No newline at end of file
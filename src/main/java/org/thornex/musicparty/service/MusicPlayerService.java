@@ -128,6 +128,41 @@ public class MusicPlayerService {
         isVoteSkipEnabled.set(playerConfig.isVoteSkipEnabled());
         voteSkipThreshold.set(playerConfig.getVoteSkipThreshold());
         voteSkipWaitTime.set(playerConfig.getVoteSkipWaitTime());
+
+        // 正在播放与队列中的歌曲不可被缓存淘汰，否则轮到播放时只能重新下载
+        localCacheService.addPinSource(this::getCachePinnedIds);
+    }
+
+    /** 缓存固定集合：当前歌曲 + 待播队列。 */
+    private Set<String> getCachePinnedIds() {
+        Set<String> ids = new HashSet<>();
+        PlayableMusic music = currentMusic.get();
+        if (music != null) {
+            ids.add(music.id());
+        }
+        for (MusicQueueItem item : queueManager.getQueueSnapshot()) {
+            ids.add(item.music().id());
+        }
+        return ids;
+    }
+
+    /** 热点内存层前瞻集合：当前歌曲在前，其后按队列顺序（条数由 LocalCacheService 按配置截断）。 */
+    private List<String> getHotLookaheadIds() {
+        List<String> ids = new ArrayList<>();
+        PlayableMusic music = currentMusic.get();
+        if (music != null) {
+            ids.add(music.id());
+        }
+        int limit = appProperties.getCache().getHotTierTracks();
+        for (MusicQueueItem item : queueManager.getQueueSnapshot()) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            if (!ids.contains(item.music().id())) {
+                ids.add(item.music().id());
+            }
+        }
+        return ids;
     }
 
     @Scheduled(fixedRate = 1000)
@@ -247,6 +282,14 @@ public class MusicPlayerService {
                                 // 如果在请求期间执行了 skip/stop，版本号会变，这里就应该丢弃结果
                                 if (playHeadVersion.get() == currentVersion) {
                                     applyNewSong(playableMusic, nextItem);
+                                    if (service.supportsLocalCache()) {
+                                        // 命中率只统计真正开播的歌曲（入队解析也会查缓存，但未必播放）
+                                        localCacheService.recordPlay(nextItem.music().id());
+                                    }
+                                    if ("netease".equals(nextItem.music().platform())) {
+                                        // 真正开播的网易云歌曲才下载到本地缓存，供重复播放 / 转码重启使用
+                                        service.prefetchMusic(nextItem.music().id());
+                                    }
                                 } else {
                                     log.info("Discarded stale play result for {}", nextItem.music().name());
                                 }
@@ -1079,7 +1122,7 @@ public class MusicPlayerService {
             // 场景 C: 流用户离开，且网页端也没人 -> 进入休眠
             // 额外校验确无流连接：并发的 addListener 可能在旧监听者断开后才登记新连接，
             // 此时陈旧的 StreamStatusEvent(false) 不应把播放器误送入休眠
-            if (userService.getOnlineUserSummaries().isEmpty() && liveStreamService.getStreamConnectionCount() == 0) {
+            if (userService.getOnlineUserSummaries().isEmpty() && !liveStreamService.hasListeners()) {
                 enterIdleMode();
             }
         }
@@ -1143,6 +1186,30 @@ public class MusicPlayerService {
 
     public void broadcastQueueUpdate() {
         eventPublisher.publishEvent(new QueueUpdateEvent(this, getQueueWithUpdatedStatus()));
+        // 切歌、入队、下载完成都会走到这里：顺带刷新热点内存层的前瞻集合（未变化时立即返回）
+        localCacheService.updateHotSet(getHotLookaheadIds());
+        prefetchNeteaseLookahead();
+    }
+
+    /**
+     * 网易云本地缓存的前瞻：顺序播放下队首就是下一首，提前下载；只处理从未提交过的歌曲，
+     * 失败的不在每次队列广播时反复重试。随机 / 单曲循环下无法确定下一首，只在开播时下载。
+     */
+    private void prefetchNeteaseLookahead() {
+        if (playMode.get() != PlayMode.SEQUENTIAL) {
+            return;
+        }
+        List<MusicQueueItem> queue = queueManager.getQueueSnapshot();
+        if (queue.isEmpty()) {
+            return;
+        }
+        Music next = queue.get(0).music();
+        if ("netease".equals(next.platform()) && localCacheService.getStatus(next.id()) == null) {
+            IMusicApiService service = apiServiceMap.get("netease");
+            if (service != null) {
+                service.prefetchMusic(next.id());
+            }
+        }
     }
 
     public void broadcastFullPlayerState() {
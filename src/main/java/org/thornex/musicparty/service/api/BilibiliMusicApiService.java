@@ -196,6 +196,11 @@ public class BilibiliMusicApiService implements IMusicApiService {
                 .onErrorResume(e -> isNetworkFailure(e), e -> networkFailureFallback(e));
     }
 
+    @Override
+    public boolean supportsLocalCache() {
+        return true;
+    }
+
     @Override
     public void prefetchMusic(String bvid) {
         ensureConfigured();
@@ -369,7 +374,8 @@ public class BilibiliMusicApiService implements IMusicApiService {
                         .onErrorResume(e -> {
                             log.warn("DASH audio resolution failed for {}, falling back to html5 MP4 download: {}", bvid, e.getMessage());
                             return resolveHtml5Mp4Url(bvid, cid)
-                                    .map(url -> new LocalCacheService.DownloadSource(url, ".mp4"));
+                                    // html5 MP4 带视频轨，体积是纯音频的数倍：下载后流复制抽出音频再入库
+                                    .map(url -> new LocalCacheService.DownloadSource(url, ".mp4", true));
                         }));
     }
 
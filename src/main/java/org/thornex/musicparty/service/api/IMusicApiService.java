@@ -17,4 +17,6 @@ public interface IMusicApiService {
     Mono<List<UserSearchResult>> searchUsers(String keyword);
     Mono<String> getLyric(String musicId);
     default void prefetchMusic(String musicId) {};
+    /** prefetchMusic 是否会把歌曲下载到本地缓存（缓存预热据此筛选平台） */
+    default boolean supportsLocalCache() { return false; }
 }
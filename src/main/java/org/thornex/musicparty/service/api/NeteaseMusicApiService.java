@@ -11,12 +11,19 @@ import org.thornex.musicparty.dto.Music;
 import org.thornex.musicparty.dto.PlayableMusic;
 import org.thornex.musicparty.dto.Playlist;
 import org.thornex.musicparty.dto.UserSearchResult;
+import org.thornex.musicparty.enums.CacheStatus;
 import org.thornex.musicparty.exception.ApiRequestException;
+import org.thornex.musicparty.service.LocalCacheService;
 import reactor.core.publisher.Mono;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.StreamSupport;
 
 @Service
@@ -29,10 +36,28 @@ public class NeteaseMusicApiService implements IMusicApiService {
     private final String initialCookieFromConfig;
     private final String quality;
     private volatile String currentCookie;
+    private final LocalCacheService localCacheService;
     private static final String PLATFORM = "netease";
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+    /** 本地缓存可识别的音频扩展名，其余一律按 .mp3 保存 */
+    private static final Set<String> AUDIO_EXTENSIONS = Set.of(".mp3", ".flac", ".m4a", ".aac", ".ogg");
+    /** 直链音频时长低于曲目时长的该比例时视为不完整（试听片段约 30 秒），不写入本地缓存 */
+    private static final double MIN_CACHEABLE_RATIO = 0.8;
 
-    public NeteaseMusicApiService(WebClient webClient, AppProperties appProperties) {
+    /**
+     * /song/url(/v1) 返回的 data[0]。
+     *
+     * @param trial  freeTrialInfo 非空：只给了试听片段（VIP 歌曲 + 非会员或已过期的 Cookie）
+     * @param size   文件字节数，未返回时为 0
+     * @param timeMs 音频时长（毫秒），未返回时为 0
+     * @param br     实际码率（bps），未返回时为 0
+     */
+    record SongUrl(String url, boolean trial, long size, long timeMs, int br) {
+    }
+
+    public NeteaseMusicApiService(WebClient webClient, AppProperties appProperties, LocalCacheService localCacheService) {
         this.webClient = webClient;
+        this.localCacheService = localCacheService;
         this.baseUrl = appProperties.getNetease().getBaseUrl();
         this.neteaseConfig = appProperties.getNetease();
         this.initialCookieFromConfig = appProperties.getNetease().getCookie();
@@ -170,20 +195,124 @@ public class NeteaseMusicApiService implements IMusicApiService {
     public Mono<PlayableMusic> getPlayableMusic(String musicId) {
         ensureConfigured();
         Mono<Music> musicDetailsMono = getMusicDetails(musicId);
+
+        // 本地缓存命中：直接返回 /media 路径，省一次 /song/url 解析与 CDN 拉流
+        if (isLocalCacheEnabled() && hasCurrentCache(musicId)) {
+            String localUrl = localCacheService.getLocalUrl(musicId);
+            if (localUrl != null) {
+                return musicDetailsMono.map(music -> toPlayable(music, localUrl));
+            }
+            // 未缓存：走 CDN 直链。下载由播放器在真正开播 / 前瞻时触发，入队解析不占缓存预算
+        }
+
         // 优先 xeapi /song/url/v1（支持更高音质），失败（404 或空 url）自动回退 eapi /song/url
         Mono<String> musicUrlMono = resolveSongUrl(musicId);
 
         return Mono.zip(musicDetailsMono, musicUrlMono)
-                .map(tuple -> new PlayableMusic(
-                        tuple.getT1().id(),
-                        tuple.getT1().name(),
-                        tuple.getT1().artists(),
-                        tuple.getT1().duration(),
-                        tuple.getT1().platform(),
-                        upgradeToHttps(tuple.getT2()),
-                        upgradeToHttps(tuple.getT1().coverUrl()),
-                        false
-                ));
+                .map(tuple -> toPlayable(tuple.getT1(), upgradeToHttps(tuple.getT2())));
+    }
+
+    private PlayableMusic toPlayable(Music music, String url) {
+        return new PlayableMusic(
+                music.id(),
+                music.name(),
+                music.artists(),
+                music.duration(),
+                music.platform(),
+                url,
+                upgradeToHttps(music.coverUrl()),
+                false
+        );
+    }
+
+    private boolean isLocalCacheEnabled() {
+        return neteaseConfig.isLocalCacheEnabled();
+    }
+
+    @Override
+    public boolean supportsLocalCache() {
+        return isLocalCacheEnabled() && isCookieConfigured();
+    }
+
+    /**
+     * 是否有按当前音质档位下载的本地缓存。档位不同（含旧版本未记录档位的条目）的缓存会被作废，
+     * 否则调高 quality 后仍会一直提供旧的低音质文件（直播转码也直接读缓存文件）。
+     */
+    private boolean hasCurrentCache(String musicId) {
+        LocalCacheService.CacheEntry entry = localCacheService.getCacheEntry(musicId);
+        if (entry == null || entry.getStatus() != CacheStatus.COMPLETED) {
+            return false;
+        }
+        if (Objects.equals(quality, entry.getQuality())) {
+            return true;
+        }
+        log.info("Cached Netease music {} has quality {} (configured {}), re-downloading", musicId, entry.getQuality(), quality);
+        localCacheService.invalidate(musicId);
+        return false;
+    }
+
+    /**
+     * 开启本地缓存时，把歌曲提交到 {@link LocalCacheService} 的下载队列。
+     * 直链在任务真正开始时才解析（网易云直链有时效），与 B站共用容量上限、淘汰策略与清单。
+     * 试听片段或明显短于曲目时长的音频不下载（任务记为失败，下次开播再试），以免被当作完整歌曲长期提供。
+     */
+    @Override
+    public void prefetchMusic(String musicId) {
+        if (!supportsLocalCache() || hasCurrentCache(musicId)
+                || localCacheService.getStatus(musicId) == CacheStatus.DOWNLOADING) {
+            return;
+        }
+
+        log.info("Prefetching Netease music: {}", musicId);
+        Mono<LocalCacheService.DownloadSource> source = Mono.defer(() -> Mono.zip(resolveSong(musicId), getMusicDetails(musicId)))
+                .flatMap(tuple -> {
+                    SongUrl song = tuple.getT1();
+                    String reason = uncacheableReason(song, tuple.getT2().duration());
+                    return reason == null
+                            ? Mono.just(new LocalCacheService.DownloadSource(song.url(), resolveExtension(song.url()), false, quality))
+                            : Mono.error(new ApiRequestException("Netease song not cacheable: " + musicId + " (" + reason + ")"));
+                });
+
+        // 与直播转码拉流一致：带浏览器 UA + Referer，避免被 CDN 限流
+        localCacheService.submitDownload(musicId, source, Map.of(
+                "User-Agent", USER_AGENT,
+                "Referer", "https://music.163.com/"));
+    }
+
+    /** 从直链路径取音频扩展名（如 .mp3 / .flac），无法识别时按 .mp3 保存。 */
+    static String resolveExtension(String url) {
+        try {
+            String path = URI.create(url).getPath();
+            int dot = path != null ? path.lastIndexOf('.') : -1;
+            if (dot >= 0) {
+                String ext = path.substring(dot).toLowerCase(Locale.ROOT);
+                if (AUDIO_EXTENSIONS.contains(ext)) {
+                    return ext;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Unparseable Netease song url, defaulting to .mp3: {}", url);
+        }
+        return ".mp3";
+    }
+
+    /**
+     * 直链不适合写入本地缓存的原因，可缓存时返回 null。
+     * 接口没给音频时长时按 size / br 估算；两者都没有则只看 freeTrialInfo。
+     */
+    static String uncacheableReason(SongUrl song, long trackDurationMs) {
+        if (!StringUtils.hasText(song.url())) {
+            return "empty url";
+        }
+        if (song.trial()) {
+            return "free trial clip";
+        }
+        long clipMs = song.timeMs() > 0 ? song.timeMs()
+                : song.size() > 0 && song.br() > 0 ? song.size() * 8000 / song.br() : 0;
+        if (clipMs > 0 && trackDurationMs > 0 && clipMs < trackDurationMs * MIN_CACHEABLE_RATIO) {
+            return "clip " + clipMs + "ms of " + trackDurationMs + "ms";
+        }
+        return null;
     }
 
     /**
@@ -194,15 +323,19 @@ public class NeteaseMusicApiService implements IMusicApiService {
         return resolveSongUrl(musicId).map(this::upgradeToHttps);
     }
 
+    private Mono<String> resolveSongUrl(String musicId) {
+        return resolveSong(musicId).map(SongUrl::url);
+    }
+
     /**
      * 歌曲直链：先尝试 xeapi /song/url/v1（高音质档位），
      * 出错或返回空 url 时回退到 eapi /song/url（br 码率，稳定）。
      * 部署环境的 api-enhanced 若 xeapi 公钥未就绪，/song/url/v1 会一律 404，这里自动降级不影响播放。
      */
-    private Mono<String> resolveSongUrl(String musicId) {
+    private Mono<SongUrl> resolveSong(String musicId) {
         return xeapiSongUrl(musicId)
-                .flatMap(url -> StringUtils.hasText(url)
-                        ? Mono.just(url)
+                .flatMap(song -> StringUtils.hasText(song.url())
+                        ? Mono.just(song)
                         : Mono.error(new ApiRequestException("xeapi song url empty, falling back to eapi")))
                 .onErrorResume(e -> {
                     log.debug("xeapi /song/url/v1 failed ({}), falling back to eapi /song/url", e.getMessage());
@@ -210,24 +343,35 @@ public class NeteaseMusicApiService implements IMusicApiService {
                 });
     }
 
-    private Mono<String> xeapiSongUrl(String musicId) {
+    private Mono<SongUrl> xeapiSongUrl(String musicId) {
         ensureConfigured();
         return webClient.get()
                 .uri(baseUrl + "/song/url/v1?id={musicId}&level={quality}&cookie={cookie}", musicId, quality, getCookie())
                 .retrieve()
                 .onStatus(HttpStatusCode::isError, response -> handleApiError("get song URL", response))
                 .bodyToMono(JsonNode.class)
-                .map(jsonNode -> jsonNode.path("data").get(0).path("url").asText());
+                .map(NeteaseMusicApiService::parseSongUrl);
     }
 
-    private Mono<String> eapiSongUrl(String musicId) {
+    private Mono<SongUrl> eapiSongUrl(String musicId) {
         ensureConfigured();
         return webClient.get()
                 .uri(baseUrl + "/song/url?id={musicId}&br={br}&cookie={cookie}", musicId, resolveBr(quality), getCookie())
                 .retrieve()
                 .onStatus(HttpStatusCode::isError, response -> handleApiError("get song URL (eapi fallback)", response))
                 .bodyToMono(JsonNode.class)
-                .map(jsonNode -> jsonNode.path("data").get(0).path("url").asText());
+                .map(NeteaseMusicApiService::parseSongUrl);
+    }
+
+    /** 解析 /song/url(/v1) 响应的 data[0]；url 为 null（无版权等）时返回空字符串 */
+    static SongUrl parseSongUrl(JsonNode jsonNode) {
+        JsonNode data = jsonNode.path("data").path(0);
+        return new SongUrl(
+                data.path("url").isTextual() ? data.path("url").asText() : "",
+                data.hasNonNull("freeTrialInfo"),
+                data.path("size").asLong(),
+                data.path("time").asLong(),
+                data.path("br").asInt());
     }
 
     /** 将 level 音质档位映射为 eapi /song/url 的 br 码率（exhigh≈320k 高音质） */
@@ -0,0 +1,164 @@
+package org.thornex.musicparty.service.api;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.dto.Music;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 歌曲搜索结果缓存：按 (平台, 关键词, 页码) 缓存上游搜索结果，多人搜同一首热门歌只请求一次上游。
+ * <p>
+ * 有效期（ttl）内直接命中；同一键正在请求上游时，后来者合并到同一个在途请求（single-flight），不再重复请求。
+ * 上游出错（如 B站风控）时，若还有未超过 max-stale 的过期结果则返回旧结果，否则照常抛出错误。
+ * 空结果不缓存：B站在签名失败、非风控错误码时会把失败折成空列表，缓存它会让“无结果”持续一个 ttl，
+ * 并覆盖掉本可在出错时返回的旧结果；此时若有旧结果则返回旧结果。
+ * 条目数有上限，超出时淘汰最久未访问的条目。
+ */
+@Slf4j
+@Component
+public class SearchResultCache {
+
+    /** 缓存键：关键词已规范化（去首尾空白、合并空白、转小写） */
+    public record Key(String platform, String keyword, int page) {
+    }
+
+    /** 搜索缓存统计。upstreamSaved = 未请求上游即得到结果的次数（命中 + 合并）。 */
+    public record Stats(int entries, long requests, long hits, long coalesced, long staleServed,
+                        long upstreamCalls, long upstreamErrors, long upstreamSaved, double hitRate) {
+    }
+
+    private record Entry(List<Music> results, long fetchedAt) {
+    }
+
+    private final AppProperties.SearchCacheConfig config;
+    private final LongSupplier clock;
+    /** 访问顺序的 LRU，所有访问在 this 上同步 */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > config.getMaxEntries();
+        }
+    };
+    private final Map<Key, Mono<List<Music>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong staleServed = new AtomicLong();
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong upstreamErrors = new AtomicLong();
+
+    @Autowired
+    public SearchResultCache(AppProperties appProperties) {
+        this(appProperties, System::currentTimeMillis);
+    }
+
+    SearchResultCache(AppProperties appProperties, LongSupplier clock) {
+        this.config = appProperties.getSearchCache();
+        this.clock = clock;
+    }
+
+    /**
+     * 经缓存执行一次搜索。
+     *
+     * @param upstream 实际请求上游的搜索，只在未命中且没有在途请求时调用
+     */
+    public Mono<List<Music>> search(String platform, String keyword, int page, Supplier<Mono<List<Music>>> upstream) {
+        if (!config.isEnabled()) {
+            return upstream.get();
+        }
+        requests.incrementAndGet();
+        Key key = new Key(platform.toLowerCase(Locale.ROOT), normalize(keyword), page);
+        Entry entry = get(key);
+        if (entry != null && clock.getAsLong() - entry.fetchedAt() < config.getTtlMs()) {
+            hits.incrementAndGet();
+            return Mono.just(entry.results());
+        }
+        // 只有建立在途请求的调用方真正请求上游，其余合并到同一个结果
+        boolean[] created = new boolean[1];
+        Mono<List<Music>> shared = inFlight.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return fetch(k, upstream);
+        });
+        if (!created[0]) {
+            coalesced.incrementAndGet();
+        }
+        return shared;
+    }
+
+    private Mono<List<Music>> fetch(Key key, Supplier<Mono<List<Music>>> upstream) {
+        return Mono.defer(() -> {
+                    upstreamCalls.incrementAndGet();
+                    return upstream.get();
+                })
+                .flatMap(results -> {
+                    if (!results.isEmpty()) {
+                        put(key, new Entry(results, clock.getAsLong()));
+                        return Mono.just(results);
+                    }
+                    Entry stale = get(key);
+                    if (stale == null) {
+                        return Mono.just(results);
+                    }
+                    staleServed.incrementAndGet();
+                    log.warn("Search upstream returned nothing for {}:{}, serving stale results", key.platform(), key.keyword());
+                    return Mono.just(stale.results());
+                })
+                .onErrorResume(e -> {
+                    upstreamErrors.incrementAndGet();
+                    Entry stale = get(key);
+                    if (stale == null) {
+                        return Mono.error(e);
+                    }
+                    staleServed.incrementAndGet();
+                    log.warn("Search upstream failed for {}:{}, serving stale results: {}", key.platform(), key.keyword(), e.getMessage());
+                    return Mono.just(stale.results());
+                })
+                .doFinally(signal -> inFlight.remove(key))
+                .cache();
+    }
+
+    private synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        // 连旧结果都不能再用的条目直接丢弃
+        if (entry != null && clock.getAsLong() - entry.fetchedAt() > config.getMaxStaleMs()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public Stats getStats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        long total = requests.get();
+        long saved = hits.get() + coalesced.get();
+        return new Stats(size, total, hits.get(), coalesced.get(), staleServed.get(),
+                upstreamCalls.get(), upstreamErrors.get(), saved, total == 0 ? 0 : (double) hits.get() / total);
+    }
+
+    static String normalize(String keyword) {
+        return keyword == null ? "" : keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
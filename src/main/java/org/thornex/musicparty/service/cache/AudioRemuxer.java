@@ -0,0 +1,168 @@
+package org.thornex.musicparty.service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * 用 ffmpeg 把带视频轨的 MP4 流复制为纯音频 M4A（{@code -vn -c:a copy}，不重编码，秒级完成）。
+ * <p>
+ * B站 html5 兜底下载的 MP4 含 480P 视频轨，体积是音频的 5-10 倍：抽取后缓存占用与每个客户端经
+ * {@code /media} 拉取的流量都按纯音频计。输出带 {@code +faststart}，moov 前置，浏览器无需先取文件尾即可起播。
+ * <p>
+ * 另提供低码率转码（AAC-LC in M4A），用于移动端省流量的低码率副本。
+ */
+@Slf4j
+public class AudioRemuxer {
+
+    /** 单次抽取的超时：流复制只搬运数据，正常远低于该值 */
+    private static final long TIMEOUT_SECONDS = 120;
+    /** 单次转码的超时：需要完整解码 + 编码，10 分钟内的歌曲通常在数秒内完成 */
+    private static final long TRANSCODE_TIMEOUT_SECONDS = 300;
+    /** 失败时写入日志的 ffmpeg 输出上限（字符） */
+    private static final int MAX_LOGGED_OUTPUT = 2000;
+
+    private final Supplier<String> ffmpegPath;
+    private final long timeoutSeconds;
+    private final long transcodeTimeoutSeconds;
+
+    public AudioRemuxer(Supplier<String> ffmpegPath) {
+        this(ffmpegPath, TIMEOUT_SECONDS, TRANSCODE_TIMEOUT_SECONDS);
+    }
+
+    AudioRemuxer(Supplier<String> ffmpegPath, long timeoutSeconds, long transcodeTimeoutSeconds) {
+        this.ffmpegPath = ffmpegPath;
+        this.timeoutSeconds = timeoutSeconds;
+        this.transcodeTimeoutSeconds = transcodeTimeoutSeconds;
+    }
+
+    /**
+     * 抽取 input 的第一条音频轨写入 output（MP4 容器）。
+     *
+     * @return 成功且输出非空时返回 true；ffmpeg 不可用、超时或源无音频轨时返回 false（调用方保留原文件）
+     */
+    public boolean extractAudio(Path input, Path output) {
+        return run(buildCommand(ffmpegPath.get(), input, output), input, output, timeoutSeconds, "Audio extraction");
+    }
+
+    /**
+     * 把 input 的第一条音频轨转码为指定码率的 AAC，写入 output（MP4 容器）。
+     * 选 AAC 而非 Opus：iOS/Safari 的 {@code <audio>} 对 AAC-in-MP4 支持最稳定。
+     *
+     * @return 成功且输出非空时返回 true；失败时返回 false（调用方继续提供原文件）
+     */
+    public boolean transcode(Path input, Path output, int kbps) {
+        return run(buildTranscodeCommand(ffmpegPath.get(), input, output, kbps), input, output,
+                transcodeTimeoutSeconds, "Transcode");
+    }
+
+    private boolean run(List<String> command, Path input, Path output, long timeoutSeconds, String action) {
+        Process process = null;
+        Path outputLog = null;
+        try {
+            // ffmpeg 输出写到临时文件而不是管道：读管道要等到 EOF，挂住的 ffmpeg 会让超时永远不生效
+            outputLog = Files.createTempFile("ffmpeg-", ".log");
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(outputLog.toFile())
+                    .start();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("{} timed out after {}s for {}", action, timeoutSeconds, input.getFileName());
+                return false;
+            }
+            if (process.exitValue() != 0) {
+                log.warn("{} exited {} for {}: {}", action, process.exitValue(), input.getFileName(), readLog(outputLog));
+                return false;
+            }
+            return Files.isRegularFile(output) && Files.size(output) > 0;
+        } catch (IOException e) {
+            log.warn("{} unavailable for {}: {}", action, input.getFileName(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+            if (outputLog != null) {
+                try {
+                    Files.deleteIfExists(outputLog);
+                } catch (IOException ignored) {
+                    // 临时日志删除失败不影响结果
+                }
+            }
+        }
+    }
+
+    private static String readLog(Path outputLog) throws IOException {
+        String text = new String(Files.readAllBytes(outputLog), StandardCharsets.UTF_8).trim();
+        return text.length() > MAX_LOGGED_OUTPUT ? text.substring(text.length() - MAX_LOGGED_OUTPUT) : text;
+    }
+
+    static List<String> buildCommand(String ffmpeg, Path input, Path output) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpeg);
+        command.add("-y");
+        command.add("-loglevel");
+        command.add("error");
+        command.add("-i");
+        command.add(input.toAbsolutePath().toString());
+        command.add("-map");
+        command.add("0:a:0");   // 只要第一条音频轨，没有音频轨时直接失败
+        command.add("-vn");
+        command.add("-c:a");
+        command.add("copy");    // 流复制，不重编码
+        command.add("-movflags");
+        command.add("+faststart");
+        command.add("-f");
+        command.add("mp4");     // 输出名带 .part 后缀，需显式指定容器
+        command.add(output.toAbsolutePath().toString());
+        return command;
+    }
+
+    static List<String> buildTranscodeCommand(String ffmpeg, Path input, Path output, int kbps) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpeg);
+        command.add("-y");
+        command.add("-loglevel");
+        command.add("error");
+        command.add("-i");
+        command.add(input.toAbsolutePath().toString());
+        command.add("-map");
+        command.add("0:a:0");
+        command.add("-vn");
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-b:a");
+        command.add(kbps + "k");
+        command.add("-movflags");
+        command.add("+faststart");
+        command.add("-f");
+        command.add("mp4");
+        command.add(output.toAbsolutePath().toString());
+        return command;
+    }
+
+    /** 计算文件内容的 CRC32（与下载写入时的校验和口径一致）。 */
+    public static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream is = Files.newInputStream(file)) {
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,104 @@
+package org.thornex.musicparty.service.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 按字节加权的分段 LRU（SLRU）淘汰策略。
+ * <p>
+ * 新缓存的文件先进入<b>试用段</b>；被再次访问（再次点播 / 历史记录自动播放）才晋升到<b>保护段</b>。
+ * 淘汰时先从试用段最久未访问处取，再轮到保护段——一次性点播的歌单导入、收藏夹批量预取
+ * 不会把反复播放的热门歌曲挤出缓存（朴素 LRU 会）。
+ * <p>
+ * 两段都是访问有序的 {@link LinkedHashMap}：插入、访问、删除、取最旧均为 O(1)；
+ * 选择淘汰对象时只会跳过被固定（队列中 / 正在播放 / 正在转码）的条目。
+ * 本类只维护顺序，不做 IO，线程安全由方法级同步保证。
+ */
+public class CacheEvictionPolicy {
+
+    /** 保护段占缓存上限的比例，超出时把保护段最旧的条目降级回试用段 */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final LinkedHashMap<String, Long> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long protectedBytes;
+    private volatile long maxBytes;
+
+    public CacheEvictionPolicy(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** 新缓存完成（或启动时按访问时间从旧到新恢复）的条目，进入试用段最新端。 */
+    public synchronized void onInsert(String id, long size) {
+        onRemove(id);
+        probation.put(id, size);
+    }
+
+    /** 命中：试用段条目晋升到保护段，保护段条目刷新为最新。 */
+    public synchronized void onAccess(String id) {
+        Long size = protectedSegment.get(id); // access-order：get 即刷新
+        if (size != null) {
+            return;
+        }
+        size = probation.remove(id);
+        if (size == null) {
+            return;
+        }
+        protectedSegment.put(id, size);
+        protectedBytes += size;
+        demoteOverflow();
+    }
+
+    public synchronized void onRemove(String id) {
+        probation.remove(id);
+        Long size = protectedSegment.remove(id);
+        if (size != null) {
+            protectedBytes -= size;
+        }
+    }
+
+    /**
+     * 选出下一个淘汰对象（不移除，调用方删除文件成功后再调用 {@link #onRemove}）。
+     *
+     * @param pinned 返回 true 的条目不可淘汰
+     * @return 淘汰对象 id；全部被固定或为空时返回 null
+     */
+    public synchronized String selectVictim(Predicate<String> pinned) {
+        String victim = oldestUnpinned(probation, pinned);
+        return victim != null ? victim : oldestUnpinned(protectedSegment, pinned);
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized int protectedSize() {
+        return protectedSegment.size();
+    }
+
+    private static String oldestUnpinned(LinkedHashMap<String, Long> segment, Predicate<String> pinned) {
+        for (String id : segment.keySet()) {
+            if (!pinned.test(id)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    private void demoteOverflow() {
+        long limit = (long) (maxBytes * PROTECTED_RATIO);
+        Iterator<Map.Entry<String, Long>> it = protectedSegment.entrySet().iterator();
+        while (protectedBytes > limit && protectedSegment.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            protectedBytes -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+}
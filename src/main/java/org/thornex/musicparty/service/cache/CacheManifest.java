@@ -0,0 +1,183 @@
+package org.thornex.musicparty.service.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.thornex.musicparty.enums.CacheStatus;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 本地媒体缓存清单（JSON Lines 追加日志 + 周期压缩）。
+ * <p>
+ * 每行一条记录：{@code PUT} 覆盖同 id 的条目，{@code DEL} 删除该条目。启动时顺序回放即可毫秒级重建索引，
+ * 不再扫描目录猜测 id，且保留 LRU 访问历史。访问时间的变化不逐条追加（太频繁），
+ * 由 {@link #compact(Supplier)} 周期性整体落盘。
+ * <p>
+ * 每条记录带内容 CRC32 与文件修改时间：启动对账时修改时间变化的文件按 CRC32 复核（{@link #matches}），
+ * 被外部改写但大小未变的文件因此不会被当作完好的缓存继续提供。
+ * <p>
+ * 崩溃时最后一行可能只写了一半：回放时跳过无法解析的行，不影响其余记录。
+ */
+@Slf4j
+public class CacheManifest {
+
+    public enum Op {PUT, DEL}
+
+    /**
+     * 清单中的一条记录。DEL 记录只有 id 有意义。
+     * modifiedTime 为入库时文件的修改时间（毫秒），旧版本清单中没有该字段（回放为 0）。
+     * quality 为下载时的音质档位（目前只有网易云填写），旧版本清单中没有该字段（回放为 null）。
+     */
+    public record Record(Op op, String id, String fileName, long size, String checksum,
+                         CacheStatus status, long lastAccessTime, long modifiedTime, String quality) {
+
+        public static Record delete(String id) {
+            return new Record(Op.DEL, id, null, 0, null, null, 0, 0, null);
+        }
+    }
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    /** 上次压缩后追加的记录数，用于判断日志是否需要压缩 */
+    private int appendedSinceCompact;
+
+    public CacheManifest(Path file, ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 回放清单，返回当前存活的条目（按 id，保持首次出现顺序）。清单不存在时返回空表。
+     */
+    public synchronized Map<String, Record> load() {
+        Map<String, Record> live = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return live;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Failed to read cache manifest {}", file.toAbsolutePath(), e);
+            return live;
+        }
+        int skipped = 0;
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            Record record;
+            try {
+                record = objectMapper.readValue(line, Record.class);
+            } catch (IOException e) {
+                skipped++;
+                continue;
+            }
+            if (record.id() == null || record.op() == null) {
+                skipped++;
+                continue;
+            }
+            if (record.op() == Op.DEL) {
+                live.remove(record.id());
+            } else {
+                live.put(record.id(), record);
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Cache manifest: skipped {} unreadable line(s) in {}", skipped, file.toAbsolutePath());
+        }
+        appendedSinceCompact = lines.size() - live.size();
+        return live;
+    }
+
+    /** 追加一条 PUT 记录。 */
+    public synchronized void put(Record record) {
+        append(record);
+    }
+
+    /** 追加一条 DEL 记录。 */
+    public synchronized void delete(String id) {
+        append(Record.delete(id));
+    }
+
+    public synchronized int getAppendedSinceCompact() {
+        return appendedSinceCompact;
+    }
+
+    /**
+     * 用当前存活条目整体重写清单（先写临时文件，再原子替换），顺带清除历史 PUT/DEL 冗余行。
+     * <p>
+     * 快照在追加所用的同一把锁内取得：快照与重写之间不会有 put/delete 追加到即将被替换的旧文件而丢失。
+     * 调用方须先更新索引、再追加记录，快照才能覆盖所有已追加的变化。
+     */
+    public synchronized void compact(Supplier<? extends Collection<Record>> snapshot) {
+        Collection<Record> live = snapshot.get();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            ensureParentDir();
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Record record : live) {
+                    writer.write(objectMapper.writeValueAsString(record));
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            appendedSinceCompact = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact cache manifest {}", file.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 磁盘文件是否仍与记录一致：大小不同即不一致；修改时间与记录不同（或记录无修改时间）时按 CRC32 复核内容。
+     * 没有校验和的记录（旧版本收编的文件）只比较大小。
+     */
+    public static boolean matches(Record record, Path file) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != record.size()) {
+            return false;
+        }
+        if (record.checksum() == null || Files.getLastModifiedTime(file).toMillis() == record.modifiedTime()) {
+            return true;
+        }
+        return Long.toHexString(AudioRemuxer.crc32(file)).equals(record.checksum());
+    }
+
+    private void append(Record record) {
+        try {
+            ensureParentDir();
+            String line = objectMapper.writeValueAsString(record) + "\n";
+            Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            appendedSinceCompact++;
+        } catch (IOException e) {
+            log.error("Failed to append cache manifest record for {}", record.id(), e);
+        }
+    }
+
+    private void ensureParentDir() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.thornex.musicparty.service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 热点内存层：把正在播放与即将播放的几首缓存文件只读映射（mmap）进内存并预读驻留。
+ * <p>
+ * 切歌 / seek 重启转码、新客户端加入时反复打开同一批文件；映射后这些页常驻，
+ * {@code /media} 可直接从映射区写出（或 sendfile 命中驻留页），无需再次 open/read。
+ * <p>
+ * 严格字节预算：按优先级（当前歌曲在前）依次装入，装不下的条目直接跳过，不挤出更高优先级的条目。
+ * 映射区由 GC 回收解除映射，这里只负责引用与预算记账。本类不感知缓存索引。
+ * 查询与记账在本对象上同步；{@link #retain} 之间另行串行，映射与预读在两把锁之外进行，
+ * 大文件预读期间 {@code /media} 的 {@link #get} / {@link #contains} 不被阻塞。
+ */
+@Slf4j
+public class HotMediaTier {
+
+    /** 热点层中的一个文件：请求方需用 {@link #buffer()} 取独立视图读取 */
+    public record HotFile(String id, Path path, long size, MappedByteBuffer mapped) {
+
+        /** 共享映射区的独立只读视图（各自的 position/limit，可并发读取） */
+        public ByteBuffer buffer() {
+            return mapped.asReadOnlyBuffer();
+        }
+    }
+
+    /** 待装入的候选：缓存 id + 文件路径 + 大小，按优先级排列 */
+    public record Candidate(String id, Path path, long size) {}
+
+    private final Map<String, HotFile> files = new LinkedHashMap<>();
+    /** 串行化 retain：同一时刻只有一轮装入，预算规划不会与另一轮交错 */
+    private final Object retainLock = new Object();
+    /** 本轮 retain 开始后被 {@link #remove} 的 id：映射完成时不再装入已删除的文件 */
+    private final Set<String> removedDuringRetain = new HashSet<>();
+    private boolean retaining;
+    private long usedBytes;
+    private volatile long maxBytes;
+
+    private long hits;
+    private long loads;
+
+    public HotMediaTier(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 把热点集合调整为给定候选（按优先级）：不在候选中的条目释放，新的条目在预算内映射并预读。
+     *
+     * @return 本次新装入的条目数
+     */
+    public int retain(List<Candidate> candidates) {
+        synchronized (retainLock) {
+            List<Candidate> toLoad = plan(candidates);
+            int loaded = 0;
+            try {
+                for (Candidate candidate : toLoad) {
+                    HotFile file = map(candidate); // 锁外映射并预读
+                    if (file != null && install(file)) {
+                        loaded++;
+                    }
+                }
+            } finally {
+                finishRetain();
+            }
+            return loaded;
+        }
+    }
+
+    /** 释放不再需要的条目，并按优先级在预算内选出需要新映射的候选。 */
+    private synchronized List<Candidate> plan(List<Candidate> candidates) {
+        retaining = true;
+        Set<String> wanted = new HashSet<>();
+        candidates.forEach(c -> wanted.add(c.id()));
+        files.keySet().removeIf(id -> {
+            if (wanted.contains(id)) {
+                return false;
+            }
+            usedBytes -= sizeOf(id);
+            return true;
+        });
+
+        List<Candidate> toLoad = new ArrayList<>();
+        long planned = usedBytes;
+        for (Candidate candidate : candidates) {
+            HotFile existing = files.get(candidate.id());
+            if (existing != null && existing.path().equals(candidate.path()) && existing.size() == candidate.size()) {
+                continue;
+            }
+            if (existing != null) {
+                files.remove(candidate.id());
+                usedBytes -= existing.size();
+                planned -= existing.size();
+            }
+            if (candidate.size() <= 0 || candidate.size() > Integer.MAX_VALUE
+                    || planned + candidate.size() > maxBytes) {
+                continue; // 超出预算：跳过，不挤出更高优先级的条目
+            }
+            toLoad.add(candidate);
+            planned += candidate.size();
+        }
+        return toLoad;
+    }
+
+    private synchronized void finishRetain() {
+        retaining = false;
+        removedDuringRetain.clear();
+    }
+
+    private synchronized boolean install(HotFile file) {
+        if (removedDuringRetain.contains(file.id()) || usedBytes + file.size() > maxBytes) {
+            return false;
+        }
+        files.put(file.id(), file);
+        usedBytes += file.size();
+        loads++;
+        return true;
+    }
+
+    /** 命中返回热点文件，未命中返回 null。命中计入 {@link #hits()}，只应由实际从映射区读取的调用方使用。 */
+    public synchronized HotFile get(String id) {
+        HotFile file = files.get(id);
+        if (file != null) {
+            hits++;
+        }
+        return file;
+    }
+
+    public synchronized boolean contains(String id) {
+        return files.containsKey(id);
+    }
+
+    /** 缓存条目被删除时调用，释放对应映射。 */
+    public synchronized void remove(String id) {
+        if (retaining) {
+            removedDuringRetain.add(id);
+        }
+        HotFile file = files.remove(id);
+        if (file != null) {
+            usedBytes -= file.size();
+        }
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long loads() {
+        return loads;
+    }
+
+    private long sizeOf(String id) {
+        HotFile file = files.get(id);
+        return file != null ? file.size() : 0;
+    }
+
+    private static HotFile map(Candidate candidate) {
+        try (FileChannel channel = FileChannel.open(candidate.path(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size != candidate.size()) {
+                return null; // 文件与索引不一致（正在被替换），本轮不装入
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.load(); // 预读驻留，首个客户端 / 转码器不再触发缺页读盘
+            return new HotFile(candidate.id(), candidate.path(), size, mapped);
+        } catch (IOException e) {
+            log.warn("Hot tier: failed to map {}: {}", candidate.path(), e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.thornex.musicparty.service.stream;
+
+/**
+ * 编码输出的分帧器：解析 MP3（Layer III）/ ADTS 帧头，把任意切分的字节流重组为只含完整帧的块，
+ * 并给出每块的精确时长（帧采样数之和 / 采样率）。
+ * <p>
+ * 环形缓冲与 HLS 分段拿到的每一块都从帧边界开始：新收听者预填、drop-oldest 跳块、HLS 切段
+ * 都不会从半帧处开始，播放器无需丢字节重新同步。无法识别的字节（非帧头）被跳过直至重新同步。
+ * 单线程使用（每个档位的输出读线程一个）。
+ */
+final class AudioFramer {
+
+    /** 分帧后的一块：只含完整帧。data 在回调返回后会被复用，接收方须自行拷贝。 */
+    interface ChunkSink {
+        void accept(byte[] data, int offset, int length, long durationMicros);
+    }
+
+    private static final int[] MPEG1_L3_KBPS = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] MPEG2_L3_KBPS = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[][] MPEG_SAMPLE_RATES = {
+            {11025, 12000, 8000},   // MPEG 2.5
+            null,                   // 保留
+            {22050, 24000, 16000},  // MPEG 2
+            {44100, 48000, 32000}}; // MPEG 1
+    private static final int[] ADTS_SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    /** 帧头至少需要的字节数（ADTS 7 字节，MP3 4 字节；ID3 标签头 10 字节） */
+    private static final int HEADER_BYTES = 10;
+
+    private final boolean adts;
+    private final int maxChunkBytes;
+    private final long targetChunkMicros;
+    private final ChunkSink sink;
+
+    // 尚未凑成完整帧的输入
+    private final byte[] pending;
+    private int pendingLength;
+    // 正在累积的输出块
+    private final byte[] chunk;
+    private int chunkLength;
+    private long chunkMicros;
+    /** 累计采样数：按累计值换算微秒，逐帧舍入误差不会累积 */
+    private long totalSamples;
+    private int totalRate;
+
+    private long skippedBytes;
+
+    /**
+     * @param codec             档位编码（mp3 / aac）
+     * @param maxChunkBytes     每块字节上限（环形缓冲槽位大小）
+     * @param targetChunkMicros 每块目标时长：累积到该时长即输出
+     */
+    AudioFramer(String codec, int maxChunkBytes, long targetChunkMicros, ChunkSink sink) {
+        this.adts = "aac".equals(codec);
+        this.maxChunkBytes = maxChunkBytes;
+        this.targetChunkMicros = Math.max(1, targetChunkMicros);
+        this.sink = sink;
+        // 单帧最大：MP3 320kbps@32kHz 约 1441 字节，ADTS 帧长字段上限 8191 字节
+        this.pending = new byte[Math.max(maxChunkBytes, 8192) + 8192];
+        this.chunk = new byte[maxChunkBytes];
+    }
+
+    /** 已跳过的无法识别字节数（诊断用）。 */
+    long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /** 追加一段编码输出，凑满的块经 sink 输出。 */
+    void feed(byte[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, pending.length - pendingLength);
+            System.arraycopy(src, offset, pending, pendingLength, n);
+            pendingLength += n;
+            offset += n;
+            drainFrames();
+        }
+    }
+
+    /** 输出当前未满的块（编码器停止时调用）。 */
+    void flush() {
+        if (chunkLength > 0) {
+            emit();
+        }
+    }
+
+    private void drainFrames() {
+        int pos = 0;
+        while (pendingLength - pos >= HEADER_BYTES) {
+            int id3 = id3TagLength(pending, pos);
+            if (id3 > pending.length) {
+                pos += 3; // 超出缓冲的标签视为杂数据，逐字节重新同步
+                skippedBytes += 3;
+                continue;
+            }
+            if (id3 > 0) {
+                if (pendingLength - pos < id3) {
+                    break;
+                }
+                pos += id3; // 元数据标签不属于音频流
+                continue;
+            }
+            long header = adts ? adtsHeader(pending, pos) : mp3Header(pending, pos);
+            if (header < 0) {
+                pos++;
+                skippedBytes++;
+                continue;
+            }
+            int frameLength = (int) (header >>> 40);
+            if (pendingLength - pos < frameLength) {
+                break;
+            }
+            appendFrame(pending, pos, frameLength, (int) ((header >>> 24) & 0xFFFF), (int) (header & 0xFFFFFF));
+            pos += frameLength;
+        }
+        if (pos > 0) {
+            System.arraycopy(pending, pos, pending, 0, pendingLength - pos);
+            pendingLength -= pos;
+        }
+    }
+
+    private void appendFrame(byte[] src, int offset, int length, int samples, int rate) {
+        if (chunkLength > 0 && chunkLength + length > maxChunkBytes) {
+            emit();
+        }
+        if (length > maxChunkBytes) {
+            skippedBytes += length; // 槽位装不下的帧（块大小配置过小），丢弃
+            return;
+        }
+        System.arraycopy(src, offset, chunk, chunkLength, length);
+        chunkLength += length;
+        if (rate != totalRate) {
+            totalSamples = 0;
+            totalRate = rate;
+        }
+        long before = totalSamples * 1_000_000L / rate;
+        totalSamples += samples;
+        chunkMicros += totalSamples * 1_000_000L / rate - before;
+        if (chunkMicros >= targetChunkMicros) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        sink.accept(chunk, 0, chunkLength, chunkMicros);
+        chunkLength = 0;
+        chunkMicros = 0;
+    }
+
+    /** 帧头编码：40 位起为帧长，24-39 位为每帧采样数，低 24 位为采样率。 */
+    private static long encode(int frameLength, int samples, int sampleRate) {
+        return ((long) frameLength << 40) | ((long) samples << 24) | sampleRate;
+    }
+
+    /** 解析 MP3 Layer III 帧头；不是合法帧头时返回 -1。 */
+    static long mp3Header(byte[] b, int p) {
+        int b1 = b[p + 1] & 0xFF;
+        int b2 = b[p + 2] & 0xFF;
+        if ((b[p] & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return -1;
+        }
+        int version = (b1 >> 3) & 0x03;
+        int layer = (b1 >> 1) & 0x03;
+        int bitrateIndex = b2 >> 4;
+        int rateIndex = (b2 >> 2) & 0x03;
+        if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return -1; // 只接受 Layer III、非自由码率
+        }
+        boolean mpeg1 = version == 3;
+        int kbps = (mpeg1 ? MPEG1_L3_KBPS : MPEG2_L3_KBPS)[bitrateIndex];
+        int sampleRate = MPEG_SAMPLE_RATES[version][rateIndex];
+        int padding = (b2 >> 1) & 0x01;
+        int frameLength = (mpeg1 ? 144 : 72) * kbps * 1000 / sampleRate + padding;
+        return encode(frameLength, mpeg1 ? 1152 : 576, sampleRate);
+    }
+
+    /** 解析 ADTS 帧头；不是合法帧头时返回 -1。 */
+    static long adtsHeader(byte[] b, int p) {
+        if ((b[p] & 0xFF) != 0xFF || (b[p + 1] & 0xF6) != 0xF0) {
+            return -1; // 同步字 0xFFF，layer 必须为 0
+        }
+        int rateIndex = (b[p + 2] >> 2) & 0x0F;
+        if (rateIndex >= ADTS_SAMPLE_RATES.length) {
+            return -1;
+        }
+        int frameLength = ((b[p + 3] & 0x03) << 11) | ((b[p + 4] & 0xFF) << 3) | ((b[p + 5] & 0xE0) >> 5);
+        int headerLength = (b[p + 1] & 0x01) == 1 ? 7 : 9;
+        if (frameLength <= headerLength) {
+            return -1;
+        }
+        int rawBlocks = (b[p + 6] & 0x03) + 1;
+        return encode(frameLength, 1024 * rawBlocks, ADTS_SAMPLE_RATES[rateIndex]);
+    }
+
+    /** 位置 p 处为 ID3v2 标签时返回其总长度，否则返回 0。 */
+    private static int id3TagLength(byte[] b, int p) {
+        if (b[p] != 'I' || b[p + 1] != 'D' || b[p + 2] != '3') {
+            return 0;
+        }
+        int size = ((b[p + 6] & 0x7F) << 21) | ((b[p + 7] & 0x7F) << 14) | ((b[p + 8] & 0x7F) << 7) | (b[p + 9] & 0x7F);
+        return 10 + size + ((b[p + 5] & 0x10) != 0 ? 10 : 0);
+    }
+}
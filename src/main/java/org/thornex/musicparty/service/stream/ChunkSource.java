@@ -0,0 +1,33 @@
+package org.thornex.musicparty.service.stream;
+
+/**
+ * 收听者读游标所依附的块序列：实时的 {@link StreamRingBuffer}，或时移收听者的 {@link StreamDvr.View}。
+ * 序号单调递增，{@link #floor()} 与 {@link #head()} 之间的块可读。
+ */
+interface ChunkSource {
+
+    /** 读取时该块已被覆盖 */
+    int LAPPED = -1;
+
+    /** 可读序号上界（不含） */
+    long head();
+
+    /** 可读序号下界：更早的块已过期或被覆盖 */
+    long floor();
+
+    /**
+     * 把序号 seq 的块拷贝到 dst。调用方须保证 {@code seq < head()}。
+     *
+     * @return 块长度；拷贝期间被覆盖（或拷贝前已被覆盖）时返回 {@link #LAPPED}
+     */
+    int read(long seq, byte[] dst);
+
+    /**
+     * 序号 seq 的块在档位连续媒体时间轴上的起始时刻（微秒）。须在同一块的 {@link #read} 之前读取：
+     * read 的覆盖校验同时保证这里读到的值与数据属于同一块。
+     */
+    long mediaMicros(long seq);
+
+    /** 序号 seq 的块的发布时刻（服务器 epoch 毫秒），读取顺序要求同 {@link #mediaMicros}。 */
+    long publishedMs(long seq);
+}
@@ -0,0 +1,201 @@
+package org.thornex.musicparty.service.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * 把一个档位的编码输出切成内存中的 HLS 音频分段（packed audio），并维护滚动播放列表。
+ * <p>
+ * 分段在帧边界处切分：输入为 {@link AudioFramer} 分帧后的块，累计时长达到 segmentSeconds 即封口，
+ * EXTINF 与时间戳均为帧采样数折算的精确时长（时长未知的输入按码率折算）。每段开头带 HLS 规范要求的 ID3 时间戳
+ * （{@code com.apple.streaming.transportStreamTimestamp}），段内容一经生成不再改变，可被反向代理/CDN 长期缓存。
+ * 切歌 / 暂停 / seek 时调用 {@link #discontinuity()}：当前未满的段立即封口，下一段带 EXT-X-DISCONTINUITY。
+ * <p>
+ * 内存中只保留最近 {@code playlistSegments * 2} 段：播放列表只列出最新的 playlistSegments 段，
+ * 多保留的部分供拿着稍旧播放列表的播放器仍能取到分段。
+ */
+public class HlsSegmenter {
+
+    /** 一个已封口的分段。data 含 ID3 时间戳头，不可修改。 */
+    public record Segment(long sequence, byte[] data, double durationSeconds, boolean discontinuity) {
+    }
+
+    private static final byte[] TIMESTAMP_OWNER =
+            "com.apple.streaming.transportStreamTimestamp\0".getBytes(StandardCharsets.ISO_8859_1);
+    /** ID3 头(10) + PRIV 帧头(10) + owner + 8 字节时间戳 */
+    private static final int ID3_TAG_BYTES = 10 + 10 + TIMESTAMP_OWNER.length + 8;
+    /** 33 位 MPEG 时间戳回绕 */
+    private static final long PTS_MASK = (1L << 33) - 1;
+
+    private final int bytesPerSecond;
+    private final long segmentMicros;
+    private final int segmentSeconds;
+    private final int playlistSegments;
+    private final int retainedSegments;
+    private final String extension;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private byte[] pending;
+    private int pendingLength;
+    private long pendingMicros;
+    private long nextSequence;
+    /** 已产出音频的总时长（微秒），折算为各段起始时间戳 */
+    private long totalMicros;
+    private boolean nextDiscontinuity;
+    /** 曾封口的带 discontinuity 标记的段总数，用于计算 EXT-X-DISCONTINUITY-SEQUENCE */
+    private long totalDiscontinuities;
+
+    public HlsSegmenter(int bytesPerSecond, int segmentSeconds, int playlistSegments, String extension) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.segmentSeconds = Math.max(1, segmentSeconds);
+        this.segmentMicros = this.segmentSeconds * 1_000_000L;
+        this.playlistSegments = Math.max(3, playlistSegments); // 规范建议直播列表至少 3 段
+        this.retainedSegments = this.playlistSegments * 2;
+        this.extension = extension;
+        this.pending = new byte[bytesPerSecond * (this.segmentSeconds + 1)];
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /** 分段在缓存中的最长保留时间（秒），用于分段响应的 Cache-Control。 */
+    public int getRetentionSeconds() {
+        return retainedSegments * segmentSeconds;
+    }
+
+    /** 追加一段时长未知的编码输出：按码率折算时长，在折算出的段边界处切开。 */
+    public synchronized void append(byte[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            long missingMicros = segmentMicros - pendingMicros;
+            int n = (int) Math.min(end - offset, Math.max(1, (missingMicros * bytesPerSecond + 999_999) / 1_000_000));
+            append(src, offset, n, n * 1_000_000L / bytesPerSecond);
+            offset += n;
+        }
+    }
+
+    /** 追加一块完整帧及其精确时长，累计满一段即在此块之后封口。 */
+    public synchronized void append(byte[] src, int offset, int length, long durationMicros) {
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        System.arraycopy(src, offset, pending, pendingLength, length);
+        pendingLength += length;
+        pendingMicros += durationMicros;
+        if (pendingMicros >= segmentMicros) {
+            seal();
+        }
+    }
+
+    /** 输出不连续（切歌 / 暂停 / seek）：封口当前段，下一段标记 EXT-X-DISCONTINUITY。 */
+    public synchronized void discontinuity() {
+        if (pendingLength > 0) {
+            seal();
+        }
+        if (!segments.isEmpty()) {
+            nextDiscontinuity = true;
+        }
+    }
+
+    /** 按序号取分段；已滑出保留窗口或尚未生成时返回 null。 */
+    public synchronized Segment segment(long sequence) {
+        for (Segment s : segments) {
+            if (s.sequence() == sequence) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /** 生成当前滚动播放列表。分段 URI 为相对路径 {@code <序号>.<扩展名>}。 */
+    public String playlist() {
+        return playlist("");
+    }
+
+    /** 同 {@link #playlist()}，每个分段 URI 后追加 uriSuffix（如分段访问令牌 {@code ?t=...}）。 */
+    public synchronized String playlist(String uriSuffix) {
+        Segment[] window = segments.toArray(new Segment[0]);
+        int from = Math.max(0, window.length - playlistSegments);
+        long discontinuitiesInWindow = 0;
+        double maxDuration = segmentSeconds;
+        for (int i = from; i < window.length; i++) {
+            if (window[i].discontinuity()) {
+                discontinuitiesInWindow++;
+            }
+            maxDuration = Math.max(maxDuration, window[i].durationSeconds());
+        }
+        long mediaSequence = from < window.length ? window[from].sequence() : nextSequence;
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:3\n");
+        sb.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxDuration)).append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+        sb.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(totalDiscontinuities - discontinuitiesInWindow).append('\n');
+        for (int i = from; i < window.length; i++) {
+            Segment s = window[i];
+            if (s.discontinuity()) {
+                sb.append("#EXT-X-DISCONTINUITY\n");
+            }
+            sb.append(String.format(Locale.US, "#EXTINF:%.3f,\n", s.durationSeconds()));
+            sb.append(s.sequence()).append('.').append(extension).append(uriSuffix).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void seal() {
+        long pts = (totalMicros * 9 / 100) & PTS_MASK;
+        byte[] data = new byte[ID3_TAG_BYTES + pendingLength];
+        writeTimestampTag(data, pts);
+        System.arraycopy(pending, 0, data, ID3_TAG_BYTES, pendingLength);
+
+        Segment segment = new Segment(nextSequence++, data, pendingMicros / 1_000_000.0, nextDiscontinuity);
+        if (nextDiscontinuity) {
+            totalDiscontinuities++;
+            nextDiscontinuity = false;
+        }
+        segments.addLast(segment);
+        while (segments.size() > retainedSegments) {
+            segments.removeFirst();
+        }
+        totalMicros += pendingMicros;
+        pendingLength = 0;
+        pendingMicros = 0;
+    }
+
+    /** ID3v2.4 PRIV 帧：transportStreamTimestamp，8 字节大端，低 33 位为 90kHz 时间戳。 */
+    private static void writeTimestampTag(byte[] dst, long pts) {
+        int frameSize = TIMESTAMP_OWNER.length + 8;
+        int tagSize = 10 + frameSize;
+        dst[0] = 'I';
+        dst[1] = 'D';
+        dst[2] = '3';
+        dst[3] = 4; // v2.4
+        dst[4] = 0;
+        dst[5] = 0;
+        writeSyncSafe(dst, 6, tagSize);
+        dst[10] = 'P';
+        dst[11] = 'R';
+        dst[12] = 'I';
+        dst[13] = 'V';
+        writeSyncSafe(dst, 14, frameSize);
+        dst[18] = 0;
+        dst[19] = 0;
+        System.arraycopy(TIMESTAMP_OWNER, 0, dst, 20, TIMESTAMP_OWNER.length);
+        int p = 20 + TIMESTAMP_OWNER.length;
+        for (int i = 7; i >= 0; i--) {
+            dst[p + 7 - i] = (byte) (pts >>> (i * 8));
+        }
+    }
+
+    private static void writeSyncSafe(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) ((value >> 21) & 0x7F);
+        dst[offset + 1] = (byte) ((value >> 14) & 0x7F);
+        dst[offset + 2] = (byte) ((value >> 7) & 0x7F);
+        dst[offset + 3] = (byte) (value & 0x7F);
+    }
+}
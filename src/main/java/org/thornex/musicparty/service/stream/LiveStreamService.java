@@ -9,40 +9,48 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.thornex.musicparty.config.AppProperties;
 import org.thornex.musicparty.config.LocalResourceConfig;
+import org.thornex.musicparty.dto.Music;
 import org.thornex.musicparty.dto.PlayableMusic;
 import org.thornex.musicparty.enums.CacheStatus;
 import org.thornex.musicparty.event.PlayerStateEvent;
 import org.thornex.musicparty.event.StreamStatusEvent;
 import org.thornex.musicparty.service.LocalCacheService;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 直播流（radio）核心服务。
  * <p>
- * 架构：单 ffmpeg 进程共享编码 → {@link StreamBroadcaster} 非阻塞 fan-out → 每个收听者独立缓冲 + 虚拟线程泵。
+ * 架构：每首歌一个 ffmpeg 解码进程（{@link PcmDecoder}）输出原始 PCM → 一个常驻的编码器进程（{@link StreamEncoder}）
+ * 一次性编码出各档位（{@link StreamRendition}）→ 每档一个 {@link StreamBroadcaster} 共享环形缓冲 →
+ * 每个收听者一个读游标，由固定写线程组以 Servlet 非阻塞输出写出。
+ * 切歌 / seek / 看门狗重启只替换解码器，编码器与输出码流在开关开启期间保持连续，无歌 / 暂停时由编码器输出静音。
+ * 长时间没有任何收听者时休眠（停止编码器与解码器），下一个收听者到来时热启动。
  * <p>
  * 修复了原实现的三个并发缺陷：
  * <ol>
- *   <li><b>重启抖动</b>：只在【源变化 / 明显 seek / 进程未运行】时重启转码，听众加入/离开、普通房间事件不触发。</li>
- *   <li><b>头阻塞</b>：广播循环只做非阻塞 {@code offer}，慢客户端只影响自身的泵线程。</li>
- *   <li><b>线程泄漏</b>：连接由容器的 {@code ResponseBodyEmitter} 管理，经 onCompletion/onTimeout/onError 清理。</li>
+ *   <li><b>重启抖动</b>：只在【源变化 / 明显 seek / 解码器未运行】时重启解码，听众加入/离开、普通房间事件不触发。</li>
+ *   <li><b>头阻塞</b>：广播只写环形缓冲，写线程跳过不可写的连接，慢客户端只会落后（drop-oldest）或因写阻塞超时被断开。</li>
+ *   <li><b>线程泄漏</b>：连接由容器的 {@code AsyncContext} 管理，经 onComplete/onTimeout/onError 清理。</li>
  * </ol>
  */
 @Service
@@ -53,16 +61,14 @@ public class LiveStreamService {
     private static final long MIN_SEEK_RESTART_INTERVAL_MS = 5000;
     /** ffmpeg 意外退出后的重启冷却，防止网络源 rebuffer 崩溃循环 */
     private static final long CRASH_RESTART_BACKOFF_MS = 30000;
-    /** 首字节重锚定时允许吸收的最大启动偏移：超出部分视为"启动窗口内的 seek"，触发重启对齐 */
+    /** 起播重锚定时允许吸收的最大启动偏移：超出部分视为"启动窗口内的 seek"，触发重启对齐 */
     private static final long MAX_STARTUP_OFFSET_MS = 8000;
-    /** 退出码 0 时判定"自然播完"的位置容差：位置距歌曲末尾超过该值即视为异常退出，需重启 */
-    private static final long NATURAL_END_TOLERANCE_MS = 10000;
-    /** 静音填充的分块大小，约等于 128kbps 一秒的数据量 */
-    private static final int SILENCE_CHUNK_BYTES = 16 * 1024;
-    /** 看门狗：转码器启动后超过该时长仍无首个输出字节 → 判定卡住，重启 */
-    private static final long TRANSCODER_STARTUP_TIMEOUT_MS = 15000;
-    /** 看门狗：转码器运行中超过该时长无任何输出 → 判定停滞（网络源卡住），重启 */
-    private static final long TRANSCODER_STALL_TIMEOUT_MS = 10000;
+    /** 看门狗：解码器启动后超过该时长仍无数据 → 判定卡住，重启 */
+    private static final long DECODER_STARTUP_TIMEOUT_MS = 15000;
+    /** 看门狗：解码器缓冲读空且超过该时长无新数据 → 判定停滞（网络源卡住），重启 */
+    private static final long DECODER_STALL_TIMEOUT_MS = 10000;
+    /** 解码器预解码缓冲的最小时长 */
+    private static final int MIN_DECODER_BUFFER_SECONDS = 4;
 
     private final LocalCacheService localCacheService;
     private final ApplicationEventPublisher eventPublisher;
@@ -79,50 +85,110 @@ public class LiveStreamService {
     // 最近一次 PlayerStateEvent 的时刻，用于估算播放器实时位置（事件稀疏时避免误判 seek）
     private volatile long lastPlayerEventTimeMs;
 
-    // FFmpeg 进程管理（volatile：读者线程在 readLoop 中会跨线程比较）
-    private volatile Process transcoderProcess;
-    private volatile long transcoderStartTimeMs;
-    private volatile long lastTranscoderOutputMs;
+    // 常驻编码器（开关开启且未休眠期间一直运行）与当前 / 预滚动的解码器
+    private StreamEncoder encoder;
+    private volatile PcmDecoder currentDecoder;
+    private volatile PcmDecoder prerollDecoder;
+    private volatile long lastEncoderStartAttemptMs;
+    // 已解码 PCM 缓存：seek / 重播落在已缓存区间内时直接从缓存读取
+    private final PcmCache pcmCache;
     private ExecutorService streamExecutor;
 
-    // 广播器：非阻塞分发给所有客户端
-    private final StreamBroadcaster broadcaster = new StreamBroadcaster();
-
-    // 常驻静音基底：预生成的 MP3 静音，无歌/暂停/转码间隙时广播，保证连接始终能收到数据
-    private volatile byte[] silenceChunk;
-    private Thread silenceThread;
-    // 当前是否有歌曲转码器在产出真实音频（true 时静音填充暂停）
-    private final AtomicBoolean songActive = new AtomicBoolean(false);
+    // 输出档位：每档一个广播器（写入共享环形缓冲，各客户端按游标读取），共享一组写线程
+    private final Map<String, StreamRendition> renditions;
+    private final StreamRendition defaultRendition;
+    private final StreamWriterPool writerPool;
 
     // 统计唯一收听人数（按 IP 地址去重）
     private final Map<String, Integer> ipConnectionCount = new ConcurrentHashMap<>();
+    // HLS 收听者：无长连接，按 IP 记录最近一次拉取播放列表的时刻，超过 listenerTtlMs 视为离开
+    private final Map<String, Long> hlsListeners = new ConcurrentHashMap<>();
 
-    // 转码会话状态（用于"仅在必要时重启"的判断）
+    // 解码会话状态（用于"仅在必要时重启"的判断）
     private volatile String runningSourceKey;
-    private volatile long runningStartPosMs;
-    private volatile long runningStartTimeMs;
-    private volatile boolean hasProducedFirstByte;
-    private volatile long launchStartPosMs;
+    /** 起播时播放器相对解码位置的偏移（吸收启动延迟），漂移检测据此扣除 */
+    private volatile long startupOffsetMs;
+    /** 当前解码器已开始输出（偏移已锚定），此前不做漂移检测 */
+    private volatile boolean offsetAnchored;
     private volatile long lastSeekRestartTimeMs;
     private volatile long lastCrashRestartTimeMs;
 
+    // 预滚动：队列前瞻的下一首（仅顺序播放模式可预测）
+    private volatile Music nextMusic;
+    private volatile String lastPrerollAttemptId;
+    // 已播完（或预滚动已先于播放器切到下一首）的源：播放器仍在报告它时等待其跟上，期间不据此重启
+    private volatile String endedSourceKey;
+    // 切歌空窗统计：按编码器实际输出的首个新歌音频帧结算
+    private volatile String lastSwitchedMusicId;
+    private final SwitchGapStats switchStats = new SwitchGapStats();
+    private final StreamMetrics metrics = new StreamMetrics();
+
+    // 空闲休眠：无收听者超过 idleHibernateMs 后停止编码器，收听者到来时热启动
+    private volatile boolean hibernating;
+    private volatile long idleSinceMs;
+    /** 唤醒后尚未启动热启动解码器 */
+    private volatile boolean warmStartPending;
+    private volatile long wakeTimeMs;
+    /** 热启动解码器及其突发时长：锚定偏移时扣除突发部分（突发结束后输出即与实时对齐） */
+    private volatile PcmDecoder warmStartDecoder;
+    private volatile long warmStartBurstMs;
+
     public LiveStreamService(LocalCacheService localCacheService, ApplicationEventPublisher eventPublisher, AppProperties appProperties) {
         this.localCacheService = localCacheService;
         this.eventPublisher = eventPublisher;
         this.appProperties = appProperties;
+        AppProperties.StreamConfig config = appProperties.getStream();
+        this.writerPool = StreamBroadcaster.createWriterPool(config);
+        Map<String, StreamRendition> map = new LinkedHashMap<>();
+        for (AppProperties.RenditionConfig rc : config.getRenditions()) {
+            map.put(rc.getName(), new StreamRendition(rc, new StreamBroadcaster(config, writerPool)));
+        }
+        if (map.isEmpty()) {
+            AppProperties.RenditionConfig fallback = new AppProperties.RenditionConfig("128", "mp3", 128);
+            map.put(fallback.getName(), new StreamRendition(fallback, new StreamBroadcaster(config, writerPool)));
+        }
+        if (config.getHls().isEnabled()) {
+            map.values().forEach(r -> r.enableHls(config.getHls().getSegmentSeconds(), config.getHls().getPlaylistSegments()));
+        }
+        if (config.getDvr().isEnabled()) {
+            AppProperties.DvrConfig dvr = config.getDvr();
+            for (StreamRendition r : map.values()) {
+                try {
+                    r.enableDvr(Paths.get(dvr.getDirectory(), r.getName() + ".dvr"), dvr.getMinutes() * 60,
+                            config.getChunkSizeBytes(), config.getChunkDurationMs());
+                } catch (IOException e) {
+                    log.error("Stream: failed to open DVR file for rendition {}, time-shift disabled: {}", r.getName(), e.getMessage());
+                }
+            }
+        }
+        this.renditions = Collections.unmodifiableMap(map);
+        this.defaultRendition = map.getOrDefault(config.getDefaultRendition(), map.values().iterator().next());
+        this.pcmCache = new PcmCache(config.getPcmCacheMb() * 1024L * 1024L);
     }
 
     @PostConstruct
     public void init() {
         streamExecutor = Executors.newCachedThreadPool();
-        broadcaster.setOnClientRemoved(this::handleClientRemoved);
-        // 预生成 MP3 静音作为常驻基底，保证任何连接随时能收到数据（不依赖歌曲转码器状态）
-        silenceChunk = generateSilence();
-        if (silenceChunk != null && silenceChunk.length > 0) {
-            silenceThread = Thread.ofPlatform().daemon().name("stream-silence-filler").start(this::silenceLoop);
-        } else {
-            log.warn("Stream: silence fallback unavailable; idle connections may stall");
-        }
+        if (isRelayMode()) {
+            // 中继节点没有本地房间可开关直播：启动即转发上游
+            isEnabled.set(true);
+            log.info("Stream: relay mode, forwarding {}", appProperties.getStream().getRelay().getUpstreamUrl());
+        }
+        encoder = new StreamEncoder(appProperties::getFfmpegPath, renditions.values(), defaultRendition,
+                appProperties.getStream().getChunkSizeBytes(), appProperties.getStream().getChunkDurationMs(),
+                appProperties.getStream().getCrossfadeMs(),
+                streamExecutor, new EncoderEvents());
+        renditions.values().forEach(r -> r.getBroadcaster().setOnClientRemoved(this::handleClientRemoved));
+        // 解码器正在读取的缓存文件不可被淘汰
+        localCacheService.addPinSource(() -> {
+            List<String> pinned = new ArrayList<>(2);
+            for (PcmDecoder decoder : new PcmDecoder[]{currentDecoder, prerollDecoder}) {
+                if (decoder != null) {
+                    pinned.add(decoder.musicId());
+                }
+            }
+            return pinned;
+        });
     }
 
     private void handleClientRemoved(StreamClient client) {
@@ -132,7 +198,7 @@ public class LiveStreamService {
         }
         // 以广播器当前连接数为准判断是否还有收听者，
         // 避免与并发的 addListener 产生"陈旧清空"竞态（旧实现用 CAS 布尔量，会被新连接误清）
-        boolean anyConnected = broadcaster.getClientCount() > 0;
+        boolean anyConnected = hasListeners();
         if (anyConnected) {
             eventPublisher.publishEvent(new StreamStatusEvent(this, true, getStreamListenerCount()));
         } else {
@@ -143,87 +209,18 @@ public class LiveStreamService {
 
     @PreDestroy
     public void cleanup() {
-        if (silenceThread != null) {
-            silenceThread.interrupt();
+        discardPreroll("shutdown");
+        if (encoder != null) {
+            encoder.stop();
         }
-        stopTranscoding();
-        broadcaster.closeAll();
+        renditions.values().forEach(r -> r.getBroadcaster().closeAll());
+        renditions.values().stream().map(StreamRendition::getDvr).filter(Objects::nonNull).forEach(StreamDvr::close);
+        writerPool.shutdown();
         if (streamExecutor != null) {
             streamExecutor.shutdownNow();
         }
     }
 
-    /**
-     * 一次性生成约 10 秒的 MP3 静音（128kbps 44.1kHz 立体声，与歌曲转码输出格式一致），
-     * 供静音填充线程在无歌/暂停/转码间隙时广播。
-     */
-    private byte[] generateSilence() {
-        try {
-            List<String> command = List.of(
-                    appProperties.getFfmpegPath(),
-                    "-loglevel", "error",
-                    "-f", "lavfi",
-                    "-i", "anullsrc=r=44100:cl=stereo",
-                    "-t", "10",
-                    "-c:a", "libmp3lame",
-                    "-b:a", "128k",
-                    "-ac", "2",
-                    "-ar", "44100",
-                    "-f", "mp3",
-                    "pipe:1");
-            Process process = new ProcessBuilder(command)
-                    .redirectError(ProcessBuilder.Redirect.DISCARD)
-                    .start();
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try (InputStream is = process.getInputStream()) {
-                is.transferTo(bos);
-            }
-            if (!process.waitFor(10, TimeUnit.SECONDS)) {
-                process.destroyForcibly();
-                log.warn("Stream: silence generation timed out");
-                return null;
-            }
-            byte[] data = bos.toByteArray();
-            log.info("Stream: generated {} bytes of silence", data.length);
-            return data.length > 0 ? data : null;
-        } catch (Exception e) {
-            log.warn("Stream: failed to generate silence, silence fallback disabled", e);
-            return null;
-        }
-    }
-
-    /**
-     * 静音填充循环：无歌/暂停/转码器启动或死亡的空窗期，按实时码率（约 16KB/s）广播静音，
-     * 让已连接的客户端缓冲始终有数据、永不判断流。有歌曲转码器产出时（songActive）自动让位。
-     */
-    private void silenceLoop() {
-        int offset = 0;
-        while (!Thread.currentThread().isInterrupted()) {
-            boolean shouldBroadcast = isEnabled.get() && broadcaster.getClientCount() > 0
-                    && !songActive.get() && silenceChunk != null && silenceChunk.length > 0;
-            if (shouldBroadcast) {
-                int len = Math.min(SILENCE_CHUNK_BYTES, silenceChunk.length - offset);
-                byte[] chunk = new byte[len];
-                System.arraycopy(silenceChunk, offset, chunk, 0, len);
-                offset = (offset + len) % silenceChunk.length;
-                broadcaster.broadcast(chunk);
-                try {
-                    Thread.sleep(1000); // 16KB/s ≈ 128kbps 实时速率
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            } else {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        }
-    }
-
     // --- Public Control Methods ---
 
     public void setEnabled(boolean enabled) {
@@ -236,32 +233,118 @@ public class LiveStreamService {
         return isEnabled.get();
     }
 
-    /** 唯一收听人数（按 IP 去重）。PlayerState 与 StreamStatusEvent 消费方依赖此语义。 */
+    /** 中继模式：各档位转发上游实例的流，本实例不运行 ffmpeg。 */
+    public boolean isRelayMode() {
+        return appProperties.getStream().getRelay().isEnabled();
+    }
+
+    /** 唯一收听人数（按 IP 去重，含 HLS 收听者）。PlayerState 与 StreamStatusEvent 消费方依赖此语义。 */
     public int getStreamListenerCount() {
-        return ipConnectionCount.size();
+        if (hlsListeners.isEmpty()) {
+            return ipConnectionCount.size();
+        }
+        Set<String> ips = new HashSet<>(ipConnectionCount.keySet());
+        ips.addAll(hlsListeners.keySet());
+        return ips.size();
     }
 
-    /** 当前连接的收听者数量（按连接数）。用于容量判定与 MusicPlayerService 的空闲守卫。 */
+    /** 是否有任何收听者（长连接或近期活跃的 HLS 收听者）。用于 MusicPlayerService 的空闲守卫。 */
+    public boolean hasListeners() {
+        return getStreamConnectionCount() > 0 || !hlsListeners.isEmpty();
+    }
+
+    /** 当前长连接收听者数量（按连接数，所有档位合计）。用于容量判定。 */
     public int getStreamConnectionCount() {
-        return broadcaster.getClientCount();
+        int total = 0;
+        for (StreamRendition rendition : renditions.values()) {
+            total += rendition.getBroadcaster().getClientCount();
+        }
+        return total;
+    }
+
+    /** 按名称选择输出档位；未指定或未知时返回默认档位。 */
+    public StreamRendition resolveRendition(String name) {
+        if (name == null || name.isBlank()) {
+            return defaultRendition;
+        }
+        return renditions.getOrDefault(name.trim(), defaultRendition);
+    }
+
+    /** 按名称精确查找档位，不存在时返回 null（HLS 的 URL 需与档位一一对应，不做回退）。 */
+    public StreamRendition getRendition(String name) {
+        return renditions.get(name);
+    }
+
+    /**
+     * 记录一次 HLS 播放列表拉取。HLS 收听者没有长连接，以"最近是否拉取过播放列表"判断在线。
+     * 新收听者加入时与长连接一样派发 StreamStatusEvent。
+     */
+    public void touchHlsListener(String ip) {
+        if (ip == null) {
+            return;
+        }
+        if (hlsListeners.put(ip, System.currentTimeMillis()) == null) {
+            log.info("Stream: HLS listener joined from {}", ip);
+            eventPublisher.publishEvent(new StreamStatusEvent(this, true, getStreamListenerCount()));
+            if (hibernating) {
+                checkState();
+            }
+        }
+    }
+
+    /** 清理超时未再拉取播放列表的 HLS 收听者。 */
+    @Scheduled(fixedRate = 10000)
+    public void expireHlsListeners() {
+        long cutoff = System.currentTimeMillis() - appProperties.getStream().getHls().getListenerTtlMs();
+        if (hlsListeners.values().removeIf(lastSeen -> lastSeen < cutoff)) {
+            boolean any = hasListeners();
+            eventPublisher.publishEvent(new StreamStatusEvent(this, any, any ? getStreamListenerCount() : 0));
+        }
+    }
+
+    public Collection<StreamRendition> getRenditions() {
+        return renditions.values();
+    }
+
+    /**
+     * 注册一个收听者连接到指定档位。容量不足时返回 false（由控制器关闭该连接）。
+     * 容量判定放在这里原子执行（按所有档位的连接总数），避免控制器先查后加的竞态。
+     */
+    public boolean addListener(StreamClient client, StreamRendition rendition) {
+        return addListener(client, rendition, false);
+    }
+
+    /**
+     * @param relay 中继节点的上游连接：不受连接数上限限制（一个中继连接背后是整个中继节点的收听者）
+     */
+    public boolean addListener(StreamClient client, StreamRendition rendition, boolean relay) {
+        return addListener(client, rendition, relay, 0);
     }
 
     /**
-     * 注册一个收听者连接。容量不足时返回 false（由控制器关闭该连接）。
-     * 容量判定放在这里原子执行，避免控制器先查后加的竞态。
+     * @param delayMs 时移：从直播之前 delayMs 毫秒开始收听（此后始终落后同样时长）。
+     *                档位未开启时移时忽略，按直播收听
      */
-    public boolean addListener(StreamClient client) {
+    public boolean addListener(StreamClient client, StreamRendition rendition, boolean relay, long delayMs) {
         synchronized (this) {
             int maxClients = appProperties.getStream().getMaxClients();
-            if (broadcaster.getClientCount() >= maxClients) {
+            if (!relay && getStreamConnectionCount() >= maxClients) {
                 log.warn("Stream: max clients reached ({}), rejecting connection", maxClients);
                 return false;
             }
-            broadcaster.addClient(client);
+            StreamDvr dvr = rendition.getDvr();
+            if (delayMs > 0 && dvr != null) {
+                StreamDvr.View view = dvr.view(delayMs);
+                log.info("Stream: time-shifted listener from {} ({}ms behind live)", client.getClientIp(), view.getDelayMs());
+                rendition.getBroadcaster().addClient(client, view);
+            } else {
+                rendition.getBroadcaster().addClient(client);
+            }
             if (client.getClientIp() != null) {
                 client.ipCounted.set(true);
                 ipConnectionCount.merge(client.getClientIp(), 1, Integer::sum);
             }
+            metrics.recordConnection(client.getClientIp());
         }
         // 事件与状态机必须在本服务锁外执行：StreamStatusEvent 会同步回调 MusicPlayerService，
         // 若在持锁时派发，会与 playNextInQueue/topSong(持 MPS 锁) → broadcastFullPlayerState
@@ -274,8 +357,10 @@ public class LiveStreamService {
     /** 移除一个收听者连接。幂等：重复调用 / 并发终态回调汇聚到同一路径，清理恰好一次。 */
     public void removeListener(StreamClient client) {
         client.close();
-        if (broadcaster.removeClient(client)) {
-            // handleClientRemoved 已通过回调执行
+        for (StreamRendition rendition : renditions.values()) {
+            if (rendition.getBroadcaster().removeClient(client)) {
+                break; // handleClientRemoved 已通过回调执行
+            }
         }
     }
 
@@ -296,6 +381,10 @@ public class LiveStreamService {
             this.currentMusic = null;
             this.currentPosition = 0;
         }
+        // 只有顺序播放时队首就是下一首；随机/单曲循环不可预测，不预滚动
+        this.nextMusic = "SEQUENTIAL".equals(state.playMode()) && state.queue() != null && !state.queue().isEmpty()
+                ? state.queue().get(0).music()
+                : null;
         checkState();
     }
 
@@ -317,142 +406,220 @@ public class LiveStreamService {
     }
 
     private synchronized void checkState() {
-        // 转码器不随连接数启停：只要开关开启且有歌在播就持续转码（"常驻热转码"）。
-        // 否则新连接会先吃到几秒静音（转码器冷启动），VRC 等不到真实音频就判定失败重试。
-        boolean shouldRun = isEnabled.get() && currentMusic != null && !isPaused && resolveTarget() != null;
+        if (isRelayMode()) {
+            return; // 中继节点：音频来自上游（StreamRelayService），不解码也不编码
+        }
+        if (!isEnabled.get()) {
+            endedSourceKey = null;
+            hibernating = false;
+            discardPreroll("stream disabled");
+            stopDecoding();
+            if (encoder.isRunning()) {
+                encoder.stop();
+                log.info("Stream: encoder stopped");
+            }
+            return;
+        }
+        // 编码器不随单个连接启停：有人收听期间持续输出（有歌时为歌曲，否则为静音），
+        // 否则新连接会先等编码器冷启动，VRC 等不到数据就判定失败重试。
+        // 长时间无人收听时休眠（hibernationCheck），收听者到来时在此唤醒并热启动。
+        if (hibernating) {
+            if (!hasListeners()) {
+                return;
+            }
+            wake();
+        }
+        if (!ensureEncoder()) {
+            return;
+        }
+        boolean shouldRun = currentMusic != null && !isPaused && resolveTarget() != null;
         if (shouldRun) {
-            startTranscodingIfNeeded();
+            startDecodingIfNeeded();
         } else {
-            stopTranscoding();
+            endedSourceKey = null;
+            discardPreroll("playback stopped");
+            stopDecoding();
         }
     }
 
+    /** 确保编码器在运行；启动失败后按崩溃冷却间隔重试，避免每个事件都拉起一次 ffmpeg。 */
+    private synchronized boolean ensureEncoder() {
+        if (encoder.isRunning()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastEncoderStartAttemptMs < CRASH_RESTART_BACKOFF_MS) {
+            return false;
+        }
+        lastEncoderStartAttemptMs = now;
+        // 新编码器从零开始：此前交给旧编码器的解码器已随其关闭
+        currentDecoder = null;
+        prerollDecoder = null;
+        runningSourceKey = null;
+        offsetAnchored = false;
+        metrics.recordEncoderStart();
+        return encoder.start();
+    }
+
     /**
-     * 仅在真正需要时启动/重启转码：
+     * 仅在真正需要时启动/替换解码器：
      * <ul>
-     *   <li>进程未运行 → 启动；</li>
-     *   <li>源（歌曲/缓存/URL）变化 → 重启（切歌，不受节流限制）；</li>
-     *   <li>位置相对实时进度漂移超过阈值 → 重启（seek，带最小间隔）；</li>
+     *   <li>没有解码器 → 启动；</li>
+     *   <li>源（歌曲/缓存/URL）变化 → 切到预滚动的解码器，或新起一个（切歌，不受节流限制）；</li>
+     *   <li>位置相对实际输出进度漂移超过阈值 → 新起一个（seek，带最小间隔）；</li>
      *   <li>其他情况（听众加入/离开、点赞、普通事件）→ 保持运行，不重启。</li>
      * </ul>
+     * 新解码器就绪前旧解码器继续输出，替换由编码器在新解码器首批数据到达时完成。
      */
-    private synchronized void startTranscodingIfNeeded() {
+    private synchronized void startDecodingIfNeeded() {
         TranscodeTarget target = resolveTarget();
         if (target == null) {
-            stopTranscoding();
+            stopDecoding();
             return;
         }
-        boolean alive = transcoderProcess != null && transcoderProcess.isAlive();
-        if (!alive) {
-            // 同一源近期崩溃过则进入冷却，避免每次事件都重新拉起死源（绕过 handleTranscoderExit 的冷却）
-            long now = System.currentTimeMillis();
-            if (target.key().equals(runningSourceKey) && now - lastCrashRestartTimeMs < CRASH_RESTART_BACKOFF_MS) {
-                log.warn("Stream: source recently crashed, skipping restart (backoff)");
+        if (target.key().equals(endedSourceKey)) {
+            return; // 该源已播完（或预滚动已先于播放器切到下一首），播放器还在报告它：等待其跟上
+        }
+        endedSourceKey = null;
+        PcmDecoder decoder = currentDecoder;
+        if (!target.key().equals(runningSourceKey)) {
+            if (promotePreroll(target.key())) {
+                log.info("Stream: source changed -> switching to prerolled decoder for {}", currentMusic.name());
                 return;
             }
-            startTranscoding(target);
+            log.info("Stream: source changed -> decoding {}", currentMusic.name());
+            startDecoding(target, StreamMetrics.RestartCause.SOURCE_CHANGE);
             return;
         }
-        if (!target.key().equals(runningSourceKey)) {
-            log.info("Stream: source changed -> restarting for {}", currentMusic.name());
-            doRestart();
+        if (decoder == null) {
+            // 同一源近期崩溃过则进入冷却，避免每次事件都重新拉起死源
+            long now = System.currentTimeMillis();
+            if (now - lastCrashRestartTimeMs < CRASH_RESTART_BACKOFF_MS) {
+                log.warn("Stream: source recently crashed, skipping restart (backoff)");
+                return;
+            }
+            startDecoding(target, StreamMetrics.RestartCause.START);
             return;
         }
-        // 仅在锚点有效（本进程已产出首字节）时才做漂移检测，避免残留旧进程锚点导致伪重启
-        if (hasProducedFirstByte && runningStartTimeMs != 0) {
-            long expectedLive = runningStartPosMs + (System.currentTimeMillis() - runningStartTimeMs);
-            if (Math.abs(estimatePlayerPosition() - expectedLive) > appProperties.getStream().getSeekThresholdMs()) {
-                restartForSeek();
+        // 仅在偏移已锚定（本解码器已开始输出）时才做漂移检测；位置按已编码的采样数精确计算
+        if (offsetAnchored && decoder == encoder.current()) {
+            long streamPos = decoder.positionMs() + startupOffsetMs;
+            if (Math.abs(estimatePlayerPosition() - streamPos) > appProperties.getStream().getSeekThresholdMs()) {
+                restartForSeek(target);
             }
         }
     }
 
-    /** 切歌 / 源变化：立即重启，不受节流限制。 */
-    private synchronized void doRestart() {
-        stopTranscoding();
-        TranscodeTarget target = resolveTarget();
-        if (target != null) {
-            startTranscoding(target);
-        }
-    }
-
     /** seek（同源漂移）：带最小间隔，防位置事件风暴反复重启。 */
-    private synchronized void restartForSeek() {
+    private synchronized void restartForSeek(TranscodeTarget target) {
         long now = System.currentTimeMillis();
         if (now - lastSeekRestartTimeMs < MIN_SEEK_RESTART_INTERVAL_MS) {
             log.debug("Stream: seek restart throttled");
             return;
         }
         lastSeekRestartTimeMs = now;
-        log.info("Stream: position drifted -> restarting at {}ms", estimatePlayerPosition());
-        doRestart();
+        log.info("Stream: position drifted -> restarting decoder at {}ms", estimatePlayerPosition());
+        startDecoding(target, StreamMetrics.RestartCause.SEEK);
     }
 
-    private synchronized void startTranscoding(TranscodeTarget target) {
-        stopTranscoding();
-
-        long launchPos = estimatePlayerPosition();
+    /**
+     * 在播放器当前位置启动一个解码器并交给编码器。
+     *
+     * @param cause 启动原因：切歌按配置与上一首交叉淡化；seek / 重启直接切换
+     */
+    private synchronized void startDecoding(TranscodeTarget target, StreamMetrics.RestartCause cause) {
+        long livePos = estimatePlayerPosition();
+        long launchPos = livePos;
+        boolean warmStart = warmStartPending;
+        if (warmStart) {
+            // 热启动：从实时位置之前开始解码，这一段由编码器立即编码输出（突发），首个收听者不必等待实时积累
+            launchPos = Math.max(0, livePos - appProperties.getStream().getWarmStartMs());
+            warmStartPending = false;
+        }
+        PcmDecoder decoder = launchDecoder(target, currentMusic.id(), currentMusic.duration(), launchPos, false);
+        if (decoder == null) {
+            return;
+        }
+        if (warmStart) {
+            warmStartDecoder = decoder;
+            warmStartBurstMs = livePos - launchPos;
+            encoder.burst(warmStartBurstMs);
+        }
+        log.info("Stream: starting decoder for {} at {}ms ({})", currentMusic.name(), launchPos, warmStart ? "WAKE" : cause);
+        metrics.recordDecoderStart(warmStart ? StreamMetrics.RestartCause.WAKE : cause);
+        currentDecoder = decoder;
         runningSourceKey = target.key();
-        launchStartPosMs = launchPos;
-        runningStartPosMs = launchPos;
-        runningStartTimeMs = 0; // 锚点置无效：新进程产出首字节时才会重新锚定
-        hasProducedFirstByte = false;
-
-        double startSeconds = launchPos / 1000.0;
-
-        List<String> command = new ArrayList<>();
-        command.add(appProperties.getFfmpegPath());
-        command.add("-loglevel");
-        command.add("error"); // stderr 只输出错误，便于看门狗/日志诊断拉流失败
-
-        // 网络源需要携带的请求头（如 Bilibili 防盗链）
-        if (target.input().startsWith("http") && !target.headers().isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-            target.headers().forEach((k, v) -> sb.append(k).append(": ").append(v).append("\r\n"));
-            command.add("-headers");
-            command.add(sb.toString());
-        }
-        command.add("-ss");
-        command.add(String.format(Locale.US, "%.2f", startSeconds));
-        command.add("-re");
-        // HTTP 拉流自动重连：网易云 CDN 偶发切断连接（TLS IO error: End of file），
-        // 让 ffmpeg 自动重连继续拉取，而不是直接退出触发看门狗 15s 循环
-        command.add("-reconnect");
-        command.add("1");
-        command.add("-reconnect_delay_max");
-        command.add("5");
-        command.add("-i");
-        command.add(target.input());
-        command.add("-vn");
-        command.add("-acodec");
-        command.add("libmp3lame");
-        command.add("-ab");
-        command.add("128k");
-        command.add("-ac");
-        command.add("2");
-        command.add("-ar");
-        command.add("44100");
-        command.add("-f");
-        command.add("mp3");
-        command.add("pipe:1");
-
-        log.info("Stream: starting transcoding for {} at {}ms", currentMusic.name(), estimatePlayerPosition());
+        offsetAnchored = false; // 新解码器开始输出时才重新锚定
+        encoder.switchTo(decoder, cause == StreamMetrics.RestartCause.SOURCE_CHANGE
+                ? appProperties.getStream().getCrossfadeMs() : 0);
+    }
+
+    /** 停播（暂停 / 无歌 / 源不可用）：关闭解码器，编码器此后输出静音。 */
+    private synchronized void stopDecoding() {
+        if (currentDecoder != null || prerollDecoder != null) {
+            encoder.clearSources();
+        }
+        currentDecoder = null;
+        prerollDecoder = null;
+        offsetAnchored = false;
+        lastSwitchedMusicId = null; // 暂停 / 停播期间不计入切歌空窗
+        warmStartPending = false; // 唤醒时无歌可播：之后的起播不再突发
+    }
 
+    /**
+     * 启动一个解码器。PCM 缓存从 startPosMs 起直到结尾都已缓存时直接回放缓存，不启动进程；
+     * 只缓存了开头一段时先回放缓存，解码进程从缓存末尾起播、紧接其后（进程启动时间被缓存回放掩盖）。
+     *
+     * @param prerolled 预滚动（下一首提前启动），用于切歌空窗统计
+     * @return 启动失败时返回 null
+     */
+    private PcmDecoder launchDecoder(TranscodeTarget target, String musicId, long durationMs, long startPosMs,
+                                    boolean prerolled) {
+        PcmCache.Entry entry = pcmCache.isEnabled() ? pcmCache.entry(target.key()) : null;
+        long startOffset = PcmCache.offsetOf(startPosMs);
+        if (entry != null && entry.isCompleteFrom(startOffset)) {
+            PcmDecoder decoder = new PcmDecoder(null, target.key(), musicId, startPosMs, durationMs,
+                    decoderBufferSeconds(), prerolled);
+            decoder.setSource(entry.openStream(startOffset, entry.contiguousEnd(startOffset)));
+            pcmCache.recordHit(false);
+            log.debug("Stream: serving {} from PCM cache at {}ms", musicId, startPosMs);
+            streamExecutor.submit(decoder::pump);
+            return decoder;
+        }
+        long cachedEnd = entry != null ? entry.contiguousEnd(startOffset) : startOffset;
         try {
-            long now = System.currentTimeMillis();
-            transcoderStartTimeMs = now;
-            lastTranscoderOutputMs = now;
-            ProcessBuilder pb = new ProcessBuilder(command);
-            transcoderProcess = pb.start();
-            streamExecutor.submit(() -> readLoop(transcoderProcess, target));
+            Process process = new ProcessBuilder(PcmDecoder.buildCommand(appProperties.getFfmpegPath(),
+                    target.input(), target.headers(), PcmCache.positionOf(cachedEnd))).start();
+            PcmDecoder decoder = new PcmDecoder(process, target.key(), musicId, startPosMs, durationMs,
+                    decoderBufferSeconds(), prerolled);
+            if (cachedEnd > startOffset) {
+                decoder.setSource(new SequenceInputStream(entry.openStream(startOffset, cachedEnd), process.getInputStream()));
+                pcmCache.recordHit(true);
+            } else if (entry != null) {
+                pcmCache.recordMiss();
+            }
+            if (entry != null) {
+                decoder.setCacheWriter(entry.writer(startOffset));
+            }
+            streamExecutor.submit(decoder::pump);
             // 异步读取 stderr：ffmpeg 卡住/拉流失败的原因会打到应用日志
-            streamExecutor.submit(() -> readErrorLoop(transcoderProcess));
+            streamExecutor.submit(() -> readErrorLoop(process));
+            return decoder;
         } catch (IOException e) {
-            log.error("Stream: failed to start ffmpeg", e);
-            transcoderProcess = null;
+            log.error("Stream: failed to start ffmpeg decoder", e);
+            return null;
         }
     }
 
+    public PcmCache.Stats getPcmCacheStats() {
+        return pcmCache.stats();
+    }
+
+    /** 预解码缓冲：至少覆盖预滚动提前量的两倍，预滚动的解码器在切换前不会被反压卡住太久。 */
+    private int decoderBufferSeconds() {
+        return (int) Math.max(MIN_DECODER_BUFFER_SECONDS, appProperties.getStream().getPrerollLeadMs() * 2 / 1000);
+    }
+
     /** 读取 ffmpeg stderr 并打日志（配合 -loglevel error，只有真正的错误会出现）。 */
     private void readErrorLoop(Process process) {
         try (InputStream is = process.getErrorStream();
@@ -469,152 +636,300 @@ public class LiveStreamService {
         }
     }
 
-    private synchronized void stopTranscoding() {
-        // 清空各客户端缓冲，丢弃暂停/切歌前的过期音频
-        broadcaster.flushAll();
-        // 交还静音基底：此后由静音填充线程维持连接数据流
-        songActive.set(false);
-        if (transcoderProcess != null) {
-            if (transcoderProcess.isAlive()) {
-                transcoderProcess.destroy();
+    // --- Pre-roll (gapless song switch) ---
+
+    /**
+     * 预滚动检查：当前歌曲剩余时间进入提前量窗口时，按队列前瞻为下一首提前启动解码器并交给编码器待命。
+     * 当前解码器自然播完时编码器直接接上（采样级衔接）；播放器先切歌时同样直接切过去。
+     * 只对已完整缓存到本地的下一首生效：网络直链要到切歌时才由播放器解析，且本地文件起播延迟可预期。
+     */
+    @Scheduled(fixedRate = 1000)
+    public void prerollCheck() {
+        if (appProperties.getStream().isPrerollEnabled() && isEnabled.get()) {
+            maybeStartPreroll();
+        }
+    }
+
+    private synchronized void maybeStartPreroll() {
+        PlayableMusic music = currentMusic;
+        PcmDecoder preroll = prerollDecoder;
+        PcmDecoder decoder = currentDecoder;
+        Music next = nextMusic;
+        if (preroll != null) {
+            if (next == null || !preroll.musicId().equals(next.id()) || preroll.isExhausted()) {
+                discardPreroll(preroll.isExhausted() ? "preroll decoder exited" : "queue changed");
             }
-            transcoderProcess = null;
+            return;
+        }
+        // 已先于播放器切到下一首（播放器尚未跟上）或尚未起播：不预滚动
+        if (music == null || isPaused || decoder == null || !offsetAnchored || endedSourceKey != null
+                || next == null || next.id().equals(music.id()) || next.id().equals(lastPrerollAttemptId)) {
+            return;
+        }
+        long remaining = decoder.remainingMs();
+        if (remaining > appProperties.getStream().getPrerollLeadMs()) {
+            return;
+        }
+        TranscodeTarget target = resolveCachedTarget(next.id());
+        if (target == null) {
+            return;
+        }
+        lastPrerollAttemptId = next.id(); // 每首只尝试一次，失败后回退到常规切歌
+        PcmDecoder started = launchDecoder(target, next.id(), next.duration(), 0, true);
+        if (started != null) {
+            metrics.recordDecoderStart(StreamMetrics.RestartCause.PREROLL);
+            prerollDecoder = started;
+            encoder.cue(started);
+            log.info("Stream: prerolling next track {} ({}ms before end)", next.id(), remaining);
+        }
+    }
+
+    private synchronized void discardPreroll(String reason) {
+        PcmDecoder preroll = prerollDecoder;
+        if (preroll != null) {
+            prerollDecoder = null;
+            if (encoder.isCued(preroll)) {
+                encoder.uncue();
+            } else {
+                preroll.close();
+            }
+            switchStats.recordDiscard();
+            log.info("Stream: discarded preroll for {} ({})", preroll.musicId(), reason);
         }
     }
 
     /**
-     * 读取 ffmpeg stdout 并分发给所有客户端。
-     * 运行在平台线程池（读管道在原生阻塞，虚拟线程无收益）。
+     * 播放器先于自然播完切到了预滚动的那首：让编码器立即切到已预解码的解码器（按配置交叉淡化）。
+     *
+     * @return 没有可用的（同源、未结束的）预滚动解码器时返回 false
      */
-    private void readLoop(Process process, TranscodeTarget target) {
-        int chunkSize = appProperties.getStream().getChunkSizeBytes();
-        try (InputStream is = process.getInputStream()) {
-            byte[] buf = new byte[chunkSize];
-            int n;
-            while ((n = is.read(buf)) != -1) {
-                if (Thread.currentThread().isInterrupted()) {
-                    break;
-                }
-                if (n <= 0) {
-                    continue;
-                }
-                lastTranscoderOutputMs = System.currentTimeMillis();
-                // 锚定"首个输出字节"的时刻：网络源启动期（1-5s）内的任意事件不应触发 seek 重启
-                if (!hasProducedFirstByte && process == transcoderProcess) {
-                    hasProducedFirstByte = true;
-                    // 以"首个输出字节"时刻重新锚定：吸收 ffmpeg 启动延迟(网络源可达 1-5s)，
-                    // 否则 expectedLive 会恒落后播放器一个固定偏移，导致每个事件都误判 seek。
-                    // 锚定量被 MAX_STARTUP_OFFSET_MS 钳制：启动窗口内的大幅 seek 不会被吸收掉，
-                    // 仍会被漂移检测捕获并触发重启对齐。
-                    long estimate = estimatePlayerPosition();
-                    long anchor = launchStartPosMs + Math.max(-MAX_STARTUP_OFFSET_MS,
-                            Math.min(MAX_STARTUP_OFFSET_MS, estimate - launchStartPosMs));
-                    runningStartPosMs = anchor;
-                    runningStartTimeMs = System.currentTimeMillis();
-                    // 成功产出 = 源已恢复健康：清除崩溃冷却，避免"已恢复的源"在 30s 内
-                    // 因暂停/恢复被错误静默拦截（真正死源不会产出首字节，冷却仍会生效）
-                    lastCrashRestartTimeMs = 0;
-                    // 切换到真实音频：标记 songActive 让静音填充让位，
-                    // 并清空客户端已缓冲的静音，避免歌前先播一段静音
-                    songActive.set(true);
-                    broadcaster.flushAll();
-                }
-                broadcaster.broadcast(Arrays.copyOf(buf, n));
+    private synchronized boolean promotePreroll(String expectedKey) {
+        PcmDecoder next = prerollDecoder;
+        if (next == null || !next.key().equals(expectedKey) || next.isExhausted()) {
+            return false;
+        }
+        prerollDecoder = null;
+        currentDecoder = next;
+        runningSourceKey = next.key();
+        offsetAnchored = false;
+        encoder.switchTo(next, appProperties.getStream().getCrossfadeMs());
+        return true;
+    }
+
+    public SwitchGapStats.Snapshot getSwitchStats() {
+        return switchStats.snapshot();
+    }
+
+    /** 电台诊断报告：各档位连接明细、解码器重启原因与启动延迟、切歌空窗、PCM 缓存。 */
+    public StreamMetrics.Report getMetrics() {
+        Map<String, StreamMetrics.RenditionReport> byRendition = new LinkedHashMap<>();
+        renditions.forEach((name, rendition) -> byRendition.put(name, new StreamMetrics.RenditionReport(
+                rendition.getBroadcaster().stats(), rendition.getBroadcaster().clientStats(),
+                rendition.getDvr() != null ? rendition.getDvr().stats() : null)));
+        return new StreamMetrics.Report(isEnabled.get(), encoder.isRunning(), hibernating, encoder.getUnderrunFrames(),
+                getStreamListenerCount(), hlsListeners.size(), byRendition, metrics.snapshot(),
+                switchStats.snapshot(), pcmCache.stats());
+    }
+
+    // --- Encoder callbacks ---
+
+    /** 编码器事件回调（在 streamExecutor 上执行，与状态机共用本服务的锁）。 */
+    private class EncoderEvents implements StreamEncoder.Listener {
+
+        @Override
+        public void onSwitched(PcmDecoder from, PcmDecoder to, long gapMs) {
+            onDecoderSwitched(from, to, gapMs);
+        }
+
+        @Override
+        public void onEnded(PcmDecoder decoder) {
+            onDecoderEnded(decoder);
+        }
+
+        @Override
+        public void onExit() {
+            onEncoderExit();
+        }
+    }
+
+    private synchronized void onDecoderSwitched(PcmDecoder from, PcmDecoder to, long gapMs) {
+        metrics.recordDecoderStartup(to.startupLatencyMs());
+        boolean prerolled = to.isPrerolled();
+        boolean automatic = to == prerollDecoder;
+        if (automatic) {
+            // 当前歌曲自然播完，编码器已接上预滚动的下一首：播放器的切歌事件稍后才到
+            prerollDecoder = null;
+            currentDecoder = to;
+            endedSourceKey = runningSourceKey;
+            runningSourceKey = to.key();
+            log.info("Stream: decoder reached natural EOF, continued with prerolled {}", to.musicId());
+        }
+        if (to == currentDecoder) {
+            // 以"首批音频进入编码器"时刻锚定偏移：吸收 ffmpeg 启动延迟（网络源可达 1-5s），
+            // 否则解码位置会恒落后播放器一个固定偏移，导致每个事件都误判 seek。
+            // 偏移被 MAX_STARTUP_OFFSET_MS 钳制：启动窗口内的大幅 seek 不会被吸收掉，仍会触发重启对齐。
+            // 自动接续时播放器还停在上一首，偏移置 0，等其切歌事件到达后按新歌位置检测。
+            long offset = automatic ? 0 : estimatePlayerPosition() - to.positionMs();
+            if (to == warmStartDecoder) {
+                offset -= warmStartBurstMs; // 突发部分立即输出，不属于启动延迟
+                long wakeToAudioMs = System.currentTimeMillis() - wakeTimeMs;
+                metrics.recordWarmStart(wakeToAudioMs);
+                log.info("Stream: warm start delivered audio {}ms after wake ({}ms burst)", wakeToAudioMs, warmStartBurstMs);
+                warmStartDecoder = null;
             }
-        } catch (IOException e) {
-            // 进程被杀或管道关闭，忽略
-        } finally {
-            log.debug("Stream: transcoding finished/stopped.");
-            handleTranscoderExit();
+            startupOffsetMs = Math.max(-MAX_STARTUP_OFFSET_MS, Math.min(MAX_STARTUP_OFFSET_MS, offset));
+            offsetAnchored = true;
+            // 成功输出 = 源已恢复健康：清除崩溃冷却（真正死源不会产出数据，冷却仍会生效）
+            lastCrashRestartTimeMs = 0;
+        }
+        String previous = lastSwitchedMusicId;
+        lastSwitchedMusicId = to.musicId();
+        if (previous != null && !previous.equals(to.musicId())) {
+            switchStats.record(gapMs, prerolled);
+            log.info("Stream: song switch gap {}ms (prerolled={})", gapMs, prerolled);
         }
     }
 
-    /** ffmpeg 意外退出时的自愈看门狗。主动 stopTranscoding 会将字段置 null，不会误触发。 */
-    private synchronized void handleTranscoderExit() {
-        Process process = transcoderProcess;
-        if (process == null || process.isAlive()) {
+    /** 解码器结束且编码器没有可接续的来源。 */
+    private synchronized void onDecoderEnded(PcmDecoder decoder) {
+        if (decoder == prerollDecoder) {
+            discardPreroll("preroll decoder exited");
             return;
         }
-        transcoderProcess = null;
-
-        // 退出码 0：只在"确实产出过音频 且 位置接近歌曲末尾"时才视为自然播完；
-        // 否则（未产出首字节 / 远未到末尾就退出）是异常，需要重启恢复
-        // （否则会出现"新歌转码器静默退出 → 流静默死等"，见 mabataki 案例）
-        if (process.exitValue() == 0) {
-            boolean nearEnd = currentMusic != null && currentMusic.duration() > 0
-                    && estimatePlayerPosition() >= currentMusic.duration() - NATURAL_END_TOLERANCE_MS;
-            if (hasProducedFirstByte && nearEnd) {
-                songActive.set(false);
-                log.debug("Stream: transcoder reached natural EOF");
-                return;
-            }
-            log.warn("Stream: transcoder exited 0 without completing the song (produced={}, pos={}ms, dur={}ms), restarting",
-                    hasProducedFirstByte, estimatePlayerPosition(),
-                    currentMusic != null ? currentMusic.duration() : -1);
+        if (decoder != currentDecoder) {
+            return; // 已被替换
         }
-
+        currentDecoder = null;
+        offsetAnchored = false;
+        // 退出码 0 且位置接近歌曲末尾才视为自然播完；
+        // 否则（未产出数据 / 远未到末尾就退出）是异常，需要重启恢复
+        if (decoder.isNaturalEnd()) {
+            endedSourceKey = decoder.key(); // 播放器切歌前不再为该源重启
+            log.debug("Stream: decoder reached natural EOF");
+            return;
+        }
+        log.warn("Stream: decoder exited without completing the song (started={}, pos={}ms)",
+                decoder.hasStarted(), decoder.positionMs());
         boolean shouldRun = isEnabled.get() && currentMusic != null && !isPaused && resolveTarget() != null;
         if (shouldRun) {
             long now = System.currentTimeMillis();
             if (now - lastCrashRestartTimeMs < CRASH_RESTART_BACKOFF_MS) {
-                songActive.set(false);
-                log.error("Stream: transcoder died repeatedly, backing off restart");
+                log.error("Stream: decoder died repeatedly, backing off restart");
                 return;
             }
             lastCrashRestartTimeMs = now;
-            log.warn("Stream: transcoder died unexpectedly, restarting");
-            doRestart(); // doRestart -> stopTranscoding 会置 songActive=false，空窗由静音基底覆盖
-        } else {
-            songActive.set(false);
+            log.warn("Stream: decoder died unexpectedly, restarting");
+            startDecoding(resolveTarget(), StreamMetrics.RestartCause.CRASH);
         }
     }
 
+    /** 编码器进程意外退出：解码器已随其关闭，按当前状态重新拉起。 */
+    private synchronized void onEncoderExit() {
+        currentDecoder = null;
+        prerollDecoder = null;
+        runningSourceKey = null;
+        offsetAnchored = false;
+        checkState();
+    }
+
+    // --- Idle hibernation ---
+
     /**
-     * 转码器看门狗：检测"进程活着但没在产出"的情况（网络源拉流卡住 / 静默失败），
-     * 超时后杀掉重启——否则当前歌曲会整首静音，VRC 只能等到切歌才有声。
+     * 空闲休眠检查：开关开启但持续 idleHibernateMs 没有任何收听者（长连接、HLS、中继）时，
+     * 停止编码器与解码器，省下常驻转码占用的 CPU。收听者到来时由 checkState 唤醒。
      */
     @Scheduled(fixedRate = 5000)
-    public void transcodeWatchdog() {
-        Process process = transcoderProcess;
-        if (process == null || !process.isAlive()) {
-            return; // 未运行或已退出（退出由 handleTranscoderExit 处理）
+    public void hibernationCheck() {
+        long idleMs = appProperties.getStream().getIdleHibernateMs();
+        if (idleMs <= 0 || !isEnabled.get() || isRelayMode() || hibernating || hasListeners()) {
+            idleSinceMs = 0;
+            return;
         }
         long now = System.currentTimeMillis();
-        if (!hasProducedFirstByte && now - transcoderStartTimeMs > TRANSCODER_STARTUP_TIMEOUT_MS) {
-            log.warn("Stream: transcoder started but produced no output in {}ms, restarting", TRANSCODER_STARTUP_TIMEOUT_MS);
-            restartForWatchdog();
-        } else if (hasProducedFirstByte && now - lastTranscoderOutputMs > TRANSCODER_STALL_TIMEOUT_MS) {
-            log.warn("Stream: transcoder stalled (no output for {}ms), restarting", TRANSCODER_STALL_TIMEOUT_MS);
-            restartForWatchdog();
+        if (idleSinceMs == 0) {
+            idleSinceMs = now;
+        } else if (now - idleSinceMs >= idleMs) {
+            hibernate();
+        }
+    }
+
+    private synchronized void hibernate() {
+        if (hibernating || hasListeners()) {
+            return;
+        }
+        hibernating = true;
+        idleSinceMs = 0;
+        endedSourceKey = null;
+        discardPreroll("hibernating");
+        stopDecoding();
+        encoder.stop();
+        runningSourceKey = null;
+        metrics.recordHibernate();
+        log.info("Stream: no listeners for {}ms, encoder hibernating", appProperties.getStream().getIdleHibernateMs());
+    }
+
+    /** 有收听者到来：解除休眠，下一次启动的解码器走热启动。 */
+    private synchronized void wake() {
+        hibernating = false;
+        wakeTimeMs = System.currentTimeMillis();
+        warmStartPending = appProperties.getStream().getWarmStartMs() > 0;
+        lastEncoderStartAttemptMs = 0; // 休眠不是启动失败，不受启动冷却限制
+        metrics.recordWake();
+        log.info("Stream: listener arrived, waking encoder");
+    }
+
+    public boolean isHibernating() {
+        return hibernating;
+    }
+
+    /**
+     * 看门狗：检测"进程活着但没在产出"的解码器（网络源拉流卡住 / 静默失败），超时后重启——
+     * 否则当前歌曲会整首静音，VRC 只能等到切歌才有声。编码器未运行（启动失败 / 退出后冷却中）时重试拉起。
+     */
+    @Scheduled(fixedRate = 5000)
+    public void transcodeWatchdog() {
+        if (!isEnabled.get()) {
+            return;
+        }
+        if (!encoder.isRunning()) {
+            checkState();
+            return;
+        }
+        PcmDecoder decoder = currentDecoder;
+        if (decoder != null && decoder.isStuck(System.currentTimeMillis(), DECODER_STARTUP_TIMEOUT_MS, DECODER_STALL_TIMEOUT_MS)) {
+            log.warn("Stream: decoder {} produced no data in time, restarting",
+                    decoder.hasStarted() ? "stalled and" : "started but");
+            restartForWatchdog(decoder);
         }
     }
 
     /** 看门狗触发的重启，带 30s 崩溃冷却防反复。 */
-    private synchronized void restartForWatchdog() {
+    private synchronized void restartForWatchdog(PcmDecoder stuck) {
+        if (stuck != currentDecoder) {
+            return;
+        }
         long now = System.currentTimeMillis();
         if (now - lastCrashRestartTimeMs < CRASH_RESTART_BACKOFF_MS) {
-            log.error("Stream: transcoder keeps failing, backing off watchdog restart");
+            log.error("Stream: decoder keeps failing, backing off watchdog restart");
             return;
         }
         lastCrashRestartTimeMs = now;
-        doRestart();
+        TranscodeTarget target = currentMusic != null ? resolveTarget() : null;
+        if (target != null) {
+            startDecoding(target, StreamMetrics.RestartCause.WATCHDOG);
+        }
     }
 
     /**
-     * 解析当前歌曲的转码源。优先本地缓存文件，否则使用网络 URL。
+     * 解析当前歌曲的转码源。优先本地缓存文件（B站，以及开启本地缓存后的网易云），否则使用网络 URL。
+     * 网易云歌曲首播时可能还在后台下载，之后的转码重启（seek / 看门狗）会自动切到本地文件。
      *
      * @return 转码目标；源未就绪（PENDING_DOWNLOAD / 空 URL）时返回 null
      */
     private TranscodeTarget resolveTarget() {
-        LocalCacheService.CacheEntry entry = localCacheService.getCacheEntry(currentMusic.id());
-        if (entry != null && entry.getStatus() == CacheStatus.COMPLETED) {
-            Path filePath = Paths.get(LocalResourceConfig.CACHE_DIR, entry.getFileName());
-            if (Files.exists(filePath)) {
-                return new TranscodeTarget(
-                        filePath.toAbsolutePath().toString(),
-                        Map.of(),
-                        "file:" + entry.getFileName() + "#" + currentMusic.id());
-            }
+        TranscodeTarget cached = resolveCachedTarget(currentMusic.id());
+        if (cached != null) {
+            return cached;
         }
 
         String url = currentMusic.url();
@@ -646,6 +961,21 @@ public class LiveStreamService {
         return new TranscodeTarget(url, headers, "net:" + currentMusic.platform() + ":" + url + "#" + currentMusic.id());
     }
 
+    /** 已完整缓存到本地的歌曲的转码源；未缓存完成时返回 null。 */
+    private TranscodeTarget resolveCachedTarget(String musicId) {
+        LocalCacheService.CacheEntry entry = localCacheService.getCacheEntry(musicId);
+        if (entry != null && entry.getStatus() == CacheStatus.COMPLETED) {
+            Path filePath = Paths.get(LocalResourceConfig.CACHE_DIR, entry.getFileName());
+            if (Files.exists(filePath)) {
+                return new TranscodeTarget(
+                        filePath.toAbsolutePath().toString(),
+                        Map.of(),
+                        "file:" + entry.getFileName() + "#" + musicId);
+            }
+        }
+        return null;
+    }
+
     private record TranscodeTarget(String input, Map<String, String> headers, String key) {
     }
 }
@@ -0,0 +1,266 @@
+package org.thornex.musicparty.service.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按源缓存已解码的 PCM，总量受字节预算限制（LRU 淘汰整首）。
+ * <p>
+ * PCM 按 1 秒一块存放，块号即秒数：播放位置到缓存偏移是纯算术（{@link #offsetOf}），
+ * seek / 重播落在已缓存区间内时直接从对应采样处读取，不再启动 ffmpeg。
+ * 解码器边解码边写入（{@link Writer}），同一首歌播放一遍后即完整可用；
+ * 只缓存了部分区间时，先读缓存、再由从缓存末尾起播的解码进程接续。
+ */
+public final class PcmCache {
+
+    /** 每块 1 秒 PCM */
+    static final int BLOCK_BYTES = PcmDecoder.BYTES_PER_SECOND;
+
+    /** 缓存统计快照。 */
+    public record Stats(int entries, long bytes, long maxBytes, long hits, long partialHits, long misses, long evictions) {
+    }
+
+    private final long maxBytes;
+    // 按访问顺序排列，队首为最久未用
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong partialHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    PcmCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /** 播放位置（毫秒）对应的缓存字节偏移，按采样帧对齐。 */
+    static long offsetOf(long positionMs) {
+        return Math.max(0, positionMs) * PcmDecoder.SAMPLE_RATE / 1000 * PcmDecoder.FRAME_SIZE;
+    }
+
+    /** 缓存字节偏移对应的播放位置（毫秒）。 */
+    static long positionOf(long offset) {
+        return offset / PcmDecoder.FRAME_SIZE * 1000 / PcmDecoder.SAMPLE_RATE;
+    }
+
+    /** 取（不存在时创建）某个源的缓存条目。 */
+    synchronized Entry entry(String key) {
+        return entries.computeIfAbsent(key, Entry::new);
+    }
+
+    void recordHit(boolean partial) {
+        (partial ? partialHits : hits).incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    synchronized Stats stats() {
+        return new Stats(entries.size(), totalBytes, maxBytes, hits.get(), partialHits.get(), misses.get(), evictions.get());
+    }
+
+    /** 为 owner 新增一块腾出预算：按 LRU 淘汰其他没有写入者的条目。腾不出时返回 false（该块不缓存）。 */
+    private boolean reserve(Entry owner, int bytes) {
+        if (totalBytes + bytes <= maxBytes) {
+            return true;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext() && totalBytes + bytes > maxBytes) {
+            Entry victim = it.next();
+            if (victim == owner || victim.writers > 0) {
+                continue;
+            }
+            totalBytes -= victim.bytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        return totalBytes + bytes <= maxBytes;
+    }
+
+    /** 一个源的已缓存区间。块一经写入不再改变，读取方持有块引用即可，淘汰不影响正在进行的读取。 */
+    final class Entry {
+
+        private final String key;
+        private final Map<Long, byte[]> blocks = new HashMap<>();
+        private long bytes;
+        /** 源的总字节数，解码器完整播完后才得知；未知时为 -1 */
+        private long endOffset = -1;
+        private int writers;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        String key() {
+            return key;
+        }
+
+        /** 从 offset 起连续缓存到的字节偏移；offset 处未缓存时返回 offset。 */
+        long contiguousEnd(long offset) {
+            synchronized (PcmCache.this) {
+                long block = offset / BLOCK_BYTES;
+                while (blocks.containsKey(block)) {
+                    block++;
+                }
+                long end = Math.max(offset, block * BLOCK_BYTES);
+                return endOffset >= 0 ? Math.min(end, endOffset) : end;
+            }
+        }
+
+        /** 从 offset 起直到源结尾是否全部已缓存。 */
+        boolean isCompleteFrom(long offset) {
+            synchronized (PcmCache.this) {
+                return endOffset >= 0 && offset < endOffset && contiguousEnd(offset) == endOffset;
+            }
+        }
+
+        /** 读取 [from, to) 区间的 PCM；调用方须先确认该区间已连续缓存。 */
+        InputStream openStream(long from, long to) {
+            synchronized (PcmCache.this) {
+                List<byte[]> run = new ArrayList<>();
+                for (long block = from / BLOCK_BYTES; block * BLOCK_BYTES < to; block++) {
+                    byte[] data = blocks.get(block);
+                    if (data == null) {
+                        break;
+                    }
+                    run.add(data);
+                }
+                return new BlockInputStream(run, (int) (from % BLOCK_BYTES), to - from);
+            }
+        }
+
+        /** 从 offset 起顺序写入解码输出；offset 不在块边界时从下一个块边界开始缓存。 */
+        Writer writer(long offset) {
+            synchronized (PcmCache.this) {
+                writers++;
+            }
+            return new Writer(this, offset);
+        }
+
+        private void commit(long block, byte[] data) {
+            synchronized (PcmCache.this) {
+                if (blocks.containsKey(block) || entries.get(key) != this || !reserve(this, data.length)) {
+                    return;
+                }
+                blocks.put(block, data);
+                bytes += data.length;
+                totalBytes += data.length;
+            }
+        }
+
+        private void release(long endOffset) {
+            synchronized (PcmCache.this) {
+                writers--;
+                if (endOffset >= 0) {
+                    this.endOffset = endOffset;
+                }
+            }
+        }
+    }
+
+    /** 解码器的缓存写入端：攒满一块提交一块，已存在的块跳过。单线程使用。 */
+    static final class Writer {
+
+        private final Entry entry;
+        private long offset;
+        private byte[] block;
+        private int blockFill;
+        private boolean closed;
+
+        private Writer(Entry entry, long offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+
+        void write(byte[] src, int length) {
+            int pos = 0;
+            while (pos < length && !closed) {
+                int inBlock = (int) (offset % BLOCK_BYTES);
+                int n = Math.min(length - pos, BLOCK_BYTES - inBlock);
+                if (block == null && inBlock == 0) {
+                    block = new byte[BLOCK_BYTES];
+                    blockFill = 0;
+                }
+                if (block != null) {
+                    System.arraycopy(src, pos, block, blockFill, n);
+                    blockFill += n;
+                    if (blockFill == BLOCK_BYTES) {
+                        entry.commit(offset / BLOCK_BYTES, block);
+                        block = null;
+                    }
+                }
+                offset += n;
+                pos += n;
+            }
+        }
+
+        /**
+         * 结束写入。
+         *
+         * @param reachedEnd 解码器完整播到了源的结尾：提交最后不满一块的数据，并记下源的总长度
+         */
+        void close(boolean reachedEnd) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (reachedEnd && block != null && blockFill > 0) {
+                entry.commit((offset - 1) / BLOCK_BYTES, Arrays.copyOf(block, blockFill));
+            }
+            block = null;
+            entry.release(reachedEnd ? offset : -1);
+        }
+    }
+
+    /** 顺序读取一串缓存块。 */
+    private static final class BlockInputStream extends InputStream {
+
+        private final List<byte[]> blocks;
+        private int index;
+        private int position;
+        private long remaining;
+
+        private BlockInputStream(List<byte[]> blocks, int firstOffset, long length) {
+            this.blocks = blocks;
+            this.position = firstOffset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] dst, int off, int len) {
+            while (index < blocks.size() && position >= blocks.get(index).length) {
+                index++;
+                position = 0;
+            }
+            if (remaining <= 0 || index >= blocks.size()) {
+                return -1;
+            }
+            byte[] block = blocks.get(index);
+            int n = (int) Math.min(Math.min(len, block.length - position), remaining);
+            System.arraycopy(block, position, dst, off, n);
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+}
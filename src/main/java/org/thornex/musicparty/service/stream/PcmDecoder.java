@@ -0,0 +1,289 @@
+package org.thornex.musicparty.service.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单首歌曲的解码进程：ffmpeg 把音源解码为 44.1kHz 立体声 s16le PCM，读线程写入有界缓冲。
+ * <p>
+ * 解码不加 {@code -re}：实时节奏由 {@link StreamEncoder} 的喂数线程按单调时钟控制，
+ * 解码器只需提前解出几秒放在缓冲里；缓冲满时读线程阻塞，借管道反压让 ffmpeg 暂停。
+ * 因此提前启动的解码器（预滚动）天然就是"预缓冲"的。
+ * <p>
+ * 播放位置按已被编码器取走的采样数精确计算，不再依赖墙钟估算。
+ * <p>
+ * 数据来源可以是 ffmpeg 进程、{@link PcmCache} 中已缓存的区间，或"先缓存、后进程"的串接；
+ * 设置了缓存写入端时，解出的 PCM 同时写入缓存供之后的 seek / 重播复用。
+ */
+final class PcmDecoder {
+
+    static final int SAMPLE_RATE = 44100;
+    /** 每个采样帧 4 字节（16 位 × 2 声道） */
+    static final int FRAME_SIZE = 4;
+    static final int BYTES_PER_SECOND = SAMPLE_RATE * FRAME_SIZE;
+    /** 退出码 0 时判定"自然播完"的位置容差：距歌曲末尾超过该值即视为异常退出 */
+    static final long NATURAL_END_TOLERANCE_MS = 10000;
+
+    private final Process process;
+    private final String key;
+    private final String musicId;
+    private final long startPosMs;
+    private final long durationMs;
+    private final boolean prerolled;
+    private final long launchTimeMs = System.currentTimeMillis();
+
+    // 环形 PCM 缓冲（guarded by this）
+    private final byte[] buffer;
+    private int readPos;
+    private int size;
+    private boolean eof;
+    private boolean closed;
+
+    /** 数据来源；为 null 时读取 process 的 stdout */
+    private InputStream source;
+    private PcmCache.Writer cacheWriter;
+
+    private volatile int exitCode = -1;
+    private volatile long consumedBytes;
+    private volatile long firstDataTimeMs;
+    private volatile long lastDataTimeMs;
+
+    /**
+     * @param process       解码进程；纯缓存回放时为 null
+     * @param durationMs    歌曲时长（用于自然结束判定与临近结尾的交叉淡化），未知时为 0
+     * @param bufferSeconds 预解码缓冲时长
+     * @param prerolled     是否为预滚动（下一首提前启动）的解码器
+     */
+    PcmDecoder(Process process, String key, String musicId, long startPosMs, long durationMs, int bufferSeconds,
+               boolean prerolled) {
+        this.process = process;
+        this.key = key;
+        this.musicId = musicId;
+        this.startPosMs = startPosMs;
+        this.durationMs = durationMs;
+        this.prerolled = prerolled;
+        this.buffer = new byte[Math.max(1, bufferSeconds) * BYTES_PER_SECOND];
+    }
+
+    /** 解码命令：从 startPosMs 处开始，输出原始 PCM 到 stdout。 */
+    static List<String> buildCommand(String ffmpegPath, String input, Map<String, String> headers, long startPosMs) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-loglevel");
+        command.add("error"); // stderr 只输出错误，便于看门狗/日志诊断拉流失败
+
+        // 网络源需要携带的请求头（如 Bilibili 防盗链）
+        if (input.startsWith("http")) {
+            if (!headers.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                headers.forEach((k, v) -> sb.append(k).append(": ").append(v).append("\r\n"));
+                command.add("-headers");
+                command.add(sb.toString());
+            }
+            // HTTP 拉流自动重连：网易云 CDN 偶发切断连接（TLS IO error: End of file），
+            // 让 ffmpeg 自动重连继续拉取，而不是直接退出触发看门狗 15s 循环
+            command.add("-reconnect");
+            command.add("1");
+            command.add("-reconnect_delay_max");
+            command.add("5");
+        }
+        command.add("-ss");
+        command.add(String.format(Locale.US, "%.3f", startPosMs / 1000.0));
+        command.add("-i");
+        command.add(input);
+        command.add("-vn");
+        command.add("-f");
+        command.add("s16le");
+        command.add("-ac");
+        command.add("2");
+        command.add("-ar");
+        command.add(String.valueOf(SAMPLE_RATE));
+        command.add("pipe:1");
+        return command;
+    }
+
+    String key() {
+        return key;
+    }
+
+    String musicId() {
+        return musicId;
+    }
+
+    boolean isPrerolled() {
+        return prerolled;
+    }
+
+    Process process() {
+        return process;
+    }
+
+    long launchTimeMs() {
+        return launchTimeMs;
+    }
+
+    /** 启动到首批数据到达的耗时；尚未产出时返回 -1。 */
+    long startupLatencyMs() {
+        long first = firstDataTimeMs;
+        return first == 0 ? -1 : first - launchTimeMs;
+    }
+
+    /** 指定数据来源（缓存区间，或缓存与进程 stdout 的串接），须在 {@link #pump()} 之前调用。 */
+    void setSource(InputStream source) {
+        this.source = source;
+    }
+
+    /** 解出的 PCM 同时写入缓存，须在 {@link #pump()} 之前调用。 */
+    void setCacheWriter(PcmCache.Writer cacheWriter) {
+        this.cacheWriter = cacheWriter;
+    }
+
+    /** 读线程：把 PCM 写入缓冲，缓冲满时阻塞。读到 EOF 后记录退出码。 */
+    void pump() {
+        byte[] chunk = new byte[16 * 1024];
+        long produced = 0;
+        try (InputStream is = source != null ? source : process.getInputStream()) {
+            int n;
+            while ((n = is.read(chunk)) != -1) {
+                if (cacheWriter != null) {
+                    cacheWriter.write(chunk, n);
+                }
+                produced += n;
+                if (!write(chunk, n)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // 进程被杀或管道关闭，忽略
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                // stdout 关闭时进程通常正在退出：稍等以便按退出码判断是否自然播完
+                if (process == null) {
+                    synchronized (this) {
+                        exitCode = closed ? -1 : 0; // 缓存回放读完即为播完
+                    }
+                } else if (process.waitFor(1, TimeUnit.SECONDS)) {
+                    exitCode = process.exitValue();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (cacheWriter != null) {
+                // 只有完整解码到结尾才记下源的总长度（网络源中途断开时退出码也可能为 0）
+                cacheWriter.close(exitCode == 0 && reachedEnd(startPosMs + produced * 1000 / BYTES_PER_SECOND));
+            }
+            synchronized (this) {
+                eof = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean write(byte[] src, int length) throws InterruptedException {
+        int offset = 0;
+        while (offset < length) {
+            while (size == buffer.length && !closed) {
+                wait();
+            }
+            if (closed) {
+                return false;
+            }
+            int writePos = (readPos + size) % buffer.length;
+            int n = Math.min(length - offset, Math.min(buffer.length - size, buffer.length - writePos));
+            System.arraycopy(src, offset, buffer, writePos, n);
+            size += n;
+            offset += n;
+        }
+        long now = System.currentTimeMillis();
+        if (firstDataTimeMs == 0) {
+            firstDataTimeMs = now;
+        }
+        lastDataTimeMs = now;
+        return true;
+    }
+
+    /**
+     * 非阻塞读取整数个采样帧。
+     *
+     * @return 读取的字节数；暂无数据时为 0；解码结束且缓冲已读空时为 -1
+     */
+    synchronized int read(byte[] dst, int offset, int length) {
+        int n = Math.min(length, size) / FRAME_SIZE * FRAME_SIZE;
+        if (n == 0) {
+            return eof && size < FRAME_SIZE ? -1 : 0;
+        }
+        int first = Math.min(n, buffer.length - readPos);
+        System.arraycopy(buffer, readPos, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, n - first);
+        readPos = (readPos + n) % buffer.length;
+        size -= n;
+        consumedBytes += n;
+        notifyAll();
+        return n;
+    }
+
+    synchronized int available() {
+        return size;
+    }
+
+    /** 解码已结束、缓冲已读空。 */
+    synchronized boolean isExhausted() {
+        return eof && size < FRAME_SIZE;
+    }
+
+    /** 是否已解出过数据（启动成功）。 */
+    boolean hasStarted() {
+        return firstDataTimeMs != 0;
+    }
+
+    /** 当前输出到编码器的播放位置（毫秒），按已取走的采样数精确计算。 */
+    long positionMs() {
+        return startPosMs + consumedBytes * 1000 / BYTES_PER_SECOND;
+    }
+
+    /** 距歌曲结尾的剩余时长；时长未知时返回 Long.MAX_VALUE。 */
+    long remainingMs() {
+        return durationMs > 0 ? durationMs - positionMs() : Long.MAX_VALUE;
+    }
+
+    /** 正常退出且位置接近歌曲末尾：视为自然播完（否则是拉流中断等异常退出）。 */
+    boolean isNaturalEnd() {
+        return exitCode == 0 && hasStarted() && reachedEnd(positionMs());
+    }
+
+    private boolean reachedEnd(long positionMs) {
+        return durationMs <= 0 || positionMs >= durationMs - NATURAL_END_TOLERANCE_MS;
+    }
+
+    /**
+     * 看门狗判定：启动后超过 startupTimeoutMs 仍无数据，或缓冲已读空且超过 stallTimeoutMs 无新数据。
+     * 缓冲满时读线程阻塞、不会有新数据，但此时缓冲非空，不算停滞。
+     */
+    boolean isStuck(long now, long startupTimeoutMs, long stallTimeoutMs) {
+        if (process == null || !process.isAlive()) {
+            return false; // 已退出：由退出处理负责
+        }
+        if (!hasStarted()) {
+            return now - launchTimeMs > startupTimeoutMs;
+        }
+        return available() == 0 && now - lastDataTimeMs > stallTimeoutMs;
+    }
+
+    /** 停止进程并释放读线程。幂等。 */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (process != null && process.isAlive()) {
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.thornex.musicparty.service.stream;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 基于 Servlet 非阻塞输出（{@link WriteListener}）的 {@link StreamSink} 实现。
+ * <p>
+ * 写线程只在 {@link ServletOutputStream#isReady()} 为 true 时写入，写不完的部分由容器拷走、在连接可写时
+ * 自行发送，随后回调 {@link #onWritePossible()} 唤醒写线程。连接生命周期（断开/超时/错误）由
+ * {@link AsyncContext} 的监听器管理。
+ */
+public class ServletStreamSink implements StreamSink, WriteListener {
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private volatile Runnable writableListener;
+    private volatile Consumer<Throwable> errorListener;
+
+    /** 必须在容器请求线程上构造：进入非阻塞模式（setWriteListener）只能在请求处理期间进行。 */
+    public ServletStreamSink(AsyncContext asyncContext) throws IOException {
+        this.asyncContext = asyncContext;
+        this.out = asyncContext.getResponse().getOutputStream();
+        this.out.setWriteListener(this);
+    }
+
+    public void setErrorListener(Consumer<Throwable> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    @Override
+    public boolean isReady() {
+        return !completed.get() && out.isReady();
+    }
+
+    @Override
+    public void write(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        // 非阻塞模式下 isReady 为 false 时不得 flush：剩余数据已交给容器，会在可写时继续发送
+        if (out.isReady()) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    @Override
+    public void onWritePossible() {
+        Runnable listener = writableListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        Consumer<Throwable> listener = errorListener;
+        if (listener != null) {
+            listener.accept(t);
+        }
+    }
+
+    @Override
+    public void complete() {
+        if (completed.compareAndSet(false, true)) {
+            try {
+                asyncContext.complete();
+            } catch (Exception ignored) {
+                // 响应可能已结束，忽略
+            }
+        }
+    }
+}
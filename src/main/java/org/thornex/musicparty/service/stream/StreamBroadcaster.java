@@ -1,61 +1,137 @@
 package org.thornex.musicparty.service.stream;
 
 import lombok.extern.slf4j.Slf4j;
+import org.thornex.musicparty.config.AppProperties;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
  * 将共享的音频流分发给所有 HTTP 收听者。
  * <p>
- * 分发是<b>非阻塞</b>的：只向每个 {@link StreamClient} 的缓冲队列做 {@code offer}，
- * 慢客户端造成的阻塞只发生在它自己的泵线程上，不会拖慢广播线程或影响其他客户端。
+ * 分发基于一个预分配的 {@link StreamRingBuffer}：每块音频只拷贝一次进环形缓冲，
+ * 每个 {@link StreamClient} 只持有自己的读游标。广播路径不遍历客户端、不分配内存，
+ * 内存占用与收听人数无关；慢客户端只会落后或被套圈（drop-oldest），不会拖慢广播线程或影响其他客户端。
+ * <p>
+ * 写出由固定的 {@link StreamWriterPool} 完成：广播只唤醒写线程，由写线程以非阻塞方式推进各客户端。
  */
 @Slf4j
 public class StreamBroadcaster {
 
+    /** 广播器的累计统计（含已断开的连接）。 */
+    public record Stats(int clients, long totalConnections, long bytesSent, long droppedChunks,
+                        long stallDisconnects, long ringBytes) {
+    }
+
     /**
-     * 新客户端首连时预填的最近音频块数：约 8s。
+     * 新客户端首连时预填的最近音频块数（时长未知的块按 burstOnConnectMs / 该值计时长，默认即 8 块 ≈ 8s）。
      * <p>
-     * 首连若从空队列开始，第一个字节要等下一个转码块（{@code -re} 实时 ≈1s 一块），
-     * ResponseBodyEmitter 的响应头也随首个 send() 延迟 ~1s 才提交，VRC 等不及会断开重试
+     * 首连若从空队列开始，第一个字节要等下一个编码块（≈1s 一块），
+     * 响应头也随首次写出延迟 ~1s 才提交，VRC 等不及会断开重试
      * （实测首连出现 3 次 connect/disconnect、~10s 顿卡）。预填最近音频后：首字节/响应头
      * 毫秒级到达，且客户端自带一段初始缓冲，播放器不会欠缓冲。
+     * 预填量按块的精确时长累计到 {@code burstOnConnectMs}，且块都从帧边界开始。
      */
-    private static final int RECENT_CHUNKS_FOR_NEW_CLIENT = 8;
+    static final int RECENT_CHUNKS_FOR_NEW_CLIENT = 8;
+
+    /** 槽位余量：写入方需再写这么多块才会覆盖落后最多的读者正在拷贝的槽位 */
+    private static final int RING_SLACK_CHUNKS = 4;
 
     private final Set<StreamClient> clients = ConcurrentHashMap.newKeySet();
-    /** 最近广播的音频块环形缓冲：无监听者时也持续记录，供新客户端首连立即拿到数据、立即提交响应头 */
-    private final Deque<byte[]> recentChunks = new ArrayDeque<>();
+    /** 最近广播的音频：无监听者时也持续写入，供新客户端首连立即拿到数据、立即提交响应头 */
+    private final StreamRingBuffer ring;
+    /** 新客户端预填的块数上限（环形缓冲中可安全读取的窗口） */
+    private final int window;
+    private final long burstMicros;
+    private final StreamWriterPool writers;
+    /** 写线程组由本广播器创建（需在 closeAll 时停止）还是与其他档位共享 */
+    private final boolean ownsWriters;
+    /** 因写阻塞超时被断开的连接数 */
+    private final AtomicLong stallDisconnects = new AtomicLong();
+    // 已断开连接的累计量（在线连接的部分在 stats() 时现算）
+    private final AtomicLong totalConnections = new AtomicLong();
+    private final AtomicLong closedBytesSent = new AtomicLong();
+    private final AtomicLong closedDroppedChunks = new AtomicLong();
     private volatile Consumer<StreamClient> onClientRemoved;
 
+    public StreamBroadcaster(AppProperties.StreamConfig config) {
+        this(config, createWriterPool(config), true);
+    }
+
+    /** 多个档位共享同一写线程组：写线程数与档位数、连接数都无关。 */
+    StreamBroadcaster(AppProperties.StreamConfig config, StreamWriterPool writers) {
+        this(config, writers, false);
+    }
+
+    private StreamBroadcaster(AppProperties.StreamConfig config, StreamWriterPool writers, boolean ownsWriters) {
+        this.window = Math.max(Math.max(1, config.getBufferChunks()), RECENT_CHUNKS_FOR_NEW_CLIENT);
+        this.ring = new StreamRingBuffer(window + RING_SLACK_CHUNKS, config.getChunkSizeBytes());
+        this.burstMicros = Math.max(0, config.getBurstOnConnectMs()) * 1000L;
+        this.writers = writers;
+        this.ownsWriters = ownsWriters;
+    }
+
+    static StreamWriterPool createWriterPool(AppProperties.StreamConfig config) {
+        int threads = config.getWriterThreads() > 0 ? config.getWriterThreads() : Runtime.getRuntime().availableProcessors();
+        return new StreamWriterPool(threads, config.getChunkSizeBytes());
+    }
+
     public void setOnClientRemoved(Consumer<StreamClient> onClientRemoved) {
         this.onClientRemoved = onClientRemoved;
     }
 
     public void addClient(StreamClient client) {
-        // 先预填最近音频再加入集合：保证首连立即有数据（响应头随之立即提交），
-        // 且队列顺序为"最近→实时"，不会出现旧音频排在新音频之后的乱序。
-        synchronized (recentChunks) {
-            for (byte[] chunk : recentChunks) {
-                client.offer(chunk);
-            }
-        }
+        // 游标从最近音频开始：保证首连立即有数据（响应头随之立即提交），且顺序为"最近→实时"
+        long burst = burstMicrosFor(client);
+        long start = ring.burstStart(burst, burstMicros / RECENT_CHUNKS_FOR_NEW_CLIENT, window);
+        attachClient(client, ring, start);
+    }
+
+    /**
+     * 时移收听者：游标接入同档位 DVR 的固定延迟视图，同样预填 burstOnConnectMs 的音频，之后按实时节奏推进。
+     * 写线程仍由每次广播唤醒（视图的可读上界随时间推进）。
+     */
+    public void addClient(StreamClient client, StreamDvr.View view) {
+        attachClient(client, view, view.burstStart(burstMicrosFor(client) / 1000));
+    }
+
+    private long burstMicrosFor(StreamClient client) {
+        return client.getBurstOnConnectMs() >= 0 ? client.getBurstOnConnectMs() * 1000 : burstMicros;
+    }
+
+    private void attachClient(StreamClient client, ChunkSource source, long start) {
+        client.attach(source, start, () -> removeClient(client));
+        client.assignWriter(writers.assign(client));
         clients.add(client);
+        totalConnections.incrementAndGet();
+        if (client.isClosed()) {
+            removeClient(client); // 接入前已关闭：关闭回调时尚未加入集合
+            return;
+        }
         log.info("Stream client connected. Total: {}", clients.size());
     }
 
     /**
      * 移除客户端。仅在确实从集合中移除时触发一次 {@code onClientRemoved} 回调
      * （配合 {@link StreamClient#ipCounted} 保证清理逻辑恰好执行一次）。
+     * 客户端关闭时会经 attach 注册的回调自动调用本方法。
      *
      * @return true 表示该客户端此前在集合中、本次被移除；false 表示本就不存在（幂等）
      */
     public boolean removeClient(StreamClient client) {
         if (clients.remove(client)) {
+            StreamWriterPool.Writer writer = client.getWriter();
+            if (writer != null) {
+                writer.remove(client);
+            }
+            if (client.isStalled()) {
+                stallDisconnects.incrementAndGet();
+            }
+            closedBytesSent.addAndGet(client.getBytesSent());
+            closedDroppedChunks.addAndGet(client.getDroppedChunks());
             log.info("Stream client disconnected. Total: {}", clients.size());
             Consumer<StreamClient> callback = onClientRemoved;
             if (callback != null) {
@@ -71,42 +147,62 @@ public class StreamBroadcaster {
     }
 
     /**
-     * 将一块音频分发给所有客户端。非阻塞：只做 {@code offer}，永不失败、永不移除（drop-oldest）。
-     * 已关闭的客户端会被顺带清理。
+     * 将一段音频写入共享环形缓冲（超过块大小时拆分）。非阻塞于任何客户端，无分配。
      * <p>
      * 环形缓冲在<b>无监听者时也持续记录</b>（热转码 0 连接场景），这样第一个听众加入时
      * 立即有最近音频可预填，而不必等下一个转码块。
      */
+    public void broadcast(byte[] data, int offset, int length) {
+        broadcast(data, offset, length, 0);
+    }
+
+    /** 写入一块已分帧的音频并记录其精确时长（新客户端预填按时长累计）。 */
+    public void broadcast(byte[] data, int offset, int length, long durationMicros) {
+        ring.publish(data, offset, length, durationMicros);
+        writers.wakeAll();
+    }
+
     public void broadcast(byte[] chunk) {
-        synchronized (recentChunks) {
-            recentChunks.addLast(chunk);
-            while (recentChunks.size() > RECENT_CHUNKS_FOR_NEW_CLIENT) {
-                recentChunks.pollFirst();
-            }
-        }
-        if (clients.isEmpty()) {
-            return;
-        }
-        for (StreamClient client : clients) {
-            if (!client.offer(chunk)) {
-                removeClient(client);
-            }
-        }
+        broadcast(chunk, 0, chunk.length);
     }
 
-    /** 清空所有客户端的缓冲与环形缓冲（暂停 / 切歌 / seek 时丢弃过期音频，避免新听众被预填旧歌音频）。 */
+    /** 丢弃所有已缓冲音频（暂停 / 切歌 / seek 时，避免听众和新听众听到过期音频）。 */
     public void flushAll() {
-        synchronized (recentChunks) {
-            recentChunks.clear();
+        ring.markFlushed();
+    }
+
+    /** 共享环形缓冲的总字节数（与收听人数无关）。 */
+    public long getRingBytes() {
+        return (long) ring.capacity() * ring.chunkSize();
+    }
+
+    public long getStallDisconnects() {
+        return stallDisconnects.get();
+    }
+
+    public Stats stats() {
+        long bytes = closedBytesSent.get();
+        long dropped = closedDroppedChunks.get();
+        for (StreamClient client : clients) {
+            bytes += client.getBytesSent();
+            dropped += client.getDroppedChunks();
         }
-        clients.forEach(StreamClient::flush);
+        return new Stats(clients.size(), totalConnections.get(), bytes, dropped, stallDisconnects.get(), getRingBytes());
     }
 
-    /** 关闭并移除所有客户端（服务关闭时调用）。 */
+    /** 各在线连接的诊断快照。 */
+    public List<StreamClient.Stats> clientStats() {
+        return clients.stream().map(StreamClient::stats).toList();
+    }
+
+    /** 关闭并移除所有客户端；自有的写线程组一并停止（服务关闭时调用）。 */
     public void closeAll() {
         for (StreamClient client : clients) {
             client.close();
             removeClient(client);
         }
+        if (ownsWriters) {
+            writers.shutdown();
+        }
     }
 }
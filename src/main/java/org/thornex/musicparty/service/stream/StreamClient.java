@@ -5,26 +5,39 @@ import org.thornex.musicparty.config.AppProperties;
 
 import java.io.IOException;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 一个直播流收听者（客户端连接）。
  * <p>
- * 每个客户端持有自己的有界缓冲队列与独立的泵线程（Java 21 虚拟线程）。
- * 广播线程只做非阻塞 {@link #offer(byte[])}，慢客户端造成的阻塞只发生在它自己的泵线程上，
- * 从而彻底隔离"一个慢客户端拖垮所有人"的头阻塞问题。
+ * 客户端不持有块队列和线程，只持有共享 {@link StreamRingBuffer}（时移收听者为 {@link StreamDvr.View}）上的读游标；
+ * 由分配到的 {@link StreamWriterPool} 写线程调用 {@link #pump} 以非阻塞方式写出。
+ * 连接不可写时写线程直接跳过它，慢客户端不会占住任何线程，也不影响广播线程和其他客户端。
  * <p>
- * 缓冲满时采用 <b>drop-oldest</b> 策略：丢弃最旧音频、保持连接（VRChat 断线需手动重贴链接，不可接受；
+ * 落后超过 {@code bufferChunks} 块（或被环形缓冲套圈）时采用 <b>drop-oldest</b> 策略：游标直接跳到
+ * 最近的 bufferChunks 块，保持连接（VRChat 断线需手动重贴链接，不可接受；
  * MP3 是自同步帧编码，丢块后解码器会在毫秒级重新同步）。
+ * 连接持续不可写超过 {@code writeStallTimeoutMs} 则判定为写阻塞（对端不再读取），主动断开释放资源。
  */
 @Slf4j
 public class StreamClient implements AutoCloseable {
 
+    /** 单个连接的诊断快照。ttfbMs 为连接建立到首字节写出的耗时，尚未写出时为 -1。 */
+    public record Stats(String id, String ip, long connectedMs, long bytesSent, long droppedChunks, int highWaterChunks,
+                        long ttfbMs, long stallCount, long totalStallMs, long maxStallMs) {
+    }
+
+    /** 每轮最多连续写出的块数，避免新连接的预填数据独占写线程 */
+    private static final int MAX_CHUNKS_PER_TURN = 4;
+
     private final String id;
     private final String clientIp;
     private final StreamSink sink;
-    private final ArrayBlockingQueue<byte[]> queue;
+    private final int bufferChunks;
+    /** 首连预填时长（毫秒），为负时使用广播器的默认值（burstOnConnectMs） */
+    private final long burstOnConnectMs;
+    private final long stallTimeoutNanos;
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     /**
@@ -33,25 +46,47 @@ public class StreamClient implements AutoCloseable {
      */
     final AtomicBoolean ipCounted = new AtomicBoolean(false);
 
-    private final Thread pump;
+    private volatile ChunkSource ring;
+    private volatile StreamWriterPool.Writer writer;
+    private volatile Runnable onClose;
+    /** 下一个要读取的序号（只由写线程推进） */
+    private volatile long cursor;
+    private volatile long droppedChunks;
+    // 最近一次 poll 取到的块的时间戳（只由写线程读写）
+    private long polledMediaMicros;
+    private long polledPublishedMs;
+    /** 最近一次连接可写的时刻（写线程时钟） */
+    private volatile long lastWritableNanos = System.nanoTime();
+    private volatile boolean stalled;
+
+    // 诊断计数（只由写线程更新）
+    private final long connectedNanos = System.nanoTime();
+    private volatile long firstByteNanos;
+    private volatile long bytesSent;
+    /** 待发送块数的历史最高值 */
+    private volatile int highWaterChunks;
+    /** 当前一次不可写的开始时刻，可写时为 0 */
+    private volatile long stallStartNanos;
+    private volatile long stallCount;
+    private volatile long totalStallNanos;
+    private volatile long maxStallNanos;
 
     public StreamClient(StreamSink sink, String clientIp, AppProperties.StreamConfig config) {
-        this(sink, clientIp, config, true);
+        this(sink, clientIp, config, -1);
     }
 
-    /** 测试用：startPump=false 时不启动泵线程，便于确定性验证 drop-oldest。 */
-    StreamClient(StreamSink sink, String clientIp, AppProperties.StreamConfig config, boolean startPump) {
+    /**
+     * @param burstOnConnectMs 首连预填时长（毫秒）：低延迟传输（WebSocket）只预填很短的一段，
+     *                         收听者从接近实时处开始；为负时使用配置的 burstOnConnectMs
+     */
+    public StreamClient(StreamSink sink, String clientIp, AppProperties.StreamConfig config, long burstOnConnectMs) {
         this.id = UUID.randomUUID().toString();
         this.clientIp = clientIp;
         this.sink = sink;
-        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getBufferChunks()));
-        if (startPump) {
-            this.pump = Thread.ofVirtual()
-                    .name("stream-pump-" + id)
-                    .start(this::pumpLoop);
-        } else {
-            this.pump = null;
-        }
+        this.burstOnConnectMs = burstOnConnectMs;
+        this.bufferChunks = Math.max(1, config.getBufferChunks());
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteStallTimeoutMs());
+        sink.setWritableListener(this::wake);
     }
 
     public String getId() {
@@ -66,94 +101,183 @@ public class StreamClient implements AutoCloseable {
         return closed.get();
     }
 
+    long getBurstOnConnectMs() {
+        return burstOnConnectMs;
+    }
+
+    /** 是否因写阻塞超时被断开。 */
+    public boolean isStalled() {
+        return stalled;
+    }
+
     /**
-     * 非阻塞加入一块音频数据。队列满时丢弃最旧数据（drop-oldest），保证永不移除客户端。
-     * 广播线程可安全调用，永不阻塞。
+     * 接入共享环形缓冲（或 DVR 时移视图）：游标从 startSeq 开始（不早于过期水位、不超出自身缓冲窗口），首连立即有数据可发。
+     * 由 {@link StreamBroadcaster#addClient} 调用；写线程的分配在游标就绪之后进行。
      *
-     * @return false 表示客户端已关闭，调用方应将其从广播器移除
+     * @param onClose 关闭时回调一次（广播器据此移除该客户端）
      */
-    public boolean offer(byte[] chunk) {
-        if (closed.get()) {
-            return false;
-        }
-        while (!queue.offer(chunk)) {
-            queue.poll();
-        }
-        return !closed.get();
+    void attach(ChunkSource ring, long startSeq, Runnable onClose) {
+        long head = ring.head();
+        this.cursor = Math.max(ring.floor(), Math.max(startSeq, head - bufferChunks));
+        this.lastWritableNanos = System.nanoTime();
+        this.ring = ring;
+        this.onClose = onClose;
     }
 
-    /** 清空缓冲（暂停 / 切歌 / seek 时丢弃过期音频）。 */
-    public void flush() {
-        queue.clear();
+    void assignWriter(StreamWriterPool.Writer writer) {
+        this.writer = writer;
     }
 
-    /** 当前缓冲的块数（测试/诊断用）。 */
-    public int getBufferedChunks() {
-        return queue.size();
+    StreamWriterPool.Writer getWriter() {
+        return writer;
     }
 
-    /** 当前缓冲中的块内容（测试/诊断用）。 */
-    byte[][] snapshot() {
-        return queue.toArray(new byte[0][]);
-    }
-
-    @Override
-    public void close() {
-        if (closed.compareAndSet(false, true)) {
-            sink.complete();
-            Thread p = pump;
-            if (p != null) {
-                p.interrupt();
-            }
+    /** 连接重新可写（容器回调）：唤醒负责该客户端的写线程。 */
+    void wake() {
+        StreamWriterPool.Writer w = writer;
+        if (w != null) {
+            w.wake();
         }
     }
 
-    private static final int SEND_INIT_RETRIES = 20; // 每次 5ms，共约 100ms，覆盖 emitter 初始化窗口
-
-    private void pumpLoop() {
+    /**
+     * 由写线程调用：连接可写时写出游标后的数据（每轮最多 {@value #MAX_CHUNKS_PER_TURN} 块），
+     * 不可写时检查是否写阻塞超时。永不阻塞。
+     *
+     * @param scratch 写线程的发送缓冲
+     * @param now     本轮巡检时刻（{@link System#nanoTime()}）
+     * @return true 表示本轮写满了配额、可能还有待写数据，写线程不应休眠
+     */
+    boolean pump(byte[] scratch, long now) {
+        if (closed.get() || ring == null) {
+            return false;
+        }
+        int sent = 0;
         try {
-            while (!closed.get()) {
-                byte[] data = queue.take();
-                if (closed.get()) {
-                    break;
+            while (sent < MAX_CHUNKS_PER_TURN) {
+                if (!sink.isReady()) {
+                    if (stallStartNanos == 0) {
+                        stallStartNanos = now;
+                        stallCount++;
+                    }
+                    if (now - lastWritableNanos > stallTimeoutNanos) {
+                        stalled = true;
+                        log.info("Stream client {} ({}) write-stalled for over {}ms, disconnecting",
+                                id, clientIp, TimeUnit.NANOSECONDS.toMillis(stallTimeoutNanos));
+                        close();
+                    }
+                    return false;
+                }
+                lastWritableNanos = now;
+                endStall(now);
+                int n = poll(scratch);
+                if (n < 0) {
+                    return false;
                 }
-                if (!sendWithRetry(data)) {
-                    break;
+                sink.writeChunk(scratch, n, polledMediaMicros, polledPublishedMs);
+                if (firstByteNanos == 0) {
+                    firstByteNanos = System.nanoTime();
                 }
+                bytesSent += n;
+                sent++;
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
+        } catch (IOException | IllegalStateException e) {
+            // 客户端断开或响应已结束 → 终止
             close();
+            return false;
         }
+        return true;
     }
 
     /**
-     * 发送一块数据。
-     * ResponseBodyEmitter 在控制器返回、Spring 完成初始化之前 send() 会抛 IllegalStateException；
-     * 该窗口极短（微秒级），短暂重试即可，避免把"初始化竞态"误判为断连、丢掉刚接入的收听者。
-     * 若客户端已关闭或连接真正断开，则终止。
+     * 非阻塞读取下一块到 dst。落后过多或读取时被套圈则丢弃最旧数据（drop-oldest），不断开连接。
+     * 只能由单一线程调用（写线程；测试中为测试线程）。
+     *
+     * @return 块长度；暂无新数据时返回 -1
      */
-    private boolean sendWithRetry(byte[] data) {
-        for (int attempt = 0; attempt < SEND_INIT_RETRIES; attempt++) {
-            try {
-                sink.send(data);
-                return true;
-            } catch (IOException e) {
-                // 客户端断开 → 终止
-                return false;
-            } catch (IllegalStateException e) {
-                if (closed.get()) {
-                    return false;
-                }
-                try {
-                    Thread.sleep(5);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    return false;
-                }
+    int poll(byte[] dst) {
+        ChunkSource r = ring;
+        if (r == null) {
+            return -1;
+        }
+        while (true) {
+            long head = r.head();
+            long c = Math.max(cursor, r.floor());
+            if (head - c > bufferChunks) {
+                droppedChunks += head - bufferChunks - c;
+                c = head - bufferChunks;
+            }
+            if (head - c > highWaterChunks) {
+                highWaterChunks = (int) (head - c);
+            }
+            if (c >= head) {
+                cursor = c;
+                return -1;
+            }
+            // 时间戳先于数据读取：read 的覆盖校验同时覆盖这两次读取
+            long mediaMicros = r.mediaMicros(c);
+            long publishedMs = r.publishedMs(c);
+            int n = r.read(c, dst);
+            if (n != ChunkSource.LAPPED) {
+                polledMediaMicros = mediaMicros;
+                polledPublishedMs = publishedMs;
+                cursor = c + 1;
+                return n;
+            }
+            cursor = c + 1; // 拷贝期间被覆盖：跳过该块，按最新 head 重新计算
+            droppedChunks++;
+        }
+    }
+
+    /** 当前待发送的块数（测试/诊断用）。 */
+    public int getBufferedChunks() {
+        ChunkSource r = ring;
+        if (r == null) {
+            return 0;
+        }
+        long pending = r.head() - Math.max(cursor, r.floor());
+        return (int) Math.max(0, Math.min(bufferChunks, pending));
+    }
+
+    /** 因落后过多而丢弃的块数（诊断用）。 */
+    public long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public Stats stats() {
+        long now = System.nanoTime();
+        long ongoing = stallStartNanos != 0 ? now - stallStartNanos : 0;
+        return new Stats(id, clientIp,
+                TimeUnit.NANOSECONDS.toMillis(now - connectedNanos),
+                bytesSent, droppedChunks, highWaterChunks,
+                firstByteNanos != 0 ? TimeUnit.NANOSECONDS.toMillis(firstByteNanos - connectedNanos) : -1,
+                stallCount,
+                TimeUnit.NANOSECONDS.toMillis(totalStallNanos + ongoing),
+                TimeUnit.NANOSECONDS.toMillis(Math.max(maxStallNanos, ongoing)));
+    }
+
+    private void endStall(long now) {
+        long start = stallStartNanos;
+        if (start != 0) {
+            long duration = now - start;
+            totalStallNanos += duration;
+            maxStallNanos = Math.max(maxStallNanos, duration);
+            stallStartNanos = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            sink.complete();
+            Runnable callback = onClose;
+            if (callback != null) {
+                callback.run();
             }
         }
-        return false;
     }
 }
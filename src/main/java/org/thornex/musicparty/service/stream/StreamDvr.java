@@ -0,0 +1,236 @@
+package org.thornex.musicparty.service.stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongSupplier;
+
+/**
+ * 时移（DVR）缓冲：一个档位最近若干分钟的编码输出，存放在固定大小的内存映射文件里，首尾相接循环覆盖。
+ * <p>
+ * 音频字节只在映射文件中（由操作系统页缓存管理），堆上只有定长的块索引（文件位置、长度、发布时刻），
+ * 保留时长与收听人数都不影响堆占用。写入方只有档位的分帧器一个线程；读取方无锁，
+ * 与 {@link StreamRingBuffer} 相同采用认领水位校验：拷贝期间该块被覆盖则本次读取作废（drop-oldest）。
+ * <p>
+ * 时移收听者经 {@link #view(long)} 取得一个固定延迟的视图：只有发布时刻早于"当前 - 延迟"的块可读，
+ * 收听者因此按实时节奏、始终落后直播同样的时长。
+ */
+@Slf4j
+public class StreamDvr implements AutoCloseable {
+
+    /** 时移存储概况。 */
+    public record Stats(long capacityBytes, long retainedMs, long chunks) {
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final int capacity;
+    private final long[] positions;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final long[] mediaStarts;
+    private final int mask;
+    private final LongSupplier clock;
+
+    /** 已发布的序号上界（不含） */
+    private volatile long head;
+    /** 最早仍完整保留的序号 */
+    private volatile long floor;
+    // 写入方已认领的序号 / 字节上界：先于写入推进，读取方据此校验拷贝期间是否被覆盖
+    private volatile long claimedSeq;
+    private volatile long claimedBytes;
+    /** 累计写入的字节数（逻辑位置，取模即文件内偏移） */
+    private long written;
+    /** 累计记录的音频时长（微秒），即各块在媒体时间轴上的起始时刻 */
+    private long totalMicros;
+
+    /**
+     * @param capacityBytes 映射文件大小（字节），决定保留时长
+     * @param maxChunks     索引容量（块数），向上取整为 2 的幂；应覆盖保留时长内的块数
+     */
+    public StreamDvr(Path file, int capacityBytes, int maxChunks) throws IOException {
+        this(file, capacityBytes, maxChunks, System::currentTimeMillis);
+    }
+
+    StreamDvr(Path file, int capacityBytes, int maxChunks, LongSupplier clock) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.capacity = capacityBytes;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.data = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        int slots = Integer.highestOneBit(Math.max(2, maxChunks) - 1) << 1;
+        this.positions = new long[slots];
+        this.lengths = new int[slots];
+        this.timestamps = new long[slots];
+        this.mediaStarts = new long[slots];
+        this.mask = slots - 1;
+        this.clock = clock;
+    }
+
+    /** 追加一块编码输出（只由档位的分帧器线程调用）。超过文件容量的块不记录。 */
+    public void append(byte[] src, int offset, int length, long durationMicros) {
+        if (length <= 0 || length > capacity) {
+            return;
+        }
+        long seq = head;
+        int slot = (int) (seq & mask);
+        long position = written;
+        claimedSeq = seq + 1;
+        claimedBytes = position + length;
+        // 认领必须先于写入对读取方可见，否则读取方可能拿到半新半旧的数据却校验通过
+        VarHandle.storeStoreFence();
+        int at = (int) (position % capacity);
+        int first = Math.min(length, capacity - at);
+        data.put(at, src, offset, first);
+        if (first < length) {
+            data.put(0, src, offset + first, length - first);
+        }
+        positions[slot] = position;
+        lengths[slot] = length;
+        timestamps[slot] = clock.getAsLong();
+        mediaStarts[slot] = totalMicros;
+        totalMicros += durationMicros;
+        written = position + length;
+        // 淘汰字节已被覆盖、或索引槽位即将被复用的最早块
+        long f = floor;
+        while (f < seq && (position + length - positions[(int) (f & mask)] > capacity || seq + 1 - f > positions.length)) {
+            f++;
+        }
+        floor = f;
+        head = seq + 1;
+    }
+
+    public long head() {
+        return head;
+    }
+
+    public long floor() {
+        return floor;
+    }
+
+    /**
+     * 把序号 seq 的块拷贝到 dst（超出 dst 的部分截断）。
+     *
+     * @return 块长度；该块已不在保留范围内或拷贝期间被覆盖时返回 {@link ChunkSource#LAPPED}
+     */
+    public int read(long seq, byte[] dst) {
+        if (seq < floor || seq >= head) {
+            return ChunkSource.LAPPED;
+        }
+        int slot = (int) (seq & mask);
+        long position = positions[slot];
+        int n = Math.min(lengths[slot], dst.length);
+        VarHandle.loadLoadFence();
+        if (overwritten(seq, position)) {
+            return ChunkSource.LAPPED;
+        }
+        int at = (int) (position % capacity);
+        int first = Math.min(n, capacity - at);
+        data.get(at, dst, 0, first);
+        if (first < n) {
+            data.get(0, dst, first, n - first);
+        }
+        // 数据读取必须先于认领水位的复查完成
+        VarHandle.loadLoadFence();
+        return overwritten(seq, position) ? ChunkSource.LAPPED : n;
+    }
+
+    private boolean overwritten(long seq, long position) {
+        return claimedSeq - seq > positions.length || claimedBytes - position > capacity;
+    }
+
+    /** 第一个发布时刻晚于 timeMs 的序号（没有则为 head）。 */
+    long seqAfter(long timeMs) {
+        long lo = floor;
+        long hi = head;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (timestamps[(int) (mid & mask)] <= timeMs) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** 当前保留的音频跨越的时长（最早一块到现在，毫秒）。 */
+    public long retainedMs() {
+        long f = floor;
+        if (f >= head) {
+            return 0;
+        }
+        return Math.max(0, clock.getAsLong() - timestamps[(int) (f & mask)]);
+    }
+
+    /**
+     * 落后直播 delayMs 的只读视图。延迟超出已保留的范围时钳制为从最早保留的音频开始。
+     */
+    public View view(long delayMs) {
+        return new View(Math.max(0, Math.min(delayMs, retainedMs())));
+    }
+
+    public Stats stats() {
+        return new Stats(capacity, retainedMs(), head - floor);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Stream: failed to close DVR file: {}", e.getMessage());
+        }
+    }
+
+    /** 固定延迟的时移视图：可读上界随时间推进，收听者按实时节奏读取。 */
+    public final class View implements ChunkSource {
+
+        private final long delayMs;
+
+        private View(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        public long getDelayMs() {
+            return delayMs;
+        }
+
+        @Override
+        public long head() {
+            return seqAfter(clock.getAsLong() - delayMs);
+        }
+
+        @Override
+        public long floor() {
+            return floor;
+        }
+
+        @Override
+        public int read(long seq, byte[] dst) {
+            return StreamDvr.this.read(seq, dst);
+        }
+
+        @Override
+        public long mediaMicros(long seq) {
+            return mediaStarts[(int) (seq & mask)];
+        }
+
+        @Override
+        public long publishedMs(long seq) {
+            return timestamps[(int) (seq & mask)];
+        }
+
+        /** 新收听者的起始序号：从视图当前位置往回 burstMs 的音频，作为初始缓冲立即发出。 */
+        long burstStart(long burstMs) {
+            return seqAfter(clock.getAsLong() - delayMs - burstMs);
+        }
+    }
+}
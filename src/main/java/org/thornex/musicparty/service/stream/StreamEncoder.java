@@ -0,0 +1,469 @@
+package org.thornex.musicparty.service.stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 常驻的直播编码器：一个长期运行的 ffmpeg 从 stdin 读取原始 PCM，一次性编码出所有档位。
+ * <p>
+ * 喂数线程按单调时钟每 20ms 写入一帧 PCM，来源是当前的 {@link PcmDecoder}；没有来源或解码器欠载时写入静音。
+ * 切歌 / seek / 看门狗重启只替换解码器，编码器进程与输出码流保持连续：没有编码器冷启动的
+ * priming 空隙，也不再需要单独的静音填充。
+ * <p>
+ * 解码器切换：
+ * <ul>
+ *   <li>{@link #switchTo}：新解码器一有数据就切过去（旧解码器在此之前继续输出，seek 不会出现静音空窗）；</li>
+ *   <li>{@link #cue}：当前解码器自然播完时无缝接上（采样级衔接），配置了交叉淡化时在结尾前提前混入。</li>
+ * </ul>
+ * 交给编码器的解码器由编码器负责关闭（被替换 / 播完 / {@link #clearSources()}）。
+ */
+@Slf4j
+final class StreamEncoder {
+
+    /** 编码器事件回调，均在调用方提供的线程池上执行，不占用喂数线程。 */
+    interface Listener {
+        /** 编码器开始输出 to 的音频；gapMs 为上一段音频结束到此刻之间插入的静音时长。 */
+        void onSwitched(PcmDecoder from, PcmDecoder to, long gapMs);
+
+        /** 解码器已结束（播完或异常退出），且没有可接续的解码器。 */
+        void onEnded(PcmDecoder decoder);
+
+        /** 编码器进程退出。 */
+        void onExit();
+    }
+
+    /** 每帧 20ms = 882 个采样帧 */
+    static final int FRAME_BYTES = PcmDecoder.SAMPLE_RATE / 50 * PcmDecoder.FRAME_SIZE;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /** 喂数线程落后超过该值时放弃追赶（重新对齐时钟），避免一次性灌入大量数据 */
+    private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int OUTPUT_CONNECT_TIMEOUT_MS = 15000;
+
+    private final Supplier<String> ffmpegPath;
+    private final Collection<StreamRendition> renditions;
+    private final StreamRendition primary;
+    private final int chunkSize;
+    private final long chunkMicros;
+    private final int crossfadeMs;
+    private final ExecutorService executor;
+    private final Listener listener;
+
+    private volatile Process process;
+    private volatile boolean running;
+    private Thread feeder;
+
+    // 解码器状态（guarded by this）
+    private PcmDecoder current;
+    private PcmDecoder pending;
+    private int pendingCrossfadeMs;
+    private PcmDecoder cued;
+    private PcmDecoder fading;
+    private int fadePosition;
+    private int fadeLength;
+    /** 最近一次输出真实音频的时刻；等待 measuring 的首个音频帧时据此结算空窗 */
+    private long lastAudioNanos;
+    private PcmDecoder measuring;
+    private PcmDecoder measuringFrom;
+
+    private final AtomicLong underrunFrames = new AtomicLong();
+    /** 热启动突发：剩余可不按时钟节拍、立即写入的音频帧数 */
+    private int burstFrames;
+    private final byte[] fadeScratch = new byte[FRAME_BYTES];
+
+    StreamEncoder(Supplier<String> ffmpegPath, Collection<StreamRendition> renditions, StreamRendition primary,
+                  int chunkSize, long chunkDurationMs, int crossfadeMs, ExecutorService executor, Listener listener) {
+        this.ffmpegPath = ffmpegPath;
+        this.renditions = renditions;
+        this.primary = primary;
+        this.chunkSize = chunkSize;
+        this.chunkMicros = chunkDurationMs * 1000;
+        this.crossfadeMs = Math.max(0, crossfadeMs);
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /** 编码命令：stdin 读 PCM，默认档位走 stdout，其余档位各自输出到一个本地回环 TCP 端口。 */
+    static List<String> buildCommand(String ffmpegPath, Collection<StreamRendition> renditions,
+                                     StreamRendition primary, Map<StreamRendition, Integer> ports) {
+        List<String> command = new ArrayList<>(List.of(
+                ffmpegPath,
+                "-loglevel", "error",
+                "-f", "s16le",
+                "-ar", String.valueOf(PcmDecoder.SAMPLE_RATE),
+                "-ac", "2",
+                "-i", "pipe:0"));
+        for (StreamRendition rendition : renditions) {
+            command.add("-map");
+            command.add("0:a");
+            command.addAll(rendition.encoderArgs());
+            // 每个编码包立即写出，不在 ffmpeg 的输出缓冲里攒批：由分帧器按时长组块
+            command.add("-flush_packets");
+            command.add("1");
+            command.add(rendition == primary ? "pipe:1" : "tcp://127.0.0.1:" + ports.get(rendition));
+        }
+        return command;
+    }
+
+    /** 启动编码器进程与喂数线程。失败时返回 false。 */
+    synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+        Map<StreamRendition, ServerSocket> extraOutputs = new LinkedHashMap<>();
+        Map<StreamRendition, Integer> ports = new LinkedHashMap<>();
+        try {
+            for (StreamRendition rendition : renditions) {
+                if (rendition != primary) {
+                    ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                    server.setSoTimeout(OUTPUT_CONNECT_TIMEOUT_MS);
+                    extraOutputs.put(rendition, server);
+                    ports.put(rendition, server.getLocalPort());
+                }
+            }
+            process = new ProcessBuilder(buildCommand(ffmpegPath.get(), renditions, primary, ports)).start();
+        } catch (IOException e) {
+            log.error("Stream: failed to start encoder", e);
+            extraOutputs.values().forEach(StreamEncoder::closeQuietly);
+            return false;
+        }
+        running = true;
+        // 新码流：丢弃上一次编码器运行残留的输出，HLS 标记不连续
+        renditions.forEach(StreamRendition::flush);
+        Process p = process;
+        executor.submit(() -> readPrimary(p));
+        extraOutputs.forEach((rendition, server) -> executor.submit(() -> readExtra(p, server, rendition)));
+        executor.submit(() -> readErrors(p));
+        feeder = Thread.ofPlatform().daemon().name("stream-encoder-feeder").start(() -> feedLoop(p));
+        log.info("Stream: encoder started ({} renditions)", renditions.size());
+        return true;
+    }
+
+    boolean isRunning() {
+        return running && process != null && process.isAlive();
+    }
+
+    /** 停止编码器，并关闭所有交给它的解码器。 */
+    void stop() {
+        Process p;
+        synchronized (this) {
+            running = false;
+            p = process;
+            process = null;
+            closeSources();
+        }
+        if (feeder != null) {
+            feeder.interrupt();
+        }
+        if (p != null && p.isAlive()) {
+            p.destroy();
+        }
+    }
+
+    /** 新解码器一有数据就切换过去；crossfadeMs 大于 0 时与旧解码器交叉淡化。 */
+    synchronized void switchTo(PcmDecoder decoder, int crossfadeMs) {
+        if (cued == decoder) {
+            cued = null;
+        }
+        if (pending != null && pending != decoder) {
+            pending.close();
+        }
+        pending = decoder;
+        pendingCrossfadeMs = crossfadeMs;
+    }
+
+    /** 当前解码器自然播完时无缝接上（预滚动）。 */
+    synchronized void cue(PcmDecoder decoder) {
+        if (cued != null && cued != decoder) {
+            cued.close();
+        }
+        cued = decoder;
+    }
+
+    synchronized boolean isCued(PcmDecoder decoder) {
+        return decoder != null && cued == decoder;
+    }
+
+    /** 撤销预滚动（队列变化等）。 */
+    synchronized void uncue() {
+        if (cued != null) {
+            cued.close();
+            cued = null;
+        }
+    }
+
+    /** 停播：关闭所有解码器，此后输出静音。 */
+    synchronized void clearSources() {
+        closeSources();
+    }
+
+    /**
+     * 热启动：接下来 ms 毫秒的真实音频不按实时节拍、尽快写入编码器。
+     * 配合"从实时位置之前 ms 毫秒起解码"，唤醒后的首批收听者立即拿到一段音频，输出随后与实时对齐。
+     */
+    synchronized void burst(long ms) {
+        burstFrames = (int) (Math.max(0, ms) / 20);
+    }
+
+    /** 刚写入的一帧（含 audioBytes 字节真实音频）是否计入热启动突发，计入时喂数线程不等待节拍。 */
+    synchronized boolean consumeBurst(int audioBytes) {
+        if (burstFrames <= 0 || audioBytes < FRAME_BYTES) {
+            return false; // 解码器尚未就绪（输出静音）时不消耗突发额度
+        }
+        burstFrames--;
+        return true;
+    }
+
+    /** 当前正在输出的解码器（可能为 null）。 */
+    synchronized PcmDecoder current() {
+        return current;
+    }
+
+    long getUnderrunFrames() {
+        return underrunFrames.get();
+    }
+
+    private void closeSources() {
+        for (PcmDecoder d : new PcmDecoder[]{current, pending, cued, fading}) {
+            if (d != null) {
+                d.close();
+            }
+        }
+        current = null;
+        pending = null;
+        cued = null;
+        fading = null;
+        measuring = null;
+        measuringFrom = null;
+        burstFrames = 0;
+    }
+
+    // --- 喂数线程 ---
+
+    private void feedLoop(Process p) {
+        byte[] frame = new byte[FRAME_BYTES];
+        long next = System.nanoTime();
+        try (OutputStream stdin = p.getOutputStream()) {
+            while (running && process == p) {
+                int audio = fillFrame(frame);
+                stdin.write(frame);
+                stdin.flush();
+                if (consumeBurst(audio)) {
+                    next = System.nanoTime();
+                    continue;
+                }
+                next += FRAME_NANOS;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                } else if (-wait > MAX_LAG_NANOS) {
+                    next = System.nanoTime(); // 长时间停顿（GC / 编码器阻塞）：重新对齐，不补发
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (running && process == p) {
+                log.warn("Stream: encoder input closed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 组装一帧 PCM：按需切换解码器、读取、欠载补静音、交叉淡化混音。
+     *
+     * @return 本帧中来自解码器的字节数（其余为静音）
+     */
+    synchronized int fillFrame(byte[] frame) {
+        if (pending != null && (pending.available() > 0 || current == null)) {
+            activate(pending, pendingCrossfadeMs);
+        } else if (pending != null && pending.isExhausted()) {
+            PcmDecoder dead = pending; // 未产出任何数据就退出（拉流失败）
+            pending = null;
+            notifyEnded(dead);
+        }
+        if (cued != null && pending == null && current != null && crossfadeMs > 0
+                && current.remainingMs() <= crossfadeMs && cued.available() > 0) {
+            activate(cued, crossfadeMs);
+        }
+
+        int offset = 0;
+        while (offset < frame.length && current != null) {
+            int n = current.read(frame, offset, frame.length - offset);
+            if (n > 0) {
+                offset += n;
+            } else if (n == 0) {
+                break; // 欠载
+            } else {
+                PcmDecoder ended = current;
+                if (cued != null && ended.isNaturalEnd()) {
+                    activate(cued, 0); // 采样级无缝衔接
+                } else if (pending != null) {
+                    activate(pending, 0);
+                } else {
+                    current = null;
+                    ended.close();
+                    notifyEnded(ended);
+                }
+            }
+        }
+        if (current != null && current.hasStarted() && offset < frame.length) {
+            underrunFrames.incrementAndGet();
+        }
+        Arrays.fill(frame, offset, frame.length, (byte) 0);
+        if (fading != null) {
+            mixFade(frame);
+        }
+
+        long now = System.nanoTime();
+        if (offset > 0) {
+            if (measuring != null && current == measuring) {
+                long gapMs = lastAudioNanos == 0 ? 0
+                        : Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - lastAudioNanos - FRAME_NANOS));
+                PcmDecoder from = measuringFrom;
+                PcmDecoder to = measuring;
+                measuring = null;
+                measuringFrom = null;
+                executor.submit(() -> listener.onSwitched(from, to, gapMs));
+            }
+            lastAudioNanos = now;
+        }
+        return offset;
+    }
+
+    private void activate(PcmDecoder next, int fadeMs) {
+        PcmDecoder previous = current;
+        if (next == pending) {
+            pending = null;
+        }
+        if (next == cued) {
+            cued = null;
+        }
+        if (fading != null) {
+            fading.close();
+            fading = null;
+        }
+        current = next;
+        if (previous != null && fadeMs > 0 && previous.available() > 0) {
+            fading = previous;
+            fadePosition = 0;
+            fadeLength = Math.max(1, PcmDecoder.SAMPLE_RATE * fadeMs / 1000);
+        } else if (previous != null) {
+            previous.close();
+        }
+        measuringFrom = previous;
+        measuring = next;
+    }
+
+    /** 线性交叉淡化：frame 为新解码器的输出（淡入），fading 的输出淡出后叠加。 */
+    private void mixFade(byte[] frame) {
+        int n = fading.read(fadeScratch, 0, fadeScratch.length);
+        if (n < 0) {
+            n = 0;
+        }
+        Arrays.fill(fadeScratch, n, fadeScratch.length, (byte) 0);
+        for (int i = 0; i < frame.length; i += PcmDecoder.FRAME_SIZE) {
+            double gain = Math.min(1.0, (double) fadePosition / fadeLength);
+            for (int c = 0; c < PcmDecoder.FRAME_SIZE; c += 2) {
+                int in = (short) ((frame[i + c] & 0xFF) | (frame[i + c + 1] << 8));
+                int out = (short) ((fadeScratch[i + c] & 0xFF) | (fadeScratch[i + c + 1] << 8));
+                int mixed = (int) Math.round(in * gain + out * (1.0 - gain));
+                mixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+                frame[i + c] = (byte) mixed;
+                frame[i + c + 1] = (byte) (mixed >> 8);
+            }
+            fadePosition++;
+        }
+        if (fadePosition >= fadeLength || fading.isExhausted()) {
+            fading.close();
+            fading = null;
+        }
+    }
+
+    private void notifyEnded(PcmDecoder decoder) {
+        executor.submit(() -> listener.onEnded(decoder));
+    }
+
+    // --- 输出读取 ---
+
+    private void readPrimary(Process p) {
+        try (InputStream is = p.getInputStream()) {
+            pumpOutput(is, primary);
+        } catch (IOException e) {
+            // 进程被杀或管道关闭，忽略
+        } finally {
+            boolean unexpected = running && process == p;
+            if (unexpected) {
+                stop();
+                log.warn("Stream: encoder exited unexpectedly");
+                listener.onExit();
+            }
+        }
+    }
+
+    private void readExtra(Process p, ServerSocket server, StreamRendition rendition) {
+        try (server; Socket socket = server.accept(); InputStream is = socket.getInputStream()) {
+            pumpOutput(is, rendition);
+        } catch (IOException e) {
+            // 进程被杀、连接关闭或 ffmpeg 未连入（启动失败），忽略：编码器退出由默认档位一路处理
+        }
+        log.debug("Stream: rendition {} output finished/stopped.", rendition.getName());
+    }
+
+    /** 编码输出经分帧后按块发布：每块只含完整帧、带精确时长，只拷贝进共享环形缓冲一次。 */
+    private void pumpOutput(InputStream is, StreamRendition rendition) throws IOException {
+        AudioFramer framer = rendition.newFramer(chunkSize, chunkMicros);
+        byte[] buf = new byte[chunkSize];
+        try {
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                if (n > 0) {
+                    framer.feed(buf, 0, n);
+                }
+            }
+        } finally {
+            framer.flush();
+            if (framer.getSkippedBytes() > 0) {
+                log.debug("Stream: rendition {} skipped {} unframed bytes", rendition.getName(), framer.getSkippedBytes());
+            }
+        }
+    }
+
+    /** 读取 ffmpeg stderr 并打日志（配合 -loglevel error，只有真正的错误会出现）。 */
+    private void readErrors(Process p) {
+        try (InputStream is = p.getErrorStream();
+             java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.InputStreamReader(is))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.warn("Stream encoder: {}", line);
+            }
+        } catch (IOException e) {
+            // 进程被杀或管道关闭，忽略
+        }
+    }
+
+    private static void closeQuietly(ServerSocket server) {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // 已关闭，忽略
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.thornex.musicparty.service.stream;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 电台诊断计数：解码器按原因的启动次数、解码器启动延迟、编码器启动次数、空闲休眠、按 IP 的重连次数。
+ * 连接级指标（发送字节、丢块、队列高水位、首字节耗时、写阻塞）由各 {@link StreamClient} 自己记录，
+ * 汇总报告见 {@link LiveStreamService#getMetrics()}。
+ */
+public class StreamMetrics {
+
+    /** 解码器启动原因 */
+    public enum RestartCause {
+        /** 起播 / 暂停后恢复 */
+        START,
+        /** 切歌（未命中预滚动） */
+        SOURCE_CHANGE,
+        /** 位置漂移（seek） */
+        SEEK,
+        /** 解码器异常退出 */
+        CRASH,
+        /** 看门狗：解码器卡住不产出 */
+        WATCHDOG,
+        /** 下一首预滚动 */
+        PREROLL,
+        /** 空闲休眠后有收听者到来（热启动） */
+        WAKE
+    }
+
+    /** 按 IP 记录的连接数上限，超出后不再记录新 IP（防止扫描流量撑大表） */
+    static final int MAX_TRACKED_IPS = 1024;
+    /** 报告中列出的重连最多的 IP 数 */
+    private static final int TOP_RECONNECT_IPS = 20;
+
+    public record Snapshot(Map<RestartCause, Long> decoderStarts, long encoderStarts,
+                           long startups, long lastStartupMs, long maxStartupMs, long avgStartupMs,
+                           Hibernation hibernation, Map<String, Long> reconnectsByIp) {
+    }
+
+    /**
+     * 空闲休眠统计。hibernatedMs 为编码器因休眠停止的累计时长（含进行中的一次），即省下的常驻转码时间；
+     * lastWakeToAudioMs 为最近一次唤醒到首批音频进入编码器的耗时。
+     */
+    public record Hibernation(long hibernations, long hibernatedMs, long warmStarts,
+                              long lastWakeToAudioMs, long maxWakeToAudioMs) {
+    }
+
+    /** 某个档位的汇总与各连接明细；dvr 在未开启时移时为 null。 */
+    public record RenditionReport(StreamBroadcaster.Stats stats, List<StreamClient.Stats> listeners, StreamDvr.Stats dvr) {
+    }
+
+    /** 电台整体诊断报告（管理端接口输出）。 */
+    public record Report(boolean enabled, boolean encoderRunning, boolean hibernating, long encoderUnderrunFrames,
+                         int uniqueListeners, int hlsListeners,
+                         Map<String, RenditionReport> renditions, Snapshot decoders,
+                         SwitchGapStats.Snapshot switches, PcmCache.Stats pcmCache) {
+    }
+
+    private final EnumMap<RestartCause, Long> decoderStarts = new EnumMap<>(RestartCause.class);
+    private long encoderStarts;
+    private long startups;
+    private long lastStartupMs;
+    private long maxStartupMs;
+    private long totalStartupMs;
+    private final Map<String, Long> connectionsByIp = new LinkedHashMap<>();
+    private long hibernations;
+    private long hibernatedMs;
+    /** 当前休眠的开始时刻，未休眠时为 0 */
+    private long hibernatedSinceMs;
+    private long warmStarts;
+    private long lastWakeToAudioMs;
+    private long maxWakeToAudioMs;
+
+    public synchronized void recordDecoderStart(RestartCause cause) {
+        decoderStarts.merge(cause, 1L, Long::sum);
+    }
+
+    /** 解码器从启动到首批 PCM 到达的耗时。 */
+    public synchronized void recordDecoderStartup(long latencyMs) {
+        long latency = Math.max(0, latencyMs);
+        startups++;
+        lastStartupMs = latency;
+        maxStartupMs = Math.max(maxStartupMs, latency);
+        totalStartupMs += latency;
+    }
+
+    public synchronized void recordEncoderStart() {
+        encoderStarts++;
+    }
+
+    public synchronized void recordHibernate() {
+        hibernations++;
+        hibernatedSinceMs = System.currentTimeMillis();
+    }
+
+    public synchronized void recordWake() {
+        if (hibernatedSinceMs != 0) {
+            hibernatedMs += System.currentTimeMillis() - hibernatedSinceMs;
+            hibernatedSinceMs = 0;
+        }
+    }
+
+    /** 唤醒到首批音频进入编码器的耗时。 */
+    public synchronized void recordWarmStart(long wakeToAudioMs) {
+        warmStarts++;
+        lastWakeToAudioMs = wakeToAudioMs;
+        maxWakeToAudioMs = Math.max(maxWakeToAudioMs, wakeToAudioMs);
+    }
+
+    public synchronized void recordConnection(String ip) {
+        if (ip == null || (!connectionsByIp.containsKey(ip) && connectionsByIp.size() >= MAX_TRACKED_IPS)) {
+            return;
+        }
+        connectionsByIp.merge(ip, 1L, Long::sum);
+    }
+
+    public synchronized Snapshot snapshot() {
+        Map<String, Long> reconnects = new LinkedHashMap<>();
+        connectionsByIp.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(TOP_RECONNECT_IPS)
+                .forEach(e -> reconnects.put(e.getKey(), e.getValue() - 1));
+        return new Snapshot(new EnumMap<>(decoderStarts), encoderStarts,
+                startups, lastStartupMs, maxStartupMs, startups == 0 ? 0 : totalStartupMs / startups,
+                new Hibernation(hibernations,
+                        hibernatedMs + (hibernatedSinceMs != 0 ? System.currentTimeMillis() - hibernatedSinceMs : 0),
+                        warmStarts, lastWakeToAudioMs, maxWakeToAudioMs),
+                reconnects);
+    }
+}
@@ -0,0 +1,178 @@
+package org.thornex.musicparty.service.stream;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.thornex.musicparty.config.AppProperties;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 中继节点：从上游实例的 /radio/stream 拉取各档位的编码流，经 {@link AudioFramer} 重新按帧组块后
+ * 写入本实例同名档位的广播器（及 HLS 分段器），本实例不运行 ffmpeg。
+ * <p>
+ * 一个上游连接即可服务本节点的全部收听者：收听容量随中继节点横向扩展，源节点的出口带宽只承担中继连接。
+ * 上游连接以中继密钥认证（{@link StreamTokenService#isRelayKey}），断开后按重连间隔自动重连。
+ */
+@Service
+@Slf4j
+public class StreamRelayService {
+
+    /** 单个上游连接的状态快照。 */
+    public record UpstreamStats(boolean connected, long connects, long bytesReceived, long lastDataAgoMs,
+                                String lastError) {
+    }
+
+    private final LiveStreamService liveStreamService;
+    private final WebClient webClient;
+    private final AppProperties appProperties;
+    private final Map<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+    public StreamRelayService(LiveStreamService liveStreamService, WebClient webClient, AppProperties appProperties) {
+        this.liveStreamService = liveStreamService;
+        this.webClient = webClient;
+        this.appProperties = appProperties;
+    }
+
+    static String upstreamBase(AppProperties.RelayConfig relay) {
+        String base = relay.getUpstreamUrl().trim();
+        return base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    }
+
+    public boolean isEnabled() {
+        return appProperties.getStream().getRelay().isEnabled();
+    }
+
+    /** 按开关维持各档位的上游连接：开启时断开的连接按重连间隔重连，关闭时断开全部上游。 */
+    @Scheduled(fixedRate = 1000)
+    public void supervise() {
+        if (!isEnabled()) {
+            return;
+        }
+        boolean shouldRun = liveStreamService.isEnabled();
+        long now = System.currentTimeMillis();
+        long reconnectDelayMs = appProperties.getStream().getRelay().getReconnectDelayMs();
+        for (StreamRendition rendition : liveStreamService.getRenditions()) {
+            Upstream upstream = upstreams.computeIfAbsent(rendition.getName(), name -> new Upstream(rendition));
+            if (!shouldRun) {
+                upstream.disconnect();
+            } else if (!upstream.isActive() && now - upstream.endedAtMs >= reconnectDelayMs) {
+                upstream.connect();
+            }
+        }
+    }
+
+    public Map<String, UpstreamStats> getStats() {
+        Map<String, UpstreamStats> stats = new LinkedHashMap<>();
+        upstreams.forEach((name, upstream) -> stats.put(name, upstream.stats()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        upstreams.values().forEach(Upstream::disconnect);
+    }
+
+    /** 一个档位的上游连接。回调串行到达（同一订阅），分帧器单线程使用。 */
+    private final class Upstream {
+
+        private final StreamRendition rendition;
+        private volatile Disposable subscription;
+        private volatile boolean connected;
+        private volatile long endedAtMs;
+        private volatile long connects;
+        private volatile long bytesReceived;
+        private volatile long lastDataMs;
+        private volatile String lastError;
+        private AudioFramer framer;
+        private byte[] scratch = new byte[0];
+
+        private Upstream(StreamRendition rendition) {
+            this.rendition = rendition;
+        }
+
+        boolean isActive() {
+            Disposable d = subscription;
+            return d != null && !d.isDisposed();
+        }
+
+        synchronized void connect() {
+            AppProperties.StreamConfig config = appProperties.getStream();
+            AppProperties.RelayConfig relay = config.getRelay();
+            // 新连接从上游的预填音频开始：丢弃本地收听者缓冲里的旧音频，避免重连后重复播放同一段
+            rendition.flush();
+            framer = rendition.newFramer(config.getChunkSizeBytes(), config.getChunkDurationMs() * 1000);
+            connects++;
+            log.info("Relay: connecting to upstream {} (quality={})", upstreamBase(relay), rendition.getName());
+            subscription = webClient.get()
+                    .uri(upstreamBase(relay) + "/radio/stream?quality={quality}", rendition.getName())
+                    .header(StreamTokenService.RELAY_KEY_HEADER, relay.getKey())
+                    .retrieve()
+                    .bodyToFlux(DataBuffer.class)
+                    .timeout(Duration.ofMillis(relay.getReadTimeoutMs()))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .subscribe(this::onData, this::onError, () -> onEnded("upstream closed the stream"));
+        }
+
+        synchronized void disconnect() {
+            Disposable d = subscription;
+            if (d != null && !d.isDisposed()) {
+                d.dispose();
+                log.info("Relay: disconnected from upstream (quality={})", rendition.getName());
+            }
+            connected = false;
+        }
+
+        private void onData(DataBuffer buffer) {
+            try {
+                int n = buffer.readableByteCount();
+                if (scratch.length < n) {
+                    scratch = new byte[n];
+                }
+                buffer.read(scratch, 0, n);
+                if (!connected) {
+                    connected = true;
+                    log.info("Relay: receiving upstream audio (quality={})", rendition.getName());
+                }
+                bytesReceived += n;
+                lastDataMs = System.currentTimeMillis();
+                framer.feed(scratch, 0, n);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        private void onError(Throwable error) {
+            if (error instanceof WebClientResponseException e) {
+                onEnded("upstream responded " + e.getStatusCode().value());
+            } else if (error instanceof TimeoutException) {
+                onEnded("no data for " + appProperties.getStream().getRelay().getReadTimeoutMs() + "ms");
+            } else {
+                onEnded(error.getMessage());
+            }
+        }
+
+        private void onEnded(String reason) {
+            connected = false;
+            endedAtMs = System.currentTimeMillis();
+            lastError = reason;
+            log.warn("Relay: upstream stream ended (quality={}): {}", rendition.getName(), reason);
+        }
+
+        UpstreamStats stats() {
+            long last = lastDataMs;
+            return new UpstreamStats(connected, connects, bytesReceived,
+                    last == 0 ? -1 : System.currentTimeMillis() - last, lastError);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.thornex.musicparty.service.stream;
+
+import org.thornex.musicparty.config.AppProperties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 直播流的一个输出档位：编码参数 + 独立的广播器 + 可选的 HLS 分段器与时移（DVR）缓冲。
+ * <p>
+ * 所有档位由同一个常驻编码器进程从同一路 PCM 并行编码产出（解码只做一次），
+ * 各自写入自己的 {@link StreamBroadcaster}，收听者只接入所选档位的广播器。
+ */
+public class StreamRendition {
+
+    private final String name;
+    private final String codec;
+    private final int bitrateKbps;
+    private final StreamBroadcaster broadcaster;
+    /** 未开启 HLS 时为 null */
+    private volatile HlsSegmenter hls;
+    /** 未开启时移时为 null */
+    private volatile StreamDvr dvr;
+
+    public StreamRendition(AppProperties.RenditionConfig config, StreamBroadcaster broadcaster) {
+        this.name = config.getName();
+        this.codec = config.getCodec() == null ? "mp3" : config.getCodec().toLowerCase(Locale.ROOT);
+        this.bitrateKbps = config.getBitrateKbps();
+        this.broadcaster = broadcaster;
+        if (!"mp3".equals(codec) && !"aac".equals(codec)) {
+            throw new IllegalArgumentException("Unsupported stream codec '" + config.getCodec() + "' for rendition " + name);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public StreamBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    public HlsSegmenter getHls() {
+        return hls;
+    }
+
+    void enableHls(int segmentSeconds, int playlistSegments) {
+        this.hls = new HlsSegmenter(getBytesPerSecond(), segmentSeconds, playlistSegments, codec);
+    }
+
+    public StreamDvr getDvr() {
+        return dvr;
+    }
+
+    /**
+     * 开启时移：映射文件按码率容纳 seconds 秒音频（外加一块余量），索引按块时长留出两倍余量（切歌等会产生短块）。
+     */
+    void enableDvr(Path file, int seconds, int maxChunkBytes, long chunkDurationMs) throws IOException {
+        long bytes = (long) getBytesPerSecond() * seconds + maxChunkBytes;
+        int maxChunks = (int) Math.min(1 << 20, seconds * 1000L / Math.max(1, chunkDurationMs) * 2 + 16);
+        this.dvr = new StreamDvr(file, (int) Math.min(Integer.MAX_VALUE - 8, bytes), maxChunks);
+    }
+
+    /** 写入一块分帧后的编码输出：进入广播器的环形缓冲，开启 HLS / 时移时同时进入分段器与 DVR。 */
+    void publish(byte[] data, int offset, int length, long durationMicros) {
+        StreamDvr recorder = dvr;
+        if (recorder != null) {
+            // 先于广播写入：时移视图的可读上界按发布时刻推进，不会越过尚未记录的块
+            recorder.append(data, offset, length, durationMicros);
+        }
+        broadcaster.broadcast(data, offset, length, durationMicros);
+        HlsSegmenter segmenter = hls;
+        if (segmenter != null) {
+            segmenter.append(data, offset, length, durationMicros);
+        }
+    }
+
+    /** 本档位编码输出的分帧器，每块目标时长 chunkMicros、不超过 maxChunkBytes。 */
+    AudioFramer newFramer(int maxChunkBytes, long chunkMicros) {
+        return new AudioFramer(codec, maxChunkBytes, chunkMicros, this::publish);
+    }
+
+    /** 输出不连续（编码器重启）：丢弃收听者已缓冲的过期音频，HLS 标记不连续。 */
+    void flush() {
+        broadcaster.flushAll();
+        HlsSegmenter segmenter = hls;
+        if (segmenter != null) {
+            segmenter.discontinuity();
+        }
+    }
+
+    public String getContentType() {
+        return "aac".equals(codec) ? "audio/aac" : "audio/mpeg";
+    }
+
+    /** 实时码率下每秒的字节数。 */
+    public int getBytesPerSecond() {
+        return bitrateKbps * 1000 / 8;
+    }
+
+    /**
+     * 本档位的 ffmpeg 编码参数（不含输入与输出目标）。统一 44.1kHz 立体声，档位间可无缝切换。
+     * MP3 不写 ID3 / Xing 头：直播流只含音频帧，分帧器无需跳过元数据。
+     */
+    List<String> encoderArgs() {
+        if ("aac".equals(codec)) {
+            return List.of("-c:a", "aac", "-b:a", bitrateKbps + "k", "-ac", "2", "-ar", "44100", "-f", "adts");
+        }
+        return List.of("-c:a", "libmp3lame", "-b:a", bitrateKbps + "k", "-ac", "2", "-ar", "44100",
+                "-id3v2_version", "0", "-write_xing", "0", "-f", "mp3");
+    }
+}
@@ -0,0 +1,196 @@
+package org.thornex.musicparty.service.stream;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 所有收听者共享的预分配音频环形缓冲。
+ * <p>
+ * 转码输出只拷贝一次进槽位，收听者各自只持有一个读游标（序号），内存占用与收听人数无关。
+ * 写入方（转码读线程 / 静音填充线程）经锁串行化；读取方无锁，采用 seqlock 校验：
+ * 拷贝完成后若发现该槽位已被写入方重新认领（被套圈），本次读取作废，由调用方跳到更新的位置（drop-oldest）。
+ * <p>
+ * 每块可附带精确时长（经 {@link AudioFramer} 分帧的块），新收听者按时长而非块数预填；
+ * 每块还记录其在连续媒体时间轴上的起始时刻与发布时刻，供带时间戳的传输（WebSocket）使用。
+ * <p>
+ * 序号单调递增，槽位 = 序号 &amp; mask。{@link #head()} 之前的 capacity 个序号可读，
+ * {@link #floor()} 之前的序号被 {@link #markFlushed()} 判为过期（切歌 / 暂停 / seek）。
+ */
+public class StreamRingBuffer implements ChunkSource {
+
+    /** 读取时槽位已被套圈覆盖 */
+    public static final int LAPPED = ChunkSource.LAPPED;
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    /** 各槽位音频的时长（微秒），0 表示未知 */
+    private final long[] durations;
+    /** 各槽位音频在媒体时间轴上的起始时刻（微秒）与发布时刻（epoch 毫秒） */
+    private final long[] mediaStarts;
+    private final long[] publishTimes;
+    private final int mask;
+    private final int chunkSize;
+
+    /** 已发布的序号上界（不含）：读取方据此判断是否有新数据 */
+    private volatile long head;
+    /** 写入方已认领的序号上界（不含）：先于槽位写入推进，读取方据此校验拷贝期间是否被覆盖 */
+    private volatile long claimed;
+    /** 过期水位：小于该序号的块不再分发 */
+    private volatile long floor;
+    /** 已发布音频的累计时长（微秒）：媒体时间轴，flush 不清零 */
+    private long totalMicros;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition published = writeLock.newCondition();
+
+    /**
+     * @param minCapacity 最少槽位数，向上取整为 2 的幂
+     * @param chunkSize   每个槽位的字节数，超过的写入被拆成多块
+     */
+    public StreamRingBuffer(int minCapacity, int chunkSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+        this.slots = new byte[capacity][chunkSize];
+        this.lengths = new int[capacity];
+        this.durations = new long[capacity];
+        this.mediaStarts = new long[capacity];
+        this.publishTimes = new long[capacity];
+        this.mask = capacity - 1;
+        this.chunkSize = chunkSize;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public long head() {
+        return head;
+    }
+
+    @Override
+    public long floor() {
+        return floor;
+    }
+
+    /** 写入一段时长未知的音频，超过槽位大小时拆成多块。无分配；唤醒等待数据的读取方。 */
+    public void publish(byte[] src, int offset, int length) {
+        publish(src, offset, length, 0);
+    }
+
+    /** 写入一段音频并记录其时长；超过槽位大小时拆成多块，时长按字节比例分摊。 */
+    public void publish(byte[] src, int offset, int length, long durationMicros) {
+        writeLock.lock();
+        try {
+            int end = offset + length;
+            long remainingMicros = durationMicros;
+            long now = System.currentTimeMillis();
+            while (offset < end) {
+                int n = Math.min(chunkSize, end - offset);
+                long micros = n == end - offset ? remainingMicros : durationMicros * n / length;
+                remainingMicros -= micros;
+                long seq = head;
+                int slot = (int) (seq & mask);
+                claimed = seq + 1;
+                // 认领必须先于槽位写入对读取方可见，否则读取方可能拿到半新半旧的数据却校验通过
+                VarHandle.storeStoreFence();
+                System.arraycopy(src, offset, slots[slot], 0, n);
+                lengths[slot] = n;
+                durations[slot] = micros;
+                mediaStarts[slot] = totalMicros;
+                publishTimes[slot] = now;
+                totalMicros += micros;
+                head = seq + 1;
+                offset += n;
+            }
+            published.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** 把当前已发布的数据全部标记为过期：各游标在下次读取时跳到此处，新收听者也不会被预填旧音频。 */
+    public void markFlushed() {
+        writeLock.lock();
+        try {
+            floor = head;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 新收听者的起始序号：从最新处往回累计，直到覆盖 burstMicros 的音频（不早于过期水位、最多 maxChunks 块）。
+     *
+     * @param unknownChunkMicros 时长未知的块按此计
+     */
+    public long burstStart(long burstMicros, long unknownChunkMicros, int maxChunks) {
+        long h = head;
+        long f = floor;
+        long seq = h;
+        long total = 0;
+        while (seq > f && h - seq < maxChunks && total < burstMicros) {
+            seq--;
+            long d = durations[(int) (seq & mask)];
+            total += d > 0 ? d : unknownChunkMicros;
+        }
+        return seq;
+    }
+
+    /**
+     * 把序号 seq 的块拷贝到 dst。调用方须保证 {@code seq < head()}。
+     *
+     * @return 块长度；拷贝期间槽位被覆盖（或拷贝前已被套圈）时返回 {@link #LAPPED}
+     */
+    @Override
+    public int read(long seq, byte[] dst) {
+        if (claimed - seq > slots.length) {
+            return LAPPED;
+        }
+        int slot = (int) (seq & mask);
+        int n = Math.min(lengths[slot], dst.length);
+        System.arraycopy(slots[slot], 0, dst, 0, n);
+        // 槽位读取必须先于认领水位的复查完成
+        VarHandle.loadLoadFence();
+        return claimed - seq > slots.length ? LAPPED : n;
+    }
+
+    @Override
+    public long mediaMicros(long seq) {
+        return mediaStarts[(int) (seq & mask)];
+    }
+
+    @Override
+    public long publishedMs(long seq) {
+        return publishTimes[(int) (seq & mask)];
+    }
+
+    /**
+     * 等待序号 seq 被发布（{@code head() > seq}），最多等待 timeoutMillis。
+     *
+     * @return 已有可读数据时返回 true
+     */
+    public boolean awaitPublished(long seq, long timeoutMillis) throws InterruptedException {
+        if (head > seq) {
+            return true;
+        }
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        writeLock.lock();
+        try {
+            while (head <= seq) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = published.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
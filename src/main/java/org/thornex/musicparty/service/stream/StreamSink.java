@@ -3,18 +3,36 @@ package org.thornex.musicparty.service.stream;
 import java.io.IOException;
 
 /**
- * 单个直播流客户端的传输抽象。
+ * 单个直播流客户端的非阻塞传输抽象。
  * <p>
- * 将底层响应通道（当前为 {@link ResponseBodyEmitter}）隔离出来，
- * 使 {@link StreamClient} 的核心逻辑（缓冲、泵线程、drop-oldest）可脱离容器进行单元测试。
+ * 将底层响应通道（当前为 Servlet 非阻塞输出 {@link ServletStreamSink}）隔离出来，
+ * 使 {@link StreamClient} 的核心逻辑（读游标、drop-oldest、写阻塞检测）可脱离容器进行单元测试。
  */
 public interface StreamSink {
 
     /**
-     * 向客户端写入一块音频数据。实现方负责阻塞语义：
-     * 慢客户端导致的阻塞只会发生在各自的泵线程上，不会影响广播线程。
+     * 当前能否无阻塞地写入。返回 false 后，通道重新可写时须调用
+     * {@link #setWritableListener} 注册的回调。
      */
-    void send(byte[] data) throws IOException;
+    boolean isReady();
+
+    /**
+     * 写入 data 的前 length 字节。只在 {@link #isReady()} 为 true 后调用，须立即返回、不得阻塞。
+     * data 是写线程复用的发送缓冲，返回后即被覆盖，实现方不得保留引用。
+     */
+    void write(byte[] data, int length) throws IOException;
+
+    /**
+     * 写入一个完整的块及其时间戳（同 {@link ChunkSource#mediaMicros} / {@link ChunkSource#publishedMs}）。
+     * 字节流传输（HTTP）不需要时间戳，默认直接写出数据；按消息传输的实现（WebSocket）可将其编入消息头。
+     */
+    default void writeChunk(byte[] data, int length, long mediaMicros, long publishedMs) throws IOException {
+        write(data, length);
+    }
+
+    /** 注册"重新可写"回调（由 {@link StreamClient} 用于唤醒其写线程）。 */
+    default void setWritableListener(Runnable listener) {
+    }
 
     /**
      * 结束输出（等价于响应正常完成）。须幂等。
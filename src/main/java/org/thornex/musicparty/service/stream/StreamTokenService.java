@@ -1,12 +1,25 @@
 package org.thornex.musicparty.service.stream;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.thornex.musicparty.config.AppProperties;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
 
 @Service
 @Slf4j
@@ -14,6 +27,16 @@ public class StreamTokenService {
 
     private static final long EXPIRE_MS = 24 * 60 * 60 * 1000L; // 24小时绝对过期
     private static final long IDLE_EXPIRE_MS = 4 * 60 * 60 * 1000L; // 4小时闲置过期
+    /** 中继节点向上游核验令牌的超时 */
+    private static final Duration UPSTREAM_VALIDATE_TIMEOUT = Duration.ofSeconds(3);
+    /** 中继节点核验请求（以及连接上游的流请求）携带中继密钥的请求头，不放在查询串里以免进入访问日志 */
+    public static final String RELAY_KEY_HEADER = "X-Relay-Key";
+    /** 上游明确拒绝的令牌在本地记住的时长：随机 key 不会每次都打到上游 */
+    private static final long REJECTED_TTL_MS = 30_000;
+    /** 被拒令牌记录的条数上限 */
+    private static final int MAX_REJECTED = 10_000;
+    /** 每秒最多向上游核验的次数（全局），超出的未知令牌直接拒绝，客户端稍后重试即可 */
+    private static final int MAX_UPSTREAM_VALIDATIONS_PER_SECOND = 20;
 
     private record TokenInfo(String token, String userId, long creationTime, long lastAccessTime) {
         TokenInfo updateAccessTime() {
@@ -22,6 +45,29 @@ public class StreamTokenService {
     }
 
     private final Map<String, TokenInfo> tokens = new ConcurrentHashMap<>();
+    /** 中继节点：上游拒绝过的令牌 → 记录到期时刻 */
+    private final Map<String, Long> rejected = new ConcurrentHashMap<>();
+    private final AppProperties appProperties;
+    private final WebClient webClient;
+    private final LongSupplier clock;
+    private long validationWindowStart;
+    private int validationsInWindow;
+    /** HLS 分段令牌的签名密钥：每次启动随机生成，重启后旧播放列表中的分段 URL 随之失效 */
+    private final SecretKeySpec segmentKey;
+
+    @Autowired
+    public StreamTokenService(AppProperties appProperties, WebClient webClient) {
+        this(appProperties, webClient, System::currentTimeMillis);
+    }
+
+    StreamTokenService(AppProperties appProperties, WebClient webClient, LongSupplier clock) {
+        this.appProperties = appProperties;
+        this.webClient = webClient;
+        this.clock = clock;
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.segmentKey = new SecretKeySpec(secret, "HmacSHA256");
+    }
 
     public String generateToken(String userId) {
         // 先清理该用户旧的 Token (可选，如果允许单用户多 Token 则不清理)
@@ -34,9 +80,20 @@ public class StreamTokenService {
     }
 
     public boolean validateToken(String token) {
-        if (token == null || !tokens.containsKey(token)) {
+        if (isRelayKey(token)) {
+            return true;
+        }
+        if (token == null) {
             return false;
         }
+        if (!tokens.containsKey(token)) {
+            // 中继节点：令牌由上游（源节点）签发，向上游核验一次，通过后在本地按同样的过期规则缓存
+            if (!validateUpstream(token)) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            tokens.putIfAbsent(token, new TokenInfo(token, "relay", now, now));
+        }
 
         TokenInfo info = tokens.get(token);
         long now = System.currentTimeMillis();
@@ -58,6 +115,115 @@ public class StreamTokenService {
         return true;
     }
 
+    /**
+     * HLS 分段访问令牌：档位 + 时间窗口序号的 HMAC，由播放列表附在分段 URI 上。
+     * 同一窗口内所有收听者拿到同一个令牌，分段 URL 仍可被代理/CDN 共享缓存；没有播放列表（即没有收听 key）无法构造。
+     *
+     * @param windowMs 令牌轮换周期，取分段保留时长
+     */
+    public String segmentToken(String rendition, long windowMs) {
+        return segmentToken(rendition, windowMs, System.currentTimeMillis());
+    }
+
+    String segmentToken(String rendition, long windowMs, long nowMs) {
+        return signSegment(rendition, nowMs / windowMs);
+    }
+
+    /** 核验分段令牌：当前或上一个窗口签发的均有效，令牌签发后至少在一个完整窗口内可用。 */
+    public boolean validateSegmentToken(String rendition, String token, long windowMs) {
+        return validateSegmentToken(rendition, token, windowMs, System.currentTimeMillis());
+    }
+
+    boolean validateSegmentToken(String rendition, String token, long windowMs, long nowMs) {
+        if (token == null) {
+            return false;
+        }
+        byte[] presented = token.getBytes(StandardCharsets.US_ASCII);
+        long window = nowMs / windowMs;
+        return MessageDigest.isEqual(presented, signSegment(rendition, window).getBytes(StandardCharsets.US_ASCII))
+                || MessageDigest.isEqual(presented, signSegment(rendition, window - 1).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String signSegment(String rendition, long window) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(segmentKey);
+            byte[] digest = mac.doFinal((rendition + ":" + window).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    /** 是否为配置的中继密钥（未配置时恒为 false）。定长比较，不泄露前缀匹配长度。 */
+    public boolean isRelayKey(String key) {
+        String relayKey = appProperties.getStream().getRelay().getKey();
+        if (key == null || relayKey == null || relayKey.isEmpty()) {
+            return false;
+        }
+        return MessageDigest.isEqual(key.getBytes(StandardCharsets.UTF_8), relayKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 中继模式下向上游的 /radio/relay/validate 核验令牌；非中继模式或上游不可达时返回 false。
+     * 上游明确拒绝的令牌在 {@link #REJECTED_TTL_MS} 内不再核验；核验频率超出全局上限时直接拒绝（不记录）。
+     */
+    private boolean validateUpstream(String token) {
+        AppProperties.RelayConfig relay = appProperties.getStream().getRelay();
+        if (!relay.isEnabled()) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        Long rejectedUntil = rejected.get(token);
+        if (rejectedUntil != null) {
+            if (now < rejectedUntil) {
+                return false;
+            }
+            rejected.remove(token, rejectedUntil);
+        }
+        if (!tryAcquireValidation(now)) {
+            log.debug("Relay: upstream token validation rate limit reached, rejecting unknown token");
+            return false;
+        }
+        try {
+            Boolean valid = webClient.get()
+                    .uri(StreamRelayService.upstreamBase(relay) + "/radio/relay/validate?key={key}", token)
+                    .header(RELAY_KEY_HEADER, relay.getKey())
+                    .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode().is2xxSuccessful()))
+                    .block(UPSTREAM_VALIDATE_TIMEOUT);
+            if (Boolean.FALSE.equals(valid)) {
+                rememberRejected(token, now);
+            }
+            return Boolean.TRUE.equals(valid);
+        } catch (Exception e) {
+            // 上游不可达不记录：恢复后合法收听者可立即重试
+            log.warn("Relay: failed to validate stream token with upstream: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized boolean tryAcquireValidation(long now) {
+        if (now - validationWindowStart >= 1000) {
+            validationWindowStart = now;
+            validationsInWindow = 0;
+        }
+        if (validationsInWindow >= MAX_UPSTREAM_VALIDATIONS_PER_SECOND) {
+            return false;
+        }
+        validationsInWindow++;
+        return true;
+    }
+
+    private void rememberRejected(String token, long now) {
+        if (rejected.size() >= MAX_REJECTED) {
+            rejected.values().removeIf(until -> until <= now);
+            if (rejected.size() >= MAX_REJECTED) {
+                rejected.clear();
+            }
+        }
+        rejected.put(token, now + REJECTED_TTL_MS);
+    }
+
     @Scheduled(fixedRate = 3600000) // 每小时清理一次
     public void cleanup() {
         long now = System.currentTimeMillis();
@@ -65,6 +231,8 @@ public class StreamTokenService {
             TokenInfo info = entry.getValue();
             return (now - info.creationTime() > EXPIRE_MS) || (now - info.lastAccessTime() > IDLE_EXPIRE_MS);
         });
+        long clockNow = clock.getAsLong();
+        rejected.values().removeIf(until -> until <= clockNow);
         log.info("Cleaned up stream tokens. Current count: {}", tokens.size());
     }
 }
@@ -0,0 +1,132 @@
+package org.thornex.musicparty.service.stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 驱动所有收听者写出的固定写线程组。
+ * <p>
+ * 每个写线程负责一部分客户端（接入时分给当前负载最少的线程），循环地把各客户端游标后的数据
+ * 以非阻塞方式写进连接：连接可写就写，不可写就跳过，等容器回调 onWritePossible 再唤醒。
+ * 线程数固定、与连接数无关，万级连接下 CPU 开销可预期；没有任何线程阻塞在单个慢连接上。
+ * <p>
+ * 唤醒来源：环形缓冲有新数据（{@link #wakeAll()}）、某个连接重新可写（{@link Writer#wake()}），
+ * 以及固定的巡检间隔（用于写阻塞检测）。
+ */
+@Slf4j
+class StreamWriterPool {
+
+    /** 无事可做时的最长休眠：也是写阻塞检测的巡检粒度 */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Writer[] writers;
+
+    StreamWriterPool(int threads, int chunkSize) {
+        this.writers = new Writer[Math.max(1, threads)];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Writer(i, chunkSize);
+        }
+    }
+
+    /** 分配给客户端数最少的写线程。 */
+    Writer assign(StreamClient client) {
+        Writer target = writers[0];
+        for (Writer w : writers) {
+            if (w.clients.length < target.clients.length) {
+                target = w;
+            }
+        }
+        target.add(client);
+        return target;
+    }
+
+    /** 环形缓冲有新数据：唤醒所有写线程。固定数组遍历，无分配。 */
+    void wakeAll() {
+        for (Writer w : writers) {
+            w.wake();
+        }
+    }
+
+    int size() {
+        return writers.length;
+    }
+
+    void shutdown() {
+        for (Writer w : writers) {
+            w.stop();
+        }
+    }
+
+    static final class Writer implements Runnable {
+        private final int index;
+        /** 写线程独占的发送缓冲：非阻塞写出时容器会拷走未能立即写出的部分，可安全复用 */
+        private final byte[] scratch;
+        /** 写时复制的客户端数组：遍历无分配，增删（连接建立/断开）才复制 */
+        private volatile StreamClient[] clients = new StreamClient[0];
+        private volatile boolean running = true;
+        private Thread thread;
+
+        Writer(int index, int chunkSize) {
+            this.index = index;
+            this.scratch = new byte[chunkSize];
+        }
+
+        synchronized void add(StreamClient client) {
+            StreamClient[] next = Arrays.copyOf(clients, clients.length + 1);
+            next[next.length - 1] = client;
+            clients = next;
+            if (thread == null) {
+                thread = Thread.ofPlatform().daemon().name("stream-writer-" + index).start(this);
+            }
+            wake();
+        }
+
+        synchronized void remove(StreamClient client) {
+            StreamClient[] current = clients;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == client) {
+                    StreamClient[] next = new StreamClient[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    clients = next;
+                    return;
+                }
+            }
+        }
+
+        void wake() {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        synchronized void stop() {
+            running = false;
+            wake();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long now = System.nanoTime();
+                boolean more = false;
+                for (StreamClient client : clients) {
+                    try {
+                        more |= client.pump(scratch, now);
+                    } catch (RuntimeException e) {
+                        log.warn("Stream writer: unexpected error for client {}, closing it", client.getId(), e);
+                        client.close();
+                    }
+                }
+                if (!more) {
+                    // unpark 先于 park 时许可会被保留，不会丢失唤醒
+                    LockSupport.parkNanos(this, TICK_NANOS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.thornex.musicparty.service.stream;
+
+/**
+ * 切歌空窗统计：上一首最后一块输出到下一首首块输出之间的时长（收听者听到的静音/断流时长）。
+ */
+public class SwitchGapStats {
+
+    public record Snapshot(long switches, long prerolledSwitches, long prerollsDiscarded,
+                           long lastGapMs, long maxGapMs, long avgGapMs) {
+    }
+
+    private long switches;
+    private long prerolledSwitches;
+    private long prerollsDiscarded;
+    private long lastGapMs;
+    private long maxGapMs;
+    private long totalGapMs;
+
+    public synchronized void record(long gapMs, boolean prerolled) {
+        long gap = Math.max(0, gapMs);
+        switches++;
+        if (prerolled) {
+            prerolledSwitches++;
+        }
+        lastGapMs = gap;
+        maxGapMs = Math.max(maxGapMs, gap);
+        totalGapMs += gap;
+    }
+
+    /** 预滚动的下一首没被用上（队列变化 / 播放器切到了别的歌 / 预滚动进程失败）。 */
+    public synchronized void recordDiscard() {
+        prerollsDiscarded++;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(switches, prerolledSwitches, prerollsDiscarded, lastGapMs, maxGapMs,
+                switches == 0 ? 0 : totalGapMs / switches);
+    }
+}
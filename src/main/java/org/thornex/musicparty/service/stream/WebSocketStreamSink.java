@@ -0,0 +1,100 @@
+package org.thornex.musicparty.service.stream;
+
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 基于 WebSocket 异步发送的 {@link StreamSink} 实现：每块编码输出作为一条二进制消息发出。
+ * <p>
+ * 消息格式（大端）：8 字节媒体时间戳（微秒，档位连续媒体时间轴上的块起始时刻）
+ * + 8 字节发布时刻（服务器 epoch 毫秒）+ 按帧边界切分的编码音频。块从帧边界开始，
+ * MediaSource 客户端可直接 appendBuffer；发布时刻与 PlayerState 的服务器时间同源，客户端据此对齐播放位置。
+ * <p>
+ * 同一时刻只有一条消息在发送：{@link #isReady()} 在上一条发送完成前为 false，
+ * 完成回调唤醒写线程，慢连接因此只会落后（drop-oldest），不会占住写线程。
+ */
+public class WebSocketStreamSink implements StreamSink {
+
+    /** 消息头字节数：媒体时间戳 + 发布时刻 */
+    public static final int HEADER_BYTES = 16;
+
+    private final Session session;
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    /** 发送缓冲：同一时刻只有一条消息在途，可复用 */
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private volatile Runnable writableListener;
+    private volatile Consumer<Throwable> errorListener;
+
+    public WebSocketStreamSink(Session session) {
+        this.session = session;
+    }
+
+    public void setErrorListener(Consumer<Throwable> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    @Override
+    public boolean isReady() {
+        return !completed.get() && !sending.get() && session.isOpen();
+    }
+
+    @Override
+    public void write(byte[] data, int length) throws IOException {
+        writeChunk(data, length, -1, -1);
+    }
+
+    @Override
+    public void writeChunk(byte[] data, int length, long mediaMicros, long publishedMs) throws IOException {
+        if (!sending.compareAndSet(false, true)) {
+            throw new IllegalStateException("previous message still in flight");
+        }
+        if (buffer.capacity() < HEADER_BYTES + length) {
+            buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        }
+        buffer.clear();
+        buffer.putLong(mediaMicros).putLong(publishedMs).put(data, 0, length).flip();
+        try {
+            session.getAsyncRemote().sendBinary(buffer, this::onSent);
+        } catch (RuntimeException e) {
+            sending.set(false);
+            throw new IOException(e);
+        }
+    }
+
+    private void onSent(SendResult result) {
+        sending.set(false);
+        if (!result.isOK()) {
+            Consumer<Throwable> listener = errorListener;
+            if (listener != null) {
+                listener.accept(result.getException());
+            }
+            return;
+        }
+        Runnable listener = writableListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        this.writableListener = listener;
+    }
+
+    @Override
+    public void complete() {
+        if (completed.compareAndSet(false, true)) {
+            try {
+                session.close();
+            } catch (IOException | IllegalStateException ignored) {
+                // 连接可能已关闭，忽略
+            }
+        }
+    }
+}
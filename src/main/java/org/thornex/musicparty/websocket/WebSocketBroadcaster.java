@@ -4,9 +4,11 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
+import org.thornex.musicparty.dto.DownloadProgress;
 import org.thornex.musicparty.dto.PlayerEvent;
 import org.thornex.musicparty.dto.User;
 import org.thornex.musicparty.enums.PlayerAction;
+import org.thornex.musicparty.event.DownloadProgressEvent;
 import org.thornex.musicparty.event.PlayerStateEvent;
 import org.thornex.musicparty.event.QueueUpdateEvent;
 import org.thornex.musicparty.event.SystemMessageEvent;
@@ -36,6 +38,20 @@ public class WebSocketBroadcaster {
         messagingTemplate.convertAndSend("/topic/player/queue", event.getQueue());
     }
 
+    /**
+     * 监听下载进度事件（已在下载写入器处节流），只推送单首歌的增量
+     */
+    @EventListener
+    public void onDownloadProgress(DownloadProgressEvent event) {
+        messagingTemplate.convertAndSend("/topic/player/download", new DownloadProgress(
+                event.getMusicId(),
+                event.getBytes(),
+                event.getTotalBytes(),
+                event.getBytesPerSecond(),
+                event.getEtaMs()
+        ));
+    }
+
     /**
      * 监听系统消息事件（用于 Toast 通知等）
      */
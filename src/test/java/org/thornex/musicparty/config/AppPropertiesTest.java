@@ -14,4 +14,11 @@ class AppPropertiesTest {
         assertFalse(c.isJoinQueueEnabled());
         assertFalse(c.isCustodyEnabled());
     }
+
+    @Test
+    void streamDefaultRenditionIsConfigured() {
+        AppProperties.StreamConfig c = new AppProperties().getStream();
+        assertTrue(c.getRenditions().stream().anyMatch(r -> r.getName().equals(c.getDefaultRendition())),
+                "默认档位必须在档位列表中");
+    }
 }
@@ -7,12 +7,16 @@ import org.springframework.http.ResponseEntity;
 import org.thornex.musicparty.config.AppProperties;
 import org.thornex.musicparty.dto.AdminCookieRequest;
 import org.thornex.musicparty.dto.AdminPrivateDjUpdateRequest;
+import org.thornex.musicparty.service.CacheWarmingService;
 import org.thornex.musicparty.service.ChatService;
+import org.thornex.musicparty.service.LocalCacheService;
 import org.thornex.musicparty.service.MusicPlayerService;
 import org.thornex.musicparty.service.PrivateDjService;
 import org.thornex.musicparty.service.api.BilibiliMusicApiService;
 import org.thornex.musicparty.service.api.NeteaseMusicApiService;
+import org.thornex.musicparty.service.api.SearchResultCache;
 import org.thornex.musicparty.service.stream.LiveStreamService;
+import org.thornex.musicparty.service.stream.StreamRelayService;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -34,7 +38,8 @@ class AdminControllerPrivateDjTest {
         djService = mock(PrivateDjService.class);
         controller = new AdminController(player,
                 mock(ChatService.class), props, mock(AuthController.class),
-                api, mock(BilibiliMusicApiService.class), mock(LiveStreamService.class), djService);
+                api, mock(BilibiliMusicApiService.class), mock(LiveStreamService.class), djService,
+                mock(LocalCacheService.class), mock(CacheWarmingService.class), mock(StreamRelayService.class), mock(SearchResultCache.class));
     }
 
     @Test
@@ -0,0 +1,171 @@
+package org.thornex.musicparty.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.service.LocalCacheService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class MediaControllerTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes();
+
+    @TempDir
+    Path dir;
+
+    private LocalCacheService cacheService;
+    private LocalCacheService.CacheEntry entry;
+    private MediaController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = dir.resolve("BV1.m4a");
+        Files.write(file, CONTENT);
+
+        entry = new LocalCacheService.CacheEntry();
+        entry.setId("BV1");
+        entry.setFileName("BV1.m4a");
+        entry.setStatus(CacheStatus.COMPLETED);
+        entry.setSize(CONTENT.length);
+        entry.setChecksum("abc");
+
+        cacheService = mock(LocalCacheService.class);
+        when(cacheService.findCompletedByFileName(anyString())).thenReturn(null);
+        when(cacheService.findCompletedByFileName("BV1.m4a")).thenReturn(entry);
+        when(cacheService.resolveCachedFile(entry)).thenReturn(file);
+        controller = new MediaController(cacheService);
+    }
+
+    private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serveMedia("BV1.m4a", request, response);
+        return response;
+    }
+
+    @Test
+    void fullRequestCarriesCacheHeaders() throws Exception {
+        MockHttpServletResponse response = get(new MockHttpServletRequest("GET", "/media/BV1.m4a"));
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals("\"abc-14\"", response.getHeader("ETag"));
+        assertEquals("public, no-cache", response.getHeader("Cache-Control"), "不带版本的地址内容可能变化，须按 ETag 再验证");
+        verify(cacheService).recordBytesServed("BV1", CONTENT.length);
+    }
+
+    @Test
+    void onlyCurrentVersionIsCachedLongTerm() throws Exception {
+        assertEquals("/media/BV1.m4a?v=abc-14", LocalCacheService.mediaUrl(entry));
+
+        MockHttpServletRequest current = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        current.setParameter("v", "abc-14");
+        assertEquals("public, max-age=31536000, immutable", get(current).getHeader("Cache-Control"));
+
+        // 重新下载后内容变了，旧版本地址不再长期缓存
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        stale.setParameter("v", "old-14");
+        assertEquals("public, no-cache", get(stale).getHeader("Cache-Control"));
+    }
+
+    @Test
+    void rangeRequestReturnsPartialContent() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.addHeader("Range", "bytes=5-9");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 5-9/20", response.getHeader("Content-Range"));
+        assertEquals("56789", response.getContentAsString());
+    }
+
+    @Test
+    void matchingETagReturnsNotModified() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.addHeader("If-None-Match", "\"abc-14\"");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void unsatisfiableRangeReturns416() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.addHeader("Range", "bytes=50-");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void sendfileIsDelegatedToContainerWhenSupported() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.setAttribute(MediaController.SENDFILE_SUPPORT_ATTR, Boolean.TRUE);
+        request.addHeader("Range", "bytes=-4");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(16L, request.getAttribute(MediaController.SENDFILE_START_ATTR));
+        assertEquals(20L, request.getAttribute(MediaController.SENDFILE_END_ATTR));
+        assertEquals(0, response.getContentAsByteArray().length, "由容器发送，不经过响应流");
+    }
+
+    @Test
+    void saveDataRedirectsToReadyRendition() throws Exception {
+        LocalCacheService.CacheEntry rendition = new LocalCacheService.CacheEntry();
+        rendition.setId("BV1@r64");
+        rendition.setFileName("BV1@r64.m4a");
+        rendition.setChecksum("def");
+        rendition.setSize(8);
+        when(cacheService.selectRendition(null, true)).thenReturn(64);
+        when(cacheService.findRendition(entry, 64)).thenReturn(rendition);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.addHeader("Save-Data", "on");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(302, response.getStatus());
+        assertEquals("/media/BV1@r64.m4a?v=def-8", response.getHeader("Location"));
+        assertEquals("no-store", response.getHeader("Cache-Control"), "副本就绪后协商结果会变化，跳转不可缓存");
+        assertEquals("Save-Data", response.getHeader("Vary"));
+        verify(cacheService, never()).recordBytesServed(anyString(), anyLong());
+    }
+
+    @Test
+    void pendingRenditionRedirectsToPinnedOriginal() throws Exception {
+        when(cacheService.selectRendition("64", false)).thenReturn(64);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        request.setParameter("rendition", "64");
+        MockHttpServletResponse response = get(request);
+
+        assertEquals(302, response.getStatus());
+        assertEquals("/media/BV1.m4a?v=abc-14&rendition=original", response.getHeader("Location"));
+        verify(cacheService).findRendition(entry, 64);
+
+        MockHttpServletRequest original = new MockHttpServletRequest("GET", "/media/BV1.m4a");
+        original.setParameter("rendition", "original");
+        original.addHeader("Save-Data", "on");
+        MockHttpServletResponse served = get(original);
+
+        assertEquals(200, served.getStatus(), "显式要求原文件时不再协商，避免跳转循环");
+        assertArrayEquals(CONTENT, served.getContentAsByteArray());
+    }
+
+    @Test
+    void unknownOrPartialFilesAreNotServed() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.serveMedia("BV1.m4a.part", new MockHttpServletRequest("GET", "/media/BV1.m4a.part"), response);
+        assertEquals(404, response.getStatus());
+    }
+}
@@ -0,0 +1,96 @@
+package org.thornex.musicparty.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.dto.Music;
+import org.thornex.musicparty.dto.MusicQueueItem;
+import org.thornex.musicparty.dto.UserSummary;
+import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.enums.QueueItemStatus;
+import org.thornex.musicparty.service.api.BilibiliMusicApiService;
+import org.thornex.musicparty.service.api.NeteaseMusicApiService;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CacheWarmingServiceTest {
+
+    private AppProperties props;
+    private MusicQueueManager queueManager;
+    private LocalCacheService cache;
+    private BilibiliMusicApiService bilibili;
+    private NeteaseMusicApiService netease;
+    private CacheWarmingService service;
+
+    private static Music music(String id, String platform) {
+        return new Music(id, id, List.of("artist"), 180_000, platform, "");
+    }
+
+    private static MusicQueueItem queued(Music music) {
+        return new MusicQueueItem("q-" + music.id(), music, new UserSummary("t", "s", "u", false), QueueItemStatus.PENDING);
+    }
+
+    @BeforeEach
+    void setUp() {
+        props = new AppProperties();
+        queueManager = mock(MusicQueueManager.class);
+        cache = mock(LocalCacheService.class);
+        bilibili = mock(BilibiliMusicApiService.class);
+        netease = mock(NeteaseMusicApiService.class);
+        when(bilibili.getPlatformName()).thenReturn("bilibili");
+        when(bilibili.supportsLocalCache()).thenReturn(true);
+        when(netease.getPlatformName()).thenReturn("netease");
+        when(netease.supportsLocalCache()).thenReturn(false); // 未开启网易云本地缓存
+        when(cache.getStats()).thenReturn(new LocalCacheService.CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+        service = new CacheWarmingService(queueManager, cache, props, List.of(bilibili, netease));
+    }
+
+    @Test
+    void warmsQueueThenHistoryAndSkipsCachedOrUnsupported() {
+        when(queueManager.getQueueSnapshot()).thenReturn(List.of(
+                queued(music("BV1", "bilibili")), queued(music("163", "netease"))));
+        when(queueManager.getHistorySnapshot()).thenReturn(List.of(
+                music("BV2", "bilibili"), music("BV1", "bilibili")));
+        when(cache.getStatus("BV1")).thenReturn(null, CacheStatus.COMPLETED);
+        when(cache.getStatus("BV2")).thenReturn(CacheStatus.COMPLETED);
+
+        service.runWarming();
+
+        CacheWarmingService.WarmingProgress progress = service.getProgress();
+        assertEquals(CacheWarmingService.State.COMPLETED, progress.state());
+        assertEquals(2, progress.total(), "网易云未开启本地缓存应被排除，重复的 BV1 只算一次");
+        assertEquals(1, progress.completed());
+        assertEquals(1, progress.skipped());
+        verify(bilibili).prefetchMusic("BV1");
+        verify(bilibili, never()).prefetchMusic("BV2");
+        verify(netease, never()).prefetchMusic(anyString());
+    }
+
+    @Test
+    void stopsWhenDiskBudgetIsReached() {
+        when(queueManager.getQueueSnapshot()).thenReturn(List.of(queued(music("BV1", "bilibili"))));
+        when(queueManager.getHistorySnapshot()).thenReturn(List.of());
+        long max = props.getCache().getMaxSize().toBytes();
+        when(cache.getStats()).thenReturn(new LocalCacheService.CacheStats(1, max, max, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+
+        service.runWarming();
+
+        assertEquals(CacheWarmingService.State.STOPPED, service.getProgress().state());
+        verify(bilibili, never()).prefetchMusic(anyString());
+    }
+
+    @Test
+    void rejectedPrefetchCountsAsFailed() {
+        when(queueManager.getQueueSnapshot()).thenReturn(List.of(queued(music("BV1", "bilibili"))));
+        when(queueManager.getHistorySnapshot()).thenReturn(List.of());
+        doThrow(new RuntimeException("cookie missing")).when(bilibili).prefetchMusic("BV1");
+
+        service.runWarming();
+
+        assertEquals(1, service.getProgress().failed());
+        assertEquals(CacheWarmingService.State.COMPLETED, service.getProgress().state());
+    }
+}
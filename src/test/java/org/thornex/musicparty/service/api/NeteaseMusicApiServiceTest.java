@@ -1,11 +1,16 @@
 package org.thornex.musicparty.service.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.service.LocalCacheService;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
 
 class NeteaseMusicApiServiceTest {
 
@@ -16,7 +21,7 @@ class NeteaseMusicApiServiceTest {
     void setUp() {
         props = new AppProperties();
         props.getNetease().setQuality("exhigh");
-        service = new NeteaseMusicApiService(WebClient.builder().build(), props);
+        service = new NeteaseMusicApiService(WebClient.builder().build(), props, mock(LocalCacheService.class));
     }
 
     @Test
@@ -39,4 +44,87 @@ class NeteaseMusicApiServiceTest {
         assertEquals(320_000, service.resolveBr("unknown"));
         assertEquals(320_000, service.resolveBr(null));
     }
+
+    @Test
+    void resolveExtensionKeepsKnownAudioTypes() {
+        assertEquals(".mp3", NeteaseMusicApiService.resolveExtension("http://m701.music.126.net/2026/a/b/c.mp3?vuutv=x"));
+        assertEquals(".flac", NeteaseMusicApiService.resolveExtension("https://m801.music.126.net/x/Y.FLAC"));
+        assertEquals(".mp3", NeteaseMusicApiService.resolveExtension("https://m801.music.126.net/x/noext"));
+        assertEquals(".mp3", NeteaseMusicApiService.resolveExtension("not a url"));
+    }
+
+    @Test
+    void prefetchIsNoOpUnlessLocalCacheEnabled() {
+        LocalCacheService cache = mock(LocalCacheService.class);
+        props.getNetease().setCookie("MUSIC_U=abc");
+        NeteaseMusicApiService svc = new NeteaseMusicApiService(WebClient.builder().build(), props, cache);
+
+        svc.prefetchMusic("123");
+        verify(cache, never()).submitDownload(anyString(), any(), anyMap());
+
+        props.getNetease().setLocalCacheEnabled(true);
+        svc.prefetchMusic("123");
+        verify(cache).submitDownload(eq("123"), any(), anyMap());
+    }
+
+    @Test
+    void parseSongUrlReadsTrialAndDuration() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        NeteaseMusicApiService.SongUrl trial = NeteaseMusicApiService.parseSongUrl(mapper.readTree(
+                "{\"data\":[{\"url\":\"http://m7.music.126.net/a.mp3\",\"size\":1200000,\"time\":30000,\"br\":320000,"
+                        + "\"freeTrialInfo\":{\"start\":0,\"end\":30}}]}"));
+        assertEquals("http://m7.music.126.net/a.mp3", trial.url());
+        assertTrue(trial.trial());
+        assertEquals(30_000, trial.timeMs());
+
+        NeteaseMusicApiService.SongUrl full = NeteaseMusicApiService.parseSongUrl(mapper.readTree(
+                "{\"data\":[{\"url\":null,\"freeTrialInfo\":null}]}"));
+        assertEquals("", full.url());
+        assertFalse(full.trial());
+    }
+
+    @Test
+    void trialAndShortClipsAreNotCacheable() {
+        long dt = 240_000;
+        assertNull(NeteaseMusicApiService.uncacheableReason(
+                new NeteaseMusicApiService.SongUrl("http://x/a.mp3", false, 9_600_000, 239_000, 320_000), dt));
+        assertNotNull(NeteaseMusicApiService.uncacheableReason(
+                new NeteaseMusicApiService.SongUrl("http://x/a.mp3", true, 9_600_000, 239_000, 320_000), dt), "freeTrialInfo 非空");
+        assertNotNull(NeteaseMusicApiService.uncacheableReason(
+                new NeteaseMusicApiService.SongUrl("http://x/a.mp3", false, 1_200_000, 30_000, 320_000), dt), "时长远短于 dt");
+        // 没有 time 时按 size / br 估算：1.2MB @ 320kbps ≈ 30 秒
+        assertNotNull(NeteaseMusicApiService.uncacheableReason(
+                new NeteaseMusicApiService.SongUrl("http://x/a.mp3", false, 1_200_000, 0, 320_000), dt));
+        assertNotNull(NeteaseMusicApiService.uncacheableReason(
+                new NeteaseMusicApiService.SongUrl("", false, 0, 0, 0), dt));
+    }
+
+    @Test
+    void cacheWithOtherQualityIsInvalidatedAndRefetched() {
+        LocalCacheService cache = mock(LocalCacheService.class);
+        props.getNetease().setCookie("MUSIC_U=abc");
+        props.getNetease().setLocalCacheEnabled(true);
+        NeteaseMusicApiService svc = new NeteaseMusicApiService(WebClient.builder().build(), props, cache);
+
+        LocalCacheService.CacheEntry current = new LocalCacheService.CacheEntry();
+        current.setStatus(CacheStatus.COMPLETED);
+        current.setQuality("exhigh");
+        when(cache.getCacheEntry("1")).thenReturn(current);
+        svc.prefetchMusic("1");
+        verify(cache, never()).invalidate("1");
+        verify(cache, never()).submitDownload(eq("1"), any(), anyMap());
+
+        LocalCacheService.CacheEntry stale = new LocalCacheService.CacheEntry();
+        stale.setStatus(CacheStatus.COMPLETED);
+        stale.setQuality("standard");
+        when(cache.getCacheEntry("2")).thenReturn(stale);
+        svc.prefetchMusic("2");
+        verify(cache).invalidate("2");
+        verify(cache).submitDownload(eq("2"), any(), anyMap());
+
+        // 入队解析同样不再返回旧档位的 /media 地址
+        svc.getPlayableMusic("2");
+        verify(cache, times(2)).invalidate("2");
+        verify(cache, never()).getLocalUrl("2");
+    }
 }
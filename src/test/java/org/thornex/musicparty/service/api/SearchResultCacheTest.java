@@ -0,0 +1,125 @@
+package org.thornex.musicparty.service.api;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.dto.Music;
+import org.thornex.musicparty.exception.ApiRequestException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchResultCacheTest {
+
+    private AppProperties props;
+    private AtomicLong now;
+    private SearchResultCache cache;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    void setUp() {
+        props = new AppProperties();
+        props.getSearchCache().setTtlMs(1000);
+        props.getSearchCache().setMaxStaleMs(10_000);
+        now = new AtomicLong(0);
+        cache = new SearchResultCache(props, now::get);
+        calls = new AtomicInteger();
+    }
+
+    private static List<Music> results(String id) {
+        return List.of(new Music(id, id, List.of("artist"), 180_000, "netease", ""));
+    }
+
+    private Mono<List<Music>> upstream(List<Music> value) {
+        return Mono.fromCallable(() -> {
+            calls.incrementAndGet();
+            return value;
+        });
+    }
+
+    @Test
+    void hitWithinTtlAndRefetchAfterExpiry() {
+        assertEquals(results("a"), cache.search("netease", "晴天", 1, () -> upstream(results("a"))).block());
+        // 规范化后同一关键词命中
+        assertEquals(results("a"), cache.search("NetEase", "  晴天 ", 1, () -> upstream(results("b"))).block());
+        assertEquals(1, calls.get());
+
+        now.set(1500);
+        assertEquals(results("b"), cache.search("netease", "晴天", 1, () -> upstream(results("b"))).block());
+        assertEquals(2, calls.get());
+
+        SearchResultCache.Stats stats = cache.getStats();
+        assertEquals(3, stats.requests());
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.upstreamCalls());
+        assertEquals(1, stats.upstreamSaved());
+    }
+
+    @Test
+    void identicalInFlightRequestsShareOneUpstreamCall() {
+        Sinks.One<List<Music>> pending = Sinks.one();
+        Mono<List<Music>> first = cache.search("bilibili", "tune", 1, () -> {
+            calls.incrementAndGet();
+            return pending.asMono();
+        });
+        Mono<List<Music>> second = cache.search("bilibili", "tune", 1, () -> upstream(results("other")));
+        var f = first.toFuture();
+        var s = second.toFuture();
+
+        pending.tryEmitValue(results("x"));
+        assertEquals(results("x"), f.join());
+        assertEquals(results("x"), s.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getStats().coalesced());
+
+        // 请求结束后不再合并，之后走缓存
+        cache.search("bilibili", "tune", 1, () -> upstream(results("other"))).block();
+        assertEquals(1, cache.getStats().hits());
+    }
+
+    @Test
+    void upstreamErrorServesStaleWithinWindowOnly() {
+        cache.search("bilibili", "tune", 1, () -> upstream(results("old"))).block();
+
+        now.set(5000);
+        List<Music> served = cache.search("bilibili", "tune", 1,
+                () -> Mono.error(new ApiRequestException("请求被B站风控拦截"))).block();
+        assertEquals(results("old"), served);
+        assertEquals(1, cache.getStats().staleServed());
+        assertEquals(1, cache.getStats().upstreamErrors());
+
+        now.set(20_000);
+        assertThrows(ApiRequestException.class, () -> cache.search("bilibili", "tune", 1,
+                () -> Mono.error(new ApiRequestException("请求被B站风控拦截"))).block());
+    }
+
+    @Test
+    void emptyResultsAreNotCachedAndDoNotReplaceGoodEntries() {
+        // 无旧结果：空列表照常返回，但不缓存，下次仍请求上游
+        assertEquals(List.of(), cache.search("bilibili", "tune", 1, () -> upstream(List.of())).block());
+        assertEquals(results("a"), cache.search("bilibili", "tune", 1, () -> upstream(results("a"))).block());
+        assertEquals(2, calls.get());
+
+        // 过期后上游折成空列表（如签名失败）：返回旧结果，旧条目保留
+        now.set(5000);
+        assertEquals(results("a"), cache.search("bilibili", "tune", 1, () -> upstream(List.of())).block());
+        assertEquals(1, cache.getStats().staleServed());
+        now.set(6000);
+        assertEquals(results("a"), cache.search("bilibili", "tune", 1,
+                () -> Mono.error(new ApiRequestException("请求被B站风控拦截"))).block());
+    }
+
+    @Test
+    void disabledCachePassesThrough() {
+        props.getSearchCache().setEnabled(false);
+        cache.search("netease", "x", 1, () -> upstream(results("a"))).block();
+        cache.search("netease", "x", 1, () -> upstream(results("a"))).block();
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.getStats().requests());
+    }
+}
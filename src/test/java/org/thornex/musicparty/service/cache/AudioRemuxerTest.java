@@ -0,0 +1,70 @@
+package org.thornex.musicparty.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AudioRemuxerTest {
+
+    @Test
+    void commandStreamCopiesFirstAudioTrackOnly() {
+        List<String> cmd = AudioRemuxer.buildCommand("ffmpeg", Path.of("BV1.mp4.part"), Path.of("BV1.m4a.part"));
+
+        assertTrue(String.join(" ", cmd).contains("-map 0:a:0 -vn -c:a copy"), "应只保留音频轨且不重编码");
+        assertEquals("mp4", cmd.get(cmd.size() - 2), "输出名带 .part 后缀，必须显式指定容器");
+    }
+
+    @Test
+    void transcodeCommandEncodesAacAtRequestedBitrate() {
+        List<String> cmd = AudioRemuxer.buildTranscodeCommand("ffmpeg", Path.of("BV1.m4a"), Path.of("BV1@r64.m4a.part"), 64);
+
+        String joined = String.join(" ", cmd);
+        assertTrue(joined.contains("-c:a aac -b:a 64k"));
+        assertTrue(joined.contains("-movflags +faststart"), "moov 前置，移动端无需先取文件尾即可起播");
+        assertEquals("mp4", cmd.get(cmd.size() - 2));
+    }
+
+    @Test
+    void missingFfmpegFallsBackWithoutThrowing(@TempDir Path dir) throws Exception {
+        Path input = dir.resolve("BV1.mp4.part");
+        Files.write(input, new byte[]{1, 2, 3});
+        AudioRemuxer remuxer = new AudioRemuxer(() -> dir.resolve("no-such-ffmpeg").toString());
+
+        assertFalse(remuxer.extractAudio(input, dir.resolve("BV1.m4a.part")));
+    }
+
+    @Test
+    void hungFfmpegIsKilledAtTimeout(@TempDir Path dir) throws Exception {
+        assumeTrue(Files.isExecutable(Path.of("/bin/sh")), "需要 /bin/sh 模拟挂住的 ffmpeg");
+        Path fake = dir.resolve("fake-ffmpeg");
+        Files.writeString(fake, "#!/bin/sh\necho stalled\nexec sleep 60\n");
+        assertTrue(fake.toFile().setExecutable(true));
+        Path input = dir.resolve("BV1.mp4.part");
+        Files.write(input, new byte[]{1, 2, 3});
+        AudioRemuxer remuxer = new AudioRemuxer(fake::toString, 1, 1);
+
+        long start = System.nanoTime();
+        assertFalse(remuxer.extractAudio(input, dir.resolve("BV1.m4a.part")));
+        assertFalse(remuxer.transcode(input, dir.resolve("BV1@r64.m4a.part"), 64));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), "超时后应立即放弃，而不是等进程退出");
+    }
+
+    @Test
+    void crc32MatchesDownloadChecksum(@TempDir Path dir) throws Exception {
+        byte[] data = "audio".getBytes();
+        Path file = dir.resolve("a.m4a");
+        Files.write(file, data);
+        CRC32 expected = new CRC32();
+        expected.update(data);
+
+        assertEquals(expected.getValue(), AudioRemuxer.crc32(file));
+    }
+}
@@ -0,0 +1,128 @@
+package org.thornex.musicparty.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheEvictionPolicyTest {
+
+    private static final long TRACK = 10L * 1024 * 1024; // 每首约 10MB
+    private static final long CAPACITY = 100 * TRACK;   // 1GB 左右，约 100 首
+
+    /**
+     * 回放一段播放历史：少量热门歌曲被反复点播 / 历史记录自动播放命中，
+     * 其间穿插大批量一次性歌单导入（各自只播一次）。
+     */
+    private static List<String> replayHistory() {
+        List<String> trace = new ArrayList<>();
+        int oneShot = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 30; i++) {
+                trace.add("hot-" + i);
+            }
+            for (int i = 0; i < 40; i++) {
+                trace.add("import-" + oneShot++);
+            }
+            for (int i = 0; i < 30; i++) {
+                trace.add("hot-" + i);
+            }
+            for (int i = 0; i < 120; i++) {
+                trace.add("import-" + oneShot++);
+            }
+        }
+        return trace;
+    }
+
+    private static int replaySlru(List<String> trace) {
+        CacheEvictionPolicy policy = new CacheEvictionPolicy(CAPACITY);
+        Map<String, Long> cached = new HashMap<>();
+        long used = 0;
+        int hits = 0;
+        for (String id : trace) {
+            if (cached.containsKey(id)) {
+                hits++;
+                policy.onAccess(id);
+                continue;
+            }
+            cached.put(id, TRACK);
+            used += TRACK;
+            policy.onInsert(id, TRACK);
+            while (used > CAPACITY) {
+                String victim = policy.selectVictim(x -> false);
+                policy.onRemove(victim);
+                used -= cached.remove(victim);
+            }
+        }
+        return hits;
+    }
+
+    /** 对照组：旧实现的朴素 LRU（按最后访问时间淘汰）。 */
+    private static int replayLru(List<String> trace) {
+        LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+        long used = 0;
+        int hits = 0;
+        for (String id : trace) {
+            if (lru.get(id) != null) {
+                hits++;
+                continue;
+            }
+            lru.put(id, TRACK);
+            used += TRACK;
+            while (used > CAPACITY) {
+                String eldest = lru.keySet().iterator().next();
+                used -= lru.remove(eldest);
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    void segmentedLruBeatsPlainLruOnReplayedHistory() {
+        List<String> trace = replayHistory();
+        int slru = replaySlru(trace);
+        int lru = replayLru(trace);
+        assertTrue(slru > lru * 3 / 2, "SLRU 命中数应明显高于朴素 LRU：slru=" + slru + ", lru=" + lru);
+    }
+
+    @Test
+    void pinnedEntriesAreNeverSelected() {
+        CacheEvictionPolicy policy = new CacheEvictionPolicy(CAPACITY);
+        policy.onInsert("queued", TRACK);
+        policy.onInsert("playing", TRACK);
+        policy.onInsert("old", TRACK);
+
+        assertEquals("old", policy.selectVictim(Set.of("queued", "playing")::contains));
+        policy.onRemove("old");
+        assertNull(policy.selectVictim(Set.of("queued", "playing")::contains), "全部被固定时不应给出淘汰对象");
+    }
+
+    @Test
+    void probationIsEvictedBeforeProtected() {
+        CacheEvictionPolicy policy = new CacheEvictionPolicy(CAPACITY);
+        policy.onInsert("a", TRACK);
+        policy.onInsert("b", TRACK);
+        policy.onAccess("a"); // a 被再次播放 → 晋升保护段
+
+        assertEquals(1, policy.protectedSize());
+        assertEquals("b", policy.selectVictim(x -> false), "只播过一次的 b 应先于热门的 a 被淘汰");
+    }
+
+    @Test
+    void protectedSegmentOverflowDemotesEldest() {
+        CacheEvictionPolicy policy = new CacheEvictionPolicy(10 * TRACK); // 保护段上限 8 首
+        for (int i = 0; i < 10; i++) {
+            policy.onInsert("t" + i, TRACK);
+            policy.onAccess("t" + i);
+        }
+        assertEquals(8, policy.protectedSize());
+        assertEquals("t0", policy.selectVictim(x -> false), "降级回试用段的最旧条目应最先被淘汰");
+        assertEquals(10, policy.size());
+    }
+}
@@ -0,0 +1,135 @@
+package org.thornex.musicparty.service.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.thornex.musicparty.enums.CacheStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheManifestTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static CacheManifest.Record put(String id, long size, long lastAccess) {
+        return new CacheManifest.Record(CacheManifest.Op.PUT, id, id + ".m4a", size, "abc", CacheStatus.COMPLETED, lastAccess, 0, null);
+    }
+
+    @Test
+    void replayAppliesPutAndDeleteInOrder(@TempDir Path dir) {
+        CacheManifest manifest = new CacheManifest(dir.resolve("manifest.jsonl"), mapper);
+        manifest.put(put("BV1", 100, 1000));
+        manifest.put(put("BV2", 200, 2000));
+        manifest.delete("BV1");
+        manifest.put(put("BV2", 250, 3000)); // 后写覆盖
+
+        Map<String, CacheManifest.Record> live = new CacheManifest(dir.resolve("manifest.jsonl"), mapper).load();
+        assertEquals(1, live.size());
+        assertEquals(250, live.get("BV2").size());
+        assertEquals(3000, live.get("BV2").lastAccessTime(), "访问时间应按清单恢复，而不是重置为启动时刻");
+    }
+
+    @Test
+    void tornLastLineIsSkipped(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("manifest.jsonl");
+        CacheManifest manifest = new CacheManifest(file, mapper);
+        manifest.put(put("BV1", 100, 1000));
+        // 模拟崩溃时写了一半的记录
+        Files.writeString(file, "{\"op\":\"PUT\",\"id\":\"BV2\",\"fileNa", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        Map<String, CacheManifest.Record> live = new CacheManifest(file, mapper).load();
+        assertEquals(1, live.size());
+        assertTrue(live.containsKey("BV1"));
+    }
+
+    @Test
+    void compactRewritesOnlyLiveRecords(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("manifest.jsonl");
+        CacheManifest manifest = new CacheManifest(file, mapper);
+        for (int i = 0; i < 10; i++) {
+            manifest.put(put("BV1", 100, i));
+        }
+        assertEquals(10, manifest.getAppendedSinceCompact());
+
+        manifest.compact(() -> List.of(put("BV1", 100, 9)));
+
+        assertEquals(0, manifest.getAppendedSinceCompact());
+        assertEquals(1, Files.readAllLines(file).size());
+        assertFalse(Files.exists(dir.resolve("manifest.jsonl.tmp")), "临时文件应被原子替换掉");
+        assertEquals(9, new CacheManifest(file, mapper).load().get("BV1").lastAccessTime());
+    }
+
+    @Test
+    void appendDuringSnapshotSurvivesCompaction(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("manifest.jsonl");
+        CacheManifest manifest = new CacheManifest(file, mapper);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread[] writer = new Thread[1];
+
+        manifest.compact(() -> {
+            // 快照期间另一线程完成下载并追加记录：必须等重写结束后才能写入，不能被重写覆盖
+            writer[0] = Thread.ofVirtual().start(() -> {
+                started.countDown();
+                manifest.put(put("BV2", 200, 2));
+            });
+            try {
+                started.await();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(put("BV1", 100, 1));
+        });
+        writer[0].join();
+
+        assertEquals(Set.of("BV1", "BV2"), new CacheManifest(file, mapper).load().keySet());
+    }
+
+    @Test
+    void checksumIsVerifiedOnlyWhenModifiedTimeChanged(@TempDir Path dir) throws Exception {
+        Path audio = dir.resolve("BV1.m4a");
+        Files.write(audio, new byte[]{1, 2, 3, 4});
+        String crc = Long.toHexString(AudioRemuxer.crc32(audio));
+        long mtime = Files.getLastModifiedTime(audio).toMillis();
+        CacheManifest.Record record = new CacheManifest.Record(CacheManifest.Op.PUT, "BV1", "BV1.m4a", 4, crc,
+                CacheStatus.COMPLETED, 0, mtime, null);
+
+        assertTrue(CacheManifest.matches(record, audio));
+
+        // 同样大小的内容被改写：修改时间变化，复核 CRC32 发现不符
+        Files.write(audio, new byte[]{9, 9, 9, 9});
+        Files.setLastModifiedTime(audio, FileTime.fromMillis(mtime + 5000));
+        assertFalse(CacheManifest.matches(record, audio));
+
+        // 只有修改时间变化（如拷贝迁移）：内容相符仍视为完好
+        Files.write(audio, new byte[]{1, 2, 3, 4});
+        Files.setLastModifiedTime(audio, FileTime.fromMillis(mtime + 10_000));
+        assertTrue(CacheManifest.matches(record, audio));
+    }
+
+    @Test
+    void recordsWithoutModifiedTimeStillLoad(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("manifest.jsonl");
+        Files.writeString(file, "{\"op\":\"PUT\",\"id\":\"BV1\",\"fileName\":\"BV1.m4a\",\"size\":100,"
+                + "\"checksum\":\"abc\",\"status\":\"COMPLETED\",\"lastAccessTime\":7}\n", StandardCharsets.UTF_8);
+
+        CacheManifest.Record record = new CacheManifest(file, mapper).load().get("BV1");
+        assertEquals(7, record.lastAccessTime());
+        assertEquals(0, record.modifiedTime(), "旧版本清单没有修改时间，对账时按 CRC32 复核一次");
+    }
+
+    @Test
+    void missingFileLoadsEmpty(@TempDir Path dir) {
+        assertTrue(new CacheManifest(dir.resolve("none.jsonl"), mapper).load().isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+package org.thornex.musicparty.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotMediaTierTest {
+
+    @TempDir
+    Path dir;
+
+    private HotMediaTier.Candidate file(String id, int size) throws Exception {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        Path path = dir.resolve(id + ".m4a");
+        Files.write(path, data);
+        return new HotMediaTier.Candidate(id, path, size);
+    }
+
+    @Test
+    void budgetIsStrictAndPriorityOrderWins() throws Exception {
+        HotMediaTier tier = new HotMediaTier(250);
+        HotMediaTier.Candidate current = file("current", 100);
+        HotMediaTier.Candidate next = file("next", 100);
+        HotMediaTier.Candidate later = file("later", 100);
+
+        tier.retain(List.of(current, next, later));
+
+        assertTrue(tier.contains("current"));
+        assertTrue(tier.contains("next"));
+        assertFalse(tier.contains("later"), "超出预算的低优先级条目不应装入");
+        assertEquals(200, tier.usedBytes());
+    }
+
+    @Test
+    void retainReleasesTracksThatLeftTheLookahead() throws Exception {
+        HotMediaTier tier = new HotMediaTier(1000);
+        HotMediaTier.Candidate a = file("a", 100);
+        HotMediaTier.Candidate b = file("b", 100);
+        HotMediaTier.Candidate c = file("c", 100);
+        tier.retain(List.of(a, b));
+
+        int loaded = tier.retain(List.of(b, c)); // 切歌：a 播完，c 进入前瞻
+
+        assertEquals(1, loaded, "已驻留的 b 不应重新映射");
+        assertFalse(tier.contains("a"));
+        assertEquals(200, tier.usedBytes());
+    }
+
+    @Test
+    void buffersAreIndependentViewsOfTheFile() throws Exception {
+        HotMediaTier tier = new HotMediaTier(1000);
+        tier.retain(List.of(file("a", 64)));
+
+        ByteBuffer first = tier.get("a").buffer();
+        ByteBuffer second = tier.get("a").buffer();
+        first.position(10);
+
+        assertEquals(0, second.position());
+        assertEquals(10, first.get());
+        assertEquals(2, tier.hits());
+    }
+
+    @Test
+    void removeFreesBudget() throws Exception {
+        HotMediaTier tier = new HotMediaTier(1000);
+        tier.retain(List.of(file("a", 100)));
+        tier.remove("a");
+
+        assertNull(tier.get("a"));
+        assertEquals(0, tier.usedBytes());
+    }
+}
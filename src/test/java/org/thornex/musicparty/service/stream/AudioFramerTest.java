@@ -0,0 +1,82 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioFramerTest {
+
+    /** MPEG1 Layer III 128kbps 44.1kHz 无填充：帧长 417 字节，1152 个采样。 */
+    private static byte[] mp3Frame(int fill) {
+        byte[] frame = new byte[417];
+        Arrays.fill(frame, (byte) fill);
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        frame[3] = (byte) 0x00;
+        return frame;
+    }
+
+    /** ADTS AAC-LC 44.1kHz 立体声，单个 raw block（1024 个采样）。 */
+    private static byte[] adtsFrame(int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xF1;
+        frame[2] = (byte) ((1 << 6) | (4 << 2)); // LC, 44.1kHz
+        frame[3] = (byte) ((2 << 6) | ((length >> 11) & 0x03));
+        frame[4] = (byte) ((length >> 3) & 0xFF);
+        frame[5] = (byte) (((length & 0x07) << 5) | 0x1F);
+        frame[6] = (byte) 0xFC;
+        return frame;
+    }
+
+    private record Chunk(byte[] data, long micros) {
+    }
+
+    @Test
+    void arbitrarilySplitMp3IsRegroupedIntoWholeFrameChunksWithExactDuration() {
+        List<Chunk> chunks = new ArrayList<>();
+        AudioFramer framer = new AudioFramer("mp3", 16384, 100_000,
+                (data, off, len, micros) -> chunks.add(new Chunk(Arrays.copyOfRange(data, off, off + len), micros)));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(new byte[]{0x12, 0x34, 0x56}, 0, 3); // 起始处的杂数据
+        for (int i = 0; i < 10; i++) {
+            stream.writeBytes(mp3Frame(i + 1));
+        }
+        byte[] all = stream.toByteArray();
+        for (int off = 0; off < all.length; off += 333) { // 与帧边界无关的切分
+            framer.feed(all, off, Math.min(333, all.length - off));
+        }
+        framer.flush();
+
+        assertEquals(3, framer.getSkippedBytes());
+        assertEquals(List.of(4 * 417, 4 * 417, 2 * 417), chunks.stream().map(c -> c.data().length).toList(),
+                "每块累计到 100ms（4 帧 ≈ 104ms）即输出");
+        for (Chunk c : chunks) {
+            assertEquals((byte) 0xFF, c.data()[0], "每块都从帧头开始");
+        }
+        assertEquals(10L * 1152 * 1_000_000 / 44100, chunks.stream().mapToLong(Chunk::micros).sum(),
+                "总时长按累计采样数换算，无逐帧舍入误差");
+    }
+
+    @Test
+    void adtsFramesAreSizedFromTheirHeaderAndChunksRespectByteLimit() {
+        List<Chunk> chunks = new ArrayList<>();
+        AudioFramer framer = new AudioFramer("aac", 1000, 1_000_000,
+                (data, off, len, micros) -> chunks.add(new Chunk(Arrays.copyOfRange(data, off, off + len), micros)));
+        for (int i = 0; i < 5; i++) {
+            byte[] frame = adtsFrame(300 + i);
+            framer.feed(frame, 0, frame.length);
+        }
+        framer.flush();
+
+        assertEquals(List.of(300 + 301 + 302, 303 + 304), chunks.stream().map(c -> c.data().length).toList(),
+                "下一帧放不下时提前输出，块不超过槽位大小");
+        assertEquals(3L * 1024 * 1_000_000 / 44100, chunks.get(0).micros());
+    }
+}
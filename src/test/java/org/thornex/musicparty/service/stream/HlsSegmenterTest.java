@@ -0,0 +1,60 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HlsSegmenterTest {
+
+    private static final int BYTES_PER_SECOND = 1000;
+
+    @Test
+    void cutsSegmentsByDurationAndPrefixesId3Timestamp() {
+        HlsSegmenter hls = new HlsSegmenter(BYTES_PER_SECOND, 2, 3, "mp3");
+
+        hls.append(new byte[5000], 0, 5000);
+
+        assertNotNull(hls.segment(0));
+        assertNotNull(hls.segment(1));
+        assertNull(hls.segment(2), "未满一段的数据不应封口");
+        byte[] second = hls.segment(1).data();
+        assertEquals("ID3", new String(second, 0, 3, StandardCharsets.ISO_8859_1));
+        // 第二段起始于 2s：90kHz 时间戳 = 180000，位于标签末 8 字节
+        long pts = 0;
+        for (int i = second.length - 2000 - 8; i < second.length - 2000; i++) {
+            pts = (pts << 8) | (second[i] & 0xFF);
+        }
+        assertEquals(180_000, pts);
+    }
+
+    @Test
+    void playlistRollsAndKeepsOlderSegmentsFetchable() {
+        HlsSegmenter hls = new HlsSegmenter(BYTES_PER_SECOND, 1, 3, "mp3");
+
+        hls.append(new byte[10_000], 0, 10_000);
+
+        String playlist = hls.playlist();
+        assertTrue(playlist.contains("#EXT-X-MEDIA-SEQUENCE:7"));
+        assertTrue(playlist.contains("9.mp3"));
+        assertFalse(playlist.contains("\n6.mp3"));
+        assertTrue(hls.playlist("?t=abc").contains("\n9.mp3?t=abc\n"), "分段 URI 带上分段令牌");
+        assertNotNull(hls.segment(4), "播放列表外仍保留一个窗口，供拿着旧列表的播放器取用");
+        assertNull(hls.segment(3));
+    }
+
+    @Test
+    void discontinuitySealsPartialSegmentAndTagsNext() {
+        HlsSegmenter hls = new HlsSegmenter(BYTES_PER_SECOND, 4, 3, "aac");
+
+        hls.append(new byte[1500], 0, 1500);
+        hls.discontinuity();
+        hls.append(new byte[4000], 0, 4000);
+
+        String playlist = hls.playlist();
+        assertTrue(playlist.contains("#EXTINF:1.500,\n0.aac"));
+        assertTrue(playlist.contains("#EXT-X-DISCONTINUITY\n#EXTINF:4.000,\n1.aac"));
+        assertTrue(playlist.contains("#EXT-X-DISCONTINUITY-SEQUENCE:0"));
+    }
+}
@@ -0,0 +1,73 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PcmCacheTest {
+
+    private static final int BLOCK = PcmCache.BLOCK_BYTES;
+
+    /** 第 i 个字节的值 = i / FRAME_SIZE 的低 8 位：读回时可据此核对偏移。 */
+    private static byte[] pcm(long from, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((from + i) / PcmDecoder.FRAME_SIZE);
+        }
+        return data;
+    }
+
+    @Test
+    void fullyDecodedSongIsServedFromAnyOffset() throws Exception {
+        PcmCache cache = new PcmCache(10L * BLOCK);
+        PcmCache.Entry entry = cache.entry("file:a#a");
+        int length = BLOCK * 2 + BLOCK / 2;
+        PcmCache.Writer writer = entry.writer(0);
+        writer.write(pcm(0, length), length);
+        assertFalse(entry.isCompleteFrom(0), "未播完前不知道结尾");
+        writer.close(true);
+
+        long seek = PcmCache.offsetOf(1500);
+        assertTrue(entry.isCompleteFrom(seek));
+        assertEquals(length, entry.contiguousEnd(seek));
+        try (InputStream in = entry.openStream(seek, length)) {
+            assertArrayEquals(pcm(seek, (int) (length - seek)), in.readAllBytes());
+        }
+        assertEquals(length, cache.stats().bytes());
+    }
+
+    @Test
+    void decoderStartedMidBlockCachesFromNextBoundary() {
+        PcmCache cache = new PcmCache(10L * BLOCK);
+        PcmCache.Entry entry = cache.entry("file:a#a");
+        long start = PcmCache.offsetOf(500);
+        PcmCache.Writer writer = entry.writer(start);
+        int length = BLOCK * 2;
+        writer.write(pcm(start, length), length);
+        writer.close(false);
+
+        assertEquals(start, entry.contiguousEnd(start), "第一块不完整，不缓存");
+        assertEquals(2L * BLOCK, entry.contiguousEnd(BLOCK), "只有第二块完整");
+        assertFalse(entry.isCompleteFrom(BLOCK), "被中途关闭的解码器不记录结尾");
+    }
+
+    @Test
+    void leastRecentlyUsedSongIsEvictedButActiveWriterIsKept() {
+        PcmCache cache = new PcmCache(2L * BLOCK);
+        PcmCache.Writer first = cache.entry("a").writer(0);
+        first.write(pcm(0, BLOCK), BLOCK);
+        first.close(true);
+        PcmCache.Writer second = cache.entry("b").writer(0);
+        second.write(pcm(0, BLOCK), BLOCK);
+
+        PcmCache.Writer third = cache.entry("c").writer(0);
+        third.write(pcm(0, BLOCK), BLOCK);
+
+        assertEquals(0, cache.entry("a").contiguousEnd(0), "最久未用且无写入者的条目被淘汰");
+        assertEquals(BLOCK, cache.entry("b").contiguousEnd(0));
+        assertEquals(BLOCK, cache.entry("c").contiguousEnd(0));
+        assertEquals(1, cache.stats().evictions());
+    }
+}
@@ -3,7 +3,7 @@ package org.thornex.musicparty.service.stream;
 import org.junit.jupiter.api.Test;
 import org.thornex.musicparty.config.AppProperties;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -17,31 +17,36 @@ import static org.junit.jupiter.api.Assertions.*;
  * 直播流广播核心的单元测试：
  * <ul>
  *   <li>慢客户端不阻塞广播线程、不影响其他客户端（HOL 隔离）；</li>
- *   <li>缓冲满时 drop-oldest 保持连接；</li>
+ *   <li>持续不可写的连接在写阻塞超时后被断开；</li>
+ *   <li>落后超过缓冲块数时 drop-oldest 保持连接；</li>
  *   <li>removeClient 幂等，回调恰好一次。</li>
  * </ul>
  */
 class StreamBroadcasterTest {
 
-    /** 假 StreamSink：可阻塞模拟慢客户端，可计数模拟正常客户端。 */
+    /** 假 StreamSink：可设为不可写模拟慢客户端，可计数模拟正常客户端。 */
     static class RecordingSink implements StreamSink {
         final List<byte[]> received = new CopyOnWriteArrayList<>();
-        /** 非空时，send 阻塞直到其计数归零（模拟慢/卡住的客户端）。 */
-        CountDownLatch gate;
-        /** 非空时，每次成功 send 后计数一次（用于确定性等待）。 */
+        /** false 时模拟对端不读取、连接不可写（写线程不会取走数据，便于确定性验证游标）。 */
+        volatile boolean ready = true;
+        /** 非空时，每次成功 write 后计数一次（用于确定性等待）。 */
         CountDownLatch delivered;
 
+        RecordingSink() {
+        }
+
+        RecordingSink(boolean ready) {
+            this.ready = ready;
+        }
+
         @Override
-        public void send(byte[] data) throws IOException {
-            if (gate != null) {
-                try {
-                    gate.await();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException(e);
-                }
-            }
-            received.add(data);
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void write(byte[] data, int length) {
+            received.add(Arrays.copyOf(data, length)); // 发送缓冲会被复用，须拷贝
             if (delivered != null) {
                 delivered.countDown();
             }
@@ -56,23 +61,33 @@ class StreamBroadcasterTest {
     private static AppProperties.StreamConfig config(int bufferChunks) {
         AppProperties.StreamConfig cfg = new AppProperties.StreamConfig();
         cfg.setBufferChunks(bufferChunks);
+        cfg.setChunkSizeBytes(16);
         return cfg;
     }
 
+    /** 读出客户端当前待发送的全部块（连接不可写、写线程不会取走数据的客户端）。 */
+    private static List<byte[]> drain(StreamClient client) {
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] buf = new byte[16];
+        int n;
+        while ((n = client.poll(buf)) >= 0) {
+            chunks.add(Arrays.copyOf(buf, n));
+        }
+        return chunks;
+    }
+
     @Test
     void slowClientDoesNotBlockBroadcastOrOthers() throws Exception {
-        StreamBroadcaster broadcaster = new StreamBroadcaster();
-        CountDownLatch releaseSlow = new CountDownLatch(1);
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(32));
 
-        // 慢客户端：send 阻塞直到释放
-        RecordingSink slowSink = new RecordingSink();
-        slowSink.gate = releaseSlow;
-        StreamClient slow = new StreamClient(slowSink, "1.2.3.4", config(32), true);
+        // 慢客户端：连接一直不可写
+        RecordingSink slowSink = new RecordingSink(false);
+        StreamClient slow = new StreamClient(slowSink, "1.2.3.4", config(32));
 
-        // 正常客户端：send 后立刻通知
+        // 正常客户端：write 后立刻通知
         RecordingSink fastSink = new RecordingSink();
         fastSink.delivered = new CountDownLatch(1);
-        StreamClient fast = new StreamClient(fastSink, "5.6.7.8", config(32), true);
+        StreamClient fast = new StreamClient(fastSink, "5.6.7.8", config(32));
 
         broadcaster.addClient(slow);
         broadcaster.addClient(fast);
@@ -80,45 +95,143 @@ class StreamBroadcasterTest {
         byte[] chunk = new byte[]{1, 2, 3, 4};
         broadcaster.broadcast(chunk); // 返回即非阻塞
 
-        // 慢客户端仍阻塞在 send 中，正常客户端已收到数据
+        // 慢客户端不可写，正常客户端已收到数据
         assertTrue(fastSink.delivered.await(2, TimeUnit.SECONDS), "正常客户端应收到数据");
         assertFalse(slow.isClosed(), "慢客户端不应被断开");
+        assertTrue(slowSink.received.isEmpty());
         assertEquals(2, broadcaster.getClientCount());
 
-        // 释放慢客户端，让其泵线程退出，避免测试线程泄漏
-        releaseSlow.countDown();
-        slow.close();
-        fast.close();
+        // 慢客户端恢复可写后补上缓冲的数据
+        slowSink.delivered = new CountDownLatch(1);
+        slowSink.ready = true;
+        slow.wake();
+        assertTrue(slowSink.delivered.await(2, TimeUnit.SECONDS), "恢复可写后应继续发送");
+        broadcaster.closeAll();
+    }
+
+    @Test
+    void writeStalledClientIsDisconnected() throws Exception {
+        AppProperties.StreamConfig cfg = config(8);
+        cfg.setWriteStallTimeoutMs(50);
+        StreamBroadcaster broadcaster = new StreamBroadcaster(cfg);
+        CountDownLatch removed = new CountDownLatch(1);
+        broadcaster.setOnClientRemoved(c -> removed.countDown());
+
+        StreamClient stalled = new StreamClient(new RecordingSink(false), "1.2.3.4", cfg);
+        broadcaster.addClient(stalled);
+        broadcaster.broadcast(new byte[]{1});
+
+        assertTrue(removed.await(2, TimeUnit.SECONDS), "持续不可写的连接应被断开");
+        assertTrue(stalled.isClosed());
+        assertTrue(stalled.isStalled());
+        assertEquals(1, broadcaster.getStallDisconnects());
+        assertEquals(0, broadcaster.getClientCount());
+        broadcaster.closeAll();
     }
 
     @Test
     void overflowDropsOldestAndKeepsConnection() {
-        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(3), false);
-        byte[] c1 = {1};
-        byte[] c2 = {2};
-        byte[] c3 = {3};
-        byte[] c4 = {4};
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(3));
+        StreamClient client = new StreamClient(new RecordingSink(false), "1.2.3.4", config(3));
+        broadcaster.addClient(client);
 
-        assertTrue(client.offer(c1));
-        assertTrue(client.offer(c2));
-        assertTrue(client.offer(c3));
-        assertTrue(client.offer(c4)); // 队列已满 → 丢弃最旧的 c1
+        broadcaster.broadcast(new byte[]{1});
+        broadcaster.broadcast(new byte[]{2});
+        broadcaster.broadcast(new byte[]{3});
+        broadcaster.broadcast(new byte[]{4}); // 落后超过 3 块 → 丢弃最旧的 c1
 
         assertFalse(client.isClosed(), "drop-oldest 不应断开连接");
         assertEquals(3, client.getBufferedChunks(), "缓冲应保持有界");
-        assertArrayEquals(new byte[]{2}, client.snapshot()[0]);
-        assertArrayEquals(new byte[]{3}, client.snapshot()[1]);
-        assertArrayEquals(new byte[]{4}, client.snapshot()[2]);
+        List<byte[]> chunks = drain(client);
+        assertEquals(3, chunks.size());
+        assertArrayEquals(new byte[]{2}, chunks.get(0));
+        assertArrayEquals(new byte[]{3}, chunks.get(1));
+        assertArrayEquals(new byte[]{4}, chunks.get(2));
+        assertEquals(1, client.getDroppedChunks());
         client.close();
     }
 
+    @Test
+    void connectionMetricsSurviveDisconnect() throws Exception {
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
+        RecordingSink sink = new RecordingSink();
+        sink.delivered = new CountDownLatch(2);
+        StreamClient client = new StreamClient(sink, "1.2.3.4", config(8));
+        broadcaster.addClient(client);
+        broadcaster.broadcast(new byte[]{1, 2, 3});
+        broadcaster.broadcast(new byte[]{4, 5});
+        assertTrue(sink.delivered.await(2, TimeUnit.SECONDS));
+        // 计数在 write 返回后才更新，与 delivered 之间有先后差
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (client.stats().bytesSent() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        StreamClient.Stats stats = client.stats();
+        assertEquals(5, stats.bytesSent());
+        assertTrue(stats.ttfbMs() >= 0, "已写出首字节");
+        assertTrue(stats.highWaterChunks() >= 1);
+        // 先断开：之后的广播不再写给它，累计发送量才是确定值
+        broadcaster.removeClient(client);
+
+        StreamClient idle = new StreamClient(new RecordingSink(false), "5.6.7.8", config(8));
+        broadcaster.addClient(idle);
+        broadcaster.broadcast(new byte[]{6});
+        broadcaster.broadcast(new byte[]{7});
+        drain(idle);
+        assertEquals(-1, idle.stats().ttfbMs(), "不可写的连接没有首字节");
+        assertEquals(4, idle.stats().highWaterChunks(), "预填的 2 块 + 新广播的 2 块");
+
+        StreamBroadcaster.Stats total = broadcaster.stats();
+        assertEquals(1, total.clients());
+        assertEquals(2, total.totalConnections());
+        assertEquals(5, total.bytesSent(), "已断开连接的发送量仍计入累计");
+        broadcaster.closeAll();
+    }
+
+    @Test
+    void clientLappedByRingSkipsToRecentAudio() {
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
+        StreamClient client = new StreamClient(new RecordingSink(false), "1.2.3.4", config(8));
+        broadcaster.addClient(client);
+
+        for (int i = 1; i <= 100; i++) {
+            broadcaster.broadcast(new byte[]{(byte) i}); // 远超环形缓冲容量
+        }
+
+        List<byte[]> chunks = drain(client);
+        assertEquals(8, chunks.size(), "套圈后只保留最近的缓冲块数");
+        assertArrayEquals(new byte[]{93}, chunks.get(0));
+        assertArrayEquals(new byte[]{100}, chunks.get(7));
+        assertFalse(client.isClosed());
+        client.close();
+    }
+
+    @Test
+    void ringMemoryDoesNotGrowWithListeners() {
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
+        long before = broadcaster.getRingBytes();
+        List<StreamClient> listeners = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            StreamClient client = new StreamClient(new RecordingSink(false), "10.0.0." + i, config(8));
+            broadcaster.addClient(client);
+            listeners.add(client);
+        }
+        broadcaster.broadcast(new byte[40]); // 超过块大小（16）→ 拆成 3 块
+
+        assertEquals(before, broadcaster.getRingBytes());
+        assertEquals(3, listeners.get(0).getBufferedChunks());
+        assertEquals(3, listeners.get(49).getBufferedChunks());
+        listeners.forEach(StreamClient::close);
+    }
+
     @Test
     void removeClientIsIdempotentAndCallbackFiresOnce() {
-        StreamBroadcaster broadcaster = new StreamBroadcaster();
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
         AtomicInteger removals = new AtomicInteger(0);
         broadcaster.setOnClientRemoved(c -> removals.incrementAndGet());
 
-        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(8), true);
+        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(8));
 
         broadcaster.addClient(client);
         assertTrue(broadcaster.removeClient(client));
@@ -130,65 +243,89 @@ class StreamBroadcasterTest {
     }
 
     @Test
-    void closedClientIsCleanedUpOnBroadcast() {
-        StreamBroadcaster broadcaster = new StreamBroadcaster();
+    void closedClientIsRemovedFromBroadcaster() {
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
         AtomicInteger removals = new AtomicInteger(0);
         broadcaster.setOnClientRemoved(c -> removals.incrementAndGet());
 
-        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(8), true);
+        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(8));
         broadcaster.addClient(client);
         client.close();
 
         broadcaster.broadcast(new byte[]{1, 2, 3});
-        assertEquals(0, broadcaster.getClientCount(), "已关闭客户端应在广播时被清理");
+        assertEquals(0, broadcaster.getClientCount(), "已关闭客户端应被清理");
         assertEquals(1, removals.get());
+        assertFalse(broadcaster.removeClient(client), "关闭回调已移除，再次移除应幂等");
 
         client.close(); // 幂等，无副作用
     }
 
     @Test
     void flushClearsBufferedAudio() {
-        StreamClient client = new StreamClient(new RecordingSink(), "1.2.3.4", config(3), false);
-        client.offer(new byte[]{1});
-        client.offer(new byte[]{2});
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(3));
+        StreamClient client = new StreamClient(new RecordingSink(false), "1.2.3.4", config(3));
+        broadcaster.addClient(client);
+        broadcaster.broadcast(new byte[]{1});
+        broadcaster.broadcast(new byte[]{2});
         assertEquals(2, client.getBufferedChunks());
 
-        client.flush();
+        broadcaster.flushAll();
         assertEquals(0, client.getBufferedChunks());
-        assertTrue(Arrays.equals(client.snapshot(), new byte[0][]));
+        assertTrue(drain(client).isEmpty());
+
+        broadcaster.broadcast(new byte[]{3});
+        List<byte[]> after = drain(client);
+        assertEquals(1, after.size(), "flush 后只收到新音频");
+        assertArrayEquals(new byte[]{3}, after.get(0));
         client.close();
     }
 
     @Test
     void broadcastWithNoClientsStillKeepsRecentChunks() {
-        StreamBroadcaster broadcaster = new StreamBroadcaster();
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
         for (int i = 1; i <= 10; i++) {
             broadcaster.broadcast(new byte[]{(byte) i}); // 无监听者
         }
         // 新客户端加入即被预填最近 8 块（c3..c10），无需等待下一次广播
-        StreamClient client = new StreamClient(new RecordingSink(), "9.9.9.9", config(8), false);
+        StreamClient client = new StreamClient(new RecordingSink(false), "9.9.9.9", config(8));
+        broadcaster.addClient(client);
+        List<byte[]> snap = drain(client);
+        assertEquals(8, snap.size(), "首连应预填最近 8 块音频");
+        assertArrayEquals(new byte[]{3}, snap.get(0), "预填应从最近缓冲的最旧块开始");
+        assertArrayEquals(new byte[]{10}, snap.get(7), "预填应包含最新的块");
+        client.close();
+    }
+
+    @Test
+    void newClientIsPrimedByAudioDurationNotChunkCount() {
+        AppProperties.StreamConfig cfg = config(32);
+        cfg.setBurstOnConnectMs(2000);
+        StreamBroadcaster broadcaster = new StreamBroadcaster(cfg);
+        for (int i = 1; i <= 10; i++) {
+            broadcaster.broadcast(new byte[]{(byte) i}, 0, 1, 500_000); // 每块 500ms
+        }
+        StreamClient client = new StreamClient(new RecordingSink(false), "9.9.9.9", cfg);
         broadcaster.addClient(client);
-        byte[][] snap = client.snapshot();
-        assertEquals(8, snap.length, "首连应预填最近 8 块音频");
-        assertArrayEquals(new byte[]{3}, snap[0], "预填应从最近缓冲的最旧块开始");
-        assertArrayEquals(new byte[]{10}, snap[7], "预填应包含最新的块");
+        List<byte[]> snap = drain(client);
+        assertEquals(4, snap.size(), "2s 预填 = 4 块 500ms");
+        assertArrayEquals(new byte[]{7}, snap.get(0));
         client.close();
     }
 
     @Test
     void flushClearsRecentChunksSoNewClientIsNotPrimedWithStaleAudio() {
-        StreamBroadcaster broadcaster = new StreamBroadcaster();
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config(8));
         broadcaster.broadcast(new byte[]{1});
         broadcaster.broadcast(new byte[]{2});
 
-        StreamClient before = new StreamClient(new RecordingSink(), "9.9.9.9", config(8), false);
+        StreamClient before = new StreamClient(new RecordingSink(false), "9.9.9.9", config(8));
         broadcaster.addClient(before);
-        assertEquals(2, before.snapshot().length, "flush 前新客户端应拿到最近音频");
+        assertEquals(2, drain(before).size(), "flush 前新客户端应拿到最近音频");
 
         broadcaster.flushAll(); // 切歌/暂停：清空环形缓冲
-        StreamClient after = new StreamClient(new RecordingSink(), "8.8.8.8", config(8), false);
+        StreamClient after = new StreamClient(new RecordingSink(false), "8.8.8.8", config(8));
         broadcaster.addClient(after);
-        assertEquals(0, after.snapshot().length, "flush 后新客户端不应被预填旧歌音频");
+        assertEquals(0, drain(after).size(), "flush 后新客户端不应被预填旧歌音频");
 
         before.close();
         after.close();
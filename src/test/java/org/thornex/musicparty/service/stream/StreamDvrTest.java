@@ -0,0 +1,92 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.thornex.musicparty.config.AppProperties;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamDvrTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private static byte[] chunk(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    void wrapsAroundFileAndEvictsOverwrittenChunks() throws Exception {
+        try (StreamDvr dvr = new StreamDvr(dir.resolve("a.dvr"), 100, 16, clock::get)) {
+            for (int i = 0; i < 5; i++) {
+                dvr.append(chunk(30, i + 1), 0, 30, 1_000_000);
+            }
+
+            // 写到 150 字节：起始于 0 和 30 的块已被覆盖
+            assertEquals(2, dvr.floor());
+            assertEquals(5, dvr.head());
+            byte[] dst = new byte[64];
+            assertEquals(StreamRingBuffer.LAPPED, dvr.read(1, dst));
+            assertEquals(30, dvr.read(3, dst), "跨越文件末尾的块首尾拼接读出");
+            for (int i = 0; i < 30; i++) {
+                assertEquals(4, dst[i]);
+            }
+        }
+    }
+
+    @Test
+    void viewLagsLiveByDelayAndClampsToRetainedRange() throws Exception {
+        try (StreamDvr dvr = new StreamDvr(dir.resolve("b.dvr"), 10_000, 64, clock::get)) {
+            for (int i = 0; i < 10; i++) {
+                clock.set(i * 1000L);
+                dvr.append(chunk(10, i), 0, 10, 1_000_000);
+            }
+
+            StreamDvr.View view = dvr.view(3000);
+            assertEquals(7, view.head(), "只有 6s 及之前发布的块可读");
+            assertEquals(5, view.burstStart(2000));
+            clock.set(10_000);
+            assertEquals(8, view.head(), "可读上界随时间推进");
+
+            StreamDvr.View oldest = dvr.view(3_600_000);
+            assertEquals(10_000, oldest.getDelayMs(), "超出保留范围时从最早保留的音频开始");
+            assertEquals(1, oldest.head());
+        }
+    }
+
+    @Test
+    void timeShiftedClientReceivesPastAudioThenNothingAheadOfDelay() throws Exception {
+        AppProperties.StreamConfig config = new AppProperties.StreamConfig();
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config);
+        try (StreamDvr dvr = new StreamDvr(dir.resolve("c.dvr"), 10_000, 64, clock::get)) {
+            for (int i = 0; i < 20; i++) {
+                clock.set(i * 1000L);
+                dvr.append(chunk(10, i), 0, 10, 1_000_000);
+                broadcaster.broadcast(chunk(10, i), 0, 10, 1_000_000);
+            }
+
+            StreamClient client = new StreamClient(new StreamBroadcasterTest.RecordingSink(false), "1.2.3.4", config);
+            broadcaster.addClient(client, dvr.view(10_000));
+            byte[] dst = new byte[64];
+            int first = -1;
+            int last = -1;
+            while (client.poll(dst) > 0) {
+                first = first < 0 ? dst[0] : first;
+                last = dst[0];
+            }
+            // 视图位于 9s：预填 8s（2s..9s 发布的块），不包含更新的直播音频
+            assertEquals(2, first);
+            assertEquals(9, last);
+        } finally {
+            broadcaster.closeAll();
+        }
+    }
+}
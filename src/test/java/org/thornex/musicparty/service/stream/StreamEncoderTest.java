@@ -0,0 +1,118 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.thornex.musicparty.config.AppProperties;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StreamEncoderTest {
+
+    private final List<String> switches = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private StreamEncoder encoder() {
+        StreamRendition r = new StreamRendition(new AppProperties.RenditionConfig("128", "mp3", 128),
+                new StreamBroadcaster(new AppProperties.StreamConfig()));
+        return new StreamEncoder(() -> "ffmpeg", List.of(r), r, 4096, 1000, 0, executor, new StreamEncoder.Listener() {
+            @Override
+            public void onSwitched(PcmDecoder from, PcmDecoder to, long gapMs) {
+                switches.add((from == null ? "-" : from.musicId()) + ">" + to.musicId() + ":" + gapMs);
+            }
+
+            @Override
+            public void onEnded(PcmDecoder decoder) {
+            }
+
+            @Override
+            public void onExit() {
+            }
+        });
+    }
+
+    /** 解码器进程以退出码 0 输出 length 字节的 value 后结束；时长未知（0），读空即视为自然播完。 */
+    private static PcmDecoder decoder(String musicId, int length, int value) throws Exception {
+        byte[] pcm = new byte[length];
+        Arrays.fill(pcm, (byte) value);
+        Process process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(pcm));
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        when(process.exitValue()).thenReturn(0);
+        return new PcmDecoder(process, "file:" + musicId, musicId, 0, 0, 1, false);
+    }
+
+    @Test
+    void cuedDecoderContinuesSampleAccuratelyAtNaturalEnd() throws Exception {
+        StreamEncoder encoder = encoder();
+        PcmDecoder a = decoder("a", 1000, 1);
+        PcmDecoder b = decoder("b", 8000, 2);
+        a.pump();
+        b.pump();
+        encoder.switchTo(a, 0);
+        encoder.cue(b);
+
+        byte[] frame = new byte[StreamEncoder.FRAME_BYTES];
+        encoder.fillFrame(frame);
+
+        assertEquals(1, frame[999]);
+        assertEquals(2, frame[1000], "上一首最后一个采样之后紧接下一首，中间没有静音");
+        assertEquals(2, frame[frame.length - 1]);
+        assertSame(b, encoder.current());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(List.of("a>b:0"), switches);
+    }
+
+    @Test
+    void seekKeepsOldDecoderPlayingUntilNewOneHasData() throws Exception {
+        StreamEncoder encoder = encoder();
+        PcmDecoder old = decoder("a", 20000, 1);
+        PcmDecoder seeked = decoder("a", 8000, 3);
+        old.pump();
+        encoder.switchTo(old, 0);
+        byte[] frame = new byte[StreamEncoder.FRAME_BYTES];
+        encoder.fillFrame(frame);
+
+        encoder.switchTo(seeked, 0);
+        encoder.fillFrame(frame);
+        assertEquals(1, frame[frame.length - 1], "新解码器未就绪前旧解码器继续输出");
+        assertSame(old, encoder.current());
+
+        seeked.pump();
+        encoder.fillFrame(frame);
+        assertEquals(3, frame[0]);
+        assertSame(seeked, encoder.current());
+        assertEquals(0, encoder.getUnderrunFrames());
+        executor.shutdown();
+    }
+
+    @Test
+    void warmStartBurstOnlyCountsFullAudioFrames() throws Exception {
+        StreamEncoder encoder = encoder();
+        encoder.burst(50); // 2 帧
+        byte[] frame = new byte[StreamEncoder.FRAME_BYTES];
+        assertFalse(encoder.consumeBurst(encoder.fillFrame(frame)), "无解码器（静音）不消耗突发额度");
+
+        PcmDecoder a = decoder("a", StreamEncoder.FRAME_BYTES * 3 + 100, 1);
+        a.pump();
+        encoder.switchTo(a, 0);
+        assertTrue(encoder.consumeBurst(encoder.fillFrame(frame)));
+        assertTrue(encoder.consumeBurst(encoder.fillFrame(frame)));
+        assertFalse(encoder.consumeBurst(encoder.fillFrame(frame)), "额度用完后恢复按实时节拍");
+
+        encoder.burst(1000);
+        assertFalse(encoder.consumeBurst(encoder.fillFrame(frame)), "只含部分音频的帧（欠载）不计入突发");
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,310 @@
+package org.thornex.musicparty.service.stream;
+
+import org.thornex.musicparty.config.AppProperties;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 电台分发压测：用成千上万个合成 {@link StreamSink} 收听者驱动真实的 {@link StreamBroadcaster} / {@link StreamClient}，
+ * 按固定节拍发布静音（或循环读取的本地文件）块，报告吞吐、每收听者 CPU、丢块率与投递延迟分位数。
+ * <p>
+ * 收听者分三类：FAST 始终可写；SLOW 按限定速率读取（令牌桶），落后后触发 drop-oldest；
+ * STALLED 从不可写，应在写阻塞超时后被断开。每块前 8 字节写入序号，收听者据此算出发布到写出的延迟。
+ * <p>
+ * 命令行运行（参数均为系统属性，见 {@link Options#fromSystemProperties()}）：
+ * <pre>
+ * mvn test -Dtest=StreamLoadHarnessTest -Dstream.load=true -Dstream.load.fast=5000 -Dstream.load.slow=500
+ * </pre>
+ */
+final class StreamLoadHarness {
+
+    /** 压测参数。 */
+    record Options(int fastListeners, int slowListeners, int stalledListeners,
+                   double slowRateFraction, int chunks, long chunkDurationMs, int chunkBytes,
+                   double speedup, int bufferChunks, long writeStallTimeoutMs, int writerThreads,
+                   Path sourceFile) {
+
+        static Options fromSystemProperties() {
+            String file = System.getProperty("stream.load.file");
+            return new Options(
+                    Integer.getInteger("stream.load.fast", 2000),
+                    Integer.getInteger("stream.load.slow", 200),
+                    Integer.getInteger("stream.load.stalled", 50),
+                    Double.parseDouble(System.getProperty("stream.load.slowRate", "0.5")),
+                    Integer.getInteger("stream.load.chunks", 300),
+                    Long.getLong("stream.load.chunkMs", 100L),
+                    Integer.getInteger("stream.load.chunkBytes", 1600),
+                    Double.parseDouble(System.getProperty("stream.load.speedup", "1")),
+                    Integer.getInteger("stream.load.bufferChunks", 32),
+                    Long.getLong("stream.load.stallTimeoutMs", 2000L),
+                    Integer.getInteger("stream.load.writerThreads", 0),
+                    file != null ? Path.of(file) : null);
+        }
+    }
+
+    enum Profile { FAST, SLOW, STALLED }
+
+    /** 一类收听者的汇总。dropRate = 丢弃块数 / 发布块数 / 人数；延迟为发布到写出，按类型分开统计（慢收听者的延迟主要是排队）。 */
+    record ProfileReport(int listeners, long chunksDelivered, long bytesDelivered, long droppedChunks,
+                         double dropRate, int disconnected,
+                         double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+    }
+
+    record Report(int listeners, long wallMs, int chunksPublished, double deliveredMbPerSec, double chunksPerSec,
+                  double cpuPercent, double cpuMicrosPerListenerSecond,
+                  Map<Profile, ProfileReport> profiles) {
+
+        String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("listeners=%d wall=%dms chunks=%d throughput=%.1fMB/s (%.0f chunks/s)%n",
+                    listeners, wallMs, chunksPublished, deliveredMbPerSec, chunksPerSec));
+            sb.append(String.format("cpu=%.0f%% (%.1fus per listener-second)%n", cpuPercent, cpuMicrosPerListenerSecond));
+            profiles.forEach((profile, r) -> sb.append(String.format(
+                    "%-7s n=%-6d delivered=%-9d dropped=%-8d dropRate=%.3f disconnected=%-6d"
+                            + " latency p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms%n",
+                    profile, r.listeners(), r.chunksDelivered(), r.droppedChunks(), r.dropRate(), r.disconnected(),
+                    r.p50Ms(), r.p99Ms(), r.p999Ms(), r.maxMs())));
+            return sb.toString();
+        }
+    }
+
+    /** 发布到写出的延迟直方图：100µs 一档，上限 10s（更大的归入最后一档）。 */
+    static final class LatencyHistogram {
+
+        private static final long BUCKET_NANOS = 100_000;
+        private final AtomicLongArray buckets = new AtomicLongArray(100_001);
+
+        void record(long nanos) {
+            buckets.incrementAndGet((int) Math.min(buckets.length() - 1, Math.max(0, nanos) / BUCKET_NANOS));
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            return total;
+        }
+
+        /** 分位数（毫秒，取所在档位上沿）；无样本时返回 0。 */
+        double percentileMs(double p) {
+            long total = count();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return (i + 1) * BUCKET_NANOS / 1e6;
+                }
+            }
+            return buckets.length() * BUCKET_NANOS / 1e6;
+        }
+    }
+
+    /** 合成收听者：按类型决定可写性，记录收到的块与延迟。 */
+    static final class SyntheticSink implements StreamSink {
+
+        final Profile profile;
+        private final long bytesPerSecond;
+        private final long[] publishNanos;
+        private final LatencyHistogram latency;
+        private volatile Runnable writableListener;
+        private long tokens;
+        private long lastRefillNanos = System.nanoTime();
+        volatile long chunksDelivered;
+        volatile long bytesDelivered;
+
+        SyntheticSink(Profile profile, long bytesPerSecond, long[] publishNanos, LatencyHistogram latency) {
+            this.profile = profile;
+            this.bytesPerSecond = bytesPerSecond;
+            this.publishNanos = publishNanos;
+            this.latency = latency;
+        }
+
+        @Override
+        public synchronized boolean isReady() {
+            return switch (profile) {
+                case FAST -> true;
+                case STALLED -> false;
+                case SLOW -> {
+                    long now = System.nanoTime();
+                    tokens = Math.min(tokens + (now - lastRefillNanos) * bytesPerSecond / 1_000_000_000L, bytesPerSecond);
+                    lastRefillNanos = now;
+                    yield tokens > 0;
+                }
+            };
+        }
+
+        @Override
+        public synchronized void write(byte[] data, int length) {
+            long now = System.nanoTime();
+            tokens -= length;
+            chunksDelivered++;
+            bytesDelivered += length;
+            long seq = ByteBuffer.wrap(data, 0, Long.BYTES).getLong();
+            if (seq >= 0 && seq < publishNanos.length) {
+                latency.record(now - publishNanos[(int) seq]);
+            }
+        }
+
+        @Override
+        public void setWritableListener(Runnable listener) {
+            this.writableListener = listener;
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        /** 慢收听者的"对端读走了数据"：令牌补充后通知客户端继续写。 */
+        void tick() {
+            Runnable listener = writableListener;
+            if (listener != null && isReady()) {
+                listener.run();
+            }
+        }
+    }
+
+    private StreamLoadHarness() {
+    }
+
+    static Report run(Options options) throws IOException, InterruptedException {
+        AppProperties.StreamConfig config = new AppProperties.StreamConfig();
+        config.setChunkSizeBytes(options.chunkBytes());
+        config.setChunkDurationMs(options.chunkDurationMs());
+        config.setBufferChunks(options.bufferChunks());
+        config.setWriteStallTimeoutMs(options.writeStallTimeoutMs());
+        config.setWriterThreads(options.writerThreads());
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config);
+
+        byte[] source = options.sourceFile() != null ? Files.readAllBytes(options.sourceFile()) : new byte[0];
+        long[] publishNanos = new long[options.chunks()];
+        Map<Profile, LatencyHistogram> latency = new EnumMap<>(Profile.class);
+        for (Profile profile : Profile.values()) {
+            latency.put(profile, new LatencyHistogram());
+        }
+        long streamBytesPerSecond = options.chunkBytes() * 1000L / Math.max(1, options.chunkDurationMs());
+        long slowRate = Math.max(1, (long) (streamBytesPerSecond * options.speedup() * options.slowRateFraction()));
+
+        List<SyntheticSink> sinks = new ArrayList<>();
+        List<StreamClient> clients = new ArrayList<>();
+        ConcurrentLinkedQueue<SyntheticSink> slowSinks = new ConcurrentLinkedQueue<>();
+        addListeners(Profile.FAST, options.fastListeners(), 0, publishNanos, latency.get(Profile.FAST), sinks, null);
+        addListeners(Profile.SLOW, options.slowListeners(), slowRate, publishNanos, latency.get(Profile.SLOW), sinks, slowSinks);
+        addListeners(Profile.STALLED, options.stalledListeners(), 0, publishNanos, latency.get(Profile.STALLED), sinks, null);
+        for (int i = 0; i < sinks.size(); i++) {
+            StreamClient client = new StreamClient(sinks.get(i), "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF), config);
+            clients.add(client);
+            broadcaster.addClient(client);
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(() -> slowSinks.forEach(SyntheticSink::tick), 5, 5, TimeUnit.MILLISECONDS);
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        long intervalNanos = (long) (options.chunkDurationMs() * 1_000_000L / options.speedup());
+        byte[] chunk = new byte[options.chunkBytes()];
+        long sourcePos = 0;
+        for (int seq = 0; seq < options.chunks(); seq++) {
+            LockSupport.parkNanos(start + seq * intervalNanos - System.nanoTime());
+            for (int i = Long.BYTES; i < chunk.length && source.length > 0; i++) {
+                chunk[i] = source[(int) (sourcePos++ % source.length)];
+            }
+            ByteBuffer.wrap(chunk).putLong(0, seq);
+            publishNanos[seq] = System.nanoTime();
+            broadcaster.broadcast(chunk, 0, chunk.length, options.chunkDurationMs() * 1000);
+        }
+        // 等快收听者收完最后一块（最多一个块间隔 + 1s）
+        long drainDeadline = System.nanoTime() + intervalNanos + TimeUnit.SECONDS.toNanos(1);
+        while (System.nanoTime() < drainDeadline && !fastDrained(sinks, options.chunks())) {
+            Thread.sleep(5);
+        }
+        long wallNanos = System.nanoTime() - start;
+        long cpuNanos = os.getProcessCpuTime() - cpuStart;
+        ticker.shutdownNow();
+
+        Map<Profile, ProfileReport> profiles = new EnumMap<>(Profile.class);
+        long totalBytes = 0;
+        long totalChunks = 0;
+        for (Profile profile : Profile.values()) {
+            int n = 0;
+            int disconnected = 0;
+            long delivered = 0;
+            long bytes = 0;
+            long dropped = 0;
+            for (int i = 0; i < sinks.size(); i++) {
+                SyntheticSink sink = sinks.get(i);
+                if (sink.profile != profile) {
+                    continue;
+                }
+                n++;
+                delivered += sink.chunksDelivered;
+                bytes += sink.bytesDelivered;
+                dropped += clients.get(i).getDroppedChunks();
+                if (clients.get(i).isClosed()) {
+                    disconnected++;
+                }
+            }
+            totalBytes += bytes;
+            totalChunks += delivered;
+            LatencyHistogram histogram = latency.get(profile);
+            profiles.put(profile, new ProfileReport(n, delivered, bytes, dropped,
+                    n == 0 ? 0 : (double) dropped / options.chunks() / n, disconnected,
+                    histogram.percentileMs(0.5), histogram.percentileMs(0.99), histogram.percentileMs(0.999),
+                    histogram.percentileMs(1.0)));
+        }
+        broadcaster.closeAll();
+
+        double wallSeconds = wallNanos / 1e9;
+        int listeners = sinks.size();
+        double audioSeconds = options.chunks() * options.chunkDurationMs() / 1000.0;
+        return new Report(listeners, TimeUnit.NANOSECONDS.toMillis(wallNanos), options.chunks(),
+                totalBytes / wallSeconds / (1024 * 1024), totalChunks / wallSeconds,
+                cpuNanos * 100.0 / wallNanos,
+                listeners == 0 ? 0 : cpuNanos / 1000.0 / listeners / audioSeconds, profiles);
+    }
+
+    private static void addListeners(Profile profile, int count, long bytesPerSecond, long[] publishNanos,
+                                     LatencyHistogram latency, List<SyntheticSink> sinks,
+                                     ConcurrentLinkedQueue<SyntheticSink> ticked) {
+        for (int i = 0; i < count; i++) {
+            SyntheticSink sink = new SyntheticSink(profile, bytesPerSecond, publishNanos, latency);
+            sinks.add(sink);
+            if (ticked != null) {
+                ticked.add(sink);
+            }
+        }
+    }
+
+    private static boolean fastDrained(List<SyntheticSink> sinks, int chunks) {
+        for (SyntheticSink sink : sinks) {
+            if (sink.profile == Profile.FAST && sink.chunksDelivered < chunks) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.print(run(Options.fromSystemProperties()).format());
+    }
+}
@@ -0,0 +1,34 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamLoadHarnessTest {
+
+    /** 小规模冒烟：快收听者不丢块，慢收听者只丢块不断开，不可写的收听者被断开。 */
+    @Test
+    void smallFanOutBehavesPerListenerProfile() throws Exception {
+        StreamLoadHarness.Report report = StreamLoadHarness.run(new StreamLoadHarness.Options(
+                200, 20, 20, 0.25, 100, 10, 256, 1, 32, 300, 2, null));
+
+        StreamLoadHarness.ProfileReport fast = report.profiles().get(StreamLoadHarness.Profile.FAST);
+        StreamLoadHarness.ProfileReport slow = report.profiles().get(StreamLoadHarness.Profile.SLOW);
+        StreamLoadHarness.ProfileReport stalled = report.profiles().get(StreamLoadHarness.Profile.STALLED);
+        assertEquals(200L * 100, fast.chunksDelivered(), report.format());
+        assertEquals(0, fast.droppedChunks());
+        assertTrue(slow.droppedChunks() > 0, "读取速率只有码率 1/4 的收听者应触发 drop-oldest");
+        assertEquals(0, slow.disconnected(), "慢但仍在读取的连接不应被断开");
+        assertEquals(20, stalled.disconnected(), "不可写的连接应在写阻塞超时后断开");
+        assertEquals(0, stalled.chunksDelivered());
+        assertTrue(fast.p50Ms() > 0 && fast.p50Ms() <= fast.p99Ms());
+    }
+
+    /** 完整压测，默认不运行：mvn test -Dtest=StreamLoadHarnessTest -Dstream.load=true [-Dstream.load.fast=...] */
+    @Test
+    @EnabledIfSystemProperty(named = "stream.load", matches = "true")
+    void fullLoad() throws Exception {
+        System.out.print(StreamLoadHarness.run(StreamLoadHarness.Options.fromSystemProperties()).format());
+    }
+}
@@ -0,0 +1,28 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.thornex.musicparty.config.AppProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamRenditionTest {
+
+    private final AppProperties.StreamConfig config = new AppProperties.StreamConfig();
+
+    @Test
+    void aacRenditionUsesSelfSyncingAdts() {
+        StreamRendition r = new StreamRendition(new AppProperties.RenditionConfig("aac96", "AAC", 96),
+                new StreamBroadcaster(config));
+
+        assertEquals("audio/aac", r.getContentType());
+        assertTrue(String.join(" ", r.encoderArgs()).contains("-c:a aac -b:a 96k"));
+        assertEquals("adts", r.encoderArgs().get(r.encoderArgs().size() - 1), "中途加入的收听者须能从任意帧起播");
+        assertEquals(12000, r.getBytesPerSecond());
+    }
+
+    @Test
+    void unsupportedCodecIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamRendition(
+                new AppProperties.RenditionConfig("opus", "opus", 96), new StreamBroadcaster(config)));
+    }
+}
@@ -0,0 +1,460 @@
+package org.thornex.musicparty.service.stream;
+
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.context.ApplicationEventPublisher;
+import org.thornex.musicparty.config.AppProperties;
+import org.thornex.musicparty.config.LocalResourceConfig;
+import org.thornex.musicparty.dto.Music;
+import org.thornex.musicparty.dto.MusicQueueItem;
+import org.thornex.musicparty.dto.NowPlayingInfo;
+import org.thornex.musicparty.dto.PlayableMusic;
+import org.thornex.musicparty.dto.PlayerState;
+import org.thornex.musicparty.enums.CacheStatus;
+import org.thornex.musicparty.enums.QueueItemStatus;
+import org.thornex.musicparty.event.PlayerStateEvent;
+import org.thornex.musicparty.service.LocalCacheService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 切歌延迟基准：用真实的 {@link LiveStreamService}（真实 ffmpeg 解码 / 编码）回放脚本化的播放器事件——
+ * 起播、切到本地缓存的歌、切到网络源（本机 HTTP 替身，可注入首字节延迟模拟 CDN）、seek、暂停后恢复、
+ * 预滚动接续——报告每个场景从事件发出到首批真实音频字节送达收听者的耗时、切歌静音空窗与各原因的重启次数。
+ * <p>
+ * 收听者是一个记录块发布时刻的合成 {@link StreamSink}：以"新解码器首批 PCM 进入编码器"的时刻为界，
+ * 之后发布的第一块即含新音频。预滚动场景以上一首应当结束的时刻为事件时刻，≤0 表示在播放器切歌前已无缝接上。
+ * <p>
+ * 需要 ffmpeg。未指定音频文件时用 ffmpeg 生成测试音。命令行运行（参数均为系统属性，见 {@link Options#fromSystemProperties()}）：
+ * <pre>
+ * mvn test -Dtest=StreamSwitchBenchmarkTest -Dstream.switch=true -Dstream.switch.iterations=5 -Dstream.switch.httpDelayMs=800
+ * </pre>
+ */
+final class StreamSwitchBenchmark {
+
+    /** 基准参数。chunkDurationMs / pcmCacheMb 默认与线上配置一致，便于对比。 */
+    record Options(String ffmpegPath, int iterations, long httpDelayMs, long chunkDurationMs, int pcmCacheMb,
+                   boolean prerollEnabled, Path sourceFile) {
+
+        static Options fromSystemProperties() {
+            AppProperties.StreamConfig defaults = new AppProperties.StreamConfig();
+            String file = System.getProperty("stream.switch.file");
+            return new Options(
+                    System.getProperty("stream.switch.ffmpeg", "ffmpeg"),
+                    Integer.getInteger("stream.switch.iterations", 3),
+                    Long.getLong("stream.switch.httpDelayMs", 300L),
+                    Long.getLong("stream.switch.chunkMs", defaults.getChunkDurationMs()),
+                    Integer.getInteger("stream.switch.pcmCacheMb", defaults.getPcmCacheMb()),
+                    Boolean.parseBoolean(System.getProperty("stream.switch.preroll", "true")),
+                    file != null ? Path.of(file) : null);
+        }
+    }
+
+    enum Scenario { COLD_START, SONG_CHANGE_LOCAL, SONG_CHANGE_HTTP, SEEK, RESUME, PREROLL }
+
+    /** 单次测量。ttfbMs / audioInMs 为事件到首字节送达 / 首批 PCM 进入编码器的耗时，未观测到时为 -1；gapMs 仅切歌有值。 */
+    record Sample(long ttfbMs, long audioInMs, long gapMs, Map<StreamMetrics.RestartCause, Long> decoderStarts,
+                  long encoderStarts) {
+    }
+
+    /** 一个场景的汇总。 */
+    record ScenarioReport(int samples, long ttfbP50Ms, long ttfbMaxMs, long audioInP50Ms, long gapAvgMs, long gapMaxMs,
+                          Map<StreamMetrics.RestartCause, Long> decoderStarts, long encoderStarts, int timeouts) {
+    }
+
+    record Report(Map<Scenario, ScenarioReport> scenarios) {
+
+        String format() {
+            StringBuilder sb = new StringBuilder();
+            scenarios.forEach((scenario, r) -> sb.append(String.format(
+                    "%-17s n=%-3d ttfb p50=%-5d max=%-5d audioIn p50=%-5d gap avg=%-5d max=%-5d"
+                            + " timeouts=%d encoderStarts=%d decoderStarts=%s%n",
+                    scenario, r.samples(), r.ttfbP50Ms(), r.ttfbMaxMs(), r.audioInP50Ms(),
+                    r.gapAvgMs(), r.gapMaxMs(), r.timeouts(), r.encoderStarts(), r.decoderStarts())));
+            return sb.toString();
+        }
+    }
+
+    /** 等待新音频 / 首字节的上限 */
+    private static final long STEP_TIMEOUT_MS = 15_000;
+    private static final long SONG_MS = 60_000;
+    private static final long SHORT_SONG_MS = 10_000;
+
+    /** 记录每块发布时刻与送达时刻的收听者。 */
+    static final class ChunkLog implements StreamSink {
+
+        private final List<long[]> chunks = new ArrayList<>();
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void write(byte[] data, int length) {
+            writeChunk(data, length, -1, -1);
+        }
+
+        @Override
+        public synchronized void writeChunk(byte[] data, int length, long mediaMicros, long publishedMs) {
+            chunks.add(new long[]{publishedMs, System.currentTimeMillis()});
+        }
+
+        /** 发布时刻不早于 publishedAfterMs 的第一块的送达时刻，尚无时返回 -1。 */
+        synchronized long firstArrivalPublishedAfter(long publishedAfterMs) {
+            for (long[] chunk : chunks) {
+                if (chunk[0] >= publishedAfterMs) {
+                    return chunk[1];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void complete() {
+        }
+    }
+
+    /** 模拟播放器：按墙钟推进位置，事件与线上一样携带当前位置、暂停状态与顺序播放的队首。 */
+    private static final class Player {
+
+        private final LiveStreamService service;
+        private PlayableMusic song;
+        private Music next;
+        private long positionMs;
+        private long sinceMs;
+        private boolean paused;
+
+        Player(LiveStreamService service) {
+            this.service = service;
+        }
+
+        long position() {
+            return paused ? positionMs : positionMs + System.currentTimeMillis() - sinceMs;
+        }
+
+        void play(PlayableMusic song, long positionMs, Music next) {
+            this.song = song;
+            this.next = next;
+            this.positionMs = positionMs;
+            this.sinceMs = System.currentTimeMillis();
+            this.paused = false;
+            publish();
+        }
+
+        void seek(long positionMs) {
+            play(song, positionMs, next);
+        }
+
+        void pause() {
+            positionMs = position();
+            paused = true;
+            publish();
+        }
+
+        void resume() {
+            play(song, positionMs, next);
+        }
+
+        private void publish() {
+            List<MusicQueueItem> queue = next == null ? List.of()
+                    : List.of(new MusicQueueItem("q-" + next.id(), next, null, QueueItemStatus.READY));
+            NowPlayingInfo nowPlaying = new NowPlayingInfo(song, position(), null, null, Set.of(), List.of());
+            service.onPlayerState(new PlayerStateEvent(this, new PlayerState(nowPlaying, queue, "SEQUENTIAL",
+                    false, false, false, List.of(), paused, false, false, false, false,
+                    1, true, false, 0, 0, 0, 0, null)));
+        }
+    }
+
+    private StreamSwitchBenchmark() {
+    }
+
+    static Report run(Options options) throws Exception {
+        Path workDir = Paths.get(LocalResourceConfig.CACHE_DIR, "switch-bench-" + System.nanoTime());
+        Files.createDirectories(workDir);
+        HttpServer http = null;
+        LiveStreamService service = null;
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Path songA = prepareSong(options, workDir, "a", SONG_MS, 440);
+            Path songB = prepareSong(options, workDir, "b", SONG_MS, 550);
+            Path songC = prepareSong(options, workDir, "c", SONG_MS, 660);
+            Path songShort = prepareSong(options, workDir, "s", SHORT_SONG_MS, 770);
+
+            // 本机 HTTP 替身：首字节前等待 httpDelayMs，模拟网络源的连接与首包延迟
+            http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            http.createContext("/audio/", exchange -> {
+                Path file = workDir.resolve(exchange.getRequestURI().getPath().substring("/audio/".length()));
+                try (exchange) {
+                    if (!Files.exists(file)) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    Thread.sleep(options.httpDelayMs());
+                    exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+                    exchange.sendResponseHeaders(200, Files.size(file));
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        Files.copy(file, out);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException ignored) {
+                    // ffmpeg 切歌时主动断开
+                }
+            });
+            http.setExecutor(Executors.newCachedThreadPool());
+            http.start();
+            String httpBase = "http://127.0.0.1:" + http.getAddress().getPort() + "/audio/";
+
+            // 本地缓存：a / b / s 视为已缓存（file: 源），c 只能走网络
+            LocalCacheService cache = mock(LocalCacheService.class);
+            when(cache.getCacheEntry(anyString())).thenAnswer(inv -> {
+                String id = inv.getArgument(0);
+                return id.equals(idOf(songC)) ? null : cachedEntry(workDir, id);
+            });
+
+            AppProperties properties = new AppProperties();
+            properties.setFfmpegPath(options.ffmpegPath());
+            AppProperties.StreamConfig config = properties.getStream();
+            config.setChunkDurationMs(options.chunkDurationMs());
+            config.setPcmCacheMb(options.pcmCacheMb());
+            config.setPrerollEnabled(options.prerollEnabled());
+            config.setIdleHibernateMs(0);
+            service = new LiveStreamService(cache, mock(ApplicationEventPublisher.class), properties);
+            service.init();
+            LiveStreamService svc = service;
+            // 代替 Spring 调度：预滚动检查与看门狗按线上周期运行
+            ticker.scheduleAtFixedRate(svc::prerollCheck, 1000, 1000, TimeUnit.MILLISECONDS);
+            ticker.scheduleAtFixedRate(svc::transcodeWatchdog, 5000, 5000, TimeUnit.MILLISECONDS);
+
+            ChunkLog listener = new ChunkLog();
+            service.setEnabled(true);
+            service.addListener(new StreamClient(listener, "127.0.0.1", config), service.resolveRendition(null));
+            Player player = new Player(service);
+
+            PlayableMusic a = local(songA, SONG_MS);
+            PlayableMusic b = local(songB, SONG_MS);
+            PlayableMusic c = new PlayableMusic(idOf(songC), "c", List.of(), SONG_MS, "bench",
+                    httpBase + songC.getFileName(), null, false);
+            PlayableMusic shortSong = local(songShort, SHORT_SONG_MS);
+
+            Map<Scenario, List<Sample>> samples = new EnumMap<>(Scenario.class);
+            for (Scenario scenario : Scenario.values()) {
+                samples.put(scenario, new ArrayList<>());
+            }
+            samples.get(Scenario.COLD_START).add(measure(service, listener, () -> player.play(a, 0, null)));
+            for (int i = 0; i < options.iterations(); i++) {
+                settle();
+                samples.get(Scenario.SONG_CHANGE_LOCAL).add(measure(service, listener, () -> player.play(b, 0, null)));
+                settle();
+                samples.get(Scenario.SONG_CHANGE_HTTP).add(measure(service, listener, () -> player.play(c, 0, null)));
+                settle();
+                samples.get(Scenario.SEEK).add(measure(service, listener, () -> player.seek(player.position() + 20_000)));
+                settle();
+                player.pause();
+                settle();
+                samples.get(Scenario.RESUME).add(measure(service, listener, player::resume));
+                settle();
+                // 预滚动：短歌从结尾前 6s 播放、队首为 a；以短歌应当结束的时刻为事件时刻
+                long lead = 6000;
+                player.play(shortSong, SHORT_SONG_MS - lead, new Music(a.id(), a.name(), List.of(), SONG_MS, "bench", null));
+                long endAt = System.currentTimeMillis() + lead;
+                samples.get(Scenario.PREROLL).add(measure(service, listener, endAt, () -> {
+                    sleepUntil(endAt);
+                    player.play(a, 0, null);
+                }));
+            }
+
+            Map<Scenario, ScenarioReport> reports = new LinkedHashMap<>();
+            samples.forEach((scenario, list) -> reports.put(scenario, summarize(list)));
+            return new Report(reports);
+        } finally {
+            ticker.shutdownNow();
+            if (service != null) {
+                service.cleanup();
+            }
+            if (http != null) {
+                http.stop(0);
+            }
+            try (Stream<Path> files = Files.walk(workDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static Sample measure(LiveStreamService service, ChunkLog listener, Runnable action) throws InterruptedException {
+        return measure(service, listener, -1, action);
+    }
+
+    /**
+     * @param eventAtMs 事件时刻；为负时取 action 开始执行的时刻
+     */
+    private static Sample measure(LiveStreamService service, ChunkLog listener, long eventAtMs, Runnable action)
+            throws InterruptedException {
+        StreamMetrics.Report before = service.getMetrics();
+        long start = System.currentTimeMillis();
+        // 解码器每次首批 PCM 进入编码器都会记录一次启动延迟：以此为"新音频开始输出"的时刻。
+        // 与 action 并行观测：预滚动会在播放器切歌事件之前就接上
+        long startups = before.decoders().startups();
+        long[] audioIn = {-1};
+        Thread watcher = Thread.ofVirtual().start(() -> {
+            try {
+                audioIn[0] = waitFor(() -> service.getMetrics().decoders().startups() > startups, start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        action.run();
+        watcher.join();
+        long t0 = eventAtMs >= 0 ? eventAtMs : start;
+        long audioInAt = audioIn[0];
+        long firstByteAt = -1;
+        if (audioInAt >= 0) {
+            long threshold = audioInAt - POLL_MS; // 轮询粒度内发布的块也可能已含新音频
+            long[] arrival = new long[1];
+            waitFor(() -> (arrival[0] = listener.firstArrivalPublishedAfter(threshold)) >= 0, audioInAt);
+            firstByteAt = arrival[0];
+        }
+        StreamMetrics.Report after = service.getMetrics();
+        Map<StreamMetrics.RestartCause, Long> starts = new EnumMap<>(StreamMetrics.RestartCause.class);
+        after.decoders().decoderStarts().forEach((cause, count) -> {
+            long delta = count - before.decoders().decoderStarts().getOrDefault(cause, 0L);
+            if (delta > 0) {
+                starts.put(cause, delta);
+            }
+        });
+        long gap = after.switches().switches() > before.switches().switches() ? after.switches().lastGapMs() : -1;
+        return new Sample(firstByteAt >= 0 ? firstByteAt - t0 : -1, audioInAt >= 0 ? audioInAt - t0 : -1, gap,
+                starts, after.decoders().encoderStarts() - before.decoders().encoderStarts());
+    }
+
+    private static final long POLL_MS = 2;
+
+    /** 轮询直到条件成立，返回成立时刻；超时返回 -1。 */
+    private static long waitFor(BooleanSupplier condition, long sinceMs) throws InterruptedException {
+        while (System.currentTimeMillis() - sinceMs < STEP_TIMEOUT_MS) {
+            if (condition.getAsBoolean()) {
+                return System.currentTimeMillis();
+            }
+            Thread.sleep(POLL_MS);
+        }
+        return -1;
+    }
+
+    static ScenarioReport summarize(List<Sample> samples) {
+        List<Long> ttfb = samples.stream().map(Sample::ttfbMs).filter(v -> v != -1).sorted().toList();
+        List<Long> audioIn = samples.stream().map(Sample::audioInMs).filter(v -> v != -1).sorted().toList();
+        List<Long> gaps = samples.stream().map(Sample::gapMs).filter(v -> v >= 0).toList();
+        Map<StreamMetrics.RestartCause, Long> starts = new EnumMap<>(StreamMetrics.RestartCause.class);
+        long encoderStarts = 0;
+        for (Sample sample : samples) {
+            sample.decoderStarts().forEach((cause, count) -> starts.merge(cause, count, Long::sum));
+            encoderStarts += sample.encoderStarts();
+        }
+        return new ScenarioReport(samples.size(),
+                median(ttfb), ttfb.isEmpty() ? -1 : ttfb.get(ttfb.size() - 1), median(audioIn),
+                gaps.isEmpty() ? -1 : (long) gaps.stream().mapToLong(Long::longValue).average().orElse(0),
+                gaps.stream().mapToLong(Long::longValue).max().orElse(-1),
+                starts, encoderStarts, samples.size() - ttfb.size());
+    }
+
+    private static long median(List<Long> sorted) {
+        return sorted.isEmpty() ? -1 : sorted.get((sorted.size() - 1) / 2);
+    }
+
+    /** 切换之间留出时间：让上一步的解码器稳定输出、位置锚定完成。 */
+    private static void settle() throws InterruptedException {
+        Thread.sleep(3000);
+    }
+
+    private static void sleepUntil(long epochMs) {
+        long wait = epochMs - System.currentTimeMillis();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** 准备一首测试歌曲：截取指定源文件，或生成指定频率的正弦测试音。 */
+    private static Path prepareSong(Options options, Path dir, String name, long durationMs, int frequency)
+            throws IOException, InterruptedException {
+        Path out = dir.resolve(name + ".mp3");
+        List<String> command = new ArrayList<>(List.of(options.ffmpegPath(), "-hide_banner", "-loglevel", "error", "-y"));
+        if (options.sourceFile() != null) {
+            command.addAll(List.of("-i", options.sourceFile().toAbsolutePath().toString()));
+        } else {
+            command.addAll(List.of("-f", "lavfi", "-i", "sine=frequency=" + frequency + ":sample_rate=44100"));
+        }
+        command.addAll(List.of("-t", String.valueOf(durationMs / 1000.0), "-ac", "2", "-c:a", "libmp3lame", "-b:a", "192k",
+                out.toString()));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new IOException("ffmpeg failed to prepare " + name + ": " + output);
+        }
+        return out;
+    }
+
+    /** 已安装可用的 ffmpeg（基准依赖它解码 / 编码）。 */
+    static boolean ffmpegAvailable(String ffmpegPath) {
+        try {
+            Process process = new ProcessBuilder(ffmpegPath, "-version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String idOf(Path song) {
+        String name = song.getFileName().toString();
+        return "bench-" + name.substring(0, name.indexOf('.'));
+    }
+
+    private static LocalCacheService.CacheEntry cachedEntry(Path workDir, String id) {
+        String name = id.substring("bench-".length()) + ".mp3";
+        if (!Files.exists(workDir.resolve(name))) {
+            return null;
+        }
+        LocalCacheService.CacheEntry entry = new LocalCacheService.CacheEntry();
+        entry.setId(id);
+        entry.setFileName(workDir.getFileName() + "/" + name);
+        entry.setStatus(CacheStatus.COMPLETED);
+        return entry;
+    }
+
+    private static PlayableMusic local(Path song, long durationMs) {
+        String id = idOf(song);
+        return new PlayableMusic(id, id, List.of(), durationMs, "bench", "PENDING_DOWNLOAD", null, false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.print(run(Options.fromSystemProperties()).format());
+    }
+}
@@ -0,0 +1,41 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class StreamSwitchBenchmarkTest {
+
+    @Test
+    void summarizeSkipsTimeoutsAndSumsRestarts() {
+        StreamSwitchBenchmark.ScenarioReport report = StreamSwitchBenchmark.summarize(List.of(
+                new StreamSwitchBenchmark.Sample(300, 120, 40, Map.of(StreamMetrics.RestartCause.SOURCE_CHANGE, 1L), 0),
+                new StreamSwitchBenchmark.Sample(-1, -1, -1, Map.of(StreamMetrics.RestartCause.SOURCE_CHANGE, 1L), 0),
+                new StreamSwitchBenchmark.Sample(500, 200, 60, Map.of(StreamMetrics.RestartCause.SOURCE_CHANGE, 1L,
+                        StreamMetrics.RestartCause.CRASH, 1L), 1)));
+
+        assertEquals(3, report.samples());
+        assertEquals(1, report.timeouts());
+        assertEquals(300, report.ttfbP50Ms());
+        assertEquals(500, report.ttfbMaxMs());
+        assertEquals(50, report.gapAvgMs());
+        assertEquals(60, report.gapMaxMs());
+        assertEquals(3L, report.decoderStarts().get(StreamMetrics.RestartCause.SOURCE_CHANGE));
+        assertEquals(1L, report.decoderStarts().get(StreamMetrics.RestartCause.CRASH));
+        assertEquals(1, report.encoderStarts());
+    }
+
+    /** 完整基准，默认不运行（需要 ffmpeg）：mvn test -Dtest=StreamSwitchBenchmarkTest -Dstream.switch=true [-Dstream.switch.iterations=...] */
+    @Test
+    @EnabledIfSystemProperty(named = "stream.switch", matches = "true")
+    void fullBenchmark() throws Exception {
+        StreamSwitchBenchmark.Options options = StreamSwitchBenchmark.Options.fromSystemProperties();
+        assumeTrue(StreamSwitchBenchmark.ffmpegAvailable(options.ffmpegPath()), "ffmpeg not found: " + options.ffmpegPath());
+        System.out.print(StreamSwitchBenchmark.run(options).format());
+    }
+}
@@ -0,0 +1,87 @@
+package org.thornex.musicparty.service.stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.thornex.musicparty.config.AppProperties;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class StreamTokenServiceTest {
+
+    private final AppProperties props = new AppProperties();
+    private final WebClient webClient = mock(WebClient.class);
+    private final StreamTokenService service = new StreamTokenService(props, webClient);
+
+    @Test
+    void relayKeyIsAcceptedOnlyWhenConfigured() {
+        assertFalse(service.isRelayKey(""), "未配置中继密钥时不接受任何中继连接");
+        assertFalse(service.validateToken(""));
+
+        props.getStream().getRelay().setKey("relay-secret");
+        assertTrue(service.isRelayKey("relay-secret"));
+        assertTrue(service.validateToken("relay-secret"));
+        assertFalse(service.isRelayKey("relay-secre"));
+        assertFalse(service.isRelayKey(null));
+    }
+
+    @Test
+    void segmentTokenRotatesPerWindowAndIsBoundToRendition() {
+        String token = service.segmentToken("128", 60_000, 125_000);
+
+        assertEquals(token, service.segmentToken("128", 60_000, 179_999), "同一窗口内所有收听者共用同一个分段 URL");
+        assertTrue(service.validateSegmentToken("128", token, 60_000, 125_000));
+        assertTrue(service.validateSegmentToken("128", token, 60_000, 239_999), "上一窗口签发的令牌仍有效");
+        assertFalse(service.validateSegmentToken("128", token, 60_000, 240_000));
+        assertFalse(service.validateSegmentToken("64", token, 60_000, 125_000));
+        assertFalse(service.validateSegmentToken("128", null, 60_000, 125_000));
+        assertFalse(new StreamTokenService(props, webClient).validateSegmentToken("128", token, 60_000, 125_000),
+                "令牌只在签发它的实例上有效");
+    }
+
+    @Test
+    void relayRemembersRejectedTokensAndRateLimitsUpstreamValidation() {
+        props.getStream().getRelay().setUpstreamUrl("http://origin:8080");
+        props.getStream().getRelay().setKey("relay-secret");
+        AtomicInteger calls = new AtomicInteger();
+        WebClient upstream = WebClient.builder()
+                .exchangeFunction(request -> {
+                    calls.incrementAndGet();
+                    return Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build());
+                })
+                .build();
+        AtomicLong now = new AtomicLong(10_000);
+        StreamTokenService relay = new StreamTokenService(props, upstream, now::get);
+
+        assertFalse(relay.validateToken("random"));
+        assertFalse(relay.validateToken("random"));
+        assertEquals(1, calls.get());
+
+        // 记录过期后重新核验
+        now.addAndGet(31_000);
+        assertFalse(relay.validateToken("random"));
+        assertEquals(2, calls.get());
+
+        // 同一秒内大量不同的随机 key：只有限额内的请求到达上游
+        for (int i = 0; i < 100; i++) {
+            assertFalse(relay.validateToken("random-" + i));
+        }
+        assertEquals(2 + 19, calls.get(), "本秒已用掉 1 次核验，限额 20");
+    }
+
+    @Test
+    void originDoesNotConsultUpstreamForUnknownTokens() {
+        String token = service.generateToken("user-1");
+
+        assertTrue(service.validateToken(token));
+        assertFalse(service.validateToken("not-issued-here"));
+        verifyNoInteractions(webClient);
+    }
+}
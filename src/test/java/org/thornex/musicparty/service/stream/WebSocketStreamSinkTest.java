@@ -0,0 +1,72 @@
+package org.thornex.musicparty.service.stream;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.thornex.musicparty.config.AppProperties;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class WebSocketStreamSinkTest {
+
+    @Test
+    void sendsTimestampedChunksOneMessageAtATime() throws Exception {
+        Session session = mock(Session.class);
+        RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(remote);
+        WebSocketStreamSink sink = new WebSocketStreamSink(session);
+        AtomicInteger wakes = new AtomicInteger();
+        sink.setWritableListener(wakes::incrementAndGet);
+
+        sink.writeChunk(new byte[]{7, 8, 9}, 3, 1_500_000, 42);
+
+        ArgumentCaptor<ByteBuffer> message = ArgumentCaptor.forClass(ByteBuffer.class);
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+        verify(remote).sendBinary(message.capture(), handler.capture());
+        ByteBuffer sent = message.getValue();
+        assertEquals(WebSocketStreamSink.HEADER_BYTES + 3, sent.remaining());
+        assertEquals(1_500_000, sent.getLong());
+        assertEquals(42, sent.getLong());
+        assertEquals(9, sent.get(sent.position() + 2));
+        assertFalse(sink.isReady(), "上一条消息发送完成前不再写入");
+
+        handler.getValue().onResult(new SendResult());
+        assertTrue(sink.isReady());
+        assertEquals(1, wakes.get(), "发送完成唤醒写线程");
+    }
+
+    @Test
+    void clientTagsChunksWithRingTimestamps() throws Exception {
+        Session session = mock(Session.class);
+        RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAsyncRemote()).thenReturn(remote);
+        AppProperties.StreamConfig config = new AppProperties.StreamConfig();
+        StreamBroadcaster broadcaster = new StreamBroadcaster(config);
+        try {
+            for (int i = 0; i < 3; i++) {
+                broadcaster.broadcast(new byte[]{(byte) i}, 0, 1, 200_000);
+            }
+            // 只预填 300ms：最新两块（媒体时间 200ms、400ms 起）
+            StreamClient client = new StreamClient(new WebSocketStreamSink(session), "1.2.3.4", config, 300);
+            broadcaster.addClient(client);
+
+            // 写线程推进该连接；未收到发送完成回调前只会发出第一条
+            ArgumentCaptor<ByteBuffer> message = ArgumentCaptor.forClass(ByteBuffer.class);
+            verify(remote, timeout(1000)).sendBinary(message.capture(), any(SendHandler.class));
+            assertEquals(200_000, message.getValue().getLong(0));
+            verify(remote, after(100).times(1)).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        } finally {
+            broadcaster.closeAll();
+        }
+    }
+}